@@ -0,0 +1,44 @@
+package jua.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import jua.Interpreter;
+import jua.evaluator.LuaRuntimeException;
+import jua.parser.IllegalParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Whole programs from the source text to their output, on each engine
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InterpreterBenchmark {
+  @Param({"fib", "loops", "strings", "tables", "methods"})
+  private String workload;
+
+  @Param({"AST", "VM", "TIERED"})
+  private Interpreter.Engine engine;
+
+  private String program;
+
+  @Setup
+  public void setup() {
+    program = Workloads.load(workload);
+  }
+
+  @Benchmark
+  public String eval() throws IllegalParseException, LuaRuntimeException {
+    return Interpreter.eval(program, engine);
+  }
+}
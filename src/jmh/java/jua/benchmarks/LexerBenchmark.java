@@ -0,0 +1,40 @@
+package jua.benchmarks;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import jua.lexer.Lexer;
+import jua.token.Token;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LexerBenchmark {
+  @Param({"fib", "loops", "strings", "tables", "methods"})
+  private String workload;
+
+  private String program;
+
+  @Setup
+  public void setup() {
+    program = Workloads.load(workload);
+  }
+
+  @Benchmark
+  public ArrayList<Token> lex() {
+    return new Lexer(program).getNTokens(0);
+  }
+}
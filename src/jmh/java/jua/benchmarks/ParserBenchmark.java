@@ -0,0 +1,44 @@
+package jua.benchmarks;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import jua.ast.StatementList;
+import jua.lexer.Lexer;
+import jua.parser.IllegalParseException;
+import jua.parser.Parser;
+import jua.token.Token;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+  @Param({"fib", "loops", "strings", "tables", "methods"})
+  private String workload;
+
+  private ArrayList<Token> tokens;
+
+  @Setup
+  public void setup() {
+    tokens = new Lexer(Workloads.load(workload)).getNTokens(0);
+  }
+
+  // Includes the resolution of the locals, which is part of parse()
+  @Benchmark
+  public StatementList parse() throws IllegalParseException {
+    return new Parser(tokens).parse();
+  }
+}
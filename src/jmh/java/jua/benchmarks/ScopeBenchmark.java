@@ -0,0 +1,58 @@
+package jua.benchmarks;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import jua.evaluator.Scope;
+import jua.objects.LuaNumber;
+import jua.objects.LuaObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// jua.evaluator.Scope clashes with the JMH annotation, the latter is fully qualified
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScopeBenchmark {
+  private Scope root;
+  // three frames below the root
+  private Scope frame;
+
+  @Setup
+  public void setup() {
+    root = new Scope(OutputStream.nullOutputStream());
+    root.assign("counter", LuaNumber.valueOf(1));
+    frame = root.createChild(2).createChild(1).createChild(4);
+    frame.setLocal(0, 3, LuaNumber.valueOf(2));
+    frame.setLocal(2, 1, LuaNumber.valueOf(3));
+  }
+
+  @Benchmark
+  public LuaObject getGlobal() {
+    return frame.getVariable("counter");
+  }
+
+  @Benchmark
+  public LuaObject getBuiltin() {
+    return frame.getVariable("print");
+  }
+
+  @Benchmark
+  public LuaObject getLocal() {
+    return frame.getLocal(0, 3);
+  }
+
+  @Benchmark
+  public LuaObject getEnclosingLocal() {
+    return frame.getLocal(2, 1);
+  }
+}
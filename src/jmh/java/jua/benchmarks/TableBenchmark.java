@@ -0,0 +1,89 @@
+package jua.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import jua.objects.LuaNumber;
+import jua.objects.LuaObject;
+import jua.objects.LuaString;
+import jua.objects.LuaTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Accesses through LuaObject keys, the way both engines index tables
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TableBenchmark {
+  @Param({"16", "1024", "65536"})
+  private int size;
+
+  private LuaObject[] numberKeys;
+  private LuaObject[] stringKeys;
+  private LuaTable list;
+  private LuaTable map;
+
+  @Setup
+  public void setup() {
+    numberKeys = new LuaObject[size];
+    stringKeys = new LuaObject[size];
+    for (int i = 0; i < size; i++) {
+      numberKeys[i] = LuaNumber.valueOf(i + 1);
+      stringKeys[i] = new LuaString("key" + i);
+    }
+    list = fill(numberKeys);
+    map = fill(stringKeys);
+  }
+
+  private LuaTable fill(LuaObject[] keys) {
+    LuaTable table = new LuaTable();
+    for (LuaObject key : keys) {
+      table.put(key, key);
+    }
+    return table;
+  }
+
+  @Benchmark
+  public LuaTable putNumbers() {
+    return fill(numberKeys);
+  }
+
+  @Benchmark
+  public LuaTable putStrings() {
+    return fill(stringKeys);
+  }
+
+  @Benchmark
+  public void getNumbers(Blackhole bh) {
+    for (LuaObject key : numberKeys) {
+      bh.consume(list.get(key));
+    }
+  }
+
+  @Benchmark
+  public void getStrings(Blackhole bh) {
+    for (LuaObject key : stringKeys) {
+      bh.consume(map.get(key));
+    }
+  }
+
+  @Benchmark
+  public void insertList(Blackhole bh) {
+    LuaTable table = new LuaTable();
+    for (LuaObject key : numberKeys) {
+      table.insertList(key);
+    }
+    bh.consume(table);
+  }
+}
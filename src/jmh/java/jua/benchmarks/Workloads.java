@@ -0,0 +1,22 @@
+package jua.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+// Lua programs run by the benchmarks, they are stored in src/jmh/resources/benchmarks
+final class Workloads {
+  private Workloads() {}
+
+  static String load(String name) {
+    try (InputStream in = Workloads.class.getResourceAsStream("/benchmarks/" + name + ".lua")) {
+      if (in == null) {
+        throw new IllegalArgumentException("Unknown workload: " + name);
+      }
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,15 @@
+local s = 0
+for i = 1, 100000 do
+  if i % 3 == 0 then
+    s = s + i
+  else
+    s = s - 1
+  end
+end
+
+local n = 0
+while n < 10000 do
+  n = n + 1
+end
+
+print(s, n)
@@ -0,0 +1,15 @@
+local account = {balance = 0}
+
+function account:deposit(v)
+  self.balance = self.balance + v
+end
+
+function account:get()
+  return self.balance
+end
+
+for i = 1, 10000 do
+  account:deposit(i)
+end
+
+print(account:get())
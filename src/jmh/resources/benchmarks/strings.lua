@@ -0,0 +1,6 @@
+local s = ""
+for i = 1, 2000 do
+  s = s .. i .. ","
+end
+
+print(#s)
@@ -0,0 +1,19 @@
+local list = {}
+for i = 1, 10000 do
+  list[i] = i * 2
+end
+
+local map = {}
+for i = 1, 2000 do
+  map["k" .. i] = i
+end
+
+local s = 0
+for i = 1, #list do
+  s = s + list[i]
+end
+for i = 1, 2000 do
+  s = s + map["k" .. i]
+end
+
+print(s)
@@ -0,0 +1,46 @@
+package api;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import jua.Interpreter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+// The programs of the interpreter API stream their output from a StreamingResponseBody, which
+// Spring runs asynchronously: the request thread is released while the program runs on this pool,
+// whose threads have a stack allowing deep recursions.
+@Configuration
+public class AsyncConfig implements WebMvcConfigurer {
+  // threads running the programs of the interpreter API, 0 for two per processor
+  @Value("${jua.http.threads:0}")
+  private int threads;
+
+  // requests waiting for a thread, the ones beyond are rejected
+  @Value("${jua.http.queue:1000}")
+  private int queue;
+
+  @Value("${jua.http.timeout-ms:30000}")
+  private long timeoutMs;
+
+  @Override
+  public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+    int n = threads > 0 ? threads : 2 * Runtime.getRuntime().availableProcessors();
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(n);
+    executor.setMaxPoolSize(n);
+    executor.setQueueCapacity(queue);
+    AtomicInteger id = new AtomicInteger();
+    executor.setThreadFactory(
+        r -> {
+          String name = "jua-http-" + id.incrementAndGet();
+          Thread t = new Thread(null, r, name, Interpreter.STACK_SIZE);
+          t.setDaemon(true);
+          return t;
+        });
+    executor.initialize();
+    configurer.setTaskExecutor(executor);
+    configurer.setDefaultTimeout(timeoutMs);
+  }
+}
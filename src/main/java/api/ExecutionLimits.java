@@ -0,0 +1,30 @@
+package api;
+
+import java.time.Duration;
+import jua.evaluator.Budget;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+// Resources granted to each program run by the server, a request of the interpreter API or an
+// input of a REPL session. A limit of 0 is unlimited.
+@Component
+public class ExecutionLimits {
+  // loop iterations and function calls
+  @Value("${jua.limits.steps:100000000}")
+  private long steps;
+
+  // bytes allocated by tables and strings
+  @Value("${jua.limits.memory:67108864}")
+  private long memory;
+
+  // nested function calls
+  @Value("${jua.limits.depth:200}")
+  private int depth;
+
+  @Value("${jua.limits.timeout-ms:5000}")
+  private long timeoutMs;
+
+  public Budget newBudget() {
+    return new Budget(steps, memory, depth, Duration.ofMillis(timeoutMs));
+  }
+}
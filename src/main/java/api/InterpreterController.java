@@ -1,21 +1,52 @@
 package api;
 
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import jua.Interpreter;
+import jua.ScopePool;
+import jua.ScriptCache;
+import jua.evaluator.Scope;
 import jua.evaluator.LuaRuntimeException;
 import jua.parser.IllegalParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import util.CoalescingOutputStream;
 
 @RestController
 public class InterpreterController {
 
   private Logger logger = LoggerFactory.getLogger(InterpreterController.class);
+  // the same few programs are submitted over and over, they are only parsed once
+  private final ScriptCache cache = new ScriptCache(256, 4 * 1024 * 1024);
+  // the globals of a request are reset once it is done
+  private final ScopePool scopes = new ScopePool(64);
+  private final ExecutionLimits limits;
+  // print is coalesced into chunks of chunkSize bytes, sent at most flushMs after being printed
+  private final int chunkSize;
+  private final long flushMs;
+  // finds the output of the programs which stopped printing, which is sent by a sender thread:
+  // a client reading slowly only blocks the thread sending to it, there is at most one per request
+  private final ScheduledExecutorService flusher =
+      Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "jua-http-flusher"));
+  private final ExecutorService senders =
+      Executors.newCachedThreadPool(r -> daemon(r, "jua-http-sender"));
+
+  public InterpreterController(
+      ExecutionLimits limits,
+      @Value("${jua.http.chunk-size:8192}") int chunkSize,
+      @Value("${jua.http.flush-ms:100}") long flushMs) {
+    this.limits = limits;
+    this.chunkSize = chunkSize;
+    this.flushMs = flushMs;
+  }
 
   // Allow cors for dev
   // TODO: disable it on prod !
@@ -25,9 +56,12 @@ public class InterpreterController {
     logger.info("Received request !");
     StreamingResponseBody resp =
         outputStream -> {
-          Interpreter interpreter = new Interpreter(payload.get("code"), outputStream);
+          var output =
+              new CoalescingOutputStream(outputStream, chunkSize, flushMs, flusher, senders);
+          Scope scope = scopes.lease(output);
+          scope.setBudget(limits.newBudget());
           try {
-            interpreter.run();
+            new Interpreter(cache.get(payload.get("code")), scope).run();
           } catch (IllegalParseException e) {
             throw new ResponseStatusException(
                 HttpStatus.INTERNAL_SERVER_ERROR,
@@ -38,9 +72,23 @@ public class InterpreterController {
                 HttpStatus.INTERNAL_SERVER_ERROR,
                 "Error evaluating the provided code:\n" + e.toString(),
                 e);
+          } finally {
+            scopes.release(scope);
+            output.finish();
           }
         };
 
     return new ResponseEntity<>(resp, HttpStatus.OK);
   }
+
+  @RequestMapping(value = "/api/v1/interpreter/cache", method = RequestMethod.GET)
+  public Map<String, Long> cacheStats() {
+    return cache.stats();
+  }
+
+  private static Thread daemon(Runnable r, String name) {
+    Thread t = new Thread(r, name);
+    t.setDaemon(true);
+    return t;
+  }
 }
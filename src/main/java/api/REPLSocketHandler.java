@@ -1,50 +1,79 @@
 package api;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.concurrent.atomic.AtomicInteger;
 import jua.Interpreter;
+import jua.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.AbstractWebSocketHandler;
-import util.BufferedChannel;
 
+// Each connection is a Session evaluated on a shared executor, idle connections don't hold any
+// thread. Connections beyond maxSessions are closed right away.
 public class REPLSocketHandler extends AbstractWebSocketHandler {
 
-  HashMap<WebSocketSession, Interpreter> sessions = new HashMap<>();
+  private Logger logger = LoggerFactory.getLogger(REPLSocketHandler.class);
+
+  private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+  private final AtomicInteger count = new AtomicInteger();
+  private final int maxSessions;
+  private final Executor executor;
+  private final ExecutionLimits limits;
+  private final Function<WebSocketSession, WebSocketBatcher> batchers;
+
+  public REPLSocketHandler(
+      int maxSessions,
+      Executor executor,
+      ExecutionLimits limits,
+      Function<WebSocketSession, WebSocketBatcher> batchers) {
+    this.maxSessions = maxSessions;
+    this.executor = executor;
+    this.limits = limits;
+    this.batchers = batchers;
+  }
 
   @Override
   public void handleTextMessage(WebSocketSession session, TextMessage message) {
-    var interpreter = sessions.get(session);
-    message
-        .getPayload()
-        .chars()
-        .forEach(
-            ch -> {
-              try {
-                interpreter.getIn().add((char) ch);
-              } catch (InterruptedException e) {
-                e.printStackTrace();
-              }
-            });
+    var repl = sessions.get(session.getId());
+    if (repl != null) {
+      repl.send(message.getPayload());
+    }
   }
 
   @Override
-  public void afterConnectionEstablished(WebSocketSession session) {
-    WebSocketWriter writer = new WebSocketWriter(session);
-    var interpreter =
-        new Interpreter(
-            new BufferedChannel<>(),
-            new WebSocketOutputStream(writer, "return"),
-            new WebSocketOutputStream(writer, "error"));
-    sessions.put(session, interpreter);
-    interpreter.start(true);
+  public void afterConnectionEstablished(WebSocketSession session) throws IOException {
+    if (count.incrementAndGet() > maxSessions) {
+      count.decrementAndGet();
+      logger.warn("Too many REPL sessions, closing {}", session.getId());
+      session.close(CloseStatus.SERVICE_OVERLOAD.withReason("Too many sessions"));
+      return;
+    }
+
+    WebSocketBatcher batcher = batchers.apply(session);
+    var repl =
+        new Session(
+            executor,
+            Interpreter.Engine.AST,
+            new WebSocketOutputStream(batcher, WebSocketBatcher.RETURN),
+            new WebSocketOutputStream(batcher, WebSocketBatcher.ERROR),
+            limits::newBudget);
+    sessions.put(session.getId(), repl);
+    repl.start();
   }
 
   @Override
   public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
     super.afterConnectionClosed(session, status);
-    var interpreter = sessions.get(session);
-    interpreter.getIn().add('\0');
-    sessions.remove(session);
+    var repl = sessions.remove(session.getId());
+    if (repl != null) {
+      repl.close();
+      count.decrementAndGet();
+    }
   }
 }
@@ -0,0 +1,186 @@
+package api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+// Output of a REPL session, sent in batches rather than in one WebSocket message per print. The
+// texts written to the "return" and "error" streams are kept in order, consecutive texts of the
+// same stream are merged, and the batch is sent once it holds maxChars characters or maxDelay
+// after its first text.
+//
+// The batches which expire are sent by the sender, the scheduler being shared by every session.
+// A batch is taken under the monitor and sent outside of it, the session keeps printing to the
+// next one meanwhile.
+//
+// A JSON batch is an array of objects with a single key, the stream, e.g.
+// [{"return":"1\n> "}, {"error":"..."}]. A binary batch is a sequence of records made of a byte
+// (0 for return, 1 for error), the length of the text in bytes as a 32 bits big endian integer,
+// and the text in UTF-8.
+public class WebSocketBatcher {
+  public enum Frames {
+    JSON,
+    BINARY
+  }
+
+  static final String RETURN = "return";
+  static final String ERROR = "error";
+  private static final ObjectWriter JSON = new ObjectMapper().writer();
+
+  private Logger logger = LoggerFactory.getLogger(WebSocketBatcher.class);
+
+  private final WebSocketSession session;
+  private final Frames frames;
+  private final int maxChars;
+  private final long maxDelayMillis;
+  private final ScheduledExecutorService scheduler;
+  private final Executor sender;
+  // held while sending, taken with the monitor held so that the batches are sent in order
+  private final ReentrantLock sending = new ReentrantLock();
+
+  // guarded by this
+  private final List<String> streams = new ArrayList<>();
+  private final List<StringBuilder> texts = new ArrayList<>();
+  private int chars;
+  private boolean isScheduled;
+
+  public WebSocketBatcher(
+      WebSocketSession session,
+      Frames frames,
+      int maxChars,
+      long maxDelayMillis,
+      ScheduledExecutorService scheduler,
+      Executor sender) {
+    this.session = session;
+    this.frames = frames;
+    this.maxChars = maxChars;
+    this.maxDelayMillis = maxDelayMillis;
+    this.scheduler = scheduler;
+    this.sender = sender;
+  }
+
+  public void append(String stream, String text) throws IOException {
+    if (text.isEmpty()) {
+      return;
+    }
+    WebSocketMessage<?> batch;
+    synchronized (this) {
+      int last = streams.size() - 1;
+      if (last >= 0 && streams.get(last).equals(stream)) {
+        texts.get(last).append(text);
+      } else {
+        streams.add(stream);
+        texts.add(new StringBuilder(text));
+      }
+      chars += text.length();
+
+      if (chars < maxChars) {
+        if (!isScheduled) {
+          isScheduled = true;
+          schedule();
+        }
+        return;
+      }
+      // waits for the expired batch being sent, if any
+      sending.lock();
+      try {
+        batch = take();
+      } catch (IOException e) {
+        sending.unlock();
+        throw e;
+      }
+    }
+    send(batch);
+  }
+
+  private void schedule() {
+    scheduler.schedule(() -> sender.execute(this::expire), maxDelayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  // Runs on the sender
+  private void expire() {
+    WebSocketMessage<?> batch;
+    synchronized (this) {
+      isScheduled = false;
+      if (streams.isEmpty()) {
+        return;
+      }
+      if (!sending.tryLock()) {
+        // another batch is being sent, this one waits for the next round
+        isScheduled = true;
+        schedule();
+        return;
+      }
+      try {
+        batch = take();
+      } catch (IOException e) {
+        sending.unlock();
+        logger.warn("Could not send the output of {}", session.getId(), e);
+        return;
+      }
+    }
+    try {
+      send(batch);
+    } catch (IOException e) {
+      logger.warn("Could not send the output of {}", session.getId(), e);
+    }
+  }
+
+  // Removes the buffered texts, as a message. Called with the monitor and the sending lock held.
+  private WebSocketMessage<?> take() throws IOException {
+    try {
+      return frames == Frames.JSON ? jsonBatch() : binaryBatch();
+    } finally {
+      streams.clear();
+      texts.clear();
+      chars = 0;
+    }
+  }
+
+  // Sends batch and releases the sending lock, without the monitor
+  private void send(WebSocketMessage<?> batch) throws IOException {
+    try {
+      if (session.isOpen()) {
+        session.sendMessage(batch);
+      }
+    } finally {
+      sending.unlock();
+    }
+  }
+
+  private TextMessage jsonBatch() throws IOException {
+    List<Map<String, String>> batch = new ArrayList<>(streams.size());
+    for (int i = 0; i < streams.size(); i++) {
+      batch.add(Map.of(streams.get(i), texts.get(i).toString()));
+    }
+    return new TextMessage(JSON.writeValueAsString(batch));
+  }
+
+  private BinaryMessage binaryBatch() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(chars + 5 * streams.size());
+    DataOutputStream out = new DataOutputStream(bytes);
+    for (int i = 0; i < streams.size(); i++) {
+      byte[] text = texts.get(i).toString().getBytes(StandardCharsets.UTF_8);
+      out.writeByte(streams.get(i).equals(RETURN) ? 0 : 1);
+      out.writeInt(text.length);
+      out.write(text);
+    }
+    return new BinaryMessage(bytes.toByteArray());
+  }
+}
@@ -1,16 +1,86 @@
 package api;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import jua.Interpreter;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
 
 @Configuration
 @EnableWebSocket
 public class WebSocketConfig implements WebSocketConfigurer {
+  // maximum number of REPL connections open at the same time
+  @Value("${jua.repl.max-sessions:10000}")
+  private int maxSessions;
+
+  // threads evaluating the REPL sessions, 0 for one per processor
+  @Value("${jua.repl.threads:0}")
+  private int threads;
+
+  // output of a session sent at most every batchMs milliseconds or every batchChars characters
+  @Value("${jua.repl.batch-ms:20}")
+  private long batchMs;
+
+  @Value("${jua.repl.batch-chars:16384}")
+  private int batchChars;
+
+  @Value("${jua.repl.frames:JSON}")
+  private WebSocketBatcher.Frames frames;
+
+  // a session whose client reads its output slower than this is closed
+  @Value("${jua.repl.send-timeout-ms:10000}")
+  private int sendTimeoutMs;
+
+  @Value("${jua.repl.send-buffer:1048576}")
+  private int sendBuffer;
+
+  private final ExecutionLimits limits;
+
+  public WebSocketConfig(ExecutionLimits limits) {
+    this.limits = limits;
+  }
+
   public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
-    registry
-        .addHandler(new REPLSocketHandler(), "/api/v1/repl")
-        .setAllowedOrigins("http://localhost:8080");
+    ScheduledExecutorService batchScheduler =
+        Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "jua-repl-batcher", 0));
+    // sends the batches which expired, a session sending slowly only blocks its own sender thread
+    ExecutorService batchSender =
+        Executors.newCachedThreadPool(r -> daemon(r, "jua-repl-sender", 0));
+    var handler =
+        new REPLSocketHandler(
+            maxSessions,
+            replExecutor(),
+            limits,
+            // sends don't block once a message is in flight, the batches wait in a bounded buffer
+            session ->
+                new WebSocketBatcher(
+                    new ConcurrentWebSocketSessionDecorator(session, sendTimeoutMs, sendBuffer),
+                    frames,
+                    batchChars,
+                    batchMs,
+                    batchScheduler,
+                    batchSender));
+    registry.addHandler(handler, "/api/v1/repl").setAllowedOrigins("http://localhost:8080");
+  }
+
+  // the statements are evaluated on these threads, whose stack allows deep recursions
+  private ExecutorService replExecutor() {
+    int n = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    AtomicInteger id = new AtomicInteger();
+    return Executors.newFixedThreadPool(
+        n, r -> daemon(r, "jua-repl-" + id.incrementAndGet(), Interpreter.STACK_SIZE));
+  }
+
+  // stackSize 0 for the default size
+  private static Thread daemon(Runnable r, String name, long stackSize) {
+    Thread t = new Thread(null, r, name, stackSize);
+    t.setDaemon(true);
+    return t;
   }
 }
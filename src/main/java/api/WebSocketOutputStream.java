@@ -1,45 +1,35 @@
 package api;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.HashMap;
 
+// One of the output streams of a REPL session, what has been written is handed to the batcher
+// of the session on flush
 public class WebSocketOutputStream extends OutputStream {
-  WebSocketWriter writer;
-  StringBuilder buffer = new StringBuilder();
-  ObjectMapper objectMapper = new ObjectMapper();
-  String prefix;
+  private final WebSocketBatcher batcher;
+  private final String stream;
+  private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
 
-  public WebSocketOutputStream(WebSocketWriter writer, String prefix) {
-    this.writer = writer;
-    this.prefix = prefix;
+  public WebSocketOutputStream(WebSocketBatcher batcher, String stream) {
+    this.batcher = batcher;
+    this.stream = stream;
   }
 
   @Override
-  public void write(int i) {
-    synchronized (buffer) {
-      buffer.append((char) i);
-    }
+  public synchronized void write(int i) {
+    buffer.write(i);
   }
 
   @Override
-  public void write(byte[] b) {
-    synchronized (buffer) {
-      buffer.append(new String(b));
-    }
+  public synchronized void write(byte[] b, int off, int len) {
+    buffer.write(b, off, len);
   }
 
   @Override
-  public void flush() throws IOException {
-    String message;
-    synchronized (buffer) {
-      message = buffer.toString();
-      buffer = new StringBuilder();
-    }
-    HashMap<String, String> payload = new HashMap<>();
-    payload.put(prefix, message);
-    String serialized = objectMapper.writeValueAsString(payload);
-    writer.write(serialized);
+  public synchronized void flush() throws IOException {
+    String text = buffer.toString();
+    buffer.reset();
+    batcher.append(stream, text);
   }
 }
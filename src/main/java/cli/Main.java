@@ -1,19 +1,26 @@
 package cli;
 
 import api.Server;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.stream.Collectors;
 import jua.Interpreter;
 import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Scope;
+import jua.lexer.CharSource;
 import jua.lexer.Lexer;
 import jua.parser.IllegalParseException;
 import jua.parser.Parser;
 import jua.token.Token;
+import jua.vm.Chunk;
+import jua.vm.Compiler;
+import jua.vm.Prototype;
+import jua.vm.VM;
 import util.BufferedChannel;
 
 public class Main {
@@ -36,27 +43,46 @@ public class Main {
 
       new Server().run(args, port);
     } else {
+      // value of -o, the output of --compile
+      Path output = null;
+      int o = argsList.indexOf("-o");
+      if (o >= 0 && o + 1 < argsList.size()) {
+        output = Paths.get(argsList.remove(o + 1));
+      }
       ArrayList<String> nonFlags =
           argsList.stream()
               .filter(x -> !x.startsWith("-"))
               .collect(Collectors.toCollection(ArrayList::new));
 
       // Check if we should use a file or stdin
-      InputStream in = System.in;
+      Path file = null;
       if (nonFlags.size() > 0) {
-        String name = nonFlags.get(0);
-        try {
-          in = new FileInputStream(name);
-        } catch (FileNotFoundException e) {
-          System.err.printf("Could not find file: %s\n", name);
+        file = Paths.get(nonFlags.get(0));
+        if (!Files.isRegularFile(file)) {
+          System.err.printf("Could not find file: %s\n", file);
           System.exit(1);
         }
       }
 
-      if (argsList.contains("-d") || argsList.contains("--debug")) {
-        debug(in);
+      var engine = Interpreter.Engine.AST;
+      if (argsList.contains("--vm")) {
+        engine = Interpreter.Engine.VM;
+      } else if (argsList.contains("--tiered")) {
+        engine = Interpreter.Engine.TIERED;
+      }
+      if (argsList.contains("--compile")) {
+        if (file == null) {
+          usage();
+        }
+        compile(file, output != null ? output : chunkPath(file));
+      } else if (argsList.contains("-d") || argsList.contains("--debug")) {
+        debug(file != null ? readFile(file) : readStdin(), engine);
+      } else if (file != null && isChunk(file)) {
+        runChunk(file);
+      } else if (file != null) {
+        run(file, engine);
       } else {
-        repl(in);
+        repl(System.in, engine);
       }
     }
   }
@@ -74,7 +100,7 @@ public class Main {
     } catch (IOException e) {
       e.printStackTrace();
     }
-    out.add('\0');
+    out.close();
   }
 
   private static void interactive(BufferedChannel<Character> out) throws InterruptedException {
@@ -88,15 +114,15 @@ public class Main {
         break;
       }
       line += '\n';
-      for (Character ch : line.toCharArray()) {
-        out.add(ch);
-      }
+      out.addAll(line.chars().mapToObj(ch -> (char) ch).collect(Collectors.toList()));
     }
+    out.close();
   }
 
-  private static void repl(InputStream in) {
+  private static void repl(InputStream in, Interpreter.Engine engine) {
     BufferedChannel<Character> ch = new BufferedChannel<>();
     var interpreter = new Interpreter(ch);
+    interpreter.setEngine(engine);
     boolean isInteractive = System.console() != null && in == System.in;
     new Thread(
             () -> {
@@ -114,14 +140,86 @@ public class Main {
     interpreter.start(isInteractive);
   }
 
-  private static void debug(InputStream in) throws IllegalParseException, LuaRuntimeException {
-    String text = null;
+  // Files are lexed in place from a memory mapping, without going through a channel
+  private static void run(Path file, Interpreter.Engine engine) {
+    CharSource source = null;
+    try {
+      source = CharSource.map(file);
+    } catch (IOException e) {
+      System.err.printf("Could not read file: %s\n", file);
+      System.exit(1);
+    }
+    var interpreter = new Interpreter(source);
+    interpreter.setEngine(engine);
+    interpreter.start(false);
+  }
+
+  // script.lua is compiled to script.juac
+  private static Path chunkPath(Path file) {
+    String name = file.getFileName().toString();
+    if (name.endsWith(".lua")) {
+      name = name.substring(0, name.length() - ".lua".length());
+    }
+    return file.resolveSibling(name + ".juac");
+  }
+
+  private static void compile(Path file, Path output)
+      throws IllegalParseException, LuaRuntimeException {
+    Prototype main = Compiler.compile(new Parser(new Lexer(readFile(file)).getNTokens(0)).parse());
+    try {
+      Chunk.write(main, output);
+    } catch (IOException e) {
+      System.err.printf("Could not write file: %s\n", output);
+      System.exit(1);
+    }
+  }
+
+  private static boolean isChunk(Path file) {
+    try {
+      return Chunk.isChunk(file);
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  // Compiled chunks always run on the VM
+  private static void runChunk(Path file) {
+    Prototype main = null;
+    try {
+      main = Chunk.load(file);
+    } catch (IOException e) {
+      System.err.printf("Could not load %s: %s\n", file, e.getMessage());
+      System.exit(1);
+    }
+    try {
+      VM.execute(main, new Scope());
+    } catch (LuaRuntimeException e) {
+      System.err.println(e);
+      System.exit(1);
+    }
+  }
+
+  private static String readFile(Path file) {
     try {
-      text = new String(in.readAllBytes());
+      return Files.readString(file);
+    } catch (IOException e) {
+      System.err.printf("Could not read file: %s\n", file);
+      System.exit(1);
+      return null;
+    }
+  }
+
+  private static String readStdin() {
+    try {
+      return new String(System.in.readAllBytes());
     } catch (IOException e) {
       e.printStackTrace();
+      return null;
     }
+  }
 
+  private static void debug(String text, Interpreter.Engine engine)
+      throws IllegalParseException, LuaRuntimeException {
     System.out.println("---");
     System.out.println("Lexing:");
     ArrayList<Token> tokens = (new Lexer(text)).getNTokens(0);
@@ -131,9 +229,15 @@ public class Main {
     Parser parser = new Parser(tokens);
     var stmts = parser.parse();
     stmts.getChildren().forEach(System.out::println);
+    if (engine == Interpreter.Engine.VM) {
+      System.out.println("---");
+      System.out.println("Bytecode:");
+      System.out.print(Compiler.compile(stmts));
+    }
     System.out.println("---");
     System.out.println("Evaluation:");
     var interpreter = new Interpreter(text);
+    interpreter.setEngine(engine);
     interpreter.run();
     System.out.println("---");
   }
@@ -145,6 +249,10 @@ public class Main {
             + "- jua to launch a Lua REPL\n"
             + "- jua --server to run the web API (on port 3000 by default, configurable with the PORT env variable)\n"
             + "- jua <file.lua> to run a lua script (use -d or --debug to enable the debug mode)\n"
+            + "- add --vm to compile the scripts to bytecode and run them on the VM\n"
+            + "- add --tiered to only compile the functions which are called often\n"
+            + "- jua --compile <file.lua> [-o <file.juac>] to compile a script to bytecode, jua"
+            + " <file.juac> runs it without parsing it again\n"
             + "- jua -h or jua --help to print this help message\n");
     System.exit(0);
   }
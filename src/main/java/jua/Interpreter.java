@@ -6,25 +6,49 @@ import java.io.OutputStream;
 import jua.ast.Statement;
 import jua.ast.StatementEOP;
 import jua.ast.StatementExpression;
+import jua.ast.StatementList;
 import jua.evaluator.IllegalLexingException;
 import jua.evaluator.LuaRuntimeException;
 import jua.evaluator.Scope;
+import jua.lexer.CharSource;
 import jua.lexer.Lexer;
+import jua.objects.LuaNil;
 import jua.objects.LuaObject;
 import jua.parser.IllegalParseException;
 import jua.parser.Parser;
+import jua.vm.Compiler;
+import jua.vm.VM;
 import util.BufferedChannel;
 
 public class Interpreter {
+  // AST walks the syntax tree, VM compiles it to bytecode first and TIERED walks it but compiles
+  // the functions which are called often
+  public enum Engine {
+    AST,
+    VM,
+    TIERED
+  }
+
+  // number of calls after which a function is compiled with the TIERED engine
+  public static final int TIER_THRESHOLD = 1000;
+  // stack for the threads evaluating programs, enough for Budget.MAX_DEPTH nested calls of small
+  // functions. Programs run on the thread calling the Interpreter, the AST evaluator recursing on
+  // its Java stack for each Lua call (only the VM has a heap stack): the threads which may run deep
+  // recursions are created with it once, not for each program.
+  public static final long STACK_SIZE = 256L << 20;
+
   private Lexer lexer;
   private Parser parser;
   private Scope scope;
-  private BufferedChannel<Character> in = new BufferedChannel<>();
+  // program parsed beforehand, run instead of the output of the parser
+  private StatementList chunk;
+  private BufferedChannel<Character> in;
   private OutputStream stdout = System.out;
   private OutputStream stderr = System.err;
   private Thread lexerWorker;
   private Thread parserWorker;
   private Thread evaluationWorker;
+  private Engine engine = Engine.AST;
 
   public Interpreter(String in) {
     lexer = new Lexer(in);
@@ -39,6 +63,24 @@ public class Interpreter {
     this.stdout = stdout;
   }
 
+  public Interpreter(StatementList chunk, OutputStream stdout) {
+    this.chunk = chunk;
+    scope = new Scope(stdout);
+    this.stdout = stdout;
+  }
+
+  // Runs chunk against the globals of scope, a root scope
+  public Interpreter(StatementList chunk, Scope scope) {
+    this.chunk = chunk;
+    this.scope = scope;
+  }
+
+  public Interpreter(CharSource in) {
+    lexer = new Lexer(in);
+    parser = new Parser(lexer.getOut());
+    scope = new Scope();
+  }
+
   public Interpreter(BufferedChannel<Character> in) {
     this.in = in;
     lexer = new Lexer(in);
@@ -67,17 +109,57 @@ public class Interpreter {
     return in;
   }
 
+  public void setEngine(Engine engine) {
+    this.engine = engine;
+    scope.setTierThreshold(engine == Engine.TIERED ? TIER_THRESHOLD : 0);
+  }
+
   public static String eval(String in) throws IllegalParseException, LuaRuntimeException {
+    return eval(in, Engine.AST);
+  }
+
+  public static String eval(String in, Engine engine)
+      throws IllegalParseException, LuaRuntimeException {
     var sb = new ByteArrayOutputStream();
     Interpreter interpreter = new Interpreter(in, sb);
+    interpreter.setEngine(engine);
     interpreter.run();
     return sb.toString();
   }
 
   public void run() throws IllegalParseException, LuaRuntimeException {
-    var stmts = parser.parse().getChildren();
-    for (Statement stmt : stmts) {
-      stmt.evaluate(scope);
+    var chunk = this.chunk != null ? this.chunk : parser.parse();
+    try {
+      if (engine == Engine.VM) {
+        VM.execute(Compiler.compile(chunk), scope);
+        return;
+      }
+      for (Statement stmt : chunk.getChildren()) {
+        stmt.evaluate(scope);
+      }
+    } catch (StackOverflowError e) {
+      throw new LuaRuntimeException("stack overflow");
+    } finally {
+      // the program is over, its suspended coroutines can't be resumed any more
+      scope.getCoroutines().abandonAll();
+    }
+  }
+
+  private LuaObject evaluate(Statement s) throws LuaRuntimeException {
+    return evaluate(s, scope, engine);
+  }
+
+  // A recursion exhausting the stack of the calling thread is reported as a Lua error once it has
+  // been unwound
+  static LuaObject evaluate(Statement s, Scope scope, Engine engine) throws LuaRuntimeException {
+    try {
+      if (engine != Engine.VM) {
+        return s.evaluate(scope);
+      }
+      LuaObject[] values = VM.execute(Compiler.compile(s), scope);
+      return values.length > 0 ? values[0] : LuaNil.getInstance();
+    } catch (StackOverflowError e) {
+      throw new LuaRuntimeException("stack overflow");
     }
   }
 
@@ -96,7 +178,7 @@ public class Interpreter {
         if (s instanceof StatementEOP) {
           break;
         }
-        LuaObject o = s.evaluate(scope);
+        LuaObject o = evaluate(s);
         if (s instanceof StatementExpression) {
           try {
             stdout.write((o.repr() + '\n').getBytes());
@@ -177,7 +259,7 @@ public class Interpreter {
             });
     parserWorker.start();
 
-    evaluationWorker = new Thread(() -> loop(isInteractive));
+    evaluationWorker = new Thread(null, () -> loop(isInteractive), "jua-evaluation", STACK_SIZE);
     evaluationWorker.start();
   }
 }
@@ -0,0 +1,36 @@
+package jua;
+
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import jua.evaluator.Scope;
+
+// Root scopes reused between the evaluations of independent programs. A leased scope has no
+// global other than the builtins, which are shared by every scope, and prints to the given output.
+// Up to size scopes are kept, they are created ahead.
+public class ScopePool {
+  private final ArrayBlockingQueue<Scope> free;
+
+  public ScopePool(int size) {
+    free = new ArrayBlockingQueue<>(size);
+    for (int i = 0; i < size; i++) {
+      free.add(new Scope(OutputStream.nullOutputStream()));
+    }
+  }
+
+  public Scope lease(OutputStream out) {
+    Scope scope = free.poll();
+    if (scope == null) {
+      return new Scope(out);
+    }
+    // it was reset when released, only its output changes
+    scope.setOutput(out);
+    return scope;
+  }
+
+  // The scope must not be used after this
+  public void release(Scope scope) {
+    // the globals are dropped now rather than when the scope is leased again
+    scope.reset(OutputStream.nullOutputStream());
+    free.offer(scope);
+  }
+}
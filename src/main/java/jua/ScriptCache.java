@@ -0,0 +1,105 @@
+package jua;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import jua.ast.StatementList;
+import jua.lexer.Lexer;
+import jua.parser.IllegalParseException;
+import jua.parser.Parser;
+
+// Parsed and resolved programs keyed by the SHA-256 of their source, so that a program submitted
+// again is not lexed and parsed again. A cached program can be run by several threads at once,
+// each against its own Scope. The syntax trees do change while they run, without locking: the
+// InlineCaches of the field accesses are hints checked before use, and the tiering state of an
+// ExpressionFunction only publishes immutable Prototypes through a volatile field, a race at worst
+// delays or repeats a compilation.
+//
+// The least recently used programs are evicted once there are more than maxEntries of them or once
+// their sources add up to more than maxChars. Programs which fail to parse are not cached.
+public class ScriptCache {
+  private final int maxEntries;
+  private final long maxChars;
+  // iterated from the least to the most recently used
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long chars;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  private static final class Entry {
+    final StatementList chunk;
+    final int length;
+
+    Entry(StatementList chunk, int length) {
+      this.chunk = chunk;
+      this.length = length;
+    }
+  }
+
+  public ScriptCache(int maxEntries, long maxChars) {
+    this.maxEntries = maxEntries;
+    this.maxChars = maxChars;
+  }
+
+  public StatementList get(String code) throws IllegalParseException {
+    String key = hash(code);
+    synchronized (entries) {
+      Entry entry = entries.get(key);
+      if (entry != null) {
+        hits.increment();
+        return entry.chunk;
+      }
+    }
+
+    // parsed outside of the lock, two threads missing the same program both parse it
+    misses.increment();
+    StatementList chunk = new Parser(new Lexer(code).getNTokens(0)).parse();
+    if (code.length() <= maxChars) {
+      synchronized (entries) {
+        Entry previous = entries.put(key, new Entry(chunk, code.length()));
+        chars += code.length() - (previous != null ? previous.length : 0);
+        evict();
+      }
+    }
+    return chunk;
+  }
+
+  private void evict() {
+    Iterator<Entry> it = entries.values().iterator();
+    while (entries.size() > maxEntries || chars > maxChars) {
+      chars -= it.next().length;
+      it.remove();
+      evictions.increment();
+    }
+  }
+
+  public Map<String, Long> stats() {
+    LinkedHashMap<String, Long> stats = new LinkedHashMap<>();
+    stats.put("hits", hits.sum());
+    stats.put("misses", misses.sum());
+    stats.put("evictions", evictions.sum());
+    synchronized (entries) {
+      stats.put("entries", (long) entries.size());
+      stats.put("chars", chars);
+    }
+    return stats;
+  }
+
+  private static String hash(String code) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      byte[] sha = digest.digest(code.getBytes(StandardCharsets.UTF_8));
+      return Base64.getEncoder().encodeToString(sha);
+    } catch (NoSuchAlgorithmException e) {
+      // every Java platform is required to implement SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,192 @@
+package jua;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+import jua.ast.Statement;
+import jua.ast.StatementExpression;
+import jua.ast.StatementList;
+import jua.evaluator.Budget;
+import jua.evaluator.BudgetExceededException;
+import jua.evaluator.IllegalLexingException;
+import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Scope;
+import jua.lexer.Lexer;
+import jua.objects.LuaObject;
+import jua.parser.IllegalParseException;
+import jua.parser.Parser;
+import jua.token.Token;
+import jua.token.TokenEOF;
+
+// Interactive session which doesn't own any thread, unlike Interpreter.start. The input is
+// buffered until it holds complete statements, which are then parsed and evaluated by a task
+// submitted to a shared executor. An idle session is only its globals and its pending input.
+//
+// The tasks of a session run one at a time and in order. Input which ends in the middle of a
+// statement (the parser fails on the end of file) is kept until the rest of it is sent.
+//
+// Each input is evaluated with a new Budget, closing the session cancels the running evaluation.
+// The coroutines left suspended are unwound when an input exceeds its budget or once the session
+// is closed, rather than when they are collected.
+public class Session {
+  private static final byte[] PROMPT = "> ".getBytes();
+
+  private final Executor executor;
+  private final Scope scope;
+  private final Interpreter.Engine engine;
+  private final OutputStream stdout;
+  private final OutputStream stderr;
+  private final Supplier<Budget> budgets;
+
+  // guarded by this
+  private final StringBuilder input = new StringBuilder();
+  private boolean isScheduled;
+  private boolean isClosed;
+  private Budget running;
+
+  // only touched by the running task
+  private final StringBuilder pending = new StringBuilder();
+
+  public Session(
+      Executor executor, Interpreter.Engine engine, OutputStream stdout, OutputStream stderr) {
+    this(executor, engine, stdout, stderr, Budget::new);
+  }
+
+  public Session(
+      Executor executor,
+      Interpreter.Engine engine,
+      OutputStream stdout,
+      OutputStream stderr,
+      Supplier<Budget> budgets) {
+    this.executor = executor;
+    this.budgets = budgets;
+    this.engine = engine;
+    this.stdout = stdout;
+    this.stderr = stderr;
+    this.scope = new Scope(stdout);
+    scope.setTierThreshold(engine == Interpreter.Engine.TIERED ? Interpreter.TIER_THRESHOLD : 0);
+  }
+
+  public void start() {
+    write(stdout, PROMPT);
+  }
+
+  public synchronized void send(String text) {
+    if (isClosed) {
+      return;
+    }
+    input.append(text);
+    if (!isScheduled) {
+      isScheduled = true;
+      executor.execute(this::drain);
+    }
+  }
+
+  // The input sent after this is ignored, a running evaluation is cancelled
+  public synchronized void close() {
+    isClosed = true;
+    input.setLength(0);
+    if (running != null) {
+      running.cancel();
+    }
+    if (!isScheduled) {
+      // no task runs the program, otherwise it unwinds them once it ends
+      scope.getCoroutines().abandonAll();
+    }
+  }
+
+  private void drain() {
+    while (true) {
+      synchronized (this) {
+        if (input.length() == 0 || isClosed) {
+          isScheduled = false;
+          if (isClosed) {
+            scope.getCoroutines().abandonAll();
+          }
+          return;
+        }
+        pending.append(input);
+        input.setLength(0);
+      }
+      process();
+    }
+  }
+
+  private void process() {
+    ArrayList<Token> tokens = new ArrayList<>();
+    Lexer lexer = new Lexer(pending.toString());
+    try {
+      Token token;
+      do {
+        token = lexer.nextToken();
+        tokens.add(token);
+      } while (!(token instanceof TokenEOF));
+    } catch (IllegalLexingException e) {
+      fail(e.toString());
+      return;
+    }
+
+    Parser parser = new Parser(tokens);
+    StatementList chunk;
+    try {
+      chunk = parser.parse();
+    } catch (IllegalParseException e) {
+      // the statement goes on in the next input if the parser has run out of tokens
+      Token current = parser.nextToken(0, false);
+      if (current != null && !(current instanceof TokenEOF)) {
+        fail(e.toString());
+      }
+      return;
+    }
+
+    pending.setLength(0);
+    Budget budget = budgets.get();
+    synchronized (this) {
+      if (isClosed) {
+        return;
+      }
+      running = budget;
+    }
+    scope.setBudget(budget);
+    boolean isExceeded = false;
+    for (Statement s : chunk.getChildren()) {
+      try {
+        LuaObject o = Interpreter.evaluate(s, scope, engine);
+        if (s instanceof StatementExpression) {
+          write(stdout, (o.repr() + '\n').getBytes());
+        }
+      } catch (LuaRuntimeException e) {
+        write(stderr, (e.toString() + '\n').getBytes());
+        if (e instanceof BudgetExceededException) {
+          // the rest of the input would run out of the same budget
+          isExceeded = true;
+          break;
+        }
+      }
+    }
+    synchronized (this) {
+      running = null;
+      if (isExceeded) {
+        scope.getCoroutines().abandonAll();
+      }
+    }
+    write(stdout, PROMPT);
+  }
+
+  private void fail(String message) {
+    pending.setLength(0);
+    write(stderr, (message + '\n').getBytes());
+    write(stdout, PROMPT);
+  }
+
+  private static void write(OutputStream out, byte[] bytes) {
+    try {
+      out.write(bytes);
+      out.flush();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+}
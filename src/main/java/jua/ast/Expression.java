@@ -1,9 +1,10 @@
 package jua.ast;
 
 import jua.evaluator.Evaluable;
+import jua.evaluator.Resolvable;
 import jua.token.Token;
 
-public abstract class Expression extends Node implements Evaluable {
+public abstract class Expression extends Node implements Evaluable, Resolvable {
 
   Expression(Token token) {
     super(token);
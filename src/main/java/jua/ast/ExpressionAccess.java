@@ -1,30 +1,55 @@
 package jua.ast;
 
 import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Resolver;
 import jua.evaluator.Scope;
+import jua.objects.InlineCache;
+import jua.objects.LuaNil;
 import jua.objects.LuaObject;
-import jua.objects.LuaString;
 import jua.objects.LuaTable;
+import jua.objects.Operations;
 import jua.token.TokenOperator;
 
 public class ExpressionAccess extends ExpressionBinary implements Variable {
+  // the name of the field is constant, its slot is cached
+  private final InlineCache cache;
+
   ExpressionAccess(TokenOperator token, Expression lhs, Expression rhs) {
     super(token, lhs, rhs);
+    this.cache = new InlineCache(rhs.getLiteral());
   }
 
   @Override
   public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
-    LuaObject var = lhs.evaluate(scope);
-    LuaTable table = LuaObject.toTable(var);
+    return index(lhs.evaluate(scope), scope);
+  }
 
-    return table.get(new LuaString(rhs.getLiteral()));
+  // Value of the field in var, the already evaluated lhs
+  LuaObject index(LuaObject var, Scope scope) throws LuaRuntimeException {
+    if (var instanceof LuaTable) {
+      LuaTable table = (LuaTable) var;
+      LuaObject value = table.get(cache);
+      if (!(value instanceof LuaNil) || table.getMetatable() == null) {
+        return value;
+      }
+    }
+    return Operations.indexMetamethod(var, cache.getKey(), scope);
   }
 
   @Override
   public void assign(Scope scope, LuaObject value, boolean isLocal) throws LuaRuntimeException {
     LuaObject var = lhs.evaluate(scope);
-    LuaTable table = LuaObject.toTable(var);
-    table.put(new LuaString(rhs.getLiteral()), value);
+    if (var instanceof LuaTable && ((LuaTable) var).getMetatable() == null) {
+      ((LuaTable) var).put(cache, value);
+      return;
+    }
+    Operations.setIndex(var, cache.getKey(), value);
+  }
+
+  @Override
+  public void resolve(Resolver resolver) {
+    // rhs is the name of the field, not a variable
+    lhs.resolve(resolver);
   }
 
   @Override
@@ -1,5 +1,6 @@
 package jua.ast;
 
+import jua.evaluator.Resolver;
 import jua.token.TokenOperator;
 
 public abstract class ExpressionBinary extends Expression {
@@ -13,6 +14,20 @@ public abstract class ExpressionBinary extends Expression {
     this.rhs = rhs;
   }
 
+  public Expression getLhs() {
+    return lhs;
+  }
+
+  public Expression getRhs() {
+    return rhs;
+  }
+
+  @Override
+  public void resolve(Resolver resolver) {
+    lhs.resolve(resolver);
+    rhs.resolve(resolver);
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
@@ -2,8 +2,8 @@ package jua.ast;
 
 import jua.evaluator.LuaRuntimeException;
 import jua.evaluator.Scope;
-import jua.objects.LuaNumber;
 import jua.objects.LuaObject;
+import jua.objects.Operations;
 import jua.token.TokenOperator;
 
 public class ExpressionBinaryNot extends ExpressionUnary {
@@ -13,7 +13,6 @@ public class ExpressionBinaryNot extends ExpressionUnary {
 
   @Override
   public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
-    // We cast Double to Long as java doesn't support bitwise operations on floating numbers
-    return LuaNumber.valueOf(value.evaluate(scope)).bNot();
+    return Operations.bnot(value.evaluate(scope));
   }
 }
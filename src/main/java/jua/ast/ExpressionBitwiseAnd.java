@@ -2,8 +2,8 @@ package jua.ast;
 
 import jua.evaluator.LuaRuntimeException;
 import jua.evaluator.Scope;
-import jua.objects.LuaNumber;
 import jua.objects.LuaObject;
+import jua.objects.Operations;
 import jua.token.TokenOperator;
 
 public class ExpressionBitwiseAnd extends ExpressionBinary {
@@ -14,7 +14,6 @@ public class ExpressionBitwiseAnd extends ExpressionBinary {
 
   @Override
   public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
-    // We cast Double to Long as java doesn't support bitwise operations on floating numbers
-    return LuaNumber.valueOf(lhs.evaluate(scope)).bAnd(LuaNumber.valueOf(rhs.evaluate(scope)));
+    return Operations.band(lhs.evaluate(scope), rhs.evaluate(scope));
   }
 }
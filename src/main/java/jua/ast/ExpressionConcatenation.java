@@ -1,20 +1,44 @@
 package jua.ast;
 
+import java.util.ArrayList;
 import jua.evaluator.LuaRuntimeException;
 import jua.evaluator.Scope;
 import jua.objects.LuaObject;
-import jua.objects.LuaString;
+import jua.objects.Operations;
 import jua.token.TokenOperator;
 
 public class ExpressionConcatenation extends ExpressionBinary {
+  // a .. b .. c is concatenated at once instead of two at a time, the nested concatenations are
+  // flattened in the order their operands are evaluated
+  private final Expression[] operands;
+
   ExpressionConcatenation(TokenOperator token, Expression lhs, Expression rhs) {
     super(token, lhs, rhs);
+    ArrayList<Expression> operands = new ArrayList<>();
+    flatten(lhs, operands);
+    flatten(rhs, operands);
+    this.operands = operands.toArray(new Expression[0]);
+  }
+
+  private static void flatten(Expression expr, ArrayList<Expression> operands) {
+    if (expr instanceof ExpressionConcatenation) {
+      flatten(((ExpressionConcatenation) expr).lhs, operands);
+      flatten(((ExpressionConcatenation) expr).rhs, operands);
+    } else {
+      operands.add(expr);
+    }
+  }
+
+  public Expression[] getOperands() {
+    return operands;
   }
 
   @Override
   public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
-    LuaString res = LuaString.valueOf(lhs.evaluate(scope));
-    res.append(LuaString.valueOf(rhs.evaluate(scope)));
-    return res;
+    LuaObject[] values = new LuaObject[operands.length];
+    for (int i = 0; i < operands.length; i++) {
+      values[i] = operands[i].evaluate(scope);
+    }
+    return Operations.concat(values, 0, values.length, scope.getBudget());
   }
 }
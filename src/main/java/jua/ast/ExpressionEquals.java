@@ -4,6 +4,7 @@ import jua.evaluator.LuaRuntimeException;
 import jua.evaluator.Scope;
 import jua.objects.LuaBoolean;
 import jua.objects.LuaObject;
+import jua.objects.Operations;
 import jua.token.TokenOperator;
 
 public class ExpressionEquals extends ExpressionBinary {
@@ -15,6 +16,6 @@ public class ExpressionEquals extends ExpressionBinary {
   public LuaBoolean evaluate(Scope scope) throws LuaRuntimeException {
     LuaObject o1 = lhs.evaluate(scope);
     LuaObject o2 = rhs.evaluate(scope);
-    return LuaBoolean.getLuaBool(o1.equals(o2));
+    return LuaBoolean.getLuaBool(Operations.equal(o1, o2));
   }
 }
@@ -112,6 +112,11 @@ public class ExpressionFactory {
     return new ExpressionFunctionCall(var, line, position, args);
   }
 
+  public static ExpressionMethodCall createMethodCall(
+      ExpressionAccess method, int line, int position, ArrayList<Expression> args) {
+    return new ExpressionMethodCall(method, line, position, args);
+  }
+
   public static ExpressionFunction createExpressionFunction(
       Token token, ArrayList<ExpressionIdentifier> args, StatementList statements) {
     return new ExpressionFunction(token, args, statements);
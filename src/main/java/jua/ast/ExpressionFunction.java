@@ -3,14 +3,33 @@ package jua.ast;
 import java.util.ArrayList;
 import java.util.stream.Collectors;
 import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Resolver;
 import jua.evaluator.Scope;
 import jua.objects.LuaFunction;
 import jua.objects.LuaObject;
 import jua.token.Token;
+import jua.token.TokenFactory;
+import jua.vm.Compiler;
+import jua.vm.Prototype;
+import jua.vm.TieredFunction;
 
 public class ExpressionFunction extends Expression implements Variable {
   protected ArrayList<ExpressionIdentifier> args;
   private StatementList statements;
+  // methods receive an implicit self as their first argument
+  private ExpressionIdentifier self;
+  private int frameSize;
+  // level of the frame the function is declared in, see Resolver
+  private int envLevel;
+  // Tiering state, shared by the threads running a cached program and accessed without locking.
+  // calls of the closures created from this function when tiering is enabled, an increment lost to
+  // a race only delays the compilation
+  private int calls;
+  // immutable once compiled and published through the volatile write, threads racing to compile
+  // the function keep either copy
+  private volatile Prototype prototype;
+  // a stale true only compiles the function again, to fail again
+  private boolean isCompilable = true;
 
   ExpressionFunction(Token token) {
     super(token);
@@ -59,14 +78,58 @@ public class ExpressionFunction extends Expression implements Variable {
     return statements;
   }
 
+  // null unless the function is a method
+  public ExpressionIdentifier getSelf() {
+    return self;
+  }
+
+  // Returns the bytecode of the function once its closures have been called threshold times, null
+  // before that or if it can't be compiled
+  public Prototype tierUp(int threshold) {
+    Prototype p = prototype;
+    if (p == null && isCompilable && ++calls >= threshold) {
+      try {
+        p = Compiler.compile(this, envLevel);
+        prototype = p;
+      } catch (LuaRuntimeException | RuntimeException e) {
+        // a function the compiler fails on, for whatever reason, keeps running in the evaluator
+        isCompilable = false;
+      }
+    }
+    return p;
+  }
+
+  void markAsMethod() {
+    self = new ExpressionIdentifier(TokenFactory.create(Scope.SELF, getLine(), getPosition()));
+  }
+
+  @Override
+  public void resolve(Resolver resolver) {
+    resolver.level(level -> envLevel = level);
+    // Arguments take the first slots of the frame, in the same order as in LuaFunction
+    resolver.beginFunction();
+    if (self != null) {
+      self.declare(resolver);
+    }
+    args.forEach(arg -> arg.declare(resolver));
+    statements.resolve(resolver);
+    frameSize = resolver.endFrame();
+  }
+
   @Override
   public LuaFunction evaluate(Scope scope) throws LuaRuntimeException {
     ArrayList<String> argNames = new ArrayList<>();
+    if (self != null) {
+      argNames.add(Scope.SELF);
+    }
     for (ExpressionIdentifier arg : this.args) {
       argNames.add(arg.getIdentifier());
     }
 
-    return new LuaFunction(argNames, scope, statements);
+    if (scope.getTierThreshold() > 0) {
+      return new TieredFunction(argNames, scope, statements, frameSize, this);
+    }
+    return new LuaFunction(argNames, scope, statements, frameSize);
   }
 
   @Override
@@ -4,10 +4,14 @@ import java.util.ArrayList;
 import java.util.Objects;
 import java.util.stream.Collectors;
 import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Resolver;
 import jua.evaluator.Scope;
 import jua.objects.LuaFunction;
 import jua.objects.LuaObject;
 import jua.objects.LuaReturn;
+import jua.objects.LuaTailCall;
+import jua.objects.Metamethod;
+import jua.objects.Operations;
 import jua.token.TokenFactory;
 
 public class ExpressionFunctionCall extends Expression {
@@ -59,19 +63,74 @@ public class ExpressionFunctionCall extends Expression {
     args.add(index, arg);
   }
 
+  public ArrayList<Expression> getArgs() {
+    return args;
+  }
+
+  @Override
+  public void resolve(Resolver resolver) {
+    func.resolve(resolver);
+    args.forEach(arg -> arg.resolve(resolver));
+  }
+
   public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
     LuaObject evaluateResult = func.evaluate(scope);
-    if (!(evaluateResult instanceof LuaFunction)) {
-      throw new LuaRuntimeException(String.format("%s is not callable", func));
+    try {
+      if (!(evaluateResult instanceof LuaFunction)) {
+        return callMetamethod(evaluateResult, util.Util.evaluateExprs(scope, args))
+            .getValues()
+            .get(0);
+      }
+      LuaFunction function = (LuaFunction) evaluateResult;
+      return function.evaluateUnwrap(scope, args);
+    } catch (LuaRuntimeException e) {
+      addTraceback(e);
+      throw e;
     }
-    LuaFunction function = (LuaFunction) evaluateResult;
-    return function.evaluateUnwrap(scope, args);
   }
 
   // This is used publicly only in assignment to support multiple return values
   LuaReturn evaluateNoUnwrap(Scope scope) throws LuaRuntimeException {
-    LuaFunction function = (LuaFunction) func.evaluate(scope);
-    return function.evaluate(scope, args);
+    LuaObject evaluateResult = func.evaluate(scope);
+    try {
+      if (!(evaluateResult instanceof LuaFunction)) {
+        return callMetamethod(evaluateResult, util.Util.evaluateExprs(scope, args));
+      }
+      LuaFunction function = (LuaFunction) evaluateResult;
+      return function.evaluate(scope, args);
+    } catch (LuaRuntimeException e) {
+      addTraceback(e);
+      throw e;
+    }
+  }
+
+  // return f(args): the function and its arguments, called by LuaFunction.evaluate
+  LuaTailCall evaluateTailCall(Scope scope) throws LuaRuntimeException {
+    LuaObject function = func.evaluate(scope);
+    return tailCall(function, util.Util.evaluateExprs(scope, args));
+  }
+
+  LuaTailCall tailCall(LuaObject function, ArrayList<LuaObject> values)
+      throws LuaRuntimeException {
+    if (!(function instanceof LuaFunction)
+        && Operations.metamethod(function, Metamethod.CALL) == null) {
+      throw new LuaRuntimeException(String.format("%s is not callable", func));
+    }
+    return new LuaTailCall(function, values);
+  }
+
+  // Call of a value which isn't a function, through its __call metamethod
+  LuaReturn callMetamethod(LuaObject value, ArrayList<LuaObject> values)
+      throws LuaRuntimeException {
+    if (Operations.metamethod(value, Metamethod.CALL) == null) {
+      throw new LuaRuntimeException(String.format("%s is not callable", func));
+    }
+    return Operations.call(value, values);
+  }
+
+  // Records the call in the traceback of an error raised by it, tail calls aren't recorded
+  void addTraceback(LuaRuntimeException e) {
+    e.addTraceback(getLine(), func.name());
   }
 
   public Variable getFunc() {
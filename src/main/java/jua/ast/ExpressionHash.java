@@ -1,12 +1,9 @@
 package jua.ast;
 
-import jua.evaluator.IllegalTypeException;
 import jua.evaluator.LuaRuntimeException;
 import jua.evaluator.Scope;
-import jua.objects.LuaNumber;
 import jua.objects.LuaObject;
-import jua.objects.LuaString;
-import jua.objects.LuaTable;
+import jua.objects.Operations;
 import jua.token.Operator;
 import jua.token.TokenFactory;
 import jua.token.TokenOperator;
@@ -18,18 +15,7 @@ public class ExpressionHash extends ExpressionUnary {
   }
 
   @Override
-  public LuaNumber evaluate(Scope scope) throws LuaRuntimeException {
-    LuaObject o = value.evaluate(scope);
-
-    if (o instanceof LuaString) {
-      return new LuaNumber((double) ((LuaString) o).getValue().length());
-    }
-
-    if (o instanceof LuaTable) {
-      return new LuaNumber((double) ((LuaTable) o).size());
-    }
-
-    throw new IllegalTypeException(
-        String.format("Can't apply operator # on %s of type %s", o, o.getClass()));
+  public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
+    return Operations.length(value.evaluate(scope));
   }
 }
@@ -1,12 +1,20 @@
 package jua.ast;
 
 import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Resolver;
 import jua.evaluator.Scope;
 import jua.objects.LuaObject;
 import jua.token.Token;
 
-public class ExpressionIdentifier extends Expression implements Variable {
+public class ExpressionIdentifier extends Expression implements Variable, Resolver.Binding {
   private String identifier;
+  // Bound by the Resolver, unresolved identifiers are looked up as globals
+  private int depth;
+  private int slot = Resolver.GLOBAL;
+  // level of the frame declaring the local, see Resolver
+  private int level;
+  // Set on declarations which are referenced from a nested function
+  private boolean isCaptured;
 
   ExpressionIdentifier(Token token) {
     super(token);
@@ -17,20 +25,65 @@ public class ExpressionIdentifier extends Expression implements Variable {
     return identifier;
   }
 
+  public int getDepth() {
+    return depth;
+  }
+
+  public int getSlot() {
+    return slot;
+  }
+
+  public int getLevel() {
+    return level;
+  }
+
+  public boolean isCaptured() {
+    return isCaptured;
+  }
+
   @Override
   public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
-    return scope.getVariable(identifier);
+    if (slot == Resolver.GLOBAL) {
+      return scope.getVariable(identifier);
+    }
+    return scope.getLocal(depth, slot);
   }
 
   @Override
   public void assign(Scope scope, LuaObject value, boolean isLocal) {
-    if (isLocal) {
-      scope.assignLocal(getLiteral(), value);
+    // Whether the variable is local has already been decided by the Resolver
+    if (slot == Resolver.GLOBAL) {
+      scope.assign(identifier, value);
     } else {
-      scope.assign(getLiteral(), value);
+      scope.setLocal(depth, slot, value);
     }
   }
 
+  @Override
+  public void resolve(Resolver resolver) {
+    resolver.reference(identifier, this);
+  }
+
+  void declare(Resolver resolver) {
+    resolver.declare(identifier, this);
+  }
+
+  @Override
+  public void bind(int depth, int slot) {
+    this.depth = depth;
+    this.slot = slot;
+  }
+
+  @Override
+  public void bindLevel(int level) {
+    this.level = level;
+  }
+
+  @Override
+  public void capture() {
+    isCaptured = true;
+  }
+
   @Override
   public String name() {
     return identifier;
@@ -1,10 +1,9 @@
 package jua.ast;
 
-import jua.evaluator.IllegalTypeException;
 import jua.evaluator.LuaRuntimeException;
 import jua.evaluator.Scope;
 import jua.objects.LuaObject;
-import jua.objects.LuaTable;
+import jua.objects.Operations;
 import jua.token.Operator;
 import jua.token.Token;
 import jua.token.TokenFactory;
@@ -27,19 +26,13 @@ public class ExpressionIndex extends ExpressionBinary implements Variable {
   @Override
   public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
     LuaObject table = lhs.evaluate(scope);
-    if (!(table instanceof LuaTable)) {
-      throw new IllegalTypeException(
-          String.format("Can't index LuaObject %s of type %s", table, table.getClass()));
-    }
-
-    return ((LuaTable) table).get(rhs.evaluate(scope));
+    return Operations.index(table, rhs.evaluate(scope), scope);
   }
 
   @Override
   public void assign(Scope scope, LuaObject value, boolean isLocal) throws LuaRuntimeException {
-    LuaObject var = lhs.evaluate(scope);
-    LuaTable table = LuaObject.toTable(var);
-    table.put(rhs.evaluate(scope), value);
+    LuaObject table = lhs.evaluate(scope);
+    Operations.setIndex(table, rhs.evaluate(scope), value);
   }
 
   @Override
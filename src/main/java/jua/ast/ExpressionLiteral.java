@@ -1,6 +1,7 @@
 package jua.ast;
 
 import jua.evaluator.IllegalTypeException;
+import jua.evaluator.Resolver;
 import jua.evaluator.Scope;
 import jua.objects.*;
 import jua.token.Literal;
@@ -9,30 +10,45 @@ import jua.token.TokenLiteral;
 
 public class ExpressionLiteral extends Expression {
   Literal type;
+  // numbers are immutable, they are only created once
+  private LuaNumber number;
+  // interned when the literal is parsed
+  private LuaString string;
 
   ExpressionLiteral(Token token) {
     super(token);
     this.type = ((TokenLiteral) token).getLiteralType();
+    if (type == Literal.STRING) {
+      string = LuaString.intern(getLiteral());
+    }
   }
 
+  @Override
+  public void resolve(Resolver resolver) {}
+
   public LuaObject evaluate(Scope scope) throws IllegalTypeException {
     switch (type) {
       case NIL:
         return LuaNil.getInstance();
       case NUMBER:
-        return new LuaNumber(Double.valueOf(this.getLiteral()));
+        if (number == null) {
+          number = LuaNumber.parse(this.getLiteral());
+        }
+        return number;
       case HEX_NUMBER:
         if (this.getLiteral() == "0x") {
           throw new IllegalTypeException("0x is not a correct hex number.");
         }
-        try {
-          Long hexAsLong = Long.decode(this.getLiteral());
-          return new LuaNumber(hexAsLong.doubleValue());
-        } catch (NumberFormatException e) {
-          throw new IllegalTypeException(e.getMessage());
+        if (number == null) {
+          try {
+            number = LuaNumber.valueOf(Long.decode(this.getLiteral()));
+          } catch (NumberFormatException e) {
+            throw new IllegalTypeException(e.getMessage());
+          }
         }
+        return number;
       case STRING:
-        return new LuaString(this.getLiteral());
+        return string;
       case BOOLEAN:
         String raw = getLiteral();
         if (raw.equals("true")) {
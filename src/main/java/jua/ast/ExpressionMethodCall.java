@@ -0,0 +1,59 @@
+package jua.ast;
+
+import java.util.ArrayList;
+import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Scope;
+import jua.objects.LuaFunction;
+import jua.objects.LuaObject;
+import jua.objects.LuaReturn;
+import jua.objects.LuaTailCall;
+
+// obj:method(args), the call of obj.method(obj, args) with obj evaluated only once. Like the other
+// calls its function is the access obj.method and its first argument is obj, which the Compiler
+// recognizes to emit a SELF instruction.
+public class ExpressionMethodCall extends ExpressionFunctionCall {
+  private final ExpressionAccess method;
+
+  ExpressionMethodCall(
+      ExpressionAccess method, int line, int position, ArrayList<Expression> args) {
+    super(method, line, position, args);
+    this.method = method;
+    addArg(0, method.getLhs());
+  }
+
+  @Override
+  public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
+    return evaluateNoUnwrap(scope).getValues().get(0);
+  }
+
+  @Override
+  LuaReturn evaluateNoUnwrap(Scope scope) throws LuaRuntimeException {
+    LuaObject self = method.getLhs().evaluate(scope);
+    LuaObject function = method.index(self, scope);
+    ArrayList<LuaObject> values = arguments(scope, self);
+    try {
+      if (!(function instanceof LuaFunction)) {
+        return callMetamethod(function, values);
+      }
+      return ((LuaFunction) function).evaluate(values);
+    } catch (LuaRuntimeException e) {
+      addTraceback(e);
+      throw e;
+    }
+  }
+
+  @Override
+  LuaTailCall evaluateTailCall(Scope scope) throws LuaRuntimeException {
+    LuaObject self = method.getLhs().evaluate(scope);
+    LuaObject function = method.index(self, scope);
+    return tailCall(function, arguments(scope, self));
+  }
+
+  private ArrayList<LuaObject> arguments(Scope scope, LuaObject self)
+      throws LuaRuntimeException {
+    ArrayList<LuaObject> values = new ArrayList<>(args.size());
+    values.add(self);
+    values.addAll(util.Util.evaluateExprs(scope, args.subList(1, args.size())));
+    return values;
+  }
+}
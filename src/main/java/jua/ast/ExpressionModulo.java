@@ -2,7 +2,8 @@ package jua.ast;
 
 import jua.evaluator.LuaRuntimeException;
 import jua.evaluator.Scope;
-import jua.objects.LuaNumber;
+import jua.objects.LuaObject;
+import jua.objects.Operations;
 import jua.token.TokenOperator;
 
 public class ExpressionModulo extends ExpressionBinary {
@@ -11,9 +12,7 @@ public class ExpressionModulo extends ExpressionBinary {
   }
 
   @Override
-  public LuaNumber evaluate(Scope scope) throws LuaRuntimeException {
-    return new LuaNumber(
-        LuaNumber.valueOf(lhs.evaluate(scope)).getValue()
-            % LuaNumber.valueOf(rhs.evaluate(scope)).getValue());
+  public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
+    return Operations.mod(lhs.evaluate(scope), rhs.evaluate(scope));
   }
 }
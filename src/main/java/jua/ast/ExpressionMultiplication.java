@@ -2,7 +2,8 @@ package jua.ast;
 
 import jua.evaluator.LuaRuntimeException;
 import jua.evaluator.Scope;
-import jua.objects.LuaNumber;
+import jua.objects.LuaObject;
+import jua.objects.Operations;
 import jua.token.TokenOperator;
 
 public class ExpressionMultiplication extends ExpressionBinary {
@@ -12,9 +13,7 @@ public class ExpressionMultiplication extends ExpressionBinary {
   }
 
   @Override
-  public LuaNumber evaluate(Scope scope) throws LuaRuntimeException {
-    return new LuaNumber(
-        LuaNumber.valueOf(lhs.evaluate(scope)).getValue()
-            * LuaNumber.valueOf(rhs.evaluate(scope)).getValue());
+  public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
+    return Operations.mul(lhs.evaluate(scope), rhs.evaluate(scope));
   }
 }
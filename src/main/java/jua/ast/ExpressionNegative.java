@@ -2,7 +2,8 @@ package jua.ast;
 
 import jua.evaluator.LuaRuntimeException;
 import jua.evaluator.Scope;
-import jua.objects.LuaNumber;
+import jua.objects.LuaObject;
+import jua.objects.Operations;
 import jua.token.Operator;
 import jua.token.Token;
 import jua.token.TokenFactory;
@@ -14,8 +15,7 @@ public class ExpressionNegative extends ExpressionUnary {
   }
 
   @Override
-  public LuaNumber evaluate(Scope scope) throws LuaRuntimeException {
-    Double number = LuaNumber.valueOf(value.evaluate(scope)).getValue();
-    return new LuaNumber(-number);
+  public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
+    return Operations.unm(value.evaluate(scope));
   }
 }
@@ -3,6 +3,7 @@ package jua.ast;
 import jua.evaluator.LuaRuntimeException;
 import jua.evaluator.Scope;
 import jua.objects.LuaBoolean;
+import jua.objects.Operations;
 import jua.token.Operator;
 import jua.token.TokenFactory;
 import jua.token.TokenOperator;
@@ -15,6 +16,6 @@ public class ExpressionNot extends ExpressionUnary {
 
   @Override
   public LuaBoolean evaluate(Scope scope) throws LuaRuntimeException {
-    return LuaBoolean.getLuaBool(!LuaBoolean.valueOf(value.evaluate(scope)).getValue());
+    return LuaBoolean.getLuaBool(!Operations.isTruthy(value.evaluate(scope)));
   }
 }
@@ -2,8 +2,8 @@ package jua.ast;
 
 import jua.evaluator.LuaRuntimeException;
 import jua.evaluator.Scope;
-import jua.objects.LuaBoolean;
 import jua.objects.LuaObject;
+import jua.objects.Operations;
 import jua.token.TokenOperator;
 
 public class ExpressionOr extends ExpressionBinary {
@@ -14,7 +14,7 @@ public class ExpressionOr extends ExpressionBinary {
   @Override
   public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
     LuaObject lValue = lhs.evaluate(scope);
-    if (LuaBoolean.valueOf(lValue).getValue()) {
+    if (Operations.isTruthy(lValue)) {
       return lValue;
     }
     return rhs.evaluate(scope);
@@ -2,8 +2,8 @@ package jua.ast;
 
 import jua.evaluator.LuaRuntimeException;
 import jua.evaluator.Scope;
-import jua.objects.LuaNumber;
 import jua.objects.LuaObject;
+import jua.objects.Operations;
 import jua.token.TokenOperator;
 
 public class ExpressionRightShift extends ExpressionBinary {
@@ -13,8 +13,6 @@ public class ExpressionRightShift extends ExpressionBinary {
 
   @Override
   public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
-    // We cast Double to Long as java doesn't support bitwise operations on floating numbers
-    return LuaNumber.valueOf(lhs.evaluate(scope))
-        .rightShift(LuaNumber.valueOf(rhs.evaluate(scope)));
+    return Operations.shr(lhs.evaluate(scope), rhs.evaluate(scope));
   }
 }
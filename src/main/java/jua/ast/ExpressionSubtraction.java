@@ -2,7 +2,8 @@ package jua.ast;
 
 import jua.evaluator.LuaRuntimeException;
 import jua.evaluator.Scope;
-import jua.objects.LuaNumber;
+import jua.objects.LuaObject;
+import jua.objects.Operations;
 import jua.token.TokenOperator;
 
 public class ExpressionSubtraction extends ExpressionBinary {
@@ -12,10 +13,7 @@ public class ExpressionSubtraction extends ExpressionBinary {
   }
 
   @Override
-  public LuaNumber evaluate(Scope scope) throws LuaRuntimeException {
-    Double number =
-        LuaNumber.valueOf(lhs.evaluate(scope)).getValue()
-            - LuaNumber.valueOf(rhs.evaluate(scope)).getValue();
-    return new LuaNumber(number);
+  public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
+    return Operations.sub(lhs.evaluate(scope), rhs.evaluate(scope));
   }
 }
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Objects;
 import java.util.stream.Collectors;
 import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Resolver;
 import jua.evaluator.Scope;
 import jua.objects.LuaObject;
 import jua.objects.LuaTable;
@@ -42,9 +43,17 @@ public class ExpressionTableConstructor extends Expression {
     return Objects.hash(super.hashCode(), tuples);
   }
 
+  @Override
+  public void resolve(Resolver resolver) {
+    for (Tuple<Expression, Expression> tup : tuples) {
+      tup.x.resolve(resolver);
+      tup.y.resolve(resolver);
+    }
+  }
+
   @Override
   public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
-    LuaTable table = new LuaTable();
+    LuaTable table = new LuaTable(scope.getBudget());
     for (Tuple<Expression, Expression> tup : tuples) {
       table.put(tup.x.evaluate(scope), tup.y.evaluate(scope));
     }
@@ -1,6 +1,7 @@
 package jua.ast;
 
 import java.util.Objects;
+import jua.evaluator.Resolver;
 import jua.token.TokenOperator;
 
 public abstract class ExpressionUnary extends Expression {
@@ -16,6 +17,11 @@ public abstract class ExpressionUnary extends Expression {
     return value;
   }
 
+  @Override
+  public void resolve(Resolver resolver) {
+    value.resolve(resolver);
+  }
+
   //  public String toString() {
   //    return String.format("(%s %s)", ((TokenOperator) this.jua.token).getOperator(), value);
   //  }
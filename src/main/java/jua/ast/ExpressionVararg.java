@@ -18,4 +18,9 @@ public class ExpressionVararg extends ExpressionIdentifier {
     // is never called
     throw new LuaRuntimeException(String.format("evaluate on ... should never be called"));
   }
+
+  // Returns the table holding the extra arguments of the enclosing function
+  public LuaObject evaluateVararg(Scope scope) throws LuaRuntimeException {
+    return super.evaluate(scope);
+  }
 }
@@ -1,9 +1,10 @@
 package jua.ast;
 
 import jua.evaluator.Evaluable;
+import jua.evaluator.Resolvable;
 import jua.token.Token;
 
-public abstract class Statement extends Node implements Evaluable {
+public abstract class Statement extends Node implements Evaluable, Resolvable {
   Statement(Token token) {
     super(token);
   }
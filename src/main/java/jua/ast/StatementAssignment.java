@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Objects;
 import java.util.stream.Collectors;
 import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Resolver;
 import jua.evaluator.Scope;
 import jua.objects.LuaNil;
 import jua.objects.LuaObject;
@@ -60,6 +61,24 @@ public class StatementAssignment extends Statement {
     return Objects.hash(super.hashCode(), isLocal, lhs, rhs);
   }
 
+  public boolean isLocal() {
+    return isLocal;
+  }
+
+  @Override
+  public void resolve(Resolver resolver) {
+    // Values are resolved first so that `local x = x` refers to the outer x
+    rhs.forEach(expr -> expr.resolve(resolver));
+
+    for (Variable var : lhs) {
+      if (isLocal && var instanceof ExpressionIdentifier) {
+        ((ExpressionIdentifier) var).declare(resolver);
+      } else {
+        var.resolve(resolver);
+      }
+    }
+  }
+
   @Override
   public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
     ArrayList<LuaObject> values;
@@ -2,6 +2,7 @@ package jua.ast;
 
 import java.util.Objects;
 import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Resolver;
 import jua.evaluator.Scope;
 import jua.objects.LuaObject;
 import jua.token.Token;
@@ -9,6 +10,7 @@ import jua.token.Token;
 public class StatementBlock extends Statement {
 
   private StatementList list;
+  private int frameSize;
 
   public StatementBlock(Token token, StatementList statement) {
     super(token);
@@ -34,8 +36,19 @@ public class StatementBlock extends Statement {
     return Objects.hash(super.hashCode(), list);
   }
 
+  public StatementList getList() {
+    return list;
+  }
+
+  @Override
+  public void resolve(Resolver resolver) {
+    resolver.beginFrame();
+    list.resolve(resolver);
+    frameSize = resolver.endFrame();
+  }
+
   @Override
   public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
-    return list.evaluate(scope.createChild());
+    return list.evaluate(scope.createChild(frameSize));
   }
 }
@@ -1,6 +1,7 @@
 package jua.ast;
 
 import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Resolver;
 import jua.evaluator.Scope;
 import jua.objects.LuaBreak;
 import jua.objects.LuaObject;
@@ -11,6 +12,9 @@ public class StatementBreak extends Statement {
     super(token);
   }
 
+  @Override
+  public void resolve(Resolver resolver) {}
+
   @Override
   public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
     return new LuaBreak();
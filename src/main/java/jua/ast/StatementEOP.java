@@ -1,6 +1,7 @@
 package jua.ast;
 
 import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Resolver;
 import jua.evaluator.Scope;
 import jua.objects.LuaObject;
 import jua.token.Literal;
@@ -11,6 +12,9 @@ public class StatementEOP extends Statement {
     super(TokenFactory.create(Literal.NIL, "nil"));
   }
 
+  @Override
+  public void resolve(Resolver resolver) {}
+
   @Override
   public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
     throw new LuaRuntimeException(String.format("Statement EOD should not be evaluated"));
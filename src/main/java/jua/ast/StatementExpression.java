@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Objects;
 import java.util.stream.Collectors;
 import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Resolver;
 import jua.evaluator.Scope;
 import jua.objects.LuaObject;
 import jua.token.TokenFactory;
@@ -49,6 +50,11 @@ public class StatementExpression extends Statement {
     return Objects.hash(super.hashCode(), exprs);
   }
 
+  @Override
+  public void resolve(Resolver resolver) {
+    exprs.forEach(expr -> expr.resolve(resolver));
+  }
+
   @Override
   public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
     ArrayList<LuaObject> objects = util.Util.evaluateExprs(scope, exprs);
@@ -2,11 +2,14 @@ package jua.ast;
 
 import java.util.ArrayList;
 import java.util.Objects;
+import jua.evaluator.Resolver;
 import jua.token.Token;
 
 public abstract class StatementFor extends Statement {
   ArrayList<ExpressionIdentifier> variables;
   Statement block;
+  // frame holding the loop variables, a new one is created for each iteration
+  int frameSize;
 
   public StatementFor(Token token, ArrayList<ExpressionIdentifier> variables, Statement block) {
     super(token);
@@ -14,6 +17,21 @@ public abstract class StatementFor extends Statement {
     this.block = block;
   }
 
+  public ArrayList<ExpressionIdentifier> getVariables() {
+    return variables;
+  }
+
+  public Statement getBlock() {
+    return block;
+  }
+
+  void resolveLoop(Resolver resolver) {
+    resolver.beginFrame();
+    variables.forEach(variable -> variable.declare(resolver));
+    block.resolve(resolver);
+    frameSize = resolver.endFrame();
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
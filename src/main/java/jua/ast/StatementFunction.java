@@ -2,6 +2,7 @@ package jua.ast;
 
 import java.util.stream.Collectors;
 import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Resolver;
 import jua.evaluator.Scope;
 import jua.objects.LuaNil;
 import jua.objects.LuaObject;
@@ -49,6 +50,29 @@ public class StatementFunction extends Statement {
         util.Util.indent(func.getStatements().toString()));
   }
 
+  public Variable getFuncVar() {
+    return funcVar;
+  }
+
+  public ExpressionFunction getFunc() {
+    return func;
+  }
+
+  public boolean isLocal() {
+    return isLocal;
+  }
+
+  @Override
+  public void resolve(Resolver resolver) {
+    // A local function is declared before its body so that it can call itself
+    if (isLocal && funcVar instanceof ExpressionIdentifier) {
+      ((ExpressionIdentifier) funcVar).declare(resolver);
+    } else {
+      funcVar.resolve(resolver);
+    }
+    func.resolve(resolver);
+  }
+
   @Override
   public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
     funcVar.assign(scope, func.evaluate(scope), isLocal);
@@ -3,7 +3,9 @@ package jua.ast;
 import java.util.ArrayList;
 import java.util.Objects;
 import java.util.stream.Collectors;
+import jua.evaluator.Budget;
 import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Resolver;
 import jua.evaluator.Scope;
 import jua.objects.*;
 import jua.token.Token;
@@ -38,14 +40,24 @@ public class StatementGenericFor extends StatementFor {
   @Override
   public String toString() {
     return String.format(
-        "for %s in %s, %s, %s do\n %s\nend",
-        variables.stream().map(Object::toString).collect(Collectors.joining(",")), block);
+        "for %s in %s do\n %s\nend",
+        variables.stream().map(Object::toString).collect(Collectors.joining(", ")),
+        iteratorStateVar.stream().map(Object::toString).collect(Collectors.joining(", ")),
+        block);
+  }
+
+  public ArrayList<Expression> getIteratorStateVar() {
+    return iteratorStateVar;
   }
 
   @Override
-  public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
-    Scope forScope = scope.createChild();
+  public void resolve(Resolver resolver) {
+    iteratorStateVar.forEach(expr -> expr.resolve(resolver));
+    resolveLoop(resolver);
+  }
 
+  @Override
+  public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
     ArrayList<LuaObject> evaluatedIteratorStateVar;
     if (iteratorStateVar.size() == 1 && iteratorStateVar.get(0) instanceof ExpressionFunctionCall) {
       evaluatedIteratorStateVar =
@@ -66,17 +78,15 @@ public class StatementGenericFor extends StatementFor {
     }
 
     LuaObject ret = LuaNil.getInstance();
+    Budget budget = scope.getBudget();
     while (true) {
+      budget.step();
       ArrayList<LuaObject> values =
           iteratorValue.evaluate(util.Util.createArrayList(stateValue, varValue)).getValues();
 
-      for (int i = 0; i < variables.size(); i++) {
-        String ident = variables.get(i).getIdentifier();
-        LuaObject value = LuaNil.getInstance();
-        if (i < values.size()) {
-          value = values.get(i);
-        }
-        forScope.assignLocal(ident, value);
+      Scope forScope = scope.createChild(frameSize);
+      for (int i = 0; i < Math.min(variables.size(), values.size()); i++) {
+        forScope.setLocal(0, i, values.get(i));
       }
 
       varValue = values.get(0);
@@ -1,6 +1,7 @@
 package jua.ast;
 
 import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Resolver;
 import jua.evaluator.Scope;
 import jua.objects.LuaBoolean;
 import jua.objects.LuaNil;
@@ -11,6 +12,7 @@ public class StatementIf extends Statement {
   private Expression condition;
   private Statement consequence;
   private Statement alternative;
+  private int frameSize;
 
   public StatementIf(Token token, Expression condition, Statement consequence) {
     super(token);
@@ -73,9 +75,20 @@ public class StatementIf extends Statement {
     return alternative;
   }
 
+  @Override
+  public void resolve(Resolver resolver) {
+    resolver.beginFrame();
+    condition.resolve(resolver);
+    consequence.resolve(resolver);
+    if (alternative != null) {
+      alternative.resolve(resolver);
+    }
+    frameSize = resolver.endFrame();
+  }
+
   @Override
   public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
-    Scope ifScope = scope.createChild();
+    Scope ifScope = scope.createChild(frameSize);
 
     if (LuaBoolean.valueOf(condition.evaluate(ifScope)).getValue()) {
       return consequence.evaluate(ifScope);
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Objects;
 import java.util.stream.Collectors;
 import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Resolver;
 import jua.evaluator.Scope;
 import jua.objects.LuaBreak;
 import jua.objects.LuaNil;
@@ -52,6 +53,11 @@ public class StatementList extends Statement {
     return Objects.hash(super.hashCode(), children);
   }
 
+  @Override
+  public void resolve(Resolver resolver) {
+    children.forEach(statement -> statement.resolve(resolver));
+  }
+
   @Override
   public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
     LuaObject ret = LuaNil.getInstance();
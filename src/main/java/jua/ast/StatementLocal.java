@@ -1,6 +1,7 @@
 package jua.ast;
 
 import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Resolver;
 import jua.evaluator.Scope;
 import jua.objects.LuaObject;
 import jua.token.Token;
@@ -31,6 +32,11 @@ public class StatementLocal extends Statement {
     return result;
   }
 
+  @Override
+  public void resolve(Resolver resolver) {
+    assignment.resolve(resolver);
+  }
+
   @Override
   public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
     // TODO
@@ -3,6 +3,7 @@ package jua.ast;
 import java.util.stream.Collectors;
 import jua.evaluator.IllegalTypeException;
 import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Resolver;
 import jua.evaluator.Scope;
 import jua.objects.LuaFunction;
 import jua.objects.LuaNil;
@@ -20,6 +21,7 @@ public class StatementMethod extends Statement {
     this.name = name;
     this.funcVar = funcVar;
     this.func = func;
+    func.markAsMethod();
   }
 
   @Override
@@ -32,6 +34,24 @@ public class StatementMethod extends Statement {
         util.Util.indent(func.getStatements().toString()));
   }
 
+  public Variable getFuncVar() {
+    return funcVar;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public ExpressionFunction getFunc() {
+    return func;
+  }
+
+  @Override
+  public void resolve(Resolver resolver) {
+    funcVar.resolve(resolver);
+    func.resolve(resolver);
+  }
+
   @Override
   public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
     LuaObject table = funcVar.evaluate(scope);
@@ -44,7 +64,6 @@ public class StatementMethod extends Statement {
     LuaTable self = (LuaTable) table;
 
     LuaFunction method = func.evaluate(scope);
-    method.setSelf(self);
     self.put(name, method);
 
     return LuaNil.getInstance();
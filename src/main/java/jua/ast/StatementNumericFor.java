@@ -1,7 +1,9 @@
 package jua.ast;
 
 import java.util.Objects;
+import jua.evaluator.Budget;
 import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Resolver;
 import jua.evaluator.Scope;
 import jua.objects.*;
 import jua.token.Token;
@@ -48,22 +50,45 @@ public class StatementNumericFor extends StatementFor {
         "for %s = %s, %s, %s do\n %s\nend", variables.get(0), var, limit, step, block);
   }
 
+  public Expression getVar() {
+    return var;
+  }
+
+  public Expression getLimit() {
+    return limit;
+  }
+
+  public Expression getStep() {
+    return step;
+  }
+
   @Override
-  public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
-    Scope forScope = scope.createChild();
+  public void resolve(Resolver resolver) {
+    var.resolve(resolver);
+    limit.resolve(resolver);
+    step.resolve(resolver);
+    resolveLoop(resolver);
+  }
 
-    LuaNumber varValue = LuaNumber.valueOf(var.evaluate(forScope));
-    LuaNumber limitValue = LuaNumber.valueOf(limit.evaluate(forScope));
-    LuaNumber stepValue = LuaNumber.valueOf(step.evaluate(forScope));
+  @Override
+  public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
+    LuaNumber varValue = LuaNumber.valueOf(var.evaluate(scope));
+    LuaNumber limitValue = LuaNumber.valueOf(limit.evaluate(scope));
+    LuaNumber stepValue = LuaNumber.valueOf(step.evaluate(scope));
+    limitValue = Operations.forLimit(varValue, limitValue, stepValue);
 
     LuaObject ret = LuaNil.getInstance();
+    Budget budget = scope.getBudget();
 
-    while ((stepValue.getValue() > 0 && varValue.getValue() <= limitValue.getValue())
-        || (stepValue.getValue() <= 0 && varValue.getValue() >= limitValue.getValue())) {
-
-      forScope.assignLocal(variables.get(0).getIdentifier(), varValue);
+    if (!Operations.forContinues(varValue, limitValue, stepValue)) {
+      return ret;
+    }
+    while (varValue != null) {
+      budget.step();
+      Scope forScope = scope.createChild(frameSize);
+      forScope.setLocal(0, 0, varValue);
       ret = block.evaluate(forScope);
-      varValue = new LuaNumber(varValue.getValue() + stepValue.getValue());
+      varValue = Operations.forNext(varValue, limitValue, stepValue);
 
       if (ret instanceof LuaReturn) {
         return ret;
@@ -1,6 +1,8 @@
 package jua.ast;
 
+import jua.evaluator.Budget;
 import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Resolver;
 import jua.evaluator.Scope;
 import jua.objects.*;
 import jua.token.Token;
@@ -9,6 +11,7 @@ public class StatementRepeatUntil extends Statement {
 
   private Expression condition;
   private Statement action;
+  private int frameSize;
 
   public StatementRepeatUntil(Token token, Expression condition, Statement action) {
     super(token);
@@ -41,14 +44,33 @@ public class StatementRepeatUntil extends Statement {
     return String.format("repeat\n%s\nuntil %s", util.Util.indent(action.toString()), condition);
   }
 
+  public Expression getCondition() {
+    return condition;
+  }
+
+  public Statement getAction() {
+    return action;
+  }
+
   @Override
-  public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
-    Scope repeatScope = scope.createChild();
+  public void resolve(Resolver resolver) {
+    // the condition can see the locals declared in the loop body
+    resolver.beginFrame();
+    action.resolve(resolver);
+    condition.resolve(resolver);
+    frameSize = resolver.endFrame();
+  }
 
+  @Override
+  public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
     LuaObject ret = LuaNil.getInstance();
+    Scope repeatScope;
+    Budget budget = scope.getBudget();
 
     do {
-      ret = action.evaluate(repeatScope.createChild());
+      budget.step();
+      repeatScope = scope.createChild(frameSize);
+      ret = action.evaluate(repeatScope);
 
       if (ret instanceof LuaReturn) {
         return ret;
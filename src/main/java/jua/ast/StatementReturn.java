@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Objects;
 import java.util.stream.Collectors;
 import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Resolver;
 import jua.evaluator.Scope;
 import jua.objects.LuaObject;
 import jua.objects.LuaReturn;
@@ -11,6 +12,8 @@ import jua.token.Token;
 
 public class StatementReturn extends Statement {
   private ArrayList<Expression> values = new ArrayList<>();
+  // return f(args) in a function, the call is made by the caller of the function
+  private boolean isTailCall;
 
   public StatementReturn(Token token) {
     super(token);
@@ -50,8 +53,24 @@ public class StatementReturn extends Statement {
         "return %s", values.stream().map(Objects::toString).collect(Collectors.joining(",")));
   }
 
+  public ArrayList<Expression> getValues() {
+    return values;
+  }
+
+  @Override
+  public void resolve(Resolver resolver) {
+    values.forEach(value -> value.resolve(resolver));
+    isTailCall =
+        values.size() == 1
+            && values.get(0) instanceof ExpressionFunctionCall
+            && resolver.isInFunction();
+  }
+
   @Override
   public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
+    if (isTailCall) {
+      return ((ExpressionFunctionCall) values.get(0)).evaluateTailCall(scope);
+    }
     ArrayList<LuaObject> returnValues = new ArrayList<>();
     for (Expression value : values) {
       returnValues.add(value.evaluate(scope));
@@ -1,6 +1,8 @@
 package jua.ast;
 
+import jua.evaluator.Budget;
 import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Resolver;
 import jua.evaluator.Scope;
 import jua.objects.*;
 import jua.token.Token;
@@ -51,12 +53,19 @@ public class StatementWhile extends Statement {
   }
 
   @Override
-  public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
-    Scope whileScope = scope.createChild();
+  public void resolve(Resolver resolver) {
+    // the consequence is a block which holds its own frame
+    condition.resolve(resolver);
+    consequence.resolve(resolver);
+  }
 
+  @Override
+  public LuaObject evaluate(Scope scope) throws LuaRuntimeException {
     LuaObject ret = LuaNil.getInstance();
-    while (LuaBoolean.valueOf(condition.evaluate(whileScope)).getValue()) {
-      ret = consequence.evaluate(whileScope.createChild());
+    Budget budget = scope.getBudget();
+    while (LuaBoolean.valueOf(condition.evaluate(scope)).getValue()) {
+      budget.step();
+      ret = consequence.evaluate(scope);
 
       if (ret instanceof LuaReturn) {
         return ret;
@@ -2,10 +2,11 @@ package jua.ast;
 
 import jua.evaluator.Evaluable;
 import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Resolvable;
 import jua.evaluator.Scope;
 import jua.objects.LuaObject;
 
-public interface Variable extends Evaluable {
+public interface Variable extends Evaluable, Resolvable {
   void assign(Scope scope, LuaObject value, boolean isLocal) throws LuaRuntimeException;
 
   String name();
@@ -0,0 +1,132 @@
+package jua.evaluator;
+
+import java.time.Duration;
+
+// Resources a program may use before it is stopped with a BudgetExceededException: a number of
+// steps (loop iterations and function calls), an approximate number of bytes allocated by tables
+// and strings, a call depth and a wall-clock time. A limit of 0 is unlimited, except for the depth
+// which is then MAX_DEPTH: the calls of the VM are kept on the heap, a runaway recursion must end
+// with an error rather than by exhausting it. The deadline starts when the budget is created.
+//
+// A step only decrements a counter, the limits other than the depth are checked every
+// CHECK_INTERVAL steps or on the next step once the memory limit has been exceeded. Memory is
+// charged when a table grows or a string is copied and never given back, so the memory limit
+// bounds what a program allocates over its whole run rather than what it holds at once.
+//
+// A budget is used by the thread evaluating the program and by the threads of its coroutines,
+// which take turns with it. Only cancel may be called by others.
+public class Budget {
+  private static final int CHECK_INTERVAL = 1024;
+  // nested calls allowed when the depth isn't limited, about the stack size of the reference
+  // implementation (LUAI_MAXSTACK) for small frames
+  public static final int MAX_DEPTH = 200000;
+
+  private final long maxSteps;
+  private final long maxMemory;
+  private final int maxDepth;
+  // System.nanoTime() at which the program is stopped, only set if hasDeadline
+  private final long deadline;
+  private final boolean hasDeadline;
+
+  // steps taken before the current interval
+  private long steps;
+  private int interval;
+  private int countdown;
+  private long memory;
+  private int depth;
+  private volatile boolean isCancelled;
+
+  public Budget() {
+    this(0, 0, 0, Duration.ZERO);
+  }
+
+  public Budget(long maxSteps, long maxMemory, int maxDepth, Duration timeout) {
+    this.maxSteps = maxSteps;
+    this.maxMemory = maxMemory;
+    this.maxDepth = maxDepth > 0 ? maxDepth : MAX_DEPTH;
+    this.hasDeadline = !timeout.isZero();
+    this.deadline = hasDeadline ? System.nanoTime() + timeout.toNanos() : 0;
+    this.interval = nextInterval();
+    this.countdown = interval;
+  }
+
+  public void step() throws BudgetExceededException {
+    if (--countdown == 0) {
+      check();
+    }
+  }
+
+  private void check() throws BudgetExceededException {
+    steps += interval - countdown;
+    if (maxSteps > 0 && steps > maxSteps) {
+      throw new BudgetExceededException(
+          String.format("Instruction budget of %d steps exceeded", maxSteps));
+    }
+    if (maxMemory > 0 && memory > maxMemory) {
+      throw new BudgetExceededException(
+          String.format("Memory budget of %d bytes exceeded", maxMemory));
+    }
+    if (isCancelled) {
+      throw new BudgetExceededException("Evaluation cancelled");
+    }
+    if (hasDeadline && System.nanoTime() - deadline >= 0) {
+      throw new BudgetExceededException("Time limit exceeded");
+    }
+    interval = nextInterval();
+    countdown = interval;
+  }
+
+  // The next check happens right as the step budget is exceeded
+  private int nextInterval() {
+    if (maxSteps <= 0) {
+      return CHECK_INTERVAL;
+    }
+    return (int) Math.max(1, Math.min(CHECK_INTERVAL, maxSteps - steps + 1));
+  }
+
+  // Records an allocation, the limit is enforced on the next step
+  public void charge(long bytes) {
+    memory += bytes;
+    if (maxMemory > 0 && memory > maxMemory) {
+      steps += interval - countdown;
+      interval = 1;
+      countdown = 1;
+    }
+  }
+
+  public void enter() throws BudgetExceededException {
+    if (++depth > maxDepth) {
+      depth--;
+      throw new BudgetExceededException(
+          String.format("Stack overflow: more than %d nested calls", maxDepth));
+    }
+    step();
+  }
+
+  public void exit() {
+    depth--;
+  }
+
+  // Sets the depth back after calls left by an error, or when a coroutine yields and its calls are
+  // no longer on the stack of the program
+  public void unwind(int depth) {
+    this.depth = depth;
+  }
+
+  // Stops the program at its next check
+  public void cancel() {
+    isCancelled = true;
+  }
+
+  public long getSteps() {
+    return steps + interval - countdown;
+  }
+
+  public long getMemory() {
+    return memory;
+  }
+
+  public int getDepth() {
+    return depth;
+  }
+}
@@ -0,0 +1,9 @@
+package jua.evaluator;
+
+// Raised when a program runs out of one of the resources of its Budget
+public class BudgetExceededException extends LuaRuntimeException {
+
+  public BudgetExceededException(String message) {
+    super(message);
+  }
+}
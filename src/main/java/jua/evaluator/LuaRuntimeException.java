@@ -1,7 +1,42 @@
 package jua.evaluator;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class LuaRuntimeException extends Exception {
+  // frames kept in a traceback, the deeper ones are only counted
+  private static final int TRACEBACK_LEVELS = 20;
+
+  // calls the error went through, innermost first
+  private final ArrayList<String> traceback = new ArrayList<>();
+  private int skippedLevels;
+
   public LuaRuntimeException(String message) {
     super(message);
   }
+
+  // Records a call the error unwinds: the function and the line it was running or called at
+  public void addTraceback(int line, String function) {
+    if (traceback.size() < TRACEBACK_LEVELS) {
+      traceback.add(String.format("line %d: in function '%s'", line, function));
+    } else {
+      skippedLevels++;
+    }
+  }
+
+  public List<String> getTraceback() {
+    return traceback;
+  }
+
+  // The traceback formatted like the one of the reference implementation
+  public String formatTraceback() {
+    StringBuilder sb = new StringBuilder("stack traceback:");
+    for (String frame : traceback) {
+      sb.append("\n\t").append(frame);
+    }
+    if (skippedLevels > 0) {
+      sb.append(String.format("\n\t...\t(skipping %d levels)", skippedLevels));
+    }
+    return sb.toString();
+  }
 }
@@ -0,0 +1,5 @@
+package jua.evaluator;
+
+public interface Resolvable {
+  void resolve(Resolver resolver);
+}
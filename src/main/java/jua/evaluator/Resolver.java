@@ -0,0 +1,163 @@
+package jua.evaluator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.function.IntConsumer;
+
+// The Resolver runs once on the AST between parsing and evaluation. It binds every local variable
+// to a (depth, slot) pair: depth is the number of frames to walk up from the current Scope and slot
+// is the index in that frame. Names which are not declared in any enclosing frame are globals and
+// are bound to GLOBAL, they are looked up by name in the global table of the Scope.
+//
+// Frames that end up without any slot are not allocated at runtime (see Scope.createChild), so
+// depths can only be computed once every frame between a reference and its declaration is closed.
+//
+// Locals referenced from a nested function are reported to their declaration as captured, the
+// bytecode compiler boxes them so that closures share them with the declaring function.
+//
+// References also get the level of their declaring frame: the number of allocated frames from the
+// top of the chunk to it. A function compiled on its own reads the locals of the enclosing AST
+// functions in the Scope it was created in, at depth (level of that Scope - level of the local).
+public class Resolver {
+  public static final int GLOBAL = -1;
+
+  private Frame frame;
+  private final ArrayList<Runnable> fixups = new ArrayList<>();
+
+  public interface Binding {
+    void bind(int depth, int slot);
+
+    default void bindLevel(int level) {}
+
+    default void capture() {}
+  }
+
+  private static class Local {
+    private final int slot;
+    private final Binding binding;
+
+    Local(int slot, Binding binding) {
+      this.slot = slot;
+      this.binding = binding;
+    }
+  }
+
+  private static class Frame {
+    private final Frame parent;
+    private final boolean isFunction;
+    private final HashMap<String, Local> locals = new HashMap<>();
+    private int size;
+
+    Frame(Frame parent, boolean isFunction) {
+      this.parent = parent;
+      this.isFunction = isFunction;
+    }
+  }
+
+  public static <T extends Resolvable> T resolve(T node) {
+    Resolver resolver = new Resolver();
+    node.resolve(resolver);
+    resolver.finish();
+    return node;
+  }
+
+  public void beginFrame() {
+    frame = new Frame(frame, false);
+  }
+
+  // Same as beginFrame, for the frame holding the arguments of a function
+  public void beginFunction() {
+    frame = new Frame(frame, true);
+  }
+
+  // Returns the number of slots the frame needs at runtime
+  public int endFrame() {
+    int size = frame.size;
+    frame = frame.parent;
+    return size;
+  }
+
+  // Declare a new local in the current frame, shadowing any previous declaration with the same
+  // name. Locals declared outside of any frame (ie at the top level of a chunk) are globals.
+  public void declare(String identifier, Binding binding) {
+    if (frame == null) {
+      binding.bind(0, GLOBAL);
+      return;
+    }
+
+    int slot = frame.size++;
+    frame.locals.put(identifier, new Local(slot, binding));
+    binding.bind(0, slot);
+  }
+
+  // Whether the current frame is in a function, rather than at the top level of the chunk
+  public boolean isInFunction() {
+    for (Frame f = frame; f != null; f = f.parent) {
+      if (f.isFunction) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public void reference(String identifier, Binding binding) {
+    Frame from = frame;
+    for (Frame f = frame; f != null; f = f.parent) {
+      Local local = f.locals.get(identifier);
+      if (local != null) {
+        Frame declaration = f;
+        if (crossesFunction(from, declaration)) {
+          local.binding.capture();
+        }
+        fixups.add(
+            () -> {
+              binding.bind(depth(from, declaration), local.slot);
+              binding.bindLevel(level(declaration));
+            });
+        return;
+      }
+    }
+
+    binding.bind(0, GLOBAL);
+  }
+
+  // Calls back with the level of the current frame once it is known
+  public void level(IntConsumer callback) {
+    Frame current = frame;
+    fixups.add(() -> callback.accept(level(current)));
+  }
+
+  private static int level(Frame frame) {
+    int level = 0;
+    for (Frame f = frame; f != null; f = f.parent) {
+      if (f.size > 0) {
+        level++;
+      }
+    }
+    return level;
+  }
+
+  private static int depth(Frame from, Frame declaration) {
+    int depth = 0;
+    for (Frame f = from; f != declaration; f = f.parent) {
+      if (f.size > 0) {
+        depth++;
+      }
+    }
+    return depth;
+  }
+
+  private static boolean crossesFunction(Frame from, Frame declaration) {
+    for (Frame f = from; f != declaration; f = f.parent) {
+      if (f.isFunction) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void finish() {
+    fixups.forEach(Runnable::run);
+    fixups.clear();
+  }
+}
@@ -1,73 +1,182 @@
 package jua.evaluator;
 
 import java.io.OutputStream;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Map;
+import jua.objects.LuaCoroutine;
 import jua.objects.LuaNil;
 import jua.objects.LuaObject;
+import jua.objects.LuaTable;
 import jua.objects.builtins.Builtin;
 
 public class Scope {
   public static final String SELF = "self";
-  private HashMap<String, LuaObject> scope = new HashMap<>();
-  private HashSet<String> locals = new HashSet<>();
+  private static final LuaObject[] NO_SLOTS = new LuaObject[0];
 
-  private Scope parent;
+  // globals are shared by every frame created from the same root scope
+  private final HashMap<String, LuaObject> globals;
+  // builtins shared by every root scope, read when a global isn't set. The library tables are
+  // mutable, a root scope copies them to its globals the first time they are read.
+  private final Map<String, LuaObject> builtins;
+  // locals are stored in fixed size frames, their indexes are computed by the Resolver
+  private final LuaObject[] slots;
+
+  private final Scope parent;
+  private final Scope root;
+  // number of calls after which a function is compiled to bytecode, 0 if it never is
+  private int tierThreshold;
+  // resources left to the program run against the root scope
+  private Budget budget = new Budget();
+  // metatable of the strings of the program, created when a string is first indexed
+  private LuaTable stringMetatable;
+  // coroutines of the program which haven't ended, only set on the root
+  private final LuaCoroutine.Group coroutines;
 
   public Scope() {
-    this.parent = Builtin.createScope();
+    this(System.out);
   }
 
   public Scope(boolean withBuiltins) {
+    this(withBuiltins ? Builtin.shared() : Map.of());
     if (withBuiltins) {
-      this.parent = Builtin.createScope();
+      Builtin.registerScoped(this, System.out);
     }
   }
 
   public Scope(OutputStream out) {
-    this.parent = Builtin.createScope(out);
+    this(Builtin.shared());
+    Builtin.registerScoped(this, out);
+  }
+
+  private Scope(Map<String, LuaObject> builtins) {
+    this.globals = new HashMap<>();
+    this.builtins = builtins;
+    this.slots = NO_SLOTS;
+    this.parent = null;
+    this.root = this;
+    this.coroutines = new LuaCoroutine.Group();
   }
 
-  public Scope(Scope parent) {
+  private Scope(Scope parent, int size) {
+    this.globals = parent.globals;
+    this.builtins = parent.builtins;
+    this.slots = new LuaObject[size];
     this.parent = parent;
+    this.root = parent.root;
+    this.coroutines = null;
+  }
+
+  // Frames without any slot are not allocated, the Resolver doesn't count them in the depth
+  public Scope createChild(int size) {
+    if (size == 0) {
+      return this;
+    }
+    return new Scope(this, size);
+  }
+
+  public LuaObject getLocal(int depth, int slot) {
+    Scope scope = this;
+    for (int i = 0; i < depth; i++) {
+      scope = scope.parent;
+    }
+
+    LuaObject variable = scope.slots[slot];
+    return variable == null ? LuaNil.getInstance() : variable;
   }
 
-  public Scope createChild() {
-    return new Scope(this);
+  public void setLocal(int depth, int slot, LuaObject value) {
+    Scope scope = this;
+    for (int i = 0; i < depth; i++) {
+      scope = scope.parent;
+    }
+
+    scope.slots[slot] = value;
   }
 
+  // Named accesses always target the global table: locals are only reachable through the slot
+  // they have been bound to by the Resolver.
   public LuaObject getVariable(String identifier) {
-    LuaObject variable = scope.get(identifier);
+    LuaObject variable = globals.get(identifier);
+    if (variable != null) {
+      return variable;
+    }
 
-    // Don't check if variable is nil here because it could be nil in an inner scope in a legitimate
-    // way
-    if (variable == null && parent != null) {
-      variable = parent.getVariable(identifier);
+    variable = builtins.get(identifier);
+    if (variable == null) {
+      return LuaNil.getInstance();
     }
+    if (variable instanceof LuaTable) {
+      variable = ((LuaTable) variable).copy();
+      globals.put(identifier, variable);
+    }
+    return variable;
+  }
 
-    return variable == null ? LuaNil.getInstance() : variable;
+  public Map<String, LuaObject> getGlobals() {
+    return Collections.unmodifiableMap(globals);
+  }
+
+  // Forgets the globals of a root scope so that it can run another program, print writes to out.
+  // The coroutines left suspended by the previous program are unwound.
+  public void reset(OutputStream out) {
+    coroutines.abandonAll();
+    globals.clear();
+    tierThreshold = 0;
+    budget = new Budget();
+    stringMetatable = null;
+    Builtin.registerScoped(this, out);
   }
 
-  public void assignSelf(LuaObject value) {
-    assignLocal(SELF, value);
+  // Rebinds print to out, the globals and the state of the other builtins are kept
+  public void setOutput(OutputStream out) {
+    Builtin.registerOutput(this, out);
   }
 
   public void assignLocal(String identifier, LuaObject value) {
-    scope.put(identifier, value);
-    locals.add(identifier);
+    globals.put(identifier, value);
   }
 
   public void assign(String identifier, LuaObject value) {
-    // Check if the variable isn't local first
-    if (locals.contains(identifier) || parent == null) {
-      assignLocal(identifier, value);
-    } else {
-      parent.assign(identifier, value);
+    globals.put(identifier, value);
+  }
+
+  public int getTierThreshold() {
+    return root.tierThreshold;
+  }
+
+  // Applies to the whole tree of scopes created from the root of this one
+  public void setTierThreshold(int tierThreshold) {
+    root.tierThreshold = tierThreshold;
+  }
+
+  public Budget getBudget() {
+    return root.budget;
+  }
+
+  // Applies to the whole tree of scopes created from the root of this one
+  public void setBudget(Budget budget) {
+    root.budget = budget;
+  }
+
+  public LuaCoroutine.Group getCoroutines() {
+    return root.coroutines;
+  }
+
+  // Its __index is the string table of the program, s:upper() is string.upper(s) and the functions
+  // the program adds to string are methods of the strings
+  public LuaTable getStringMetatable() {
+    Scope r = root;
+    if (r.stringMetatable == null) {
+      LuaTable metatable = new LuaTable();
+      metatable.put("__index", r.getVariable("string"));
+      r.stringMetatable = metatable;
     }
+    return r.stringMetatable;
   }
 
   @Override
   public String toString() {
-    return "Scope{" + "scope=" + scope + '}';
+    return "Scope{" + "globals=" + globals.keySet() + ", slots=" + slots.length + '}';
   }
 }
@@ -0,0 +1,40 @@
+package jua.lexer;
+
+import util.BufferedChannel;
+
+// Characters sent one by one, the producer closes the channel once it is done
+class ChannelSource implements CharSource {
+  private final BufferedChannel<Character> in;
+
+  ChannelSource(BufferedChannel<Character> in) {
+    this.in = in;
+  }
+
+  @Override
+  public char peek() {
+    Character c = null;
+    try {
+      c = in.peek();
+    } catch (InterruptedException e) {
+      e.printStackTrace();
+    }
+    if (c != null) {
+      return c;
+    }
+    return 0;
+  }
+
+  @Override
+  public char read() {
+    try {
+      Character c = in.read();
+      if (c != null) {
+        return c;
+      }
+    } catch (InterruptedException e) {
+      // TODO: handle this
+      e.printStackTrace();
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,23 @@
+package jua.lexer;
+
+class CharArraySource implements CharSource {
+  private final char[] chars;
+  private final int end;
+  private int pos;
+
+  CharArraySource(char[] chars, int start, int end) {
+    this.chars = chars;
+    this.pos = start;
+    this.end = end;
+  }
+
+  @Override
+  public char peek() {
+    return pos < end ? chars[pos] : 0;
+  }
+
+  @Override
+  public char read() {
+    return pos < end ? chars[pos++] : 0;
+  }
+}
@@ -0,0 +1,23 @@
+package jua.lexer;
+
+// Strings and CharBuffers are read in place, without copying them
+class CharSequenceSource implements CharSource {
+  private final CharSequence chars;
+  private final int end;
+  private int pos;
+
+  CharSequenceSource(CharSequence chars) {
+    this.chars = chars;
+    this.end = chars.length();
+  }
+
+  @Override
+  public char peek() {
+    return pos < end ? chars.charAt(pos) : 0;
+  }
+
+  @Override
+  public char read() {
+    return pos < end ? chars.charAt(pos++) : 0;
+  }
+}
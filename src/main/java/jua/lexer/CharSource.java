@@ -0,0 +1,49 @@
+package jua.lexer;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import util.BufferedChannel;
+
+// Characters read by the Lexer. Sources return 0 once they are exhausted, the Lexer lexes it as
+// the end of file.
+//
+// Programs which are fully known are read in place with plain index arithmetic, the streaming
+// channel is only used when the characters arrive over time (the interactive REPLs).
+public interface CharSource {
+  char peek();
+
+  char read();
+
+  static CharSource of(CharSequence in) {
+    return new CharSequenceSource(in);
+  }
+
+  static CharSource of(char[] in) {
+    return new CharArraySource(in, 0, in.length);
+  }
+
+  static CharSource of(char[] in, int offset, int length) {
+    return new CharArraySource(in, offset, offset + length);
+  }
+
+  static CharSource of(BufferedChannel<Character> in) {
+    return new ChannelSource(in);
+  }
+
+  // Maps the file in memory, it is only decoded from UTF-8 once
+  static CharSource map(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      CharBuffer chars =
+          StandardCharsets.UTF_8.decode(
+              channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+      if (chars.hasArray()) {
+        return of(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining());
+      }
+      return of(chars);
+    }
+  }
+}
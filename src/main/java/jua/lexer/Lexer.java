@@ -7,42 +7,32 @@ import util.BufferedChannel;
 
 public class Lexer {
 
-  private BufferedChannel<Character> in;
-  private BufferedChannel<Token> out = new BufferedChannel<>();
+  private CharSource in;
+  // only created for the streaming mode
+  private BufferedChannel<Token> out;
   private char ch;
   private int currentLine;
   private int currentPosInLine;
 
-  public Lexer(BufferedChannel<Character> in) {
+  public Lexer(CharSource in) {
     this.currentLine = 1;
     this.in = in;
   }
 
+  public Lexer(BufferedChannel<Character> in) {
+    this(CharSource.of(in));
+  }
+
   public Lexer(String in) {
-    this.currentLine = 1;
-    this.in = BufferedChannel.fromString(in);
+    this(CharSource.of(in));
   }
 
   private char peekChar() {
-    Character c = null;
-    try {
-      c = in.peek();
-    } catch (InterruptedException e) {
-      e.printStackTrace();
-    }
-    if (c != null) {
-      return c;
-    }
-    return 0;
+    return in.peek();
   }
 
   private void readChar() {
-    try {
-      ch = in.read();
-    } catch (InterruptedException e) {
-      // TODO: handle this
-      e.printStackTrace();
-    }
+    ch = in.read();
     currentPosInLine++;
   }
 
@@ -238,7 +228,8 @@ public class Lexer {
   }
 
   private void nextLine() {
-    while (ch != '\n') {
+    // a comment can end the file
+    while (ch != '\n' && ch != 0) {
       readChar();
     }
     currentLine++;
@@ -328,20 +319,26 @@ public class Lexer {
   }
 
   public BufferedChannel<Token> getOut() {
+    if (out == null) {
+      out = new BufferedChannel<>();
+    }
     return out;
   }
 
   public void start(boolean isInteractive) throws InterruptedException, IllegalLexingException {
+    BufferedChannel<Token> out = getOut();
     while (true) {
       try {
         Token token = nextToken();
         out.add(token);
         if (token == null || token instanceof TokenEOF) {
+          out.close();
           break;
         }
       } catch (IllegalLexingException e) {
         if (!isInteractive) {
           out.add(TokenFactory.create(Special.TokenEOF, currentLine, currentPosInLine));
+          out.close();
         }
         throw e;
       }
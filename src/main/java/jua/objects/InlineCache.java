@@ -0,0 +1,70 @@
+package jua.objects;
+
+import java.util.Arrays;
+
+// Cache of a site reading or writing a table field with a constant name (obj.field, obj:method()).
+// For the record-like tables, it remembers the shapes seen by the site and the slot of the name in
+// each of them, so that a hit is a shape check and an array load. For the tables which became
+// dictionaries, it remembers the slots of the hash part where the name was last found: the tables
+// built the same way hold their keys in the same slots. Such a slot is only a hint, the key it
+// holds is checked before it is used.
+//
+// The syntax tree is shared by the threads running the same program, the cache is read and
+// written without synchronization: a stale entry is only a miss.
+public final class InlineCache {
+  // tables layouts remembered by a site, the sites seeing more fall back to a lookup
+  private static final int WAYS = 4;
+
+  final String name;
+  final LuaString key;
+  final int[] slots = new int[WAYS];
+  private int next;
+  // a shape and the slot of the name in it, -1 if the name isn't part of the shape
+  private final Entry[] entries = new Entry[WAYS];
+  private int nextEntry;
+
+  private static final class Entry {
+    final Shape shape;
+    final int index;
+
+    Entry(Shape shape, int index) {
+      this.shape = shape;
+      this.index = index;
+    }
+  }
+
+  public InlineCache(String name) {
+    // interned so that the keys created from the same name compare by reference
+    this.name = name.intern();
+    this.key = LuaString.intern(this.name);
+    Arrays.fill(slots, -1);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public LuaString getKey() {
+    return key;
+  }
+
+  void remember(int slot) {
+    int i = next;
+    slots[i] = slot;
+    next = (i + 1) % WAYS;
+  }
+
+  // Slot of the name in the fields of the tables of shape
+  int index(Shape shape) {
+    for (Entry e : entries) {
+      if (e != null && e.shape == shape) {
+        return e.index;
+      }
+    }
+    int index = shape.indexOf(name);
+    int i = nextEntry;
+    entries[i] = new Entry(shape, index);
+    nextEntry = (i + 1) % WAYS;
+    return index;
+  }
+}
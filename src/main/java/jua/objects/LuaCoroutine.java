@@ -0,0 +1,316 @@
+package jua.objects;
+
+import java.lang.ref.Cleaner;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import jua.evaluator.Budget;
+import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Scope;
+
+// A coroutine runs its function on a thread of its own, started by its first resume. Resuming and
+// yielding hand the control over from one thread to the other: exactly one of them runs at a
+// time, the other one is parked, and the values are passed through volatile fields.
+//
+// The threads are virtual threads when the runtime has them (Java 21), so that a suspended
+// coroutine only costs its stack on the heap. Otherwise they are daemon threads with a small
+// stack. A coroutine which is suspended when it becomes unreachable is unwound and its thread
+// ends.
+//
+// The coroutines of a program are tracked by the Group of its root scope: a program has at most
+// MAX_COROUTINES of them which haven't ended, the unreachable ones counting until they are
+// collected, and the ones still suspended once its evaluation ends are unwound right away.
+// Creating a coroutine and starting its thread are charged to the memory of the Budget.
+//
+// The calls of a coroutine are only charged to the depth of the Budget while it runs, on top of
+// the calls of its resumer: a suspended coroutine doesn't take any depth from the program.
+public class LuaCoroutine implements LuaObject {
+  public enum Status {
+    SUSPENDED,
+    RUNNING,
+    NORMAL,
+    DEAD;
+
+    @Override
+    public String toString() {
+      return name().toLowerCase();
+    }
+  }
+
+  // coroutines of a program which haven't ended
+  public static final int MAX_COROUTINES = 1000;
+  // stack size of the platform threads
+  private static final long STACK_SIZE = 1 << 20;
+  // charged to the budget when a coroutine is created and when its thread starts, about the part
+  // of the stack a thread uses
+  private static final long COROUTINE_BYTES = 256;
+  private static final long THREAD_BYTES = 64 << 10;
+  private static final ThreadFactory THREADS = threadFactory();
+  private static final Cleaner CLEANER = Cleaner.create();
+  // coroutine run by the current thread, null for the main program. It is cleared while the
+  // coroutine is suspended, its thread must not keep it reachable.
+  private static final ThreadLocal<LuaCoroutine> current = new ThreadLocal<>();
+  private static final AtomicInteger liveThreads = new AtomicInteger();
+
+  // the state is shared with the thread, which must not reference the coroutine itself for the
+  // Cleaner to notice it is unreachable
+  private final State state;
+
+  // Raised in a suspended coroutine to unwind it once it is unreachable. The program may be
+  // running meanwhile, the calls unwound don't give their depth back to the Budget.
+  public static final class Abandoned extends RuntimeException {
+    private Abandoned() {
+      super(null, null, false, false);
+    }
+  }
+
+  // Coroutines of a program which haven't ended
+  public static final class Group {
+    private final Set<State> live = ConcurrentHashMap.newKeySet();
+
+    // Unwinds the suspended coroutines, which are dead afterwards. Only called once the program
+    // no longer runs, none of them can be resumed meanwhile.
+    public void abandonAll() {
+      for (State s : live) {
+        s.abandon();
+      }
+    }
+
+    int size() {
+      return live.size();
+    }
+  }
+
+  private static final class State implements Runnable {
+    private final LuaFunction body;
+    // null if the body is a builtin
+    private final Budget budget;
+    // null if the coroutine wasn't created by a program
+    private final Group group;
+    // calls of the coroutine while it is suspended
+    private int depth;
+    private volatile Status status = Status.SUSPENDED;
+    private Thread thread;
+    // the thread which resumed the coroutine and waits for it to yield
+    private volatile Thread resumer;
+    // whether the coroutine runs, otherwise its resumer does
+    private volatile boolean isCoroutineTurn;
+    private volatile boolean isAbandoned;
+    // values passed by resume or yield, and the error which killed the coroutine
+    private volatile ArrayList<LuaObject> transfer;
+    private volatile Throwable error;
+    // the coroutine object, only set while the thread is running it
+    private volatile LuaCoroutine owner;
+
+    State(LuaFunction body, Group group) {
+      this.body = body;
+      this.budget = body.getBudget();
+      this.group = group;
+    }
+
+    @Override
+    public void run() {
+      liveThreads.incrementAndGet();
+      current.set(owner);
+      try {
+        transfer = body.evaluate(transfer).getValues();
+      } catch (Abandoned e) {
+        return;
+      } catch (Throwable e) {
+        error = e;
+      } finally {
+        current.remove();
+        liveThreads.decrementAndGet();
+      }
+      status = Status.DEAD;
+      handBack();
+    }
+
+    // Gives the control back to the resumer
+    private void handBack() {
+      owner = null;
+      isCoroutineTurn = false;
+      LockSupport.unpark(resumer);
+    }
+
+    // Called by the Cleaner once the coroutine is unreachable, or by its Group
+    void abandon() {
+      ended();
+      if (status != Status.SUSPENDED) {
+        return;
+      }
+      status = Status.DEAD;
+      if (thread != null) {
+        isAbandoned = true;
+        isCoroutineTurn = true;
+        LockSupport.unpark(thread);
+      }
+    }
+
+    void ended() {
+      if (group != null) {
+        group.live.remove(this);
+      }
+    }
+  }
+
+  // The coroutine belongs to the program of scope, if any
+  public LuaCoroutine(LuaFunction body, Scope scope) throws LuaRuntimeException {
+    Group group = null;
+    if (scope != null) {
+      group = scope.getCoroutines();
+      if (group.size() >= MAX_COROUTINES) {
+        throw new LuaRuntimeException(
+            String.format("too many coroutines (more than %d)", MAX_COROUTINES));
+      }
+      Budget budget = scope.getBudget();
+      budget.charge(COROUTINE_BYTES);
+      budget.step();
+    }
+    this.state = new State(body, group);
+    if (group != null) {
+      group.live.add(state);
+    }
+    CLEANER.register(this, state::abandon);
+  }
+
+  // Coroutine run by the current thread, null for the main program
+  public static LuaCoroutine running() {
+    return current.get();
+  }
+
+  public Status getStatus() {
+    return state.status;
+  }
+
+  // Number of coroutine threads which haven't ended
+  static int liveThreads() {
+    return liveThreads.get();
+  }
+
+  // Runs the coroutine until it yields or returns, and returns the values it passes. An error
+  // killing the coroutine is thrown.
+  public ArrayList<LuaObject> resume(ArrayList<LuaObject> args) throws LuaRuntimeException {
+    State s = state;
+    if (s.status == Status.DEAD) {
+      throw new LuaRuntimeException("cannot resume dead coroutine");
+    }
+    if (s.status != Status.SUSPENDED) {
+      throw new LuaRuntimeException("cannot resume non-suspended coroutine");
+    }
+
+    LuaCoroutine previous = current.get();
+    if (previous != null) {
+      previous.state.status = Status.NORMAL;
+    }
+    s.status = Status.RUNNING;
+    s.owner = this;
+    s.transfer = args;
+    s.resumer = Thread.currentThread();
+    Budget budget = s.budget;
+    int depth = budget == null ? 0 : budget.getDepth();
+    if (budget != null) {
+      budget.unwind(depth + s.depth);
+    }
+    s.isCoroutineTurn = true;
+    if (s.thread == null) {
+      if (budget != null) {
+        budget.charge(THREAD_BYTES);
+      }
+      s.thread = THREADS.newThread(s);
+      s.thread.start();
+    } else {
+      LockSupport.unpark(s.thread);
+    }
+
+    while (s.isCoroutineTurn) {
+      LockSupport.park(this);
+    }
+    if (budget != null) {
+      s.depth = budget.getDepth() - depth;
+      budget.unwind(depth);
+    }
+    if (previous != null) {
+      previous.state.status = Status.RUNNING;
+    }
+
+    ArrayList<LuaObject> values = s.transfer;
+    s.transfer = null;
+    Throwable error = s.error;
+    if (error != null) {
+      s.error = null;
+      s.thread = null;
+      s.ended();
+      if (error instanceof LuaRuntimeException) {
+        throw (LuaRuntimeException) error;
+      } else if (error instanceof StackOverflowError) {
+        throw new LuaRuntimeException("stack overflow in coroutine");
+      } else if (error instanceof RuntimeException) {
+        throw (RuntimeException) error;
+      }
+      throw (Error) error;
+    }
+    if (s.status == Status.DEAD) {
+      s.thread = null;
+      s.ended();
+    }
+    return values;
+  }
+
+  // Suspends the coroutine run by the current thread, values are returned by its resume. Returns
+  // the arguments of the next resume.
+  public static ArrayList<LuaObject> yield(ArrayList<LuaObject> values)
+      throws LuaRuntimeException {
+    LuaCoroutine co = current.get();
+    if (co == null) {
+      throw new LuaRuntimeException("attempt to yield from outside a coroutine");
+    }
+
+    State s = co.state;
+    s.transfer = values;
+    s.status = Status.SUSPENDED;
+    // the thread must not keep the coroutine reachable while it is parked
+    co = null;
+    current.remove();
+    s.handBack();
+
+    while (!s.isCoroutineTurn) {
+      LockSupport.park(s);
+    }
+    if (s.isAbandoned) {
+      throw new Abandoned();
+    }
+    current.set(s.owner);
+    ArrayList<LuaObject> args = s.transfer;
+    s.transfer = null;
+    return args;
+  }
+
+  private static ThreadFactory threadFactory() {
+    try {
+      // Thread.ofVirtual().factory(), through reflection as long as Java 11 is supported
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      return (ThreadFactory)
+          Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException e) {
+      return r -> {
+        Thread thread = new Thread(null, r, "jua-coroutine", STACK_SIZE);
+        thread.setDaemon(true);
+        return thread;
+      };
+    }
+  }
+
+  @Override
+  public String repr() {
+    return String.format("thread: @%d", hashCode());
+  }
+
+  @Override
+  public String getTypeName() {
+    return "thread";
+  }
+}
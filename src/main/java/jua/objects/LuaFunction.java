@@ -3,19 +3,25 @@ package jua.objects;
 import java.util.ArrayList;
 import jua.ast.Expression;
 import jua.ast.StatementList;
+import jua.evaluator.Budget;
 import jua.evaluator.IllegalCastException;
 import jua.evaluator.LuaRuntimeException;
 import jua.evaluator.Scope;
 import jua.token.TokenIdentifier;
 
 public class LuaFunction implements LuaObject, Function {
+  // field of the table of the varargs holding their count, which nil varargs make differ from #
+  public static final String VARARG_COUNT = "n";
+
   private ArrayList<String> argNames;
   private Scope environment;
   private StatementList block;
-  private LuaTable self = null;
   private boolean variadic;
+  // number of slots computed by the Resolver: the arguments, the varargs and the body's locals
+  private int frameSize;
 
-  public LuaFunction(ArrayList<String> argNames, Scope environment, StatementList block) {
+  public LuaFunction(
+      ArrayList<String> argNames, Scope environment, StatementList block, int frameSize) {
     if (argNames != null
         && argNames.size() > 0
         && argNames.get(argNames.size() - 1) == TokenIdentifier.VariadicToken) {
@@ -25,6 +31,7 @@ public class LuaFunction implements LuaObject, Function {
     this.argNames = argNames;
     this.environment = environment;
     this.block = block;
+    this.frameSize = frameSize;
   }
 
   public static LuaFunction valueOf(LuaObject o) throws IllegalCastException {
@@ -58,44 +65,80 @@ public class LuaFunction implements LuaObject, Function {
   }
 
   public LuaReturn evaluate(ArrayList<LuaObject> args) throws LuaRuntimeException {
-    Scope funcScope = this.environment.createChild();
+    Budget budget = environment.getBudget();
+    budget.enter();
+    LuaReturn result;
+    try {
+      result = trampoline(args, budget);
+    } catch (LuaCoroutine.Abandoned e) {
+      // the coroutine gave its calls back when it yielded, the program may be running
+      throw e;
+    } catch (Throwable e) {
+      budget.exit();
+      throw e;
+    }
+    budget.exit();
+    return result;
+  }
 
-    if (self != null) {
-      funcScope.assignSelf(self);
+  // Tail calls to interpreted functions are made by the loop rather than by a nested call, the
+  // stack only grows for the other functions
+  private LuaReturn trampoline(ArrayList<LuaObject> args, Budget budget)
+      throws LuaRuntimeException {
+    LuaFunction function = this;
+    while (true) {
+      LuaObject ret = function.call(args);
+      if (!(ret instanceof LuaTailCall)) {
+        return ret instanceof LuaReturn ? (LuaReturn) ret : new LuaReturn(ret);
+      }
+
+      LuaTailCall tailCall = (LuaTailCall) ret;
+      LuaObject callee = tailCall.getFunction();
+      args = tailCall.getArgs();
+      if (!(callee instanceof LuaFunction) || !((LuaFunction) callee).isInterpreted()) {
+        return Operations.call(callee, args);
+      }
+      // counted like a call, the depth doesn't change
+      budget.step();
+      function = (LuaFunction) callee;
     }
+  }
+
+  // Whether the function runs its syntax tree, so that a tail call to it can reuse the loop of
+  // evaluate
+  protected boolean isInterpreted() {
+    return block != null;
+  }
 
-    // Init args to nil
-    argNames.forEach(arg -> funcScope.assignLocal(arg, LuaNil.getInstance()));
+  // Runs the body with args, returns the value of the block
+  private LuaObject call(ArrayList<LuaObject> args) throws LuaRuntimeException {
+    Scope funcScope = this.environment.createChild(frameSize);
 
-    // Assign evaluated args to arg names
-    for (int i = 0; i < Math.min(argNames.size(), args.size()); i++) {
-      funcScope.assignLocal(argNames.get(i), args.get(i));
+    // Assign evaluated args to their slots, missing ones are read as nil
+    int nbArgs = argNames.size();
+    for (int i = 0; i < Math.min(nbArgs, args.size()); i++) {
+      funcScope.setLocal(0, i, args.get(i));
     }
     if (this.variadic) {
+      // the varargs keep their positions, nil ones included, and their count is stored in n
       LuaTable vararg = new LuaTable();
-      for (int i = Math.min(argNames.size(), args.size()); i < args.size(); i++) {
-        vararg.insertList(args.get(i));
+      int count = Math.max(args.size() - nbArgs, 0);
+      for (int i = 0; i < count; i++) {
+        vararg.put(i + 1L, args.get(nbArgs + i));
       }
-      funcScope.assignLocal(TokenIdentifier.VariadicToken, vararg);
+      vararg.put(VARARG_COUNT, LuaNumber.valueOf(count));
+      funcScope.setLocal(0, nbArgs, vararg);
     }
 
-    LuaObject ret = block.evaluate(funcScope);
-    if (ret instanceof LuaReturn) {
-      return (LuaReturn) ret;
-    }
-
-    return new LuaReturn(ret);
+    return block.evaluate(funcScope);
   }
 
   public Scope getEnvironment() {
     return environment;
   }
 
-  public void setSelf(LuaTable self) {
-    this.self = self;
-
-    if (!this.argNames.get(0).equals(Scope.SELF)) {
-      this.argNames.add(0, Scope.SELF);
-    }
+  // Budget of the program the function belongs to, null for the builtins
+  public Budget getBudget() {
+    return environment == null ? null : environment.getBudget();
   }
 }
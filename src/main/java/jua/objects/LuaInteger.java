@@ -0,0 +1,37 @@
+package jua.objects;
+
+// Integer subtype of the numbers, created through LuaNumber.valueOf(long) which caches the small
+// ones. Arithmetic between integers stays on longs and wraps around like in Lua 5.3.
+public final class LuaInteger extends LuaNumber {
+  private final long integer;
+
+  LuaInteger(long integer) {
+    super(integer);
+    this.integer = integer;
+  }
+
+  @Override
+  public int getIntValue() {
+    return (int) integer;
+  }
+
+  @Override
+  public long getLongValue() {
+    return integer;
+  }
+
+  @Override
+  public boolean isInteger() {
+    return true;
+  }
+
+  @Override
+  public String repr() {
+    return Long.toString(integer);
+  }
+
+  @Override
+  public String toString() {
+    return "LuaInteger{" + "value=" + integer + '}';
+  }
+}
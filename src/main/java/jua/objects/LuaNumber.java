@@ -1,15 +1,43 @@
 package jua.objects;
 
-import java.util.Objects;
 import jua.evaluator.IllegalCastException;
 
+// Float numbers, integers are LuaIntegers (like the integer subtype of Lua 5.3). Both are equal
+// when they have the same mathematical value, so they can be used interchangeably as table keys.
 public class LuaNumber implements LuaObject {
-  private Double value;
+  // integers which are preallocated, loop counters and table indexes are mostly in this range
+  private static final int CACHE_LOW = -128;
+  private static final int CACHE_HIGH = 1024;
+  private static final LuaInteger[] CACHE = new LuaInteger[CACHE_HIGH - CACHE_LOW + 1];
+
+  static {
+    for (int i = 0; i < CACHE.length; i++) {
+      CACHE[i] = new LuaInteger(i + CACHE_LOW);
+    }
+  }
+
+  private final double value;
 
-  public LuaNumber(Double value) {
+  public LuaNumber(double value) {
     this.value = value;
   }
 
+  public static LuaNumber valueOf(long value) {
+    if (value >= CACHE_LOW && value <= CACHE_HIGH) {
+      return CACHE[(int) value - CACHE_LOW];
+    }
+    return new LuaInteger(value);
+  }
+
+  // Integer if the string is written as one, float otherwise
+  public static LuaNumber parse(String str) throws NumberFormatException {
+    try {
+      return valueOf(Long.parseLong(str));
+    } catch (NumberFormatException e) {
+      return new LuaNumber(Double.parseDouble(str));
+    }
+  }
+
   public static LuaNumber valueOf(LuaObject o) throws IllegalCastException {
 
     if (o instanceof LuaReturn) {
@@ -20,66 +48,64 @@ public class LuaNumber implements LuaObject {
     if (o instanceof LuaString) {
       LuaString luaString = (LuaString) o;
       String str = luaString.getValue();
-      Double number;
       try {
-        number = Double.valueOf(str);
+        return parse(str);
       } catch (NumberFormatException e) {
         throw new IllegalCastException(
             String.format("The LuaString value %s is not a number.", str));
       }
-
-      return new LuaNumber(number);
     }
     throw IllegalCastException.create(o, "LuaNumber");
   }
 
-  public Double getValue() {
+  public double getValue() {
     return value;
   }
 
   public int getIntValue() {
-    return value.intValue();
+    return (int) value;
+  }
+
+  public long getLongValue() {
+    return (long) value;
+  }
+
+  public boolean isInteger() {
+    return false;
   }
 
   public LuaNumber bNot() {
-    Long number = ~this.getValue().longValue();
-    return new LuaNumber(number.doubleValue());
+    return valueOf(~getLongValue());
   }
 
   public LuaNumber bAnd(LuaNumber x) {
-    Long number = this.getValue().longValue() & x.getValue().longValue();
-    return new LuaNumber(number.doubleValue());
+    return valueOf(getLongValue() & x.getLongValue());
   }
 
   public LuaNumber bOr(LuaNumber x) {
-    Long number = this.getValue().longValue() | x.getValue().longValue();
-    return new LuaNumber(number.doubleValue());
+    return valueOf(getLongValue() | x.getLongValue());
   }
 
   public LuaNumber bXor(LuaNumber x) {
-    Long number = this.getValue().longValue() ^ x.getValue().longValue();
-    return new LuaNumber(number.doubleValue());
+    return valueOf(getLongValue() ^ x.getLongValue());
   }
 
   public LuaNumber leftShift(LuaNumber x) {
-    Long number = this.getValue().longValue() << x.getValue().longValue();
-    return new LuaNumber(number.doubleValue());
+    return valueOf(getLongValue() << x.getLongValue());
   }
 
   public LuaNumber rightShift(LuaNumber x) {
-    Long number =
-        this.getValue().longValue()
-            >>> x.getValue().longValue(); // Unsigned Right shift operator (>>>)
-    return new LuaNumber(number.doubleValue());
+    // Unsigned Right shift operator (>>>)
+    return valueOf(getLongValue() >>> x.getLongValue());
   }
 
   @Override
   public String repr() {
     if (value == Math.floor(value)) {
-      return String.format("%d", value.longValue());
+      return String.format("%d", (long) value);
     }
 
-    return value.toString();
+    return Double.toString(value);
   }
 
   @Override
@@ -95,13 +121,35 @@ public class LuaNumber implements LuaObject {
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
-    if (o == null || getClass() != o.getClass()) return false;
+    if (!(o instanceof LuaNumber)) return false;
     LuaNumber luaNumber = (LuaNumber) o;
-    return Objects.equals(value, luaNumber.value);
+    if (isInteger() && luaNumber.isInteger()) {
+      return getLongValue() == luaNumber.getLongValue();
+    }
+    // an integer and a float are compared exactly, not through the rounded double of the integer
+    if (isInteger()) {
+      return luaNumber.hasLongValue() && getLongValue() == (long) luaNumber.value;
+    }
+    if (luaNumber.isInteger()) {
+      return hasLongValue() && (long) value == luaNumber.getLongValue();
+    }
+    return value == luaNumber.value;
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(value);
+    // integers hash by their long value, floats with an integer value hash like that integer
+    if (isInteger()) {
+      return Long.hashCode(getLongValue());
+    }
+    if (hasLongValue()) {
+      return Long.hashCode((long) value);
+    }
+    return Double.hashCode(value);
+  }
+
+  // Whether the float has an integer value which fits in a long
+  private boolean hasLongValue() {
+    return value == Math.floor(value) && value >= -0x1p63 && value < 0x1p63;
   }
 }
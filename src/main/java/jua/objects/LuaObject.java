@@ -4,7 +4,8 @@ import jua.evaluator.IllegalTypeException;
 
 public interface LuaObject {
   public static boolean areSameType(LuaObject o1, LuaObject o2) throws IllegalTypeException {
-    return o1.getClass() == o2.getClass();
+    // integers and floats are both numbers
+    return o1.getTypeName().equals(o2.getTypeName());
   }
 
   public static void ensureSameType(LuaObject o1, LuaObject o2) throws IllegalTypeException {
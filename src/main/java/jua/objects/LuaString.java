@@ -1,19 +1,78 @@
 package jua.objects;
 
-import java.util.Objects;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import jua.evaluator.Budget;
 import jua.evaluator.IllegalCastException;
 
+// Strings are immutable. The result of a concatenation can be backed by a StringBuilder it shares
+// with the strings it has been built from: a string is the prefix of length characters of its
+// builder, and a concatenation starting with a string which ends its builder appends to it in
+// place. Building a string piece by piece with s = s .. x is then linear instead of quadratic.
+//
+// The String value is only materialized when it is needed (hashing, comparison, repr), and kept.
+// Like tables, strings must not be shared by threads running at the same time.
+//
+// Short strings known before running a program (literals, field names, constants of a chunk) are
+// interned like in the reference implementation: there is a single LuaString for each of them, so
+// that two interned strings are equal only if they are the same object. The interned strings are
+// plain strings, they can be shared by every thread, and are dropped once they are no longer used.
 public class LuaString implements LuaObject {
+  // results shorter than this are plain strings, copying them is cheaper than sharing a builder
+  private static final int BUILDER_THRESHOLD = 64;
+  // longer strings aren't interned
+  private static final int MAX_INTERNED = 40;
+  private static final Map<String, WeakReference<LuaString>> interned = new WeakHashMap<>();
 
+  // null until the builder is flattened
   private String value;
+  // null for plain strings
+  private final StringBuilder builder;
+  private final int length;
+  private final boolean isInterned;
+  // hash of the value, 0 until it is computed
+  private int hash;
 
   public LuaString(String value) {
+    this(value, false);
+  }
+
+  private LuaString(String value, boolean isInterned) {
     this.value = value;
+    this.builder = null;
+    this.length = value.length();
+    this.isInterned = isInterned;
+  }
+
+  private LuaString(StringBuilder builder, int length) {
+    this.builder = builder;
+    this.length = length;
+    this.isInterned = false;
+  }
+
+  // The single LuaString of value if it is short, a new one otherwise
+  public static LuaString intern(String value) {
+    if (value.length() > MAX_INTERNED) {
+      return new LuaString(value);
+    }
+    synchronized (interned) {
+      WeakReference<LuaString> ref = interned.get(value);
+      LuaString s = ref == null ? null : ref.get();
+      if (s == null) {
+        // the key is the value of s, the entry lives as long as s
+        s = new LuaString(value, true);
+        interned.put(s.value, new WeakReference<>(s));
+      }
+      return s;
+    }
   }
 
   public static LuaString valueOf(LuaObject object) throws IllegalCastException {
     // Only types allowed to be casted to a string in lua
-    if (object instanceof LuaString || object instanceof LuaNumber) {
+    if (object instanceof LuaString) {
+      return (LuaString) object;
+    } else if (object instanceof LuaNumber) {
       return new LuaString(object.repr());
     } else if (object instanceof LuaReturn) {
       return LuaString.valueOf(((LuaReturn) object).getValues().get(0));
@@ -22,13 +81,69 @@ public class LuaString implements LuaObject {
     throw IllegalCastException.create(object, "LuaString");
   }
 
-  public void append(LuaString str) {
-    value = value + str.getValue();
+  public static LuaString concat(LuaString[] parts) {
+    return concat(parts, null);
+  }
+
+  // Concatenation of all the parts with a single copy of each of them. The copied characters are
+  // charged to budget, if any.
+  public static LuaString concat(LuaString[] parts, Budget budget) {
+    long total = 0;
+    for (LuaString part : parts) {
+      total += part.length;
+    }
+    if (total > Integer.MAX_VALUE - 8) {
+      throw new OutOfMemoryError("string too long");
+    }
+    int length = (int) total;
+
+    LuaString first = parts[0];
+    StringBuilder builder;
+    int from;
+    if (first.builder != null && first.builder.length() == first.length) {
+      // nothing has been appended after first, its builder can be extended
+      builder = first.builder;
+      from = 1;
+    } else if (length < BUILDER_THRESHOLD) {
+      StringBuilder sb = new StringBuilder(length);
+      for (LuaString part : parts) {
+        part.appendTo(sb);
+      }
+      if (budget != null) {
+        budget.charge(2L * length);
+      }
+      return new LuaString(sb.toString());
+    } else {
+      // room for as much again, the result is likely to be appended to
+      builder = new StringBuilder((int) Math.min(2L * length, Integer.MAX_VALUE - 8));
+      from = 0;
+    }
+
+    int start = builder.length();
+    for (int i = from; i < parts.length; i++) {
+      parts[i].appendTo(builder);
+    }
+    if (budget != null) {
+      budget.charge(2L * (builder.length() - start));
+    }
+    return new LuaString(builder, builder.length());
+  }
+
+  private void appendTo(StringBuilder sb) {
+    if (value != null) {
+      sb.append(value);
+    } else {
+      sb.append(builder, 0, length);
+    }
+  }
+
+  public int length() {
+    return length;
   }
 
   @Override
   public String repr() {
-    return value;
+    return getValue();
   }
 
   @Override
@@ -38,27 +153,33 @@ public class LuaString implements LuaObject {
 
   @Override
   public String toString() {
-    return "LuaString{" + "value='" + value + '\'' + '}';
+    return "LuaString{" + "value='" + getValue() + '\'' + '}';
   }
 
   public String getValue() {
+    if (value == null) {
+      value = builder.substring(0, length);
+    }
     return value;
   }
 
-  public void setValue(String value) {
-    this.value = value;
-  }
-
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
     if (o == null || getClass() != o.getClass()) return false;
     LuaString luaString = (LuaString) o;
-    return Objects.equals(value, luaString.value);
+    if (isInterned && luaString.isInterned) return false;
+    return length == luaString.length && getValue().equals(luaString.getValue());
   }
 
+  // Same as the hash of the String value, the tables rely on it
   @Override
   public int hashCode() {
-    return Objects.hash(value);
+    int h = hash;
+    if (h == 0) {
+      h = getValue().hashCode();
+      hash = h;
+    }
+    return h;
   }
 }
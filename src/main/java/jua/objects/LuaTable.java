@@ -1,18 +1,72 @@
 package jua.objects;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.Arrays;
+import jua.evaluator.Budget;
+import jua.evaluator.BudgetExceededException;
+import jua.evaluator.LuaRuntimeException;
 import util.Tuple;
 
+// Tables are split like in the reference implementation: the values of the keys 1..n live in an
+// array part, every other key lives in a hash part using open addressing and linear probing.
+//
+// The array part is only resized when the hash part is full. Its new size is then the largest
+// power of two n such that more than n/2 of the keys 1..n are used, and the remaining keys go to
+// the hash part. Number keys with an integer value are stored as integers, and both number and
+// string keys have accessors which don't require to wrap them in a LuaObject.
+//
+// Most tables with string keys are records built the same way ({x = ..., y = ...}, obj.field =
+// ...). Their string keys aren't stored in the hash part but described by a Shape shared with the
+// other tables having the same keys, their values being in a slot array. A table becomes a
+// dictionary, with every key in the hash part, when one of its string keys is removed, when it
+// has more than Shape.MAX_FIELDS of them or when its shape has too many children already.
+//
+// A table used as a metatable remembers which of its metamethods are absent, like the reference
+// implementation, so that a table whose metatable doesn't handle an event pays a bit test for it.
+// The cache is cleared whenever a string key of the metatable is set.
+//
+// The tables created by a program charge their growth to its Budget.
 public class LuaTable implements LuaObject {
-  private HashMap<LuaObject, LuaObject> map = new HashMap<>();
-  private ArrayList<LuaObject> list = new ArrayList<>();
+  private static final LuaObject[] EMPTY = new LuaObject[0];
+  // the array part is at most 2^MAXBITS long
+  private static final int MAXBITS = 26;
+  // approximate size of an empty table and of a slot of one of its parts
+  private static final int TABLE_BYTES = 48;
+  private static final int SLOT_BYTES = 8;
+  // the ranges of sort up to this size are insertion sorted
+  private static final int INSERTION_SORT = 8;
+
+  // values of the keys 1..array.length, null for nil
+  private LuaObject[] array = EMPTY;
+  // keys and values of the hash part. A key with a null value has been removed, its slot is
+  // reused if it is set again and dropped at the next rehash.
+  private LuaObject[] hashKeys = EMPTY;
+  private LuaObject[] hashValues = EMPTY;
+  // number of slots of the hash part holding a key
+  private int hashUsed;
+  // layout of the string keys and their values, which are never null. The shape is null once the
+  // table is a dictionary.
+  private Shape shape = Shape.EMPTY;
+  private LuaObject[] fields = EMPTY;
+  // null for the tables which aren't accounted
+  private final Budget budget;
+  // null if the table has none
+  private LuaTable metatable;
+  // a bit per Metamethod known to be absent from this table, when it is a metatable
+  private int absentMetamethods;
+
+  public LuaTable() {
+    this.budget = null;
+  }
+
+  public LuaTable(Budget budget) {
+    this.budget = budget;
+    budget.charge(TABLE_BYTES);
+  }
 
   @Override
   public String toString() {
-    return "LuaTable{" + "map=" + map + ", list=" + list + '}';
+    return "LuaTable{" + "array=" + Arrays.toString(array) + ", hash=" + items() + '}';
   }
 
   @Override
@@ -25,111 +79,681 @@ public class LuaTable implements LuaObject {
     return "table";
   }
 
-  public LuaObject getList(int idx) {
-    if (idx < list.size()) {
-      var res = list.get(idx);
-      return res != null ? res : LuaNil.getInstance();
+  public LuaTable getMetatable() {
+    return metatable;
+  }
+
+  public void setMetatable(LuaTable metatable) {
+    this.metatable = metatable;
+  }
+
+  // Handler of event in this metatable, null if it has none
+  public LuaObject metamethod(Metamethod event) {
+    int bit = 1 << event.ordinal();
+    if ((absentMetamethods & bit) != 0) {
+      return null;
     }
-    return LuaNil.getInstance();
+    LuaObject handler = get(event.key);
+    if (handler instanceof LuaNil) {
+      absentMetamethods |= bit;
+      return null;
+    }
+    return handler;
+  }
+
+  public LuaObject getList(int idx) {
+    return get(idx);
   }
 
   public LuaObject get(LuaObject key) {
-    // If integer go through the list otherwise fallback on the map
-    if (isPositiveInteger(key)) {
-      int nb = ((LuaNumber) key).getIntValue();
-      if (nb < list.size()) {
-        var res = list.get(nb);
-        return res != null ? res : LuaNil.getInstance();
+    if (key instanceof LuaNumber) {
+      LuaNumber number = (LuaNumber) key;
+      if (number.isInteger()) {
+        return get(number.getLongValue());
+      }
+      long integer = (long) number.getValue();
+      if (integer == number.getValue()) {
+        return get(integer);
+      }
+    } else if (key instanceof LuaString) {
+      return get(((LuaString) key).getValue());
+    }
+
+    int slot = find(key, hashOf(key));
+    return slot < 0 ? LuaNil.getInstance() : valueOrNil(hashValues[slot]);
+  }
+
+  public LuaObject get(long key) {
+    if (key - 1 >= 0 && key - 1 < array.length) {
+      return valueOrNil(array[(int) (key - 1)]);
+    }
+
+    int slot = find(key);
+    return slot < 0 ? LuaNil.getInstance() : valueOrNil(hashValues[slot]);
+  }
+
+  public LuaObject get(String key) {
+    if (shape != null) {
+      int index = shape.indexOf(key);
+      return index < 0 ? LuaNil.getInstance() : fields[index];
+    }
+
+    int slot = find(key);
+    return slot < 0 ? LuaNil.getInstance() : valueOrNil(hashValues[slot]);
+  }
+
+  // Value of the field of a site, through its cache
+  public LuaObject get(InlineCache cache) {
+    if (shape != null) {
+      int index = cache.index(shape);
+      return index < 0 ? LuaNil.getInstance() : fields[index];
+    }
+
+    int slot = cachedSlot(cache);
+    if (slot < 0) {
+      slot = find(cache.name);
+      if (slot < 0) {
+        return LuaNil.getInstance();
       }
+      cache.remember(slot);
     }
+    return valueOrNil(hashValues[slot]);
+  }
 
-    return map.getOrDefault(key, LuaNil.getInstance());
+  public void put(InlineCache cache, LuaObject value) {
+    value = nilToNull(value);
+    absentMetamethods = 0;
+    if (shape != null) {
+      if (putField(cache.index(shape), cache.name, value)) {
+        return;
+      }
+      toDictionary();
+    }
+
+    int slot = cachedSlot(cache);
+    if (slot < 0) {
+      slot = find(cache.name);
+      if (slot >= 0) {
+        cache.remember(slot);
+      }
+    }
+    if (slot >= 0) {
+      hashValues[slot] = value;
+    } else if (value != null) {
+      insert(cache.key, hashOf(cache.name), value);
+    }
   }
 
   public void put(String key, LuaObject value) {
-    put(new LuaString(key), value);
+    value = nilToNull(value);
+    absentMetamethods = 0;
+    if (shape != null) {
+      if (putField(shape.indexOf(key), key, value)) {
+        return;
+      }
+      toDictionary();
+    }
+
+    int slot = find(key);
+    if (slot >= 0) {
+      hashValues[slot] = value;
+    } else if (value != null) {
+      insert(new LuaString(key), hashOf(key), value);
+    }
+  }
+
+  public void put(long key, LuaObject value) {
+    value = nilToNull(value);
+    if (key - 1 >= 0 && key - 1 < array.length) {
+      array[(int) (key - 1)] = value;
+      return;
+    }
+
+    int slot = find(key);
+    if (slot >= 0) {
+      hashValues[slot] = value;
+    } else if (value != null) {
+      insert(LuaNumber.valueOf(key), hashOf(key), value);
+    }
   }
 
   public void put(LuaObject key, LuaObject value) {
-    if (isPositiveInteger(key)) {
-      // Check if there is enough space to store it in the array list
-      int nb = ((LuaNumber) key).getIntValue();
-      if (nb < list.size()) {
-        list.set(nb, value);
-      } else {
-        // TODO: find a better way of doing this to avoid memory leak
-        // Fill with nulls until size is good
-        while (nb >= list.size()) {
-          list.add(null);
-        }
-        list.set(nb, value);
+    if (key instanceof LuaNumber) {
+      LuaNumber number = (LuaNumber) key;
+      if (number.isInteger()) {
+        put(number.getLongValue(), value);
+        return;
       }
-    } else {
-      map.put(key, value);
+      long integer = (long) number.getValue();
+      if (integer == number.getValue()) {
+        put(integer, value);
+        return;
+      }
+    } else if (key instanceof LuaString) {
+      put(((LuaString) key).getValue(), value);
+      return;
+    }
+
+    value = nilToNull(value);
+    int hash = hashOf(key);
+    int slot = find(key, hash);
+    if (slot >= 0) {
+      hashValues[slot] = value;
+    } else if (value != null) {
+      insert(key, hash, value);
     }
   }
 
+  // Removes the value of key and returns it. The values following a positional key are shifted
+  // down, like table.remove does.
   public LuaObject remove(LuaObject key) {
-    if (isPositiveInteger(key)) {
-      int nb = ((LuaNumber) key).getIntValue();
-      return nb < list.size() ? list.remove(nb) : LuaNil.getInstance();
-    } else {
-      return map.remove(key);
+    if (key instanceof LuaNumber) {
+      long position = ((LuaNumber) key).getLongValue();
+      if (position == ((LuaNumber) key).getValue() && position >= 1 && position <= size()) {
+        return remove(position);
+      }
     }
+
+    LuaObject value = get(key);
+    put(key, LuaNil.getInstance());
+    return value;
   }
 
+  // Returns a border of the table: an index n such that t[n] is not nil and t[n + 1] is nil (or 0
+  // if t[1] is nil). Tables with holes have several borders, any of them can be returned.
   public int size() {
-    // Count non null elements from the list starting at 1
-    if (list.size() <= 1) {
-      return 0;
+    int j = array.length;
+    if (j > 0 && array[j - 1] == null) {
+      // there is a border in the array part, binary search for it
+      int i = 0;
+      while (j - i > 1) {
+        int m = (i + j) >>> 1;
+        if (array[m - 1] == null) {
+          j = m;
+        } else {
+          i = m;
+        }
+      }
+      return i;
     }
 
-    int count = 0;
-    for (LuaObject obj : list.subList(1, list.size())) {
-      if (obj == null) {
-        return count;
-      }
+    if (hashUsed == 0) {
+      return j;
+    }
 
-      count++;
+    // the array part is full, double k until t[k] is nil then binary search between i and k
+    long i = j;
+    long k = j + 1L;
+    while (!(get(k) instanceof LuaNil)) {
+      i = k;
+      if (k > Integer.MAX_VALUE / 2) {
+        // pathological table, search linearly
+        int n = 1;
+        while (!(get(n) instanceof LuaNil)) {
+          n++;
+        }
+        return n - 1;
+      }
+      k *= 2;
     }
 
-    return count;
+    while (k - i > 1) {
+      long m = (i + k) >>> 1;
+      if (get(m) instanceof LuaNil) {
+        k = m;
+      } else {
+        i = m;
+      }
+    }
+    return (int) i;
   }
 
+  // Keys of the hash part
   public ArrayList<LuaObject> keys() {
-    return new ArrayList<>(map.keySet());
+    ArrayList<LuaObject> keys = new ArrayList<>();
+    if (shape != null) {
+      for (int i = 0; i < shape.size(); i++) {
+        keys.add(shape.keyString(i));
+      }
+    }
+    for (int i = 0; i < hashKeys.length; i++) {
+      if (hashKeys[i] != null && hashValues[i] != null) {
+        keys.add(hashKeys[i]);
+      }
+    }
+    return keys;
   }
 
+  // Values of the keys 1..#t
   public ArrayList<LuaObject> listValues() {
-    return list.stream().filter(Objects::nonNull).collect(Collectors.toCollection(ArrayList::new));
+    return listValues(1, size());
+  }
+
+  // Values of the keys from..to, nil included
+  public ArrayList<LuaObject> listValues(long from, long to) {
+    ArrayList<LuaObject> values = new ArrayList<>((int) Math.max(to - from + 1, 0));
+    long i = from;
+    for (; i <= to && i - 1 >= 0 && i - 1 < array.length; i++) {
+      values.add(valueOrNil(array[(int) (i - 1)]));
+    }
+    for (; i <= to; i++) {
+      values.add(get(i));
+    }
+    return values;
   }
 
+  // Entries of the hash part
   public ArrayList<Tuple<LuaObject, LuaObject>> items() {
-    return map.keySet().stream()
-        .map(k -> new Tuple<>(k, map.get(k)))
-        .collect(Collectors.toCollection(ArrayList::new));
+    ArrayList<Tuple<LuaObject, LuaObject>> items = new ArrayList<>();
+    if (shape != null) {
+      for (int i = 0; i < shape.size(); i++) {
+        items.add(new Tuple<>(shape.keyString(i), fields[i]));
+      }
+    }
+    for (int i = 0; i < hashKeys.length; i++) {
+      if (hashKeys[i] != null && hashValues[i] != null) {
+        items.add(new Tuple<>(hashKeys[i], hashValues[i]));
+      }
+    }
+    return items;
+  }
+
+  public void insertList(LuaObject value) {
+    put(size() + 1L, value);
+  }
+
+  // Shallow copy, the keys and values are shared
+  public LuaTable copy() {
+    LuaTable copy = new LuaTable();
+    copy.array = array.length == 0 ? EMPTY : array.clone();
+    copy.hashKeys = hashKeys.length == 0 ? EMPTY : hashKeys.clone();
+    copy.hashValues = hashValues.length == 0 ? EMPTY : hashValues.clone();
+    copy.hashUsed = hashUsed;
+    copy.shape = shape;
+    copy.fields = fields.length == 0 ? EMPTY : fields.clone();
+    return copy;
+  }
+
+  // *******************************************************************
+  //  List operations
+  // *******************************************************************
+
+  // Order of sort, which can be defined by the program
+  public interface Order {
+    boolean lessThan(LuaObject a, LuaObject b) throws LuaRuntimeException;
+  }
+
+  // Inserts value at position (between 1 and #t + 1), the following values are shifted up
+  public void insert(long position, LuaObject value) {
+    int size = size();
+    if (size < array.length) {
+      // key size + 1 is in the array part, which is nil after the border
+      int i = (int) (position - 1);
+      System.arraycopy(array, i, array, i + 1, size - i);
+      array[i] = nilToNull(value);
+      return;
+    }
+
+    for (long i = size; i >= position; i--) {
+      put(i + 1, get(i));
+    }
+    put(position, value);
+  }
+
+  // Removes the value at position (between 1 and #t + 1) and returns it, the following values are
+  // shifted down
+  public LuaObject remove(long position) {
+    int size = size();
+    if (position >= 1 && position <= size && size <= array.length) {
+      int i = (int) (position - 1);
+      LuaObject value = valueOrNil(array[i]);
+      System.arraycopy(array, i + 1, array, i, size - 1 - i);
+      array[size - 1] = null;
+      return value;
+    }
+
+    LuaObject value = get(position);
+    for (; position < size; position++) {
+      put(position, get(position + 1));
+    }
+    put(position, LuaNil.getInstance());
+    return value;
+  }
+
+  // Sorts the values of the keys 1..n in place, the array part is sorted directly when it holds
+  // them. A nil value is an error unless order accepts it. The values are merge sorted rather than
+  // given to Arrays.sort: order is called once per comparison, and an inconsistent order leaves
+  // them in some order instead of breaking the contract of a Comparator.
+  public void sort(int n, Order order) throws LuaRuntimeException {
+    boolean inArray = n <= array.length;
+    LuaObject[] values = inArray ? array : listValues(1, n).toArray(new LuaObject[n]);
+    mergeSort(values, new LuaObject[n], 0, n, order);
+
+    if (!inArray) {
+      for (int i = 0; i < n; i++) {
+        put(i + 1L, values[i]);
+      }
+    }
+  }
+  // Sorts values[from..to), buffer holds a copy of the first half while the halves are merged
+  private static void mergeSort(
+      LuaObject[] values, LuaObject[] buffer, int from, int to, Order order)
+      throws LuaRuntimeException {
+    if (to - from <= INSERTION_SORT) {
+      for (int i = from + 1; i < to; i++) {
+        LuaObject value = values[i];
+        int j = i;
+        while (j > from && order.lessThan(valueOrNil(value), valueOrNil(values[j - 1]))) {
+          values[j] = values[j - 1];
+          j--;
+        }
+        values[j] = value;
+      }
+      return;
+    }
+
+    int middle = (from + to) >>> 1;
+    mergeSort(values, buffer, from, middle, order);
+    mergeSort(values, buffer, middle, to, order);
+    // halves which are already in order
+    if (!order.lessThan(valueOrNil(values[middle]), valueOrNil(values[middle - 1]))) {
+      return;
+    }
+    System.arraycopy(values, from, buffer, from, middle - from);
+    int i = from;
+    int j = middle;
+    int k = from;
+    while (i < middle && j < to) {
+      // the first half wins ties, the sort is stable
+      if (order.lessThan(valueOrNil(values[j]), valueOrNil(buffer[i]))) {
+        values[k++] = values[j++];
+      } else {
+        values[k++] = buffer[i++];
+      }
+    }
+    System.arraycopy(buffer, i, values, k, middle - i);
+  }
+
+
+  // Copies the values of the keys from..to to the keys starting at target of dest, in an order
+  // which is correct when the ranges overlap. The range isn't bounded by the size of the tables,
+  // every key copied one by one is a step of budget, which may be null.
+  public void move(long from, long to, long target, LuaTable dest, Budget budget)
+      throws BudgetExceededException {
+    if (to < from) {
+      return;
+    }
+    long count = to - from + 1;
+    if (from >= 1
+        && to <= array.length
+        && target >= 1
+        && target - 1 + count <= dest.array.length) {
+      System.arraycopy(array, (int) (from - 1), dest.array, (int) (target - 1), (int) count);
+    } else if (dest != this || target > to || target <= from) {
+      for (long i = 0; i < count; i++) {
+        dest.put(target + i, get(from + i));
+        step(budget);
+      }
+    } else {
+      for (long i = count - 1; i >= 0; i--) {
+        dest.put(target + i, get(from + i));
+        step(budget);
+      }
+    }
+  }
+
+  private static void step(Budget budget) throws BudgetExceededException {
+    if (budget != null) {
+      budget.step();
+    }
+  }
+
+  private static LuaObject valueOrNil(LuaObject value) {
+    return value != null ? value : LuaNil.getInstance();
+  }
+
+  private static LuaObject nilToNull(LuaObject value) {
+    return value instanceof LuaNil ? null : value;
   }
 
-  private boolean isPositiveInteger(LuaObject o) {
-    if (!(o instanceof LuaNumber)) {
+  // *******************************************************************
+  //  Fields
+  // *******************************************************************
+
+  // Sets the string key at index of the shape (-1 if it isn't part of it), returns false if the
+  // table must become a dictionary to do so
+  private boolean putField(int index, String key, LuaObject value) {
+    if (index >= 0) {
+      if (value == null) {
+        return false;
+      }
+      fields[index] = value;
+      return true;
+    }
+    if (value == null) {
+      return true;
+    }
+    if (shape.size() == Shape.MAX_FIELDS) {
       return false;
     }
 
-    Double nb = ((LuaNumber) o).getValue();
+    Shape next = shape.with(key);
+    if (next == null) {
+      return false;
+    }
+    index = shape.size();
+    if (index == fields.length) {
+      int size = Math.min(Math.max(4, index * 2), Shape.MAX_FIELDS);
+      if (budget != null) {
+        budget.charge((long) (size - fields.length) * SLOT_BYTES);
+      }
+      fields = Arrays.copyOf(fields, size);
+    }
+    fields[index] = value;
+    shape = next;
+    return true;
+  }
 
-    return nb == Math.floor(nb) && nb > 0;
+  // Moves the string keys to the hash part, the table stays a dictionary
+  private void toDictionary() {
+    Shape oldShape = shape;
+    LuaObject[] oldFields = fields;
+    shape = null;
+    fields = EMPTY;
+    for (int i = 0; i < oldShape.size(); i++) {
+      insert(oldShape.keyString(i), hashOf(oldShape.key(i)), oldFields[i]);
+    }
   }
 
-  public void insertList(LuaObject value) {
-    // Insert at the first null encountered or at the end
-    // Start at 1 !
-    for (int i = 1; i < list.size(); i++) {
-      if (list.get(i) == null) {
-        list.set(i, value);
-        return;
+  // *******************************************************************
+  //  Hash part
+  // *******************************************************************
+
+  private static int spread(int h) {
+    return h ^ (h >>> 16);
+  }
+
+  // Integer and string keys must hash the same whether they are wrapped in a LuaObject or not
+  private static int hashOf(long key) {
+    return spread(Long.hashCode(key));
+  }
+
+  private static int hashOf(String key) {
+    return spread(key.hashCode());
+  }
+
+  private static int hashOf(LuaObject key) {
+    // the hash of a LuaString is the one of its value, and is cached
+    return spread(key.hashCode());
+  }
+
+  // The probes stop at the first empty slot, there is always one as the hash part is never full
+
+  private int find(LuaObject key, int hash) {
+    if (hashUsed == 0) {
+      return -1;
+    }
+    int mask = hashKeys.length - 1;
+    for (int i = hash & mask; ; i = (i + 1) & mask) {
+      LuaObject k = hashKeys[i];
+      if (k == null) {
+        return -1;
+      }
+      if (k.equals(key)) {
+        return i;
+      }
+    }
+  }
+
+  private int find(long key) {
+    if (hashUsed == 0) {
+      return -1;
+    }
+    int mask = hashKeys.length - 1;
+    for (int i = hashOf(key) & mask; ; i = (i + 1) & mask) {
+      LuaObject k = hashKeys[i];
+      if (k == null) {
+        return -1;
+      }
+      if (k instanceof LuaInteger && ((LuaInteger) k).getLongValue() == key) {
+        return i;
+      }
+    }
+  }
+
+  private int find(String key) {
+    if (hashUsed == 0) {
+      return -1;
+    }
+    int mask = hashKeys.length - 1;
+    for (int i = hashOf(key) & mask; ; i = (i + 1) & mask) {
+      LuaObject k = hashKeys[i];
+      if (k == null) {
+        return -1;
+      }
+      if (k instanceof LuaString && ((LuaString) k).getValue().equals(key)) {
+        return i;
+      }
+    }
+  }
+
+  // Slot of the hash part holding the name of cache, if it is one of the cached slots
+  private int cachedSlot(InlineCache cache) {
+    LuaObject[] keys = hashKeys;
+    for (int slot : cache.slots) {
+      if (slot >= 0 && slot < keys.length) {
+        LuaObject k = keys[slot];
+        if (k == cache.key
+            || (k instanceof LuaString && ((LuaString) k).getValue().equals(cache.name))) {
+          return slot;
+        }
+      }
+    }
+    return -1;
+  }
+
+  // Adds a key which is in neither part, the table is resized when the hash part is 3/4 full
+  private void insert(LuaObject key, int hash, LuaObject value) {
+    if ((hashUsed + 1) * 4 > hashKeys.length * 3) {
+      rehash(key);
+      // the key may now belong to the array part
+      put(key, value);
+      return;
+    }
+
+    int mask = hashKeys.length - 1;
+    int i = hash & mask;
+    while (hashKeys[i] != null) {
+      i = (i + 1) & mask;
+    }
+    hashKeys[i] = key;
+    hashValues[i] = value;
+    hashUsed++;
+  }
+
+  // Index of the slice (2^(b - 1), 2^b] containing key, -1 if it can't be in the array part
+  private static int slice(long key) {
+    if (key < 1 || key > (1L << MAXBITS)) {
+      return -1;
+    }
+    return 64 - Long.numberOfLeadingZeros(key - 1);
+  }
+
+  // Resizes both parts to fit the current keys and the extra one about to be inserted
+  private void rehash(LuaObject extra) {
+    // nums[b] is the number of integer keys in the slice b
+    int[] nums = new int[MAXBITS + 1];
+    int total = 1;
+    int integers = 0;
+
+    for (int i = 0; i < array.length; i++) {
+      if (array[i] != null) {
+        nums[slice(i + 1)]++;
+        integers++;
+        total++;
+      }
+    }
+    for (int i = 0; i < hashKeys.length; i++) {
+      if (hashKeys[i] != null && hashValues[i] != null) {
+        total++;
+        if (hashKeys[i] instanceof LuaInteger) {
+          int b = slice(((LuaInteger) hashKeys[i]).getLongValue());
+          if (b >= 0) {
+            nums[b]++;
+            integers++;
+          }
+        }
+      }
+    }
+    if (extra instanceof LuaInteger) {
+      int b = slice(((LuaInteger) extra).getLongValue());
+      if (b >= 0) {
+        nums[b]++;
+        integers++;
       }
     }
 
-    list.add(value);
+    // largest power of two n such that more than half of 1..n is used
+    int arraySize = 0;
+    int inArray = 0;
+    int count = 0;
+    for (int b = 0, twoToB = 1; b <= MAXBITS && twoToB / 2 < integers; b++, twoToB *= 2) {
+      count += nums[b];
+      if (count > twoToB / 2) {
+        arraySize = twoToB;
+        inArray = count;
+      }
+    }
+
+    int hashCount = total - inArray;
+    int hashSize = 0;
+    if (hashCount > 0) {
+      hashSize = Integer.highestOneBit(hashCount * 4 / 3 + 1) << 1;
+    }
+
+    LuaObject[] oldArray = array;
+    LuaObject[] oldKeys = hashKeys;
+    LuaObject[] oldValues = hashValues;
+    array = arraySize == 0 ? EMPTY : new LuaObject[arraySize];
+    hashKeys = hashSize == 0 ? EMPTY : new LuaObject[hashSize];
+    hashValues = hashSize == 0 ? EMPTY : new LuaObject[hashSize];
+    hashUsed = 0;
+    if (budget != null) {
+      int growth = array.length + 2 * hashKeys.length - oldArray.length - 2 * oldKeys.length;
+      if (growth > 0) {
+        budget.charge((long) growth * SLOT_BYTES);
+      }
+    }
+
+    for (int i = 0; i < oldArray.length; i++) {
+      if (oldArray[i] != null) {
+        put(i + 1L, oldArray[i]);
+      }
+    }
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != null && oldValues[i] != null) {
+        put(oldKeys[i], oldValues[i]);
+      }
+    }
   }
 }
@@ -0,0 +1,23 @@
+package jua.objects;
+
+import java.util.ArrayList;
+
+// Result of a function ending with return f(args): the call is made by LuaFunction.evaluate once
+// the function has returned, so that a chain of tail calls runs in constant stack space
+public class LuaTailCall extends LuaReturn {
+  private final LuaObject function;
+  private final ArrayList<LuaObject> args;
+
+  public LuaTailCall(LuaObject function, ArrayList<LuaObject> args) {
+    this.function = function;
+    this.args = args;
+  }
+
+  public LuaObject getFunction() {
+    return function;
+  }
+
+  public ArrayList<LuaObject> getArgs() {
+    return args;
+  }
+}
@@ -0,0 +1,34 @@
+package jua.objects;
+
+// Events which can be handled by a metatable. The ordinal of an event is its bit in the cache of
+// absent metamethods of LuaTable.
+public enum Metamethod {
+  INDEX("__index"),
+  NEWINDEX("__newindex"),
+  CALL("__call"),
+  EQ("__eq"),
+  LT("__lt"),
+  LE("__le"),
+  LEN("__len"),
+  CONCAT("__concat"),
+  UNM("__unm"),
+  ADD("__add"),
+  SUB("__sub"),
+  MUL("__mul"),
+  DIV("__div"),
+  MOD("__mod"),
+  POW("__pow"),
+  BAND("__band"),
+  BOR("__bor"),
+  BXOR("__bxor"),
+  SHL("__shl"),
+  SHR("__shr"),
+  BNOT("__bnot");
+
+  // a literal, interned like the keys of the shapes
+  final String key;
+
+  Metamethod(String key) {
+    this.key = key;
+  }
+}
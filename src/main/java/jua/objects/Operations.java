@@ -0,0 +1,440 @@
+package jua.objects;
+
+import java.util.ArrayList;
+import jua.evaluator.Budget;
+import jua.evaluator.IllegalTypeException;
+import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Scope;
+
+// Semantics of the Lua operators, shared by the AST evaluator and the bytecode VM so that both
+// engines behave the same way on the same script.
+//
+// The metamethods are only looked up once the fast path of an operator fails: numbers for the
+// arithmetic, a key present in the table or a table without metatable for the indexing.
+public final class Operations {
+  // longest chain of __index or __newindex tables followed
+  private static final int MAXTAGLOOP = 2000;
+
+  private Operations() {}
+
+  // The arithmetic operators have a fast path for numbers, then use the metamethod of a table
+  // operand if there is one, other operands are coerced. Integers stay integers except for the
+  // division and the exponentiation.
+
+  public static LuaObject add(LuaObject lhs, LuaObject rhs) throws LuaRuntimeException {
+    if (lhs instanceof LuaNumber && rhs instanceof LuaNumber) {
+      return add((LuaNumber) lhs, (LuaNumber) rhs);
+    }
+    LuaObject result = arith(Metamethod.ADD, lhs, rhs);
+    return result != null ? result : add(LuaNumber.valueOf(lhs), LuaNumber.valueOf(rhs));
+  }
+
+  public static LuaNumber add(LuaNumber lhs, LuaNumber rhs) {
+    if (lhs.isInteger() && rhs.isInteger()) {
+      return LuaNumber.valueOf(lhs.getLongValue() + rhs.getLongValue());
+    }
+    return new LuaNumber(lhs.getValue() + rhs.getValue());
+  }
+
+  public static LuaObject sub(LuaObject lhs, LuaObject rhs) throws LuaRuntimeException {
+    if (lhs instanceof LuaNumber && rhs instanceof LuaNumber) {
+      return sub((LuaNumber) lhs, (LuaNumber) rhs);
+    }
+    LuaObject result = arith(Metamethod.SUB, lhs, rhs);
+    return result != null ? result : sub(LuaNumber.valueOf(lhs), LuaNumber.valueOf(rhs));
+  }
+
+  public static LuaNumber sub(LuaNumber lhs, LuaNumber rhs) {
+    if (lhs.isInteger() && rhs.isInteger()) {
+      return LuaNumber.valueOf(lhs.getLongValue() - rhs.getLongValue());
+    }
+    return new LuaNumber(lhs.getValue() - rhs.getValue());
+  }
+
+  public static LuaObject mul(LuaObject lhs, LuaObject rhs) throws LuaRuntimeException {
+    if (lhs instanceof LuaNumber && rhs instanceof LuaNumber) {
+      return mul((LuaNumber) lhs, (LuaNumber) rhs);
+    }
+    LuaObject result = arith(Metamethod.MUL, lhs, rhs);
+    return result != null ? result : mul(LuaNumber.valueOf(lhs), LuaNumber.valueOf(rhs));
+  }
+
+  public static LuaNumber mul(LuaNumber lhs, LuaNumber rhs) {
+    if (lhs.isInteger() && rhs.isInteger()) {
+      return LuaNumber.valueOf(lhs.getLongValue() * rhs.getLongValue());
+    }
+    return new LuaNumber(lhs.getValue() * rhs.getValue());
+  }
+
+  public static LuaObject div(LuaObject lhs, LuaObject rhs) throws LuaRuntimeException {
+    if (lhs instanceof LuaNumber && rhs instanceof LuaNumber) {
+      return div((LuaNumber) lhs, (LuaNumber) rhs);
+    }
+    LuaObject result = arith(Metamethod.DIV, lhs, rhs);
+    return result != null ? result : div(LuaNumber.valueOf(lhs), LuaNumber.valueOf(rhs));
+  }
+
+  public static LuaNumber div(LuaNumber lhs, LuaNumber rhs) {
+    return new LuaNumber(lhs.getValue() / rhs.getValue());
+  }
+
+  public static LuaObject mod(LuaObject lhs, LuaObject rhs) throws LuaRuntimeException {
+    if (lhs instanceof LuaNumber && rhs instanceof LuaNumber) {
+      return mod((LuaNumber) lhs, (LuaNumber) rhs);
+    }
+    LuaObject result = arith(Metamethod.MOD, lhs, rhs);
+    return result != null ? result : mod(LuaNumber.valueOf(lhs), LuaNumber.valueOf(rhs));
+  }
+
+  public static LuaNumber mod(LuaNumber lhs, LuaNumber rhs) throws LuaRuntimeException {
+    if (lhs.isInteger() && rhs.isInteger()) {
+      // unlike with floats, a modulo by the integer 0 is an error
+      if (rhs.getLongValue() == 0) {
+        throw new LuaRuntimeException("attempt to perform 'n%%0'");
+      }
+      return LuaNumber.valueOf(lhs.getLongValue() % rhs.getLongValue());
+    }
+    return new LuaNumber(lhs.getValue() % rhs.getValue());
+  }
+
+  public static LuaObject pow(LuaObject lhs, LuaObject rhs) throws LuaRuntimeException {
+    LuaObject result = arith(Metamethod.POW, lhs, rhs);
+    if (result != null) {
+      return result;
+    }
+    return new LuaNumber(
+        Math.pow(LuaNumber.valueOf(lhs).getValue(), LuaNumber.valueOf(rhs).getValue()));
+  }
+
+  public static LuaObject unm(LuaObject value) throws LuaRuntimeException {
+    LuaObject result = arith(Metamethod.UNM, value, value);
+    if (result != null) {
+      return result;
+    }
+    LuaNumber number = LuaNumber.valueOf(value);
+    if (number.isInteger()) {
+      return LuaNumber.valueOf(-number.getLongValue());
+    }
+    return new LuaNumber(-number.getValue());
+  }
+
+  // We cast Double to Long as java doesn't support bitwise operations on floating numbers
+  public static LuaObject band(LuaObject lhs, LuaObject rhs) throws LuaRuntimeException {
+    LuaObject result = arith(Metamethod.BAND, lhs, rhs);
+    return result != null ? result : LuaNumber.valueOf(lhs).bAnd(LuaNumber.valueOf(rhs));
+  }
+
+  public static LuaObject bor(LuaObject lhs, LuaObject rhs) throws LuaRuntimeException {
+    LuaObject result = arith(Metamethod.BOR, lhs, rhs);
+    return result != null ? result : LuaNumber.valueOf(lhs).bOr(LuaNumber.valueOf(rhs));
+  }
+
+  public static LuaObject bxor(LuaObject lhs, LuaObject rhs) throws LuaRuntimeException {
+    LuaObject result = arith(Metamethod.BXOR, lhs, rhs);
+    return result != null ? result : LuaNumber.valueOf(lhs).bXor(LuaNumber.valueOf(rhs));
+  }
+
+  public static LuaObject shl(LuaObject lhs, LuaObject rhs) throws LuaRuntimeException {
+    LuaObject result = arith(Metamethod.SHL, lhs, rhs);
+    return result != null ? result : LuaNumber.valueOf(lhs).leftShift(LuaNumber.valueOf(rhs));
+  }
+
+  public static LuaObject shr(LuaObject lhs, LuaObject rhs) throws LuaRuntimeException {
+    LuaObject result = arith(Metamethod.SHR, lhs, rhs);
+    return result != null ? result : LuaNumber.valueOf(lhs).rightShift(LuaNumber.valueOf(rhs));
+  }
+
+  public static LuaObject bnot(LuaObject value) throws LuaRuntimeException {
+    LuaObject result = arith(Metamethod.BNOT, value, value);
+    return result != null ? result : LuaNumber.valueOf(value).bNot();
+  }
+
+  public static LuaObject concat(LuaObject lhs, LuaObject rhs) throws LuaRuntimeException {
+    LuaObject result = arith(Metamethod.CONCAT, lhs, rhs);
+    if (result != null) {
+      return result;
+    }
+    return LuaString.concat(new LuaString[] {LuaString.valueOf(lhs), LuaString.valueOf(rhs)});
+  }
+
+  // Concatenation of values[from] .. ... .. values[to - 1], a chain of .. is copied only once. The
+  // copied characters are charged to budget. A chain with a table is evaluated from the right, a
+  // pair at a time, for the __concat metamethods.
+  public static LuaObject concat(LuaObject[] values, int from, int to, Budget budget)
+      throws LuaRuntimeException {
+    LuaString[] parts = new LuaString[to - from];
+    for (int i = from; i < to; i++) {
+      if (values[i] instanceof LuaTable) {
+        LuaObject result = values[to - 1];
+        for (int j = to - 2; j >= from; j--) {
+          result = concat(values[j], result);
+        }
+        return result;
+      }
+      parts[i - from] = LuaString.valueOf(values[i]);
+    }
+    return LuaString.concat(parts, budget);
+  }
+
+  public static LuaObject length(LuaObject value) throws LuaRuntimeException {
+    if (value instanceof LuaString) {
+      return LuaNumber.valueOf(((LuaString) value).length());
+    }
+
+    LuaObject handler = metamethod(value, Metamethod.LEN);
+    if (handler != null) {
+      return call(handler, value, value);
+    }
+    if (value instanceof LuaTable) {
+      return LuaNumber.valueOf(((LuaTable) value).size());
+    }
+
+    throw new IllegalTypeException(
+        String.format("Can't apply operator # on %s of type %s", value, value.getClass()));
+  }
+
+  // Two tables are equal if they are the same table or if their __eq metamethod says so
+  public static boolean equal(LuaObject lhs, LuaObject rhs) throws LuaRuntimeException {
+    if (lhs == rhs) {
+      return true;
+    }
+    if (lhs instanceof LuaTable && rhs instanceof LuaTable) {
+      LuaObject result = arith(Metamethod.EQ, lhs, rhs);
+      return result != null && isTruthy(result);
+    }
+    return lhs.equals(rhs);
+  }
+
+  public static boolean lessThan(LuaObject lhs, LuaObject rhs) throws LuaRuntimeException {
+    if (lhs instanceof LuaInteger && rhs instanceof LuaInteger) {
+      return ((LuaInteger) lhs).getLongValue() < ((LuaInteger) rhs).getLongValue();
+    }
+    LuaObject result = arith(Metamethod.LT, lhs, rhs);
+    if (result != null) {
+      return isTruthy(result);
+    }
+    LuaObject.ensureSameType(lhs, rhs);
+
+    if (lhs instanceof LuaNumber) {
+      return ((LuaNumber) lhs).getValue() < ((LuaNumber) rhs).getValue();
+    }
+
+    if (lhs instanceof LuaString) {
+      return ((LuaString) lhs).getValue().compareTo(((LuaString) rhs).getValue()) < 0;
+    }
+
+    throw new LuaRuntimeException(String.format("Could not evaluate %s < %s", lhs, rhs));
+  }
+
+  public static boolean lessEqual(LuaObject lhs, LuaObject rhs) throws LuaRuntimeException {
+    if (lhs instanceof LuaInteger && rhs instanceof LuaInteger) {
+      return ((LuaInteger) lhs).getLongValue() <= ((LuaInteger) rhs).getLongValue();
+    }
+    LuaObject result = arith(Metamethod.LE, lhs, rhs);
+    if (result != null) {
+      return isTruthy(result);
+    }
+    // a <= b is not (b < a) for the tables handling only __lt, like in Lua 5.3
+    result = arith(Metamethod.LT, rhs, lhs);
+    if (result != null) {
+      return !isTruthy(result);
+    }
+    LuaObject.ensureSameType(lhs, rhs);
+
+    if (lhs instanceof LuaNumber) {
+      return ((LuaNumber) lhs).getValue() <= ((LuaNumber) rhs).getValue();
+    }
+
+    if (lhs instanceof LuaString) {
+      return ((LuaString) lhs).getValue().compareTo(((LuaString) rhs).getValue()) <= 0;
+    }
+
+    throw new LuaRuntimeException(String.format("Could not evaluate %s <= %s", lhs, rhs));
+  }
+
+  // Only nil and false are falsy
+  public static boolean isTruthy(LuaObject value) {
+    return LuaBoolean.valueOf(value).getValue();
+  }
+
+  // *******************************************************************
+  //  Numeric for loops
+  // *******************************************************************
+
+  // Limit to compare the values of a loop starting at init with, like in Lua 5.3 a float limit of
+  // an integer loop is rounded to the last integer the loop reaches
+  public static LuaNumber forLimit(LuaNumber init, LuaNumber limit, LuaNumber step) {
+    if (limit.isInteger() || !init.isInteger() || !step.isInteger()) {
+      return limit;
+    }
+    double rounded =
+        step.getLongValue() > 0 ? Math.floor(limit.getValue()) : Math.ceil(limit.getValue());
+    // NaN and the limits out of range of the integers keep comparing as floats
+    if (rounded >= -0x1p63 && rounded < 0x1p63) {
+      return LuaNumber.valueOf((long) rounded);
+    }
+    return limit;
+  }
+
+  public static boolean forContinues(LuaNumber value, LuaNumber limit, LuaNumber step) {
+    if (value.isInteger() && limit.isInteger() && step.isInteger()) {
+      return step.getLongValue() > 0
+          ? value.getLongValue() <= limit.getLongValue()
+          : value.getLongValue() >= limit.getLongValue();
+    }
+    return (step.getValue() > 0 && value.getValue() <= limit.getValue())
+        || (step.getValue() <= 0 && value.getValue() >= limit.getValue());
+  }
+
+  // Value following value in the loop, null when the loop ends. An integer loop also ends instead
+  // of wrapping around past the largest or the smallest integer.
+  public static LuaNumber forNext(LuaNumber value, LuaNumber limit, LuaNumber step) {
+    LuaNumber next;
+    if (value.isInteger() && step.isInteger()) {
+      long current = value.getLongValue();
+      long increment = step.getLongValue();
+      long sum = current + increment;
+      if (increment > 0 ? sum < current : sum > current) {
+        return null;
+      }
+      next = LuaNumber.valueOf(sum);
+    } else {
+      next = add(value, step);
+    }
+    return forContinues(next, limit, step) ? next : null;
+  }
+
+  // The metatable of the strings belongs to the program, it is found through scope
+  public static LuaObject index(LuaObject table, LuaObject key, Scope scope)
+      throws LuaRuntimeException {
+    if (table instanceof LuaTable) {
+      LuaTable t = (LuaTable) table;
+      LuaObject value = t.get(key);
+      if (!(value instanceof LuaNil) || t.getMetatable() == null) {
+        return value;
+      }
+    }
+    return indexMetamethod(table, key, scope);
+  }
+
+  // Value of table[key] when key isn't in table itself: table isn't a table or has a metatable
+  public static LuaObject indexMetamethod(LuaObject table, LuaObject key, Scope scope)
+      throws LuaRuntimeException {
+    for (int loop = 0; loop < MAXTAGLOOP; loop++) {
+      LuaTable metatable = getMetatable(table, scope);
+      LuaObject handler = metatable == null ? null : metatable.metamethod(Metamethod.INDEX);
+      if (handler == null) {
+        return LuaObject.toTable(table).get(key);
+      }
+      if (handler instanceof LuaFunction) {
+        return call(handler, table, key);
+      }
+
+      table = handler;
+      if (table instanceof LuaTable) {
+        LuaTable t = (LuaTable) table;
+        LuaObject value = t.get(key);
+        if (!(value instanceof LuaNil) || t.getMetatable() == null) {
+          return value;
+        }
+      }
+    }
+    throw new LuaRuntimeException("'__index' chain too long; possible loop");
+  }
+
+  public static void setIndex(LuaObject table, LuaObject key, LuaObject value)
+      throws LuaRuntimeException {
+    for (int loop = 0; loop < MAXTAGLOOP; loop++) {
+      LuaObject handler;
+      if (table instanceof LuaTable) {
+        LuaTable t = (LuaTable) table;
+        // the metamethod is only used for the keys which aren't in the table
+        if (t.getMetatable() == null
+            || !(t.get(key) instanceof LuaNil)
+            || (handler = metamethod(t, Metamethod.NEWINDEX)) == null) {
+          t.put(key, value);
+          return;
+        }
+      } else {
+        handler = metamethod(table, Metamethod.NEWINDEX);
+        if (handler == null) {
+          LuaObject.toTable(table);
+        }
+      }
+      if (handler instanceof LuaFunction) {
+        call(handler, table, key, value);
+        return;
+      }
+      table = handler;
+    }
+    throw new LuaRuntimeException("'__newindex' chain too long; possible loop");
+  }
+
+  // *******************************************************************
+  //  Metatables
+  // *******************************************************************
+
+  // Metatable of value, null if it has none. Only the tables and the strings have one, the one of
+  // the strings is the one of the program run against scope.
+  public static LuaTable getMetatable(LuaObject value, Scope scope) {
+    if (value instanceof LuaTable) {
+      return ((LuaTable) value).getMetatable();
+    }
+    if (value instanceof LuaString) {
+      return scope.getStringMetatable();
+    }
+    return null;
+  }
+
+  // Handler of event for value, null if it has none. The metatable of the strings is only used to
+  // index them (see index), which is all the string library puts in it.
+  public static LuaObject metamethod(LuaObject value, Metamethod event) {
+    if (!(value instanceof LuaTable)) {
+      return null;
+    }
+    LuaTable metatable = ((LuaTable) value).getMetatable();
+    return metatable == null ? null : metatable.metamethod(event);
+  }
+
+  // Calls fn, or the __call metamethod of fn with fn as its first argument
+  public static LuaReturn call(LuaObject fn, ArrayList<LuaObject> args)
+      throws LuaRuntimeException {
+    if (fn instanceof LuaFunction) {
+      return ((LuaFunction) fn).evaluate(args);
+    }
+    LuaObject handler = metamethod(fn, Metamethod.CALL);
+    if (!(handler instanceof LuaFunction)) {
+      throw new LuaRuntimeException(
+          String.format("attempt to call a %s value", fn.getTypeName()));
+    }
+    args.add(0, fn);
+    return ((LuaFunction) handler).evaluate(args);
+  }
+
+  // First result of handler called with args
+  private static LuaObject call(LuaObject handler, LuaObject... args)
+      throws LuaRuntimeException {
+    ArrayList<LuaObject> list = new ArrayList<>(args.length);
+    for (LuaObject arg : args) {
+      list.add(arg);
+    }
+    return call(handler, list).getValues().get(0);
+  }
+
+  // Result of the metamethod of event for a binary operator, null if neither operand is a table
+  // handling it
+  private static LuaObject arith(Metamethod event, LuaObject lhs, LuaObject rhs)
+      throws LuaRuntimeException {
+    if (!(lhs instanceof LuaTable) && !(rhs instanceof LuaTable)) {
+      return null;
+    }
+    LuaObject handler = metamethod(lhs, event);
+    if (handler == null) {
+      handler = metamethod(rhs, event);
+      if (handler == null) {
+        return null;
+      }
+    }
+    return call(handler, lhs, rhs);
+  }
+}
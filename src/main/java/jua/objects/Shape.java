@@ -0,0 +1,146 @@
+package jua.objects;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Layout of the string keys of a record-like table, its hidden class. A shape is a list of keys,
+// the value of the i-th one being in the slot i of the fields of the table. The shapes form a
+// tree rooted at EMPTY: adding a key to a table moves it to a child of its shape, so that the
+// tables whose fields are set in the same order share their shape.
+//
+// Shapes are immutable and shared by every program, so that the inline caches of a cached program
+// keep hitting, and the transitions are added concurrently. A shape only holds its children
+// weakly: the shapes no table or cache uses any more are collected and their transitions are
+// removed, the tree doesn't keep the keys of every program which ran. A shape other than EMPTY has
+// at most MAX_TRANSITIONS children, the tables which would need another one become dictionaries.
+final class Shape {
+  static final Shape EMPTY = new Shape(new String[0], new LuaString[0]);
+  // the tables with more string keys are turned into dictionaries
+  static final int MAX_FIELDS = 32;
+  static final int MAX_TRANSITIONS = 64;
+  // shapes with more keys look them up in a map rather than scanning them
+  private static final int SCAN = 8;
+  // transitions to the shapes which have been collected
+  private static final ReferenceQueue<Shape> collected = new ReferenceQueue<>();
+
+  private final String[] keys;
+  // the keys as interned strings, interned once when the shape is created rather than whenever
+  // the keys of a table are listed
+  private final LuaString[] strings;
+  private final HashMap<String, Integer> indexes;
+  private final ConcurrentHashMap<String, Child> transitions = new ConcurrentHashMap<>();
+  // most recent transition, most tables built at a site add the same key
+  private volatile Transition last;
+
+  private static final class Transition {
+    final String key;
+    final Shape shape;
+
+    Transition(String key, Shape shape) {
+      this.key = key;
+      this.shape = shape;
+    }
+  }
+
+  // Transition to a child, removed from its parent once the child is collected
+  private static final class Child extends WeakReference<Shape> {
+    final Shape parent;
+    final String key;
+
+    Child(Shape parent, String key, Shape shape) {
+      super(shape, collected);
+      this.parent = parent;
+      this.key = key;
+    }
+  }
+
+  private Shape(String[] keys, LuaString[] strings) {
+    this.keys = keys;
+    this.strings = strings;
+    if (keys.length > SCAN) {
+      indexes = new HashMap<>(keys.length * 2);
+      for (int i = 0; i < keys.length; i++) {
+        indexes.put(keys[i], i);
+      }
+    } else {
+      indexes = null;
+    }
+  }
+
+  int size() {
+    return keys.length;
+  }
+
+  String key(int index) {
+    return keys[index];
+  }
+
+  LuaString keyString(int index) {
+    return strings[index];
+  }
+
+  // Slot of key, -1 if it isn't part of the shape
+  int indexOf(String key) {
+    if (indexes != null) {
+      Integer index = indexes.get(key);
+      return index == null ? -1 : index;
+    }
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] == key) {
+        return i;
+      }
+    }
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i].equals(key)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  // Shape with key added last, null if the shape has too many children
+  Shape with(String key) {
+    Transition t = last;
+    if (t != null && (t.key == key || t.key.equals(key))) {
+      return t.shape;
+    }
+    purge();
+
+    Child child = transitions.get(key);
+    Shape shape = child == null ? null : child.get();
+    if (shape == null) {
+      // the first keys aren't capped, the root is shared by every program and one of them adding
+      // many first keys mustn't turn the tables of the others into dictionaries
+      if (this != EMPTY && transitions.size() >= MAX_TRANSITIONS && child == null) {
+        return null;
+      }
+      String[] added = Arrays.copyOf(keys, keys.length + 1);
+      added[keys.length] = key;
+      LuaString[] addedStrings = Arrays.copyOf(strings, strings.length + 1);
+      addedStrings[strings.length] = LuaString.intern(key);
+      Shape created = new Shape(added, addedStrings);
+      // a thread racing to add the same key may win, its shape is used
+      Child current =
+          transitions.compute(
+              key,
+              (k, c) -> c != null && c.get() != null ? c : new Child(this, k, created));
+      shape = current.get();
+      if (shape == null) {
+        shape = created;
+      }
+    }
+    last = new Transition(shape.keys[keys.length], shape);
+    return shape;
+  }
+
+  // Removes the transitions to the collected shapes
+  private static void purge() {
+    Child child;
+    while ((child = (Child) collected.poll()) != null) {
+      child.parent.transitions.remove(child.key, child);
+    }
+  }
+}
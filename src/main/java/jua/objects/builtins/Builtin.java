@@ -2,10 +2,17 @@ package jua.objects.builtins;
 
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Map;
+import jua.evaluator.Budget;
+import jua.evaluator.BudgetExceededException;
+import jua.evaluator.LuaRuntimeException;
 import jua.evaluator.Scope;
 import jua.objects.Function;
 import jua.objects.LuaNil;
+import jua.objects.LuaNumber;
 import jua.objects.LuaObject;
+import jua.objects.LuaString;
+import jua.objects.LuaTable;
 
 public class Builtin {
   public static Scope createScope() {
@@ -17,19 +24,133 @@ public class Builtin {
   }
 
   public static Scope createScope(OutputStream out) {
-    Scope scope = new Scope(false);
+    return new Scope(out);
+  }
+
+  // The builtins which don't depend on the output of a scope are only created once
+  private static final class Shared {
+    static final Map<String, LuaObject> BUILTINS = create();
+
+    private static Map<String, LuaObject> create() {
+      Scope scope = new Scope(false);
+      registerLibraries(scope);
+      return Map.copyOf(scope.getGlobals());
+    }
+  }
+
+  public static Map<String, LuaObject> shared() {
+    return Shared.BUILTINS;
+  }
+
+  public static void register(Scope scope, OutputStream out) {
+    registerLibraries(scope);
+    registerScoped(scope, out);
+  }
+
+  // The builtins with a state of their own, created for each root scope: print writes to out,
+  // math.random has its own generator, getmetatable returns the string metatable of the scope, the
+  // string and table functions charge the budget of the scope and the coroutines belong to it
+  public static void registerScoped(Scope scope, OutputStream out) {
+    Print.register(scope, out);
+    Maths.registerRandom(scope);
+    Metatables.registerScoped(scope);
+    Strings.registerScoped(scope);
+    Tables.registerScoped(scope);
+    Coroutines.registerScoped(scope);
+  }
+
+  // Makes print write to out, the other builtins of scope are kept
+  public static void registerOutput(Scope scope, OutputStream out) {
     Print.register(scope, out);
+  }
+
+  private static void registerLibraries(Scope scope) {
     Tables.register(scope);
+    Maths.register(scope);
+    Coroutines.register(scope);
+    Metatables.register(scope);
     Cast.register(scope);
     Bits.register(scope);
     Next.register(scope);
     Strings.register(scope);
     Select.register(scope);
     Type.register(scope);
-    return scope;
   }
 
   public static BuiltinFunction createFunction(Function f) {
     return new BuiltinFunction(f);
   }
+
+  // Charges the bytes of a value about to be built to budget, if any. The program is stopped
+  // right away if it exceeds its memory budget, before the value is allocated.
+  static void charge(Budget budget, long bytes) throws BudgetExceededException {
+    if (budget != null) {
+      budget.charge(bytes);
+      budget.step();
+    }
+  }
+
+  // Errors and conversions of the arguments of the library functions, i is 0-based
+
+  static LuaRuntimeException badArgument(int i, String function, String message) {
+    return new LuaRuntimeException(
+        String.format("bad argument #%d to '%s' (%s)", i + 1, function, message));
+  }
+
+  static LuaRuntimeException badArgument(int i, String function, String expected, LuaObject arg) {
+    return badArgument(
+        i, function, String.format("%s expected, got %s", expected, arg.getTypeName()));
+  }
+
+  // Numbers are converted to strings
+  static String checkString(ArrayList<LuaObject> args, int i, String function)
+      throws LuaRuntimeException {
+    LuaObject arg = arg(args, i);
+    if (arg instanceof LuaString) {
+      return ((LuaString) arg).getValue();
+    } else if (arg instanceof LuaNumber) {
+      return arg.repr();
+    }
+    throw badArgument(i, function, "string", arg);
+  }
+
+  // Strings are converted to numbers
+  static LuaNumber checkNumber(ArrayList<LuaObject> args, int i, String function)
+      throws LuaRuntimeException {
+    LuaObject arg = arg(args, i);
+    if (arg instanceof LuaNumber) {
+      return (LuaNumber) arg;
+    } else if (arg instanceof LuaString) {
+      try {
+        return LuaNumber.valueOf(arg);
+      } catch (LuaRuntimeException e) {
+        // reported below
+      }
+    }
+    throw badArgument(i, function, "number", arg);
+  }
+
+  // Strings are converted to numbers, which must have an integer value
+  static long checkInteger(ArrayList<LuaObject> args, int i, String function)
+      throws LuaRuntimeException {
+    LuaNumber number = checkNumber(args, i, function);
+    if (!number.isInteger() && number.getValue() != (double) number.getLongValue()) {
+      throw badArgument(i, function, "number has no integer representation");
+    }
+    return number.getLongValue();
+  }
+
+  static long optInteger(ArrayList<LuaObject> args, int i, String function, long def)
+      throws LuaRuntimeException {
+    return arg(args, i) instanceof LuaNil ? def : checkInteger(args, i, function);
+  }
+
+  static LuaTable checkTable(ArrayList<LuaObject> args, int i, String function)
+      throws LuaRuntimeException {
+    LuaObject arg = arg(args, i);
+    if (!(arg instanceof LuaTable)) {
+      throw badArgument(i, function, "table", arg);
+    }
+    return (LuaTable) arg;
+  }
 }
@@ -11,7 +11,7 @@ public class BuiltinFunction extends LuaFunction {
   private final Function f;
 
   BuiltinFunction(Function f) {
-    super(null, null, null);
+    super(null, null, null, 0);
     this.f = f;
   }
 
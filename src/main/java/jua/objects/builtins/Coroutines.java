@@ -0,0 +1,129 @@
+package jua.objects.builtins;
+
+import java.util.ArrayList;
+import jua.evaluator.BudgetExceededException;
+import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Scope;
+import jua.objects.*;
+
+// Reference: https://www.lua.org/manual/5.3/manual.html#6.2
+//
+// An error raised in a coroutine is returned by resume, except for the errors of the Budget which
+// stop the whole program.
+//
+// The coroutines created by create and wrap belong to the program of the root scope they are
+// registered in, see LuaCoroutine.Group.
+class Coroutines {
+  private static final String name = "coroutine";
+  // results of status, indexed by the ordinal of the status
+  private static final LuaString[] STATUSES = new LuaString[LuaCoroutine.Status.values().length];
+
+  static {
+    for (LuaCoroutine.Status status : LuaCoroutine.Status.values()) {
+      STATUSES[status.ordinal()] = LuaString.intern(status.toString());
+    }
+  }
+
+  static void register(Scope scope) {
+    LuaTable builtins = new LuaTable();
+    registerCreate(builtins, null);
+
+    builtins.put(
+        "resume",
+        Builtin.createFunction(
+            args -> {
+              LuaCoroutine co = checkCoroutine(args, "resume");
+              ArrayList<LuaObject> values;
+              try {
+                values = co.resume(new ArrayList<>(args.subList(1, args.size())));
+              } catch (BudgetExceededException e) {
+                throw e;
+              } catch (LuaRuntimeException e) {
+                ArrayList<LuaObject> error = new ArrayList<>(2);
+                error.add(LuaBoolean.getLuaBool(false));
+                error.add(new LuaString(e.getMessage()));
+                return new LuaReturn(error);
+              }
+              ArrayList<LuaObject> results = new ArrayList<>(values.size() + 1);
+              results.add(LuaBoolean.getLuaBool(true));
+              results.addAll(values);
+              return new LuaReturn(results);
+            }));
+
+    builtins.put(
+        "yield", Builtin.createFunction(args -> new LuaReturn(LuaCoroutine.yield(args))));
+
+    builtins.put(
+        "status",
+        Builtin.createFunction(
+            args -> {
+              LuaCoroutine co = checkCoroutine(args, "status");
+              return new LuaReturn(STATUSES[co.getStatus().ordinal()]);
+            }));
+
+    builtins.put(
+        "running",
+        Builtin.createFunction(
+            args -> {
+              LuaCoroutine co = LuaCoroutine.running();
+              ArrayList<LuaObject> results = new ArrayList<>(2);
+              results.add(co == null ? LuaNil.getInstance() : co);
+              results.add(LuaBoolean.getLuaBool(co == null));
+              return new LuaReturn(results);
+            }));
+
+    builtins.put(
+        "isyieldable",
+        Builtin.createFunction(
+            args -> new LuaReturn(LuaBoolean.getLuaBool(LuaCoroutine.running() != null))));
+
+    scope.assignLocal(name, builtins);
+  }
+
+  // Gives scope its own create and wrap, whose coroutines belong to its program
+  static void registerScoped(Scope scope) {
+    LuaObject shared = Builtin.shared().get(name);
+    if (!(shared instanceof LuaTable)) {
+      return;
+    }
+    LuaTable table = ((LuaTable) shared).copy();
+    registerCreate(table, scope);
+    scope.assignLocal(name, table);
+  }
+
+  // scope is null for the shared library
+  private static void registerCreate(LuaTable builtins, Scope scope) {
+    builtins.put(
+        "create",
+        Builtin.createFunction(
+            args -> new LuaReturn(new LuaCoroutine(checkFunction(args, "create"), scope))));
+
+    builtins.put(
+        "wrap",
+        Builtin.createFunction(
+            args -> {
+              LuaCoroutine co = new LuaCoroutine(checkFunction(args, "wrap"), scope);
+              // errors are propagated to the caller of the function
+              return new LuaReturn(
+                  Builtin.createFunction(values -> new LuaReturn(co.resume(values))));
+            }));
+  }
+
+  private static LuaFunction checkFunction(ArrayList<LuaObject> args, String function)
+      throws LuaRuntimeException {
+    LuaObject arg = Builtin.arg(args, 0);
+    if (!(arg instanceof LuaFunction)) {
+      throw Builtin.badArgument(0, function, "function", arg);
+    }
+    return (LuaFunction) arg;
+  }
+
+  private static LuaCoroutine checkCoroutine(ArrayList<LuaObject> args, String function)
+      throws LuaRuntimeException {
+    LuaObject arg = Builtin.arg(args, 0);
+    if (!(arg instanceof LuaCoroutine)) {
+      throw Builtin.badArgument(0, function, "coroutine", arg);
+    }
+    return (LuaCoroutine) arg;
+  }
+}
@@ -0,0 +1,591 @@
+package jua.objects.builtins;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import jua.evaluator.Budget;
+import jua.evaluator.LuaRuntimeException;
+import jua.objects.LuaNumber;
+import jua.objects.LuaObject;
+import jua.objects.LuaString;
+
+// Lua patterns (https://www.lua.org/manual/5.3/manual.html#6.4.1), compiled once to a list of
+// items and matched by backtracking like in the reference implementation. The character classes
+// are the ones of the C locale.
+//
+// A Matcher works on the characters of the subject and records its captures as positions, the
+// strings of the captures are only created when they are returned to the program. Compiled
+// patterns are immutable, the most recently used ones are cached and shared by every thread.
+// Every step of the backtracking is a step of the Budget of the matcher, so that a pattern which
+// backtracks exponentially is stopped like a loop.
+final class LuaPattern {
+  static final int MAXCAPTURES = 32;
+  // maximum depth of the backtracking, like MAXCCALLS
+  private static final int MAXDEPTH = 200;
+  private static final int CACHE_SIZE = 64;
+
+  // kinds of items
+  private static final int CHAR = 0;
+  private static final int ANY = 1;
+  private static final int CLASS = 2;
+  private static final int SET = 3;
+  private static final int OPEN = 4;
+  private static final int POSITION = 5;
+  private static final int CLOSE = 6;
+  private static final int BALANCE = 7;
+  private static final int FRONTIER = 8;
+  private static final int BACKREF = 9;
+  private static final int END = 10;
+
+  private static final int CAP_UNFINISHED = -1;
+  private static final int CAP_POSITION = -2;
+
+  // iterated from the least to the most recently used
+  private static final LinkedHashMap<String, LuaPattern> cache =
+      new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, LuaPattern> eldest) {
+          return size() > CACHE_SIZE;
+        }
+      };
+
+  private final Item[] items;
+  private final boolean anchored;
+  private final int captures;
+
+  // A single character (CHAR, ANY, CLASS or SET) followed by a quantifier, or a special item
+  private static final class Item {
+    final int kind;
+    // the character, the class letter, the opening character of %b or the index of %1-9
+    final char c;
+    // the closing character of %b
+    final char close;
+    // one of * + - ?, 0 if the item isn't repeated
+    char quantifier;
+    final CharSet set;
+
+    Item(int kind, char c, char close, CharSet set) {
+      this.kind = kind;
+      this.c = c;
+      this.close = close;
+      this.set = set;
+    }
+  }
+
+  // A [set], with a bitmap of the Latin-1 characters it contains
+  private static final class CharSet {
+    private final String spec;
+    private final boolean negate;
+    private final long[] bits = new long[4];
+
+    CharSet(String spec, boolean negate) {
+      this.spec = spec;
+      this.negate = negate;
+      for (char ch = 0; ch < 256; ch++) {
+        if (compute(ch)) {
+          bits[ch >> 6] |= 1L << ch;
+        }
+      }
+    }
+
+    boolean matches(char ch) {
+      if (ch < 256) {
+        return (bits[ch >> 6] & (1L << ch)) != 0;
+      }
+      return compute(ch);
+    }
+
+    private boolean compute(char ch) {
+      for (int i = 0; i < spec.length(); i++) {
+        char c = spec.charAt(i);
+        if (c == '%') {
+          i++;
+          if (classMatches(spec.charAt(i), ch)) {
+            return !negate;
+          }
+        } else if (i + 2 < spec.length() && spec.charAt(i + 1) == '-') {
+          if (c <= ch && ch <= spec.charAt(i + 2)) {
+            return !negate;
+          }
+          i += 2;
+        } else if (c == ch) {
+          return !negate;
+        }
+      }
+      return negate;
+    }
+  }
+
+  private LuaPattern(Item[] items, boolean anchored, int captures) {
+    this.items = items;
+    this.anchored = anchored;
+    this.captures = captures;
+  }
+
+  static LuaPattern compile(String pattern) throws LuaRuntimeException {
+    synchronized (cache) {
+      LuaPattern p = cache.get(pattern);
+      if (p != null) {
+        return p;
+      }
+    }
+    LuaPattern p = parse(pattern);
+    synchronized (cache) {
+      cache.put(pattern, p);
+    }
+    return p;
+  }
+
+  // Whether the pattern has none of the special characters, it is then searched as is
+  static boolean isPlain(String pattern) {
+    for (int i = 0; i < pattern.length(); i++) {
+      if ("^$*+?.([%-".indexOf(pattern.charAt(i)) >= 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // *******************************************************************
+  //  Compilation
+  // *******************************************************************
+
+  private static LuaPattern parse(String pattern) throws LuaRuntimeException {
+    ArrayList<Item> items = new ArrayList<>();
+    int i = 0;
+    boolean anchored = pattern.startsWith("^");
+    if (anchored) {
+      i++;
+    }
+    int captures = 0;
+    int open = 0;
+    int n = pattern.length();
+
+    while (i < n) {
+      char c = pattern.charAt(i);
+      Item item;
+      if (c == '(') {
+        if (++captures > MAXCAPTURES) {
+          throw new LuaRuntimeException("too many captures");
+        }
+        open++;
+        if (i + 1 < n && pattern.charAt(i + 1) == ')') {
+          item = new Item(POSITION, c, c, null);
+          open--;
+          i += 2;
+        } else {
+          item = new Item(OPEN, c, c, null);
+          i++;
+        }
+        items.add(item);
+        continue;
+      } else if (c == ')') {
+        if (--open < 0) {
+          throw new LuaRuntimeException("invalid pattern capture");
+        }
+        items.add(new Item(CLOSE, c, c, null));
+        i++;
+        continue;
+      } else if (c == '$' && i == n - 1) {
+        items.add(new Item(END, c, c, null));
+        i++;
+        continue;
+      } else if (c == '%') {
+        if (i + 1 >= n) {
+          throw new LuaRuntimeException("malformed pattern (ends with '%')");
+        }
+        char next = pattern.charAt(i + 1);
+        if (next == 'b') {
+          if (i + 3 >= n) {
+            throw new LuaRuntimeException("malformed pattern (missing arguments to '%b')");
+          }
+          items.add(new Item(BALANCE, pattern.charAt(i + 2), pattern.charAt(i + 3), null));
+          i += 4;
+          continue;
+        } else if (next == 'f') {
+          i += 2;
+          if (i >= n || pattern.charAt(i) != '[') {
+            throw new LuaRuntimeException("missing '[' after '%f' in pattern");
+          }
+          int end = setEnd(pattern, i);
+          items.add(new Item(FRONTIER, c, c, set(pattern, i, end)));
+          i = end;
+          continue;
+        } else if (next >= '0' && next <= '9') {
+          int index = next - '1';
+          if (index < 0 || index >= captures) {
+            throw new LuaRuntimeException(String.format("invalid capture index %%%d", index + 1));
+          }
+          items.add(new Item(BACKREF, (char) index, c, null));
+          i += 2;
+          continue;
+        }
+        item = isAlpha(next) ? new Item(CLASS, next, c, null) : charItem(next);
+        i += 2;
+      } else if (c == '[') {
+        int end = setEnd(pattern, i);
+        item = new Item(SET, c, c, set(pattern, i, end));
+        i = end;
+      } else if (c == '.') {
+        item = new Item(ANY, c, c, null);
+        i++;
+      } else {
+        item = charItem(c);
+        i++;
+      }
+
+      if (i < n && "*+-?".indexOf(pattern.charAt(i)) >= 0) {
+        item.quantifier = pattern.charAt(i);
+        i++;
+      }
+      items.add(item);
+    }
+
+    if (open > 0) {
+      throw new LuaRuntimeException("unfinished capture");
+    }
+    return new LuaPattern(items.toArray(new Item[0]), anchored, captures);
+  }
+
+  private static Item charItem(char c) {
+    return new Item(CHAR, c, c, null);
+  }
+
+  // Index following the set starting at the [ at start
+  private static int setEnd(String pattern, int start) throws LuaRuntimeException {
+    int i = start + 1;
+    if (i < pattern.length() && pattern.charAt(i) == '^') {
+      i++;
+    }
+    // the first character of the set can be a ]
+    do {
+      if (i >= pattern.length()) {
+        throw new LuaRuntimeException("malformed pattern (missing ']')");
+      }
+      char c = pattern.charAt(i++);
+      if (c == '%') {
+        if (i >= pattern.length()) {
+          throw new LuaRuntimeException("malformed pattern (missing ']')");
+        }
+        i++;
+      }
+    } while (i >= pattern.length() || pattern.charAt(i) != ']');
+    return i + 1;
+  }
+
+  private static CharSet set(String pattern, int start, int end) {
+    boolean negate = pattern.charAt(start + 1) == '^';
+    return new CharSet(pattern.substring(negate ? start + 2 : start + 1, end - 1), negate);
+  }
+
+  private static boolean classMatches(char cl, char ch) {
+    boolean res;
+    switch (Character.toLowerCase(cl)) {
+      case 'a':
+        res = isAlpha(ch);
+        break;
+      case 'c':
+        res = ch < 32 || ch == 127;
+        break;
+      case 'd':
+        res = ch >= '0' && ch <= '9';
+        break;
+      case 'g':
+        res = ch > 32 && ch < 127;
+        break;
+      case 'l':
+        res = ch >= 'a' && ch <= 'z';
+        break;
+      case 'p':
+        res = ch > 32 && ch < 127 && !isAlpha(ch) && !(ch >= '0' && ch <= '9');
+        break;
+      case 's':
+        res = ch == ' ' || (ch >= '\t' && ch <= '\r');
+        break;
+      case 'u':
+        res = ch >= 'A' && ch <= 'Z';
+        break;
+      case 'w':
+        res = isAlpha(ch) || (ch >= '0' && ch <= '9');
+        break;
+      case 'x':
+        res = (ch >= '0' && ch <= '9') || (ch >= 'a' && ch <= 'f') || (ch >= 'A' && ch <= 'F');
+        break;
+      default:
+        return cl == ch;
+    }
+    return Character.isUpperCase(cl) != res;
+  }
+
+  private static boolean isAlpha(char ch) {
+    return (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z');
+  }
+
+  boolean isAnchored() {
+    return anchored;
+  }
+
+  // Matcher stepping budget, which may be null
+  Matcher matcher(String subject, Budget budget) {
+    return new Matcher(subject, budget);
+  }
+
+  // *******************************************************************
+  //  Matching
+  // *******************************************************************
+
+  final class Matcher {
+    private final String s;
+    private final Budget budget;
+    private final int[] captureStart = new int[captures];
+    private final int[] captureLength = new int[captures];
+    private int level;
+    private int depth;
+    private int start;
+    private int end;
+
+    private Matcher(String s, Budget budget) {
+      this.s = s;
+      this.budget = budget;
+    }
+
+    // Searches a match starting at init or after it, unless the pattern is anchored
+    boolean find(int init) throws LuaRuntimeException {
+      for (int from = init; from <= s.length(); from++) {
+        if (matchAt(from)) {
+          return true;
+        }
+        if (anchored) {
+          break;
+        }
+      }
+      return false;
+    }
+
+    // Whether there is a match starting at from
+    boolean matchAt(int from) throws LuaRuntimeException {
+      level = 0;
+      depth = 0;
+      int e = match(from, 0);
+      if (e < 0) {
+        return false;
+      }
+      start = from;
+      end = e;
+      return true;
+    }
+
+    int start() {
+      return start;
+    }
+
+    int end() {
+      return end;
+    }
+
+    // Number of captures of the last match
+    int captures() {
+      return level;
+    }
+
+    // The i-th capture, the whole match if the pattern has no captures and i is 0
+    LuaObject capture(int i) throws LuaRuntimeException {
+      if (i >= level) {
+        if (i == 0) {
+          return new LuaString(s.substring(start, end));
+        }
+        throw new LuaRuntimeException(String.format("invalid capture index %%%d", i + 1));
+      }
+      if (captureLength[i] == CAP_POSITION) {
+        return LuaNumber.valueOf(captureStart[i] + 1);
+      }
+      return new LuaString(s.substring(captureStart[i], captureStart[i] + captureLength[i]));
+    }
+
+    // Appends the captures to results, or the whole match if the pattern has none and whole is set
+    void addCaptures(ArrayList<LuaObject> results, boolean whole) throws LuaRuntimeException {
+      int n = level == 0 && whole ? 1 : level;
+      for (int i = 0; i < n; i++) {
+        results.add(capture(i));
+      }
+    }
+
+    // Appends the i-th capture to sb without creating its string
+    void appendCapture(StringBuilder sb, int i) throws LuaRuntimeException {
+      if (i < level && captureLength[i] != CAP_POSITION) {
+        sb.append(s, captureStart[i], captureStart[i] + captureLength[i]);
+      } else if (i == 0 && level == 0) {
+        sb.append(s, start, end);
+      } else {
+        sb.append(capture(i).repr());
+      }
+    }
+
+    // End of the match of the items from p on at position i, -1 if they don't match
+    private int match(int i, int p) throws LuaRuntimeException {
+      if (budget != null) {
+        budget.step();
+      }
+      if (++depth > MAXDEPTH) {
+        throw new LuaRuntimeException("pattern too complex");
+      }
+      try {
+        while (p < items.length) {
+          Item item = items[p];
+          switch (item.kind) {
+            case OPEN:
+              return startCapture(i, p + 1, CAP_UNFINISHED);
+            case POSITION:
+              return startCapture(i, p + 1, CAP_POSITION);
+            case CLOSE:
+              return endCapture(i, p + 1);
+            case END:
+              return i == s.length() ? i : -1;
+            case BALANCE:
+              i = matchBalance(i, item);
+              break;
+            case FRONTIER:
+              char previous = i == 0 ? '\0' : s.charAt(i - 1);
+              char current = i < s.length() ? s.charAt(i) : '\0';
+              if (item.set.matches(previous) || !item.set.matches(current)) {
+                return -1;
+              }
+              break;
+            case BACKREF:
+              i = matchCapture(i, item.c);
+              break;
+            default:
+              boolean m = i < s.length() && singleMatch(s.charAt(i), item);
+              switch (item.quantifier) {
+                case '?':
+                  if (m) {
+                    int e = match(i + 1, p + 1);
+                    if (e >= 0) {
+                      return e;
+                    }
+                  }
+                  p++;
+                  continue;
+                case '+':
+                  return m ? maxExpand(i + 1, item, p) : -1;
+                case '*':
+                  return maxExpand(i, item, p);
+                case '-':
+                  return minExpand(i, item, p);
+                default:
+                  i = m ? i + 1 : -1;
+              }
+          }
+          if (i < 0) {
+            return -1;
+          }
+          p++;
+        }
+        return i;
+      } finally {
+        depth--;
+      }
+    }
+
+    private boolean singleMatch(char ch, Item item) {
+      switch (item.kind) {
+        case CHAR:
+          return item.c == ch;
+        case ANY:
+          return true;
+        case CLASS:
+          return classMatches(item.c, ch);
+        default:
+          return item.set.matches(ch);
+      }
+    }
+
+    private int maxExpand(int i, Item item, int p) throws LuaRuntimeException {
+      int count = 0;
+      while (i + count < s.length() && singleMatch(s.charAt(i + count), item)) {
+        count++;
+      }
+      // the longest repetition first
+      for (; count >= 0; count--) {
+        int e = match(i + count, p + 1);
+        if (e >= 0) {
+          return e;
+        }
+      }
+      return -1;
+    }
+
+    private int minExpand(int i, Item item, int p) throws LuaRuntimeException {
+      while (true) {
+        int e = match(i, p + 1);
+        if (e >= 0) {
+          return e;
+        }
+        if (i < s.length() && singleMatch(s.charAt(i), item)) {
+          i++;
+        } else {
+          return -1;
+        }
+      }
+    }
+
+    private int startCapture(int i, int p, int what) throws LuaRuntimeException {
+      captureStart[level] = i;
+      captureLength[level] = what;
+      level++;
+      int e = match(i, p);
+      if (e < 0) {
+        level--;
+      }
+      return e;
+    }
+
+    private int endCapture(int i, int p) throws LuaRuntimeException {
+      int l = level - 1;
+      while (l >= 0 && captureLength[l] != CAP_UNFINISHED) {
+        l--;
+      }
+      if (l < 0) {
+        throw new LuaRuntimeException("invalid pattern capture");
+      }
+      captureLength[l] = i - captureStart[l];
+      int e = match(i, p);
+      if (e < 0) {
+        captureLength[l] = CAP_UNFINISHED;
+      }
+      return e;
+    }
+
+    private int matchBalance(int i, Item item) {
+      if (i >= s.length() || s.charAt(i) != item.c) {
+        return -1;
+      }
+      int count = 1;
+      for (int j = i + 1; j < s.length(); j++) {
+        char ch = s.charAt(j);
+        if (ch == item.close) {
+          if (--count == 0) {
+            return j + 1;
+          }
+        } else if (ch == item.c) {
+          count++;
+        }
+      }
+      return -1;
+    }
+
+    private int matchCapture(int i, int l) throws LuaRuntimeException {
+      if (l >= level || captureLength[l] == CAP_UNFINISHED) {
+        throw new LuaRuntimeException(String.format("invalid capture index %%%d", l + 1));
+      }
+      int length = captureLength[l];
+      if (length == CAP_POSITION) {
+        length = 0;
+      }
+      if (s.length() - i >= length && s.regionMatches(captureStart[l], s, i, length)) {
+        return i + length;
+      }
+      return -1;
+    }
+  }
+}
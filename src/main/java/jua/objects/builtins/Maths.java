@@ -0,0 +1,288 @@
+package jua.objects.builtins;
+
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.function.DoubleUnaryOperator;
+import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Scope;
+import jua.objects.*;
+
+// Reference: https://www.lua.org/manual/5.3/manual.html#6.7
+//
+// The functions work on the numbers they are given: an integer or a result which is one of the
+// arguments (floor of an integer, min, max...) is returned as is rather than wrapped again.
+//
+// Every root scope has its own random generator, created on the first call to math.random, so
+// that the programs running at the same time don't contend on a shared one.
+class Maths {
+  private static final String name = "math";
+  // results of math.type
+  private static final LuaString INTEGER = LuaString.intern("integer");
+  private static final LuaString FLOAT = LuaString.intern("float");
+
+  static void register(Scope scope) {
+    LuaTable builtins = new LuaTable();
+
+    builtins.put("pi", new LuaNumber(Math.PI));
+    builtins.put("huge", new LuaNumber(Double.POSITIVE_INFINITY));
+    builtins.put("maxinteger", LuaNumber.valueOf(Long.MAX_VALUE));
+    builtins.put("mininteger", LuaNumber.valueOf(Long.MIN_VALUE));
+
+    builtins.put(
+        "floor",
+        Builtin.createFunction(
+            args -> {
+              LuaNumber x = Builtin.checkNumber(args, 0, "floor");
+              return new LuaReturn(x.isInteger() ? x : toInteger(Math.floor(x.getValue())));
+            }));
+
+    builtins.put(
+        "ceil",
+        Builtin.createFunction(
+            args -> {
+              LuaNumber x = Builtin.checkNumber(args, 0, "ceil");
+              return new LuaReturn(x.isInteger() ? x : toInteger(Math.ceil(x.getValue())));
+            }));
+
+    builtins.put(
+        "abs",
+        Builtin.createFunction(
+            args -> {
+              LuaNumber x = Builtin.checkNumber(args, 0, "abs");
+              if (x.isInteger()) {
+                long value = x.getLongValue();
+                return new LuaReturn(value >= 0 ? x : LuaNumber.valueOf(-value));
+              }
+              return new LuaReturn(x.getValue() > 0 ? x : new LuaNumber(Math.abs(x.getValue())));
+            }));
+
+    builtins.put("max", Builtin.createFunction(args -> new LuaReturn(extremum(args, "max"))));
+    builtins.put("min", Builtin.createFunction(args -> new LuaReturn(extremum(args, "min"))));
+
+    builtins.put(
+        "fmod",
+        Builtin.createFunction(
+            args -> {
+              LuaNumber a = Builtin.checkNumber(args, 0, "fmod");
+              LuaNumber b = Builtin.checkNumber(args, 1, "fmod");
+              if (a.isInteger() && b.isInteger()) {
+                long d = b.getLongValue();
+                if (d == 0) {
+                  throw Builtin.badArgument(1, "fmod", "zero");
+                }
+                // the remainder of Java truncates like fmod, -1 avoids the overflow of MIN % -1
+                return new LuaReturn(LuaNumber.valueOf(d == -1 ? 0 : a.getLongValue() % d));
+              }
+              return new LuaReturn(new LuaNumber(a.getValue() % b.getValue()));
+            }));
+
+    builtins.put(
+        "modf",
+        Builtin.createFunction(
+            args -> {
+              double x = number(args, "modf");
+              double integral = x >= 0 ? Math.floor(x) : Math.ceil(x);
+              double fraction = Double.isInfinite(x) ? 0 : x - integral;
+              ArrayList<LuaObject> results = new ArrayList<>(2);
+              results.add(new LuaNumber(integral));
+              results.add(new LuaNumber(fraction));
+              return new LuaReturn(results);
+            }));
+
+    builtins.put(
+        "tointeger",
+        Builtin.createFunction(
+            args -> {
+              LuaObject x = Builtin.arg(args, 0);
+              if (x instanceof LuaNumber) {
+                LuaNumber number = (LuaNumber) x;
+                if (number.isInteger()) {
+                  return new LuaReturn(number);
+                }
+                long integer = (long) number.getValue();
+                if (integer == number.getValue() && integer != Long.MAX_VALUE) {
+                  return new LuaReturn(LuaNumber.valueOf(integer));
+                }
+              }
+              return new LuaReturn(LuaNil.getInstance());
+            }));
+
+    builtins.put(
+        "type",
+        Builtin.createFunction(
+            args -> {
+              if (args.isEmpty()) {
+                throw Builtin.badArgument(0, "type", "value expected");
+              }
+              LuaObject x = args.get(0);
+              if (!(x instanceof LuaNumber)) {
+                return new LuaReturn(LuaNil.getInstance());
+              }
+              return new LuaReturn(((LuaNumber) x).isInteger() ? INTEGER : FLOAT);
+            }));
+
+    builtins.put(
+        "ult",
+        Builtin.createFunction(
+            args -> {
+              long m = Builtin.checkInteger(args, 0, "ult");
+              long n = Builtin.checkInteger(args, 1, "ult");
+              return new LuaReturn(LuaBoolean.getLuaBool(Long.compareUnsigned(m, n) < 0));
+            }));
+
+    registerFloat(builtins, "sqrt", Math::sqrt);
+    registerFloat(builtins, "exp", Math::exp);
+    registerFloat(builtins, "sin", Math::sin);
+    registerFloat(builtins, "cos", Math::cos);
+    registerFloat(builtins, "tan", Math::tan);
+    registerFloat(builtins, "asin", Math::asin);
+    registerFloat(builtins, "acos", Math::acos);
+
+    builtins.put(
+        "atan",
+        Builtin.createFunction(
+            args -> {
+              double y = number(args, "atan");
+              double x = Builtin.arg(args, 1) instanceof LuaNil ? 1 : number(args, 1, "atan");
+              return new LuaReturn(new LuaNumber(Math.atan2(y, x)));
+            }));
+
+    builtins.put(
+        "log",
+        Builtin.createFunction(
+            args -> {
+              double x = number(args, "log");
+              double res;
+              if (Builtin.arg(args, 1) instanceof LuaNil) {
+                res = Math.log(x);
+              } else {
+                double base = number(args, 1, "log");
+                if (base == 2) {
+                  res = Math.log(x) / Math.log(2);
+                } else if (base == 10) {
+                  res = Math.log10(x);
+                } else {
+                  res = Math.log(x) / Math.log(base);
+                }
+              }
+              return new LuaReturn(new LuaNumber(res));
+            }));
+
+    scope.assignLocal(name, builtins);
+  }
+
+  // Gives scope its own math table, sharing the functions of the library but with a generator
+  // of its own
+  static void registerRandom(Scope scope) {
+    LuaObject shared = Builtin.shared().get(name);
+    if (!(shared instanceof LuaTable)) {
+      return;
+    }
+    LuaTable math = ((LuaTable) shared).copy();
+    // null until the first number is drawn
+    SplittableRandom[] random = new SplittableRandom[1];
+
+    math.put(
+        "random",
+        Builtin.createFunction(
+            args -> {
+              if (random[0] == null) {
+                random[0] = new SplittableRandom();
+              }
+              SplittableRandom r = random[0];
+              if (args.isEmpty()) {
+                return new LuaReturn(new LuaNumber(r.nextDouble()));
+              }
+
+              long low = 1;
+              long high;
+              if (args.size() == 1) {
+                high = Builtin.checkInteger(args, 0, "random");
+              } else if (args.size() == 2) {
+                low = Builtin.checkInteger(args, 0, "random");
+                high = Builtin.checkInteger(args, 1, "random");
+              } else {
+                throw new LuaRuntimeException("wrong number of arguments");
+              }
+              if (low > high) {
+                throw Builtin.badArgument(args.size() - 1, "random", "interval is empty");
+              }
+              return new LuaReturn(LuaNumber.valueOf(between(r, low, high)));
+            }));
+
+    math.put(
+        "randomseed",
+        Builtin.createFunction(
+            args -> {
+              if (args.isEmpty()) {
+                random[0] = new SplittableRandom();
+              } else {
+                LuaNumber seed = Builtin.checkNumber(args, 0, "randomseed");
+                random[0] =
+                    new SplittableRandom(
+                        seed.isInteger()
+                            ? seed.getLongValue()
+                            : Double.doubleToLongBits(seed.getValue()));
+              }
+              return new LuaReturn();
+            }));
+
+    scope.assignLocal(name, math);
+  }
+
+  // Uniform in low..high
+  private static long between(SplittableRandom r, long low, long high) {
+    long range = high - low;
+    if (range >= 0 && range < Long.MAX_VALUE) {
+      return low + r.nextLong(range + 1);
+    } else if (range == Long.MAX_VALUE) {
+      return low + (r.nextLong() >>> 1);
+    }
+    // the interval has more than 2^63 integers
+    while (true) {
+      long n = r.nextLong();
+      if (n >= low && n <= high) {
+        return n;
+      }
+    }
+  }
+
+  private static void registerFloat(LuaTable builtins, String function, DoubleUnaryOperator f) {
+    builtins.put(
+        function,
+        Builtin.createFunction(
+            args -> new LuaReturn(new LuaNumber(f.applyAsDouble(number(args, function))))));
+  }
+
+  private static double number(ArrayList<LuaObject> args, String function)
+      throws LuaRuntimeException {
+    return number(args, 0, function);
+  }
+
+  private static double number(ArrayList<LuaObject> args, int i, String function)
+      throws LuaRuntimeException {
+    return Builtin.checkNumber(args, i, function).getValue();
+  }
+
+  // The integer value of a rounded number if it fits in an integer, the float otherwise
+  private static LuaNumber toInteger(double x) {
+    if (x >= -0x1p63 && x < 0x1p63) {
+      return LuaNumber.valueOf((long) x);
+    }
+    return new LuaNumber(x);
+  }
+
+  // Largest or smallest of the arguments, which is returned as is
+  private static LuaNumber extremum(ArrayList<LuaObject> args, String function)
+      throws LuaRuntimeException {
+    LuaNumber best = Builtin.checkNumber(args, 0, function);
+    boolean max = function.equals("max");
+    for (int i = 1; i < args.size(); i++) {
+      LuaNumber x = Builtin.checkNumber(args, i, function);
+      if (max ? Operations.lessThan(best, x) : Operations.lessThan(x, best)) {
+        best = x;
+      }
+    }
+    return best;
+  }
+}
@@ -0,0 +1,97 @@
+package jua.objects.builtins;
+
+import java.util.ArrayList;
+import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Scope;
+import jua.objects.*;
+
+// Reference: https://www.lua.org/manual/5.3/manual.html#6.1
+//
+// The raw functions bypass the metamethods, they only work on the table itself.
+class Metatables {
+  // field of a metatable hiding it from getmetatable and protecting it from setmetatable
+  private static final String PROTECTED = "__metatable";
+
+  static void register(Scope scope) {
+    scope.assignLocal(
+        "setmetatable",
+        Builtin.createFunction(
+            args -> {
+              LuaTable table = Builtin.checkTable(args, 0, "setmetatable");
+              LuaObject metatable = Builtin.arg(args, 1);
+              if (!(metatable instanceof LuaNil) && !(metatable instanceof LuaTable)) {
+                throw Builtin.badArgument(1, "setmetatable", "nil or table", metatable);
+              }
+              LuaTable current = table.getMetatable();
+              if (current != null && !(current.get(PROTECTED) instanceof LuaNil)) {
+                throw new LuaRuntimeException("cannot change a protected metatable");
+              }
+              table.setMetatable(metatable instanceof LuaTable ? (LuaTable) metatable : null);
+              return new LuaReturn(table);
+            }));
+
+    scope.assignLocal(
+        "rawget",
+        Builtin.createFunction(
+            args -> {
+              LuaTable table = Builtin.checkTable(args, 0, "rawget");
+              return new LuaReturn(table.get(Builtin.arg(args, 1)));
+            }));
+
+    scope.assignLocal(
+        "rawset",
+        Builtin.createFunction(
+            args -> {
+              LuaTable table = Builtin.checkTable(args, 0, "rawset");
+              table.put(Builtin.arg(args, 1), Builtin.arg(args, 2));
+              return new LuaReturn(table);
+            }));
+
+    scope.assignLocal(
+        "rawequal",
+        Builtin.createFunction(
+            args -> {
+              LuaObject a = value(args, 0, "rawequal");
+              LuaObject b = value(args, 1, "rawequal");
+              return new LuaReturn(LuaBoolean.getLuaBool(a == b || a.equals(b)));
+            }));
+
+    scope.assignLocal(
+        "rawlen",
+        Builtin.createFunction(
+            args -> {
+              LuaObject value = Builtin.arg(args, 0);
+              if (value instanceof LuaTable) {
+                return new LuaReturn(LuaNumber.valueOf(((LuaTable) value).size()));
+              }
+              if (value instanceof LuaString) {
+                return new LuaReturn(LuaNumber.valueOf(((LuaString) value).length()));
+              }
+              throw Builtin.badArgument(0, "rawlen", "table or string expected");
+            }));
+  }
+
+  // The strings of every program have a metatable of their own, its __index is the string table
+  // of the program
+  static void registerScoped(Scope scope) {
+    scope.assignLocal(
+        "getmetatable",
+        Builtin.createFunction(
+            args -> {
+              LuaTable metatable = Operations.getMetatable(Builtin.arg(args, 0), scope);
+              if (metatable == null) {
+                return new LuaReturn(LuaNil.getInstance());
+              }
+              LuaObject field = metatable.get(PROTECTED);
+              return new LuaReturn(field instanceof LuaNil ? metatable : field);
+            }));
+  }
+
+  private static LuaObject value(ArrayList<LuaObject> args, int i, String function)
+      throws LuaRuntimeException {
+    if (args.size() <= i) {
+      throw Builtin.badArgument(i, function, "value expected");
+    }
+    return args.get(i);
+  }
+}
@@ -27,7 +27,7 @@ public class Next {
 
               ArrayList<LuaObject> result = new ArrayList<>();
               if (idx.equals(LuaNil.getInstance())) {
-                result.add(new LuaNumber((double) 1));
+                result.add(LuaNumber.valueOf(1));
                 result.add(t.getList(1));
               } else {
 
@@ -44,7 +44,7 @@ public class Next {
                   result.add(LuaNil.getInstance());
                   result.add(LuaNil.getInstance());
                 } else {
-                  result.add(new LuaNumber((double) (i + 1)));
+                  result.add(LuaNumber.valueOf(i + 1));
                   result.add(t.getList(i + 1));
                 }
               }
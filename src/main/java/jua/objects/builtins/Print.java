@@ -12,14 +12,16 @@ class Print extends BuiltinFunction {
   private Print(OutputStream out) {
     super(
         args -> {
+          // a single write and flush per call, the output may be costly to write to
+          StringBuilder sb = new StringBuilder();
           for (LuaObject arg : args) {
-            try {
-              out.write(arg.repr().getBytes());
-              out.write('\n');
-              out.flush();
-            } catch (IOException e) {
-              throw new LuaRuntimeException("could not write to output stream in `print` builtin");
-            }
+            sb.append(arg.repr()).append('\n');
+          }
+          try {
+            out.write(sb.toString().getBytes());
+            out.flush();
+          } catch (IOException e) {
+            throw new LuaRuntimeException("could not write to output stream in `print` builtin");
           }
 
           return new LuaReturn();
@@ -18,10 +18,10 @@ public class Select {
               }
               LuaObject index = args.get(0);
               if (LuaString.valueOf(index).getValue().equals("#")) {
-                return new LuaReturn(new LuaNumber((double) args.size() - 1));
+                return new LuaReturn(LuaNumber.valueOf(args.size() - 1));
               }
 
-              int i = LuaNumber.valueOf(index).getValue().intValue();
+              int i = LuaNumber.valueOf(index).getIntValue();
               ArrayList<LuaObject> results = new ArrayList<>();
               if (i < args.size()) {
                 results =
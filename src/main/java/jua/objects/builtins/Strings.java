@@ -1,13 +1,537 @@
 package jua.objects.builtins;
 
+import java.util.ArrayList;
+import java.util.IllegalFormatException;
+import java.util.Locale;
+import java.util.function.Supplier;
+import jua.evaluator.Budget;
+import jua.evaluator.LuaRuntimeException;
 import jua.evaluator.Scope;
-import jua.objects.LuaTable;
+import jua.objects.*;
 
+// Reference: https://www.lua.org/manual/5.3/manual.html#6.4
+//
+// Positions are 1-based and negative ones count from the end of the string. The characters of a
+// string are the UTF-16 units of its Java value.
+//
+// The functions building strings of any length or matching patterns charge them to the Budget of
+// the program: every root scope has its own string table with these functions bound to it.
 public class Strings {
   private static final String name = "string";
 
   public static void register(Scope scope) {
     LuaTable builtins = new LuaTable();
+
+    builtins.put(
+        "len",
+        Builtin.createFunction(
+            args -> {
+              String s = Builtin.checkString(args, 0, "len");
+              return new LuaReturn(LuaNumber.valueOf(s.length()));
+            }));
+
+    builtins.put(
+        "sub",
+        Builtin.createFunction(
+            args -> {
+              String s = Builtin.checkString(args, 0, "sub");
+              int start = start(Builtin.checkInteger(args, 1, "sub"), s.length());
+              int end = end(Builtin.optInteger(args, 2, "sub", -1), s.length());
+              return new LuaReturn(new LuaString(start > end ? "" : s.substring(start - 1, end)));
+            }));
+
+    builtins.put(
+        "upper",
+        Builtin.createFunction(
+            args -> {
+              String s = Builtin.checkString(args, 0, "upper");
+              return new LuaReturn(new LuaString(s.toUpperCase(Locale.ROOT)));
+            }));
+
+    builtins.put(
+        "lower",
+        Builtin.createFunction(
+            args -> {
+              String s = Builtin.checkString(args, 0, "lower");
+              return new LuaReturn(new LuaString(s.toLowerCase(Locale.ROOT)));
+            }));
+
+    builtins.put(
+        "reverse",
+        Builtin.createFunction(
+            args -> {
+              String s = Builtin.checkString(args, 0, "reverse");
+              return new LuaReturn(new LuaString(new StringBuilder(s).reverse().toString()));
+            }));
+
+    builtins.put(
+        "byte",
+        Builtin.createFunction(
+            args -> {
+              String s = Builtin.checkString(args, 0, "byte");
+              long i = Builtin.optInteger(args, 1, "byte", 1);
+              int start = start(i, s.length());
+              int end = end(Builtin.optInteger(args, 2, "byte", i), s.length());
+              ArrayList<LuaObject> codes = new ArrayList<>();
+              for (int j = start; j <= end; j++) {
+                codes.add(LuaNumber.valueOf(s.charAt(j - 1)));
+              }
+              return new LuaReturn(codes);
+            }));
+
+    builtins.put(
+        "char",
+        Builtin.createFunction(
+            args -> {
+              StringBuilder sb = new StringBuilder(args.size());
+              for (int i = 0; i < args.size(); i++) {
+                long c = Builtin.checkInteger(args, i, "char");
+                if (c < 0 || c > Character.MAX_VALUE) {
+                  throw Builtin.badArgument(i, "char", "value out of range");
+                }
+                sb.append((char) c);
+              }
+              return new LuaReturn(new LuaString(sb.toString()));
+            }));
+
+    registerBudgeted(builtins, () -> null);
     scope.assignLocal(name, builtins);
   }
+
+  // Gives scope its own string table, sharing the functions of the library but with the ones
+  // using a budget bound to the budget of scope
+  static void registerScoped(Scope scope) {
+    LuaObject shared = Builtin.shared().get(name);
+    if (!(shared instanceof LuaTable)) {
+      return;
+    }
+    LuaTable string = ((LuaTable) shared).copy();
+    registerBudgeted(string, scope::getBudget);
+    scope.assignLocal(name, string);
+  }
+
+  // The budget is read on every call, a scope may be given another one
+  private static void registerBudgeted(LuaTable builtins, Supplier<Budget> budget) {
+    builtins.put("rep", Builtin.createFunction(args -> rep(args, budget.get())));
+    builtins.put("format", Builtin.createFunction(args -> format(args, budget.get())));
+    builtins.put("find", Builtin.createFunction(args -> find(args, true, budget.get())));
+    builtins.put("match", Builtin.createFunction(args -> find(args, false, budget.get())));
+    builtins.put("gmatch", Builtin.createFunction(args -> gmatch(args, budget.get())));
+    builtins.put("gsub", Builtin.createFunction(args -> gsub(args, budget.get())));
+  }
+
+  // *******************************************************************
+  //  Positions
+  // *******************************************************************
+
+  // First position of a range, between 1 and length + 1
+  private static int start(long i, int length) {
+    if (i < 0) {
+      i = Math.max(length + i + 1, 1);
+    } else if (i == 0) {
+      i = 1;
+    }
+    return (int) Math.min(i, length + 1L);
+  }
+
+  // Last position of a range, between 0 and length
+  private static int end(long j, int length) {
+    if (j < 0) {
+      j = length + j + 1;
+    }
+    return (int) Math.max(Math.min(j, length), 0);
+  }
+
+  // *******************************************************************
+  //  rep, format
+  // *******************************************************************
+
+  private static LuaReturn rep(ArrayList<LuaObject> args, Budget budget)
+      throws LuaRuntimeException {
+    String s = Builtin.checkString(args, 0, "rep");
+    long n = Builtin.checkInteger(args, 1, "rep");
+    String sep = Builtin.arg(args, 2) instanceof LuaNil ? "" : Builtin.checkString(args, 2, "rep");
+    if (n <= 0) {
+      return new LuaReturn(new LuaString(""));
+    }
+    long unit = s.length() + sep.length();
+    if (unit > 0 && n > (Integer.MAX_VALUE - 8L) / unit) {
+      throw new LuaRuntimeException("resulting string too large");
+    }
+
+    int length = (int) (unit * n - sep.length());
+    Builtin.charge(budget, 2L * length);
+    StringBuilder sb = new StringBuilder(length);
+    sb.append(s);
+    for (long i = 1; i < n; i++) {
+      sb.append(sep).append(s);
+    }
+    return new LuaReturn(new LuaString(sb.toString()));
+  }
+
+  private static LuaReturn format(ArrayList<LuaObject> args, Budget budget)
+      throws LuaRuntimeException {
+    String fmt = Builtin.checkString(args, 0, "format");
+    StringBuilder sb = new StringBuilder(fmt.length() + 16);
+    int arg = 0;
+    int i = 0;
+    while (i < fmt.length()) {
+      char c = fmt.charAt(i++);
+      if (c != '%') {
+        sb.append(c);
+        continue;
+      }
+      if (i < fmt.length() && fmt.charAt(i) == '%') {
+        sb.append('%');
+        i++;
+        continue;
+      }
+
+      // %[flags][width][.precision]conversion
+      int start = i;
+      while (i < fmt.length() && "-+ #0".indexOf(fmt.charAt(i)) >= 0) {
+        i++;
+      }
+      String flags = fmt.substring(start, i);
+      int widthStart = i;
+      while (i < fmt.length() && Character.isDigit(fmt.charAt(i))) {
+        i++;
+      }
+      int width = i == widthStart ? 0 : Integer.parseInt(fmt.substring(widthStart, i));
+      int precision = -1;
+      if (i < fmt.length() && fmt.charAt(i) == '.') {
+        int precisionStart = ++i;
+        while (i < fmt.length() && Character.isDigit(fmt.charAt(i))) {
+          i++;
+        }
+        precision = i == precisionStart ? 0 : Integer.parseInt(fmt.substring(precisionStart, i));
+      }
+      if (i >= fmt.length() || i - start > 20 || width > 99 || precision > 99) {
+        throw new LuaRuntimeException("invalid format (repeated flags or too long)");
+      }
+      String spec = fmt.substring(start, i);
+      char conversion = fmt.charAt(i++);
+
+      if (++arg >= args.size()) {
+        throw Builtin.badArgument(arg, "format", "no value");
+      }
+      try {
+        format(sb, args, arg, conversion, spec, flags, width, precision);
+      } catch (IllegalFormatException e) {
+        throw new LuaRuntimeException(
+            String.format("invalid conversion '%%%s%c' to 'format'", spec, conversion));
+      }
+    }
+    // the result is at most about a hundred characters for each character of the arguments
+    Builtin.charge(budget, 2L * sb.length());
+    return new LuaReturn(new LuaString(sb.toString()));
+  }
+
+  // Appends the argument arg formatted by %<spec><conversion>
+  private static void format(
+      StringBuilder sb,
+      ArrayList<LuaObject> args,
+      int arg,
+      char conversion,
+      String spec,
+      String flags,
+      int width,
+      int precision)
+      throws LuaRuntimeException {
+    switch (conversion) {
+      case 'd':
+      case 'i':
+      case 'u':
+        long integer = Builtin.checkInteger(args, arg, "format");
+        sb.append(String.format(Locale.ROOT, "%" + spec + "d", integer));
+        break;
+      case 'c':
+        sb.append(pad(String.valueOf((char) Builtin.checkInteger(args, arg, "format")), "", width));
+        break;
+      case 'x':
+      case 'X':
+      case 'o':
+        long bits = Builtin.checkInteger(args, arg, "format");
+        sb.append(String.format(Locale.ROOT, "%" + spec + conversion, bits));
+        break;
+      case 'a':
+      case 'A':
+      case 'e':
+      case 'E':
+      case 'f':
+      case 'F':
+      case 'g':
+      case 'G':
+        double value = Builtin.checkNumber(args, arg, "format").getValue();
+        boolean upper = Character.isUpperCase(conversion);
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+          String body = Double.isNaN(value) ? "nan" : value > 0 ? "inf" : "-inf";
+          if (value > 0 && flags.indexOf('+') >= 0) {
+            body = "+" + body;
+          }
+          sb.append(pad(upper ? body.toUpperCase() : body, flags.replace("0", ""), width));
+        } else if (conversion == 'g' || conversion == 'G') {
+          String body = formatG(value, flags, precision < 0 ? 6 : Math.max(precision, 1));
+          sb.append(pad(upper ? body.toUpperCase() : body, flags, width));
+        } else {
+          char c = conversion == 'F' ? 'f' : conversion;
+          sb.append(String.format(Locale.ROOT, "%" + spec + c, value));
+        }
+        break;
+      case 's':
+        String s = Builtin.arg(args, arg).repr();
+        if (precision >= 0 && precision < s.length()) {
+          s = s.substring(0, precision);
+        }
+        sb.append(pad(s, flags.indexOf('-') >= 0 ? "-" : "", width));
+        break;
+      case 'q':
+        quote(sb, Builtin.arg(args, arg));
+        break;
+      default:
+        throw new LuaRuntimeException(
+            String.format("invalid conversion '%%%s%c' to 'format'", spec, conversion));
+    }
+  }
+
+  // %g of C: %e if the exponent is less than -4 or at least the precision, %f otherwise, and
+  // without trailing zeros unless the # flag is given
+  private static String formatG(double value, String flags, int precision) {
+    String sign = flags.indexOf('+') >= 0 ? "+" : flags.indexOf(' ') >= 0 ? " " : "";
+    boolean alternate = flags.indexOf('#') >= 0;
+    String e = String.format(Locale.ROOT, "%." + (precision - 1) + "e", value);
+    int exponent = Integer.parseInt(e.substring(e.indexOf('e') + 1));
+
+    String body;
+    String suffix = "";
+    if (exponent < -4 || exponent >= precision) {
+      int at = e.indexOf('e');
+      body = e.substring(0, at);
+      suffix = e.substring(at);
+    } else {
+      body = String.format(Locale.ROOT, "%." + (precision - 1 - exponent) + "f", value);
+    }
+    if (!alternate && body.indexOf('.') >= 0) {
+      int end = body.length();
+      while (body.charAt(end - 1) == '0') {
+        end--;
+      }
+      if (body.charAt(end - 1) == '.') {
+        end--;
+      }
+      body = body.substring(0, end);
+    } else if (alternate && body.indexOf('.') < 0) {
+      body += ".";
+    }
+    return (value >= 0 || body.startsWith("-") ? sign : "") + body + suffix;
+  }
+
+  // Pads s to width with spaces, or with zeros after its sign if flags has 0
+  private static String pad(String s, String flags, int width) {
+    if (s.length() >= width) {
+      return s;
+    }
+    StringBuilder sb = new StringBuilder(width);
+    if (flags.indexOf('-') >= 0) {
+      sb.append(s);
+      sb.append(" ".repeat(width - s.length()));
+    } else if (flags.indexOf('0') >= 0) {
+      int digits = !s.isEmpty() && "+- ".indexOf(s.charAt(0)) >= 0 ? 1 : 0;
+      sb.append(s, 0, digits);
+      sb.append("0".repeat(width - s.length()));
+      sb.append(s, digits, s.length());
+    } else {
+      sb.append(" ".repeat(width - s.length()));
+      sb.append(s);
+    }
+    return sb.toString();
+  }
+
+  // Appends value in a form which can be read back by the interpreter
+  private static void quote(StringBuilder sb, LuaObject value) throws LuaRuntimeException {
+    if (value instanceof LuaNumber || value instanceof LuaNil || value instanceof LuaBoolean) {
+      sb.append(value.repr());
+      return;
+    }
+    if (!(value instanceof LuaString)) {
+      throw Builtin.badArgument(1, "format", "value has no literal form");
+    }
+
+    String s = ((LuaString) value).getValue();
+    sb.append('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\') {
+        sb.append('\\').append(c);
+      } else if (c == '\n') {
+        sb.append("\\n");
+      } else if (c == '\r') {
+        sb.append("\\r");
+      } else if (c < 32 || c == 127) {
+        boolean digitFollows = i + 1 < s.length() && Character.isDigit(s.charAt(i + 1));
+        sb.append(String.format(digitFollows ? "\\%03d" : "\\%d", (int) c));
+      } else {
+        sb.append(c);
+      }
+    }
+    sb.append('"');
+  }
+
+  // *******************************************************************
+  //  Patterns
+  // *******************************************************************
+
+  // string.find if find is set, string.match otherwise
+  private static LuaReturn find(ArrayList<LuaObject> args, boolean find, Budget budget)
+      throws LuaRuntimeException {
+    String function = find ? "find" : "match";
+    String s = Builtin.checkString(args, 0, function);
+    String pattern = Builtin.checkString(args, 1, function);
+    long init = Builtin.optInteger(args, 2, function, 1);
+    if (init < 0) {
+      init = Math.max(s.length() + init + 1, 1);
+    } else if (init == 0) {
+      init = 1;
+    }
+    if (init > s.length() + 1L) {
+      return new LuaReturn(LuaNil.getInstance());
+    }
+
+    ArrayList<LuaObject> results = new ArrayList<>();
+    if (find && (Operations.isTruthy(Builtin.arg(args, 3)) || LuaPattern.isPlain(pattern))) {
+      int index = s.indexOf(pattern, (int) init - 1);
+      if (index < 0) {
+        return new LuaReturn(LuaNil.getInstance());
+      }
+      results.add(LuaNumber.valueOf(index + 1));
+      results.add(LuaNumber.valueOf(index + pattern.length()));
+      return new LuaReturn(results);
+    }
+
+    LuaPattern.Matcher m = LuaPattern.compile(pattern).matcher(s, budget);
+    if (!m.find((int) init - 1)) {
+      return new LuaReturn(LuaNil.getInstance());
+    }
+    if (find) {
+      results.add(LuaNumber.valueOf(m.start() + 1));
+      results.add(LuaNumber.valueOf(m.end()));
+    }
+    m.addCaptures(results, !find);
+    return new LuaReturn(results);
+  }
+
+  // Iterator over the matches, a match can't end where the previous one ended. A ^ doesn't anchor
+  // the pattern.
+  private static LuaReturn gmatch(ArrayList<LuaObject> args, Budget budget)
+      throws LuaRuntimeException {
+    String s = Builtin.checkString(args, 0, "gmatch");
+    LuaPattern pattern = LuaPattern.compile(Builtin.checkString(args, 1, "gmatch"));
+    LuaPattern.Matcher m = pattern.matcher(s, budget);
+    // position of the next search and end of the last match
+    int[] state = {0, -1};
+
+    return new LuaReturn(
+        Builtin.createFunction(
+            ignored -> {
+              for (int from = state[0]; from <= s.length(); from++) {
+                if (m.matchAt(from) && m.end() != state[1]) {
+                  state[0] = m.end();
+                  state[1] = m.end();
+                  ArrayList<LuaObject> captures = new ArrayList<>();
+                  m.addCaptures(captures, true);
+                  return new LuaReturn(captures);
+                }
+              }
+              state[0] = s.length() + 1;
+              return new LuaReturn(LuaNil.getInstance());
+            }));
+  }
+
+  private static LuaReturn gsub(ArrayList<LuaObject> args, Budget budget)
+      throws LuaRuntimeException {
+    String s = Builtin.checkString(args, 0, "gsub");
+    LuaPattern pattern = LuaPattern.compile(Builtin.checkString(args, 1, "gsub"));
+    LuaObject repl = Builtin.arg(args, 2);
+    if (!(repl instanceof LuaString
+        || repl instanceof LuaNumber
+        || repl instanceof LuaTable
+        || repl instanceof LuaFunction)) {
+      throw Builtin.badArgument(2, "gsub", "string/function/table", repl);
+    }
+    long max = Builtin.optInteger(args, 3, "gsub", Long.MAX_VALUE);
+
+    LuaPattern.Matcher m = pattern.matcher(s, budget);
+    StringBuilder sb = new StringBuilder(s.length());
+    Builtin.charge(budget, 2L * s.length());
+    int i = 0;
+    int lastMatch = -1;
+    long count = 0;
+    while (count < max) {
+      if (m.matchAt(i) && m.end() != lastMatch) {
+        count++;
+        int length = sb.length();
+        replace(sb, s, m, repl);
+        // the replacements can make the result much longer than s
+        Builtin.charge(budget, 2L * (sb.length() - length));
+        i = m.end();
+        lastMatch = i;
+      } else if (i < s.length()) {
+        sb.append(s.charAt(i++));
+      } else {
+        break;
+      }
+      if (pattern.isAnchored()) {
+        break;
+      }
+    }
+    sb.append(s, i, s.length());
+
+    ArrayList<LuaObject> results = new ArrayList<>();
+    results.add(new LuaString(sb.toString()));
+    results.add(LuaNumber.valueOf(count));
+    return new LuaReturn(results);
+  }
+
+  // Appends the replacement of the current match of m
+  private static void replace(StringBuilder sb, String s, LuaPattern.Matcher m, LuaObject repl)
+      throws LuaRuntimeException {
+    if (repl instanceof LuaString || repl instanceof LuaNumber) {
+      String r = repl.repr();
+      for (int i = 0; i < r.length(); i++) {
+        char c = r.charAt(i);
+        if (c != '%') {
+          sb.append(c);
+          continue;
+        }
+        char d = ++i < r.length() ? r.charAt(i) : '\0';
+        if (d == '%') {
+          sb.append('%');
+        } else if (d == '0') {
+          sb.append(s, m.start(), m.end());
+        } else if (d >= '1' && d <= '9') {
+          m.appendCapture(sb, d - '1');
+        } else {
+          throw new LuaRuntimeException("invalid use of '%' in replacement string");
+        }
+      }
+      return;
+    }
+
+    LuaObject value;
+    if (repl instanceof LuaTable) {
+      value = ((LuaTable) repl).get(m.capture(0));
+    } else {
+      ArrayList<LuaObject> captures = new ArrayList<>();
+      m.addCaptures(captures, true);
+      value = ((LuaFunction) repl).evaluate(captures).getValues().get(0);
+    }
+    if (!Operations.isTruthy(value)) {
+      sb.append(s, m.start(), m.end());
+    } else if (value instanceof LuaString || value instanceof LuaNumber) {
+      sb.append(value.repr());
+    } else {
+      throw new LuaRuntimeException(
+          String.format("invalid replacement value (a %s)", value.getTypeName()));
+    }
+  }
 }
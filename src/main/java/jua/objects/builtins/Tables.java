@@ -1,12 +1,20 @@
 package jua.objects.builtins;
 
-import java.util.stream.Collectors;
+import java.util.ArrayList;
+import java.util.function.Supplier;
+import jua.evaluator.Budget;
 import jua.evaluator.LuaRuntimeException;
 import jua.evaluator.Scope;
 import jua.objects.*;
 
+// Reference: https://www.lua.org/manual/5.3/manual.html#6.6
+//
+// The functions copying ranges given by the program rather than bounded by the size of a table
+// charge them to the Budget of the program, like the string library (see Strings).
 class Tables {
   private static final String name = "table";
+  // most values unpack can return, like the stack limit of the reference implementation
+  private static final int MAXUNPACK = 1000000;
 
   static void register(Scope scope) {
     LuaTable builtins = new LuaTable();
@@ -15,63 +23,186 @@ class Tables {
         "remove",
         Builtin.createFunction(
             args -> {
-              LuaObject table = Builtin.arg(args, 0);
+              LuaTable table = Builtin.checkTable(args, 0, "remove");
               LuaObject key = Builtin.arg(args, 1);
-
-              if (!(table instanceof LuaTable)) {
-                throw new LuaRuntimeException(
-                    String.format(
-                        "Can't remove key %s from non table object %s of type %s",
-                        key, table, table.getClass()));
+              if (!(key instanceof LuaNil) && !(key instanceof LuaNumber)) {
+                // not a position, the key is only removed
+                return new LuaReturn(table.remove(key));
               }
 
-              return new LuaReturn(((LuaTable) table).remove(key));
+              int size = table.size();
+              long position = Builtin.optInteger(args, 1, "remove", size);
+              if (position != size && (position < 1 || position > size + 1L)) {
+                throw Builtin.badArgument(1, "remove", "position out of bounds");
+              }
+              return new LuaReturn(table.remove(position));
             }));
 
     builtins.put(
         "insert",
         Builtin.createFunction(
             args -> {
-              LuaObject table = Builtin.arg(args, 0);
-              LuaObject value = Builtin.arg(args, 1);
-
-              if (!(table instanceof LuaTable)) {
-                throw new LuaRuntimeException(
-                    String.format(
-                        "Can't insert value %s into non table object %s of type %s",
-                        value, table, table.getClass()));
+              LuaTable table = Builtin.checkTable(args, 0, "insert");
+              if (args.size() < 3) {
+                table.insertList(Builtin.arg(args, 1));
+                return new LuaReturn();
+              }
+              if (args.size() > 3) {
+                throw new LuaRuntimeException("wrong number of arguments to 'insert'");
               }
 
-              ((LuaTable) table).insertList(value);
-              return new LuaReturn(LuaNil.getInstance());
+              long position = Builtin.checkInteger(args, 1, "insert");
+              if (position < 1 || position > table.size() + 1L) {
+                throw Builtin.badArgument(1, "insert", "position out of bounds");
+              }
+              table.insert(position, args.get(2));
+              return new LuaReturn();
             }));
 
     builtins.put(
-        "concat",
+        "sort",
         Builtin.createFunction(
             args -> {
-              LuaObject table = Builtin.arg(args, 0);
-              LuaObject sep = Builtin.arg(args, 1);
-
-              if (!(table instanceof LuaTable)) {
-                throw new LuaRuntimeException(
-                    String.format(
-                        "Can't concat values of non table object %s of type %s",
-                        table, table.getClass()));
+              LuaTable table = Builtin.checkTable(args, 0, "sort");
+              LuaObject comparator = Builtin.arg(args, 1);
+              LuaTable.Order order;
+              if (comparator instanceof LuaNil) {
+                order = Operations::lessThan;
+              } else if (comparator instanceof LuaFunction) {
+                LuaFunction f = (LuaFunction) comparator;
+                order =
+                    (a, b) -> {
+                      ArrayList<LuaObject> pair = new ArrayList<>(2);
+                      pair.add(a);
+                      pair.add(b);
+                      return Operations.isTruthy(f.evaluate(pair).getValues().get(0));
+                    };
+              } else {
+                throw Builtin.badArgument(1, "sort", "function", comparator);
               }
 
-              LuaString strSep = LuaString.valueOf(sep);
-
-              String res =
-                  ((LuaTable) table)
-                      .listValues().stream()
-                          .map(LuaObject::repr)
-                          // Join using the provided separator
-                          .collect(Collectors.joining(strSep.getValue()));
+              table.sort(table.size(), order);
+              return new LuaReturn();
+            }));
 
-              return new LuaReturn(new LuaString(res));
+    builtins.put(
+        "pack",
+        Builtin.createFunction(
+            args -> {
+              LuaTable table = new LuaTable();
+              for (int i = 0; i < args.size(); i++) {
+                table.put(i + 1L, args.get(i));
+              }
+              table.put("n", LuaNumber.valueOf(args.size()));
+              return new LuaReturn(table);
             }));
 
+    registerBudgeted(builtins, () -> null);
     scope.assignLocal(name, builtins);
   }
+
+  // Gives scope its own table library, with the functions using a budget bound to the budget of
+  // scope
+  static void registerScoped(Scope scope) {
+    LuaObject shared = Builtin.shared().get(name);
+    if (!(shared instanceof LuaTable)) {
+      return;
+    }
+    LuaTable table = ((LuaTable) shared).copy();
+    registerBudgeted(table, scope::getBudget);
+    scope.assignLocal(name, table);
+  }
+
+  // The budget is read on every call, a scope may be given another one
+  private static void registerBudgeted(LuaTable builtins, Supplier<Budget> budget) {
+    builtins.put("concat", Builtin.createFunction(args -> concat(args, budget.get())));
+    builtins.put("move", Builtin.createFunction(args -> move(args, budget.get())));
+    builtins.put("unpack", Builtin.createFunction(args -> unpack(args, budget.get())));
+  }
+
+  private static LuaReturn move(ArrayList<LuaObject> args, Budget budget)
+      throws LuaRuntimeException {
+    LuaTable source = Builtin.checkTable(args, 0, "move");
+    long from = Builtin.checkInteger(args, 1, "move");
+    long to = Builtin.checkInteger(args, 2, "move");
+    long target = Builtin.checkInteger(args, 3, "move");
+    LuaTable dest =
+        Builtin.arg(args, 4) instanceof LuaNil ? source : Builtin.checkTable(args, 4, "move");
+    if (to >= from) {
+      if (from <= 0 && to >= Long.MAX_VALUE + from) {
+        throw Builtin.badArgument(2, "move", "too many elements to move");
+      }
+      if (target > Long.MAX_VALUE - (to - from)) {
+        throw Builtin.badArgument(3, "move", "destination wrap around");
+      }
+    }
+    source.move(from, to, target, dest, budget);
+    return new LuaReturn(dest);
+  }
+
+  private static LuaReturn unpack(ArrayList<LuaObject> args, Budget budget)
+      throws LuaRuntimeException {
+    LuaTable table = Builtin.checkTable(args, 0, "unpack");
+    long from = Builtin.optInteger(args, 1, "unpack", 1);
+    long to =
+        Builtin.arg(args, 2) instanceof LuaNil
+            ? table.size()
+            : Builtin.checkInteger(args, 2, "unpack");
+    if (from > to) {
+      return new LuaReturn(table.listValues(from, to));
+    }
+    if (to - from >= MAXUNPACK || to - from < 0) {
+      throw new LuaRuntimeException("too many results to unpack");
+    }
+    // a reference for each value
+    Builtin.charge(budget, 8L * (to - from + 1));
+    return new LuaReturn(table.listValues(from, to));
+  }
+
+  private static LuaReturn concat(ArrayList<LuaObject> args, Budget budget)
+      throws LuaRuntimeException {
+    LuaTable table = Builtin.checkTable(args, 0, "concat");
+    String sep =
+        Builtin.arg(args, 1) instanceof LuaNil ? "" : Builtin.checkString(args, 1, "concat");
+    long from = Builtin.optInteger(args, 2, "concat", 1);
+    long to =
+        Builtin.arg(args, 3) instanceof LuaNil
+            ? table.size()
+            : Builtin.checkInteger(args, 3, "concat");
+    if (from > to) {
+      return new LuaReturn(new LuaString(""));
+    }
+
+    // the values are checked and measured first, the result is built without resizing
+    long length = sep.length() * (to - from);
+    for (long i = from; i <= to; i++) {
+      if (budget != null) {
+        budget.step();
+      }
+      LuaObject value = table.get(i);
+      if (value instanceof LuaString) {
+        length += ((LuaString) value).length();
+      } else if (value instanceof LuaNumber) {
+        length += 8;
+      } else {
+        throw new LuaRuntimeException(
+            String.format(
+                "invalid value (at index %d) in table for 'concat' (a %s)",
+                i, value.getTypeName()));
+      }
+    }
+    if (length > Integer.MAX_VALUE - 8) {
+      throw new LuaRuntimeException("resulting string too large");
+    }
+
+    Builtin.charge(budget, 2L * length);
+    StringBuilder sb = new StringBuilder((int) length);
+    for (long i = from; i <= to; i++) {
+      if (i > from) {
+        sb.append(sep);
+      }
+      sb.append(table.get(i).repr());
+    }
+    return new LuaReturn(new LuaString(sb.toString()));
+  }
 }
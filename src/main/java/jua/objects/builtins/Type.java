@@ -1,5 +1,7 @@
 package jua.objects.builtins;
 
+import java.util.HashMap;
+import java.util.Map;
 import jua.evaluator.LuaRuntimeException;
 import jua.evaluator.Scope;
 import jua.objects.LuaReturn;
@@ -7,6 +9,15 @@ import jua.objects.LuaString;
 
 public class Type {
   private static final String name = "type";
+  // results of type, created once rather than interned on each call
+  private static final Map<String, LuaString> TYPES = new HashMap<>();
+
+  static {
+    for (String type :
+        new String[] {"nil", "boolean", "number", "string", "function", "table", "thread"}) {
+      TYPES.put(type, LuaString.intern(type));
+    }
+  }
 
   public static void register(Scope scope) {
     scope.assignLocal(
@@ -17,7 +28,9 @@ public class Type {
                 throw new LuaRuntimeException("type excepts one argument");
               }
 
-              return new LuaReturn(new LuaString(args.get(0).getTypeName()));
+              String type = args.get(0).getTypeName();
+              LuaString result = TYPES.get(type);
+              return new LuaReturn(result != null ? result : new LuaString(type));
             }));
   }
 }
@@ -1,15 +1,17 @@
 package jua.parser;
 
+import java.util.ArrayList;
 import jua.ast.Expression;
+import jua.ast.ExpressionAccess;
 import jua.ast.ExpressionFactory;
 import jua.ast.ExpressionFunctionCall;
 import jua.token.*;
 
 public class MethodCallParser implements InfixParser {
-  private final FunctionCallParser callParser;
+  private final int precedence;
 
   MethodCallParser(int precedence) {
-    this.callParser = new FunctionCallParser(precedence);
+    this.precedence = precedence;
   }
 
   @Override
@@ -17,22 +19,25 @@ public class MethodCallParser implements InfixParser {
       throws IllegalParseException {
     TokenIdentifier ident = parser.consumeIdentifier();
     parser.consume(Delimiter.LPAREN);
-    Expression index =
-        ExpressionFactory.create(
-            TokenFactory.create(Operator.DOT, tok.getLine(), tok.getPosition()),
-            lhs,
-            ExpressionFactory.create(ident));
+    ExpressionAccess method =
+        (ExpressionAccess)
+            ExpressionFactory.create(
+                TokenFactory.create(Operator.DOT, tok.getLine(), tok.getPosition()),
+                lhs,
+                ExpressionFactory.create(ident));
 
-    // TODO avoid evaluating lhs twice (in args and in index)
-    // we could have an ExpressionMethodCall for that
-    ExpressionFunctionCall expr = callParser.parseInfix(parser, tok, index);
-    expr.addArg(0, lhs);
+    ArrayList<Expression> args = new ArrayList<>();
+    if (!parser.currentToken().isSubtype(Delimiter.RPAREN)) {
+      args = parser.parseCommaSeparatedExpressions(0);
+    }
+    parser.consume(Delimiter.RPAREN);
 
-    return expr;
+    // lhs is evaluated once, as the receiver and the first argument
+    return ExpressionFactory.createMethodCall(method, tok.getLine(), tok.getPosition(), args);
   }
 
   @Override
   public int getPrecedence() {
-    return callParser.getPrecedence();
+    return precedence;
   }
 }
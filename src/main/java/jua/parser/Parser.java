@@ -3,6 +3,7 @@ package jua.parser;
 import java.util.ArrayList;
 import java.util.HashMap;
 import jua.ast.*;
+import jua.evaluator.Resolver;
 import jua.token.*;
 import util.BufferedChannel;
 
@@ -10,45 +11,47 @@ public class Parser {
   private static final Token identifierKey = TokenFactory.create("", 0, 0);
   private static final Token literalKey = TokenFactory.create(Literal.BOOLEAN, "0", 0, 0);
   private BufferedChannel<Token> tokens;
-  private BufferedChannel<Statement> out = new BufferedChannel<>();
+  // only created for the streaming mode
+  private BufferedChannel<Statement> out;
 
-  private HashMap<TokenHashMapKey, PrefixParser> tokenPrefixParserHashMap;
-  private HashMap<TokenHashMapKey, InfixParser> tokenInfixParserHashMap;
-  private ArrayList<StatementParser> statementParserList;
+  // The sub parsers are stateless, the registries are filled once and shared by every Parser
+  private static final HashMap<TokenHashMapKey, PrefixParser> tokenPrefixParserHashMap =
+      new HashMap<>();
+  private static final HashMap<TokenHashMapKey, InfixParser> tokenInfixParserHashMap =
+      new HashMap<>();
+  private static final ArrayList<StatementParser> statementParserList = new ArrayList<>();
+
+  static {
+    registerParsers();
+  }
 
   public Parser(BufferedChannel<Token> tokens) {
     init(tokens);
   }
 
   public Parser(ArrayList<Token> tokenList) {
-    BufferedChannel<Token> tokens = new BufferedChannel<>();
-    tokenList.forEach(
-        tok -> {
-          try {
-            tokens.add(tok);
-          } catch (InterruptedException e) {
-            // TODO: handle this
-            e.printStackTrace();
-          }
-        });
+    // the channel holds all the tokens, nothing consumes them while they are added
+    BufferedChannel<Token> tokens = new BufferedChannel<>(Math.max(tokenList.size(), 1));
+    try {
+      tokens.addAll(tokenList);
+    } catch (InterruptedException e) {
+      // TODO: handle this
+      e.printStackTrace();
+    }
+    tokens.close();
 
     init(tokens);
   }
 
   private void init(BufferedChannel<Token> tokens) {
     this.tokens = tokens;
-    registerParsers();
   }
 
   // *******************************************************************
   // Register all the smaller parser which handle each small cases
   // *******************************************************************
 
-  private void registerParsers() {
-    this.tokenInfixParserHashMap = new HashMap<>();
-    this.tokenPrefixParserHashMap = new HashMap<>();
-    this.statementParserList = new ArrayList<>();
-
+  private static void registerParsers() {
     // Register the class which implements InfixParser interface
     // https://en.wikibooks.org/wiki/Lua_Programming/Expressions#Operator_precedence
     // TODO: ^ has greater precedence than unary operators, this is not handled at the moment
@@ -118,20 +121,20 @@ public class Parser {
     register(new LocalFunctionStatementParser());
   }
 
-  private void registerBinaryOperator(Operator op, int precedence) {
+  private static void registerBinaryOperator(Operator op, int precedence) {
     tokenInfixParserHashMap.put(
         new TokenHashMapKey(TokenFactory.create(op)), new OperatorParser(precedence));
   }
 
-  private void register(Token type, PrefixParser parser) {
+  private static void register(Token type, PrefixParser parser) {
     tokenPrefixParserHashMap.put(new TokenHashMapKey(type), parser);
   }
 
-  private void register(Token type, InfixParser parser) {
+  private static void register(Token type, InfixParser parser) {
     tokenInfixParserHashMap.put(new TokenHashMapKey(type), parser);
   }
 
-  private void register(StatementParser statementParser) {
+  private static void register(StatementParser statementParser) {
     statementParserList.add(statementParser);
   }
 
@@ -370,13 +373,15 @@ public class Parser {
   // *******************************************************************
 
   public void start(boolean isInteractive) throws InterruptedException, IllegalParseException {
+    BufferedChannel<Statement> out = getOut();
     while (currentToken().isValid()) {
       try {
-        Statement statement = parseStatement();
+        Statement statement = Resolver.resolve(parseStatement());
         out.add(statement);
       } catch (IllegalParseException e) {
         if (!isInteractive) {
           out.add(new StatementEOP());
+          out.close();
         } else {
           // send a nil to reset the repl
           out.add(
@@ -387,6 +392,7 @@ public class Parser {
       }
     }
     out.add(new StatementEOP());
+    out.close();
   }
 
   public StatementList parse() throws IllegalParseException {
@@ -396,10 +402,14 @@ public class Parser {
       statements.addChild(parseStatement());
     }
 
-    return statements;
+    // Bind variables to their slots before the statements can be evaluated
+    return Resolver.resolve(statements);
   }
 
   public BufferedChannel<Statement> getOut() {
+    if (out == null) {
+      out = new BufferedChannel<>();
+    }
     return out;
   }
 }
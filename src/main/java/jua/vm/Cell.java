@@ -0,0 +1,23 @@
+package jua.vm;
+
+import jua.objects.LuaObject;
+
+// Box holding a local captured by a closure. The declaring frame keeps the cell in the local's
+// register and every closure created while the local is in scope shares it.
+final class Cell implements LuaObject {
+  LuaObject value;
+
+  Cell(LuaObject value) {
+    this.value = value;
+  }
+
+  @Override
+  public String repr() {
+    return value.repr();
+  }
+
+  @Override
+  public String getTypeName() {
+    return value.getTypeName();
+  }
+}
@@ -0,0 +1,300 @@
+package jua.vm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import jua.objects.LuaInteger;
+import jua.objects.LuaNumber;
+import jua.objects.LuaObject;
+import jua.objects.LuaString;
+
+// Binary form of a compiled program, the .juac files written by jua --compile. Loading one skips
+// the lexer, the parser and the compiler.
+//
+// A chunk starts with ESC "Jua" and a version byte, followed by a pool of the strings used by the
+// program and by the main function. Counts, indexes and lines are unsigned variable length
+// integers (7 bits per byte, lowest first), the lines being stored as the zigzag encoded
+// difference with the previous one. A function is:
+//   length of the rest of the function
+//   name, repr (string indexes), number of parameters, is vararg (byte), number of registers
+//   number of instructions, the instructions (32 bits each), their lines
+//   number of constants, each a tag byte then a string index, a 64 bits integer or a double
+//   number of upvalues, each an "in stack" byte, an index and a name
+//   number of nested functions, each a function
+//
+// Chunks are read in place from a memory mapping. The strings and the nested functions are only
+// decoded when the program first uses them, the length of a function allows to skip it.
+public final class Chunk {
+  private static final byte[] MAGIC = {0x1B, 'J', 'u', 'a'};
+  private static final int VERSION = 1;
+
+  private static final int STRING = 0;
+  private static final int INTEGER = 1;
+  private static final int FLOAT = 2;
+
+  private Chunk() {}
+
+  // *******************************************************************
+  //  Writer
+  // *******************************************************************
+
+  public static void write(Prototype main, OutputStream out) throws IOException {
+    LinkedHashMap<String, Integer> strings = new LinkedHashMap<>();
+    byte[] function = function(main, strings);
+
+    DataOutputStream data = new DataOutputStream(out);
+    data.write(MAGIC);
+    data.writeByte(VERSION);
+    writeVarint(data, strings.size());
+    for (String s : strings.keySet()) {
+      byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      writeVarint(data, bytes.length);
+      data.write(bytes);
+    }
+    data.write(function);
+    data.flush();
+  }
+
+  public static void write(Prototype main, Path file) throws IOException {
+    try (OutputStream out = Files.newOutputStream(file)) {
+      write(main, out);
+    }
+  }
+
+  // Encodes p with its length
+  private static byte[] function(Prototype p, LinkedHashMap<String, Integer> strings)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    writeVarint(out, string(p.name, strings));
+    writeVarint(out, string(p.repr(), strings));
+    writeVarint(out, p.numParams);
+    out.writeByte(p.isVararg ? 1 : 0);
+    writeVarint(out, p.maxStack);
+
+    writeVarint(out, p.code.length);
+    for (int i : p.code) {
+      out.writeInt(i);
+    }
+    int line = 0;
+    for (int l : p.lines) {
+      int delta = l - line;
+      writeVarint(out, (delta << 1) ^ (delta >> 31));
+      line = l;
+    }
+
+    writeVarint(out, p.constants.length);
+    for (LuaObject constant : p.constants) {
+      if (constant instanceof LuaString) {
+        out.writeByte(STRING);
+        writeVarint(out, string(((LuaString) constant).getValue(), strings));
+      } else if (constant instanceof LuaInteger) {
+        out.writeByte(INTEGER);
+        out.writeLong(((LuaInteger) constant).getLongValue());
+      } else if (constant instanceof LuaNumber) {
+        out.writeByte(FLOAT);
+        out.writeDouble(((LuaNumber) constant).getValue());
+      } else {
+        throw new IOException("Cannot write constant " + constant.repr());
+      }
+    }
+
+    writeVarint(out, p.upvalueIndex.length);
+    for (int i = 0; i < p.upvalueIndex.length; i++) {
+      out.writeByte(p.upvalueInStack[i] ? 1 : 0);
+      writeVarint(out, p.upvalueIndex[i]);
+      writeVarint(out, string(p.upvalueNames[i], strings));
+    }
+
+    writeVarint(out, p.prototypeCount());
+    for (int i = 0; i < p.prototypeCount(); i++) {
+      out.write(function(p.prototype(i), strings));
+    }
+    out.flush();
+
+    ByteArrayOutputStream function = new ByteArrayOutputStream(bytes.size() + 5);
+    DataOutputStream data = new DataOutputStream(function);
+    writeVarint(data, bytes.size());
+    bytes.writeTo(data);
+    data.flush();
+    return function.toByteArray();
+  }
+
+  private static int string(String s, LinkedHashMap<String, Integer> strings) {
+    return strings.computeIfAbsent(s, k -> strings.size());
+  }
+
+  private static void writeVarint(DataOutputStream out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  // *******************************************************************
+  //  Reader
+  // *******************************************************************
+
+  // Whether file starts like a chunk rather than like a source file
+  public static boolean isChunk(Path file) throws IOException {
+    try (InputStream in = Files.newInputStream(file)) {
+      return Arrays.equals(in.readNBytes(MAGIC.length), MAGIC);
+    }
+  }
+
+  public static Prototype load(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      // the mapping stays valid once the channel is closed
+      return load(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  public static Prototype load(ByteBuffer buffer) throws IOException {
+    try {
+      ByteBuffer in = buffer.duplicate();
+      byte[] magic = new byte[MAGIC.length];
+      in.get(magic);
+      if (!Arrays.equals(magic, MAGIC)) {
+        throw new IOException("Not a jua chunk");
+      }
+      int version = in.get();
+      if (version != VERSION) {
+        throw new IOException(String.format("Unsupported chunk version %d", version));
+      }
+
+      int[] stringOffsets = new int[readVarint(in)];
+      for (int i = 0; i < stringOffsets.length; i++) {
+        stringOffsets[i] = in.position();
+        int length = readVarint(in);
+        in.position(in.position() + length);
+      }
+
+      int main = in.position();
+      int length = readVarint(in);
+      if (in.position() + length > in.limit()) {
+        throw new IOException("Truncated chunk");
+      }
+      return new Reader(buffer, stringOffsets).function(main);
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      throw new IOException("Truncated chunk", e);
+    }
+  }
+
+  private static int readVarint(ByteBuffer in) {
+    int value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = in.get();
+      value |= (b & 0x7F) << shift;
+      shift += 7;
+    } while (b < 0);
+    return value;
+  }
+
+  private static final class Reader {
+    private final ByteBuffer buffer;
+    private final int[] stringOffsets;
+    // decoded strings, null until they are used
+    private final String[] strings;
+
+    Reader(ByteBuffer buffer, int[] stringOffsets) {
+      this.buffer = buffer;
+      this.stringOffsets = stringOffsets;
+      this.strings = new String[stringOffsets.length];
+    }
+
+    private String string(int index) {
+      String s = strings[index];
+      if (s == null) {
+        ByteBuffer in = buffer.duplicate();
+        in.position(stringOffsets[index]);
+        byte[] bytes = new byte[readVarint(in)];
+        in.get(bytes);
+        s = new String(bytes, StandardCharsets.UTF_8);
+        strings[index] = s;
+      }
+      return s;
+    }
+
+    // Decodes the function at offset, its nested functions are decoded on demand
+    Prototype function(int offset) {
+      ByteBuffer in = buffer.duplicate();
+      in.position(offset);
+      readVarint(in);
+      String name = string(readVarint(in));
+      String repr = string(readVarint(in));
+      int numParams = readVarint(in);
+      boolean isVararg = in.get() != 0;
+      int maxStack = readVarint(in);
+
+      int[] code = new int[readVarint(in)];
+      for (int i = 0; i < code.length; i++) {
+        code[i] = in.getInt();
+      }
+      int[] lines = new int[code.length];
+      int line = 0;
+      for (int i = 0; i < lines.length; i++) {
+        int zigzag = readVarint(in);
+        line += (zigzag >>> 1) ^ -(zigzag & 1);
+        lines[i] = line;
+      }
+
+      LuaObject[] constants = new LuaObject[readVarint(in)];
+      for (int i = 0; i < constants.length; i++) {
+        int tag = in.get();
+        if (tag == STRING) {
+          constants[i] = LuaString.intern(string(readVarint(in)));
+        } else if (tag == INTEGER) {
+          constants[i] = LuaNumber.valueOf(in.getLong());
+        } else {
+          constants[i] = new LuaNumber(in.getDouble());
+        }
+      }
+
+      int nbUpvalues = readVarint(in);
+      boolean[] upvalueInStack = new boolean[nbUpvalues];
+      int[] upvalueIndex = new int[nbUpvalues];
+      String[] upvalueNames = new String[nbUpvalues];
+      for (int i = 0; i < nbUpvalues; i++) {
+        upvalueInStack[i] = in.get() != 0;
+        upvalueIndex[i] = readVarint(in);
+        upvalueNames[i] = string(readVarint(in));
+      }
+
+      int[] offsets = new int[readVarint(in)];
+      for (int i = 0; i < offsets.length; i++) {
+        offsets[i] = in.position();
+        int length = readVarint(in);
+        in.position(in.position() + length);
+      }
+
+      return new Prototype(
+          name,
+          code,
+          lines,
+          constants,
+          new Prototype[offsets.length],
+          i -> function(offsets[i]),
+          upvalueInStack,
+          upvalueIndex,
+          upvalueNames,
+          numParams,
+          isVararg,
+          maxStack,
+          () -> repr);
+    }
+  }
+}
@@ -0,0 +1,1130 @@
+package jua.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Supplier;
+import jua.ast.Expression;
+import jua.ast.ExpressionAccess;
+import jua.ast.ExpressionAddition;
+import jua.ast.ExpressionAnd;
+import jua.ast.ExpressionBinary;
+import jua.ast.ExpressionBinaryNot;
+import jua.ast.ExpressionBitwiseAnd;
+import jua.ast.ExpressionBitwiseOr;
+import jua.ast.ExpressionBitwiseXor;
+import jua.ast.ExpressionConcatenation;
+import jua.ast.ExpressionDivision;
+import jua.ast.ExpressionEquals;
+import jua.ast.ExpressionFunction;
+import jua.ast.ExpressionFunctionCall;
+import jua.ast.ExpressionGreaterThan;
+import jua.ast.ExpressionGreaterThanOrEqual;
+import jua.ast.ExpressionHash;
+import jua.ast.ExpressionIdentifier;
+import jua.ast.ExpressionIndex;
+import jua.ast.ExpressionLeftShift;
+import jua.ast.ExpressionLessThan;
+import jua.ast.ExpressionLessThanOrEqual;
+import jua.ast.ExpressionLiteral;
+import jua.ast.ExpressionModulo;
+import jua.ast.ExpressionMultiplication;
+import jua.ast.ExpressionNegative;
+import jua.ast.ExpressionNot;
+import jua.ast.ExpressionNotEqual;
+import jua.ast.ExpressionOr;
+import jua.ast.ExpressionPower;
+import jua.ast.ExpressionRightShift;
+import jua.ast.ExpressionSubtraction;
+import jua.ast.ExpressionTableConstructor;
+import jua.ast.ExpressionUnary;
+import jua.ast.ExpressionVararg;
+import jua.ast.Statement;
+import jua.ast.StatementAssignment;
+import jua.ast.StatementBlock;
+import jua.ast.StatementBreak;
+import jua.ast.StatementEOP;
+import jua.ast.StatementExpression;
+import jua.ast.StatementFunction;
+import jua.ast.StatementGenericFor;
+import jua.ast.StatementIf;
+import jua.ast.StatementList;
+import jua.ast.StatementMethod;
+import jua.ast.StatementNumericFor;
+import jua.ast.StatementRepeatUntil;
+import jua.ast.StatementReturn;
+import jua.ast.StatementWhile;
+import jua.ast.Variable;
+import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Resolver;
+import jua.evaluator.Scope;
+import jua.objects.LuaBoolean;
+import jua.objects.LuaNil;
+import jua.objects.LuaObject;
+import jua.objects.LuaString;
+import jua.objects.Operations;
+import util.Tuple;
+
+// Compiles a resolved AST to register bytecode, in a single pass like the Lua compiler.
+//
+// Locals live in registers allocated in declaration order and released at the end of their
+// block. Whether a name is a global comes from the Resolver, and so does whether a local is
+// captured by a nested function: captured locals are boxed in a Cell when they are declared, which
+// gives every iteration of a loop a fresh variable without having to close upvalues.
+//
+// The values lists follow the AST evaluator: function calls are truncated to one value except
+// when they are the only value of an assignment or of a generic for, and `...` is expanded
+// wherever it appears.
+public final class Compiler {
+  private static final int MAXREGS = 250;
+
+  private FunctionState fs;
+  // level of the Scope of the AST function enclosing a function compiled on its own, -1 otherwise
+  private int envLevel = -1;
+
+  private static class LocalVar {
+    private final String name;
+    private final int register;
+    private final boolean isCaptured;
+
+    LocalVar(String name, int register, boolean isCaptured) {
+      this.name = name;
+      this.register = register;
+      this.isCaptured = isCaptured;
+    }
+  }
+
+  private static class Block {
+    private final int nbActives;
+    private final int freeRegister;
+    private final boolean isLoop;
+    private final ArrayList<Integer> breaks = new ArrayList<>();
+
+    Block(int nbActives, int freeRegister, boolean isLoop) {
+      this.nbActives = nbActives;
+      this.freeRegister = freeRegister;
+      this.isLoop = isLoop;
+    }
+  }
+
+  private static class FunctionState {
+    private final FunctionState parent;
+    private int[] code = new int[16];
+    private int[] lines = new int[16];
+    private int pc;
+    private final ArrayList<LuaObject> constants = new ArrayList<>();
+    // keyed by class too as the integer 1 and the float 1.0 are equal
+    private final HashMap<Tuple<Class<?>, LuaObject>, Integer> constantIndexes = new HashMap<>();
+    private final ArrayList<Prototype> prototypes = new ArrayList<>();
+    private final ArrayList<LocalVar> actives = new ArrayList<>();
+    private final ArrayList<Block> blocks = new ArrayList<>();
+    private final ArrayList<String> upvalueNames = new ArrayList<>();
+    private final ArrayList<Boolean> upvalueInStack = new ArrayList<>();
+    private final ArrayList<Integer> upvalueIndex = new ArrayList<>();
+    private int freeRegister;
+    private int maxStack = 2;
+    private int numParams;
+    private boolean isVararg;
+    private int line;
+
+    FunctionState(FunctionState parent) {
+      this.parent = parent;
+    }
+  }
+
+  private Compiler() {}
+
+  public static Prototype compile(StatementList chunk) throws LuaRuntimeException {
+    Compiler compiler = new Compiler();
+    compiler.openFunction();
+    compiler.fs.isVararg = true;
+    compiler.statements(chunk.getChildren());
+    return compiler.closeFunction("main chunk", () -> "main chunk");
+  }
+
+  // Compiles a single statement of the REPL, the values of an expression statement are returned
+  // so that they can be printed
+  public static Prototype compile(Statement statement) throws LuaRuntimeException {
+    Compiler compiler = new Compiler();
+    compiler.openFunction();
+    compiler.fs.isVararg = true;
+    if (statement instanceof StatementExpression) {
+      compiler.fs.line = statement.getLine();
+      compiler.returnValues(((StatementExpression) statement).getExprs());
+    } else {
+      compiler.statement(statement);
+    }
+    return compiler.closeFunction("main chunk", () -> "main chunk");
+  }
+
+  // Compiles a function of the AST evaluator on its own, the locals of the functions enclosing it
+  // are read in the Scope its closures are created in (see TieredFunction)
+  public static Prototype compile(ExpressionFunction func, int envLevel)
+      throws LuaRuntimeException {
+    Compiler compiler = new Compiler();
+    compiler.envLevel = envLevel;
+    return compiler.prototype(func, "function");
+  }
+
+  // *******************************************************************
+  //  Functions
+  // *******************************************************************
+
+  private void openFunction() {
+    fs = new FunctionState(fs);
+  }
+
+  private Prototype closeFunction(String name, Supplier<String> repr) {
+    emitABC(OpCode.RETURN, 0, 1, 0);
+
+    FunctionState f = fs;
+    fs = f.parent;
+
+    int nbUpvalues = f.upvalueIndex.size();
+    boolean[] inStack = new boolean[nbUpvalues];
+    int[] index = new int[nbUpvalues];
+    for (int i = 0; i < nbUpvalues; i++) {
+      inStack[i] = f.upvalueInStack.get(i);
+      index[i] = f.upvalueIndex.get(i);
+    }
+
+    return new Prototype(
+        name,
+        Arrays.copyOf(f.code, f.pc),
+        Arrays.copyOf(f.lines, f.pc),
+        f.constants.toArray(new LuaObject[0]),
+        f.prototypes.toArray(new Prototype[0]),
+        inStack,
+        index,
+        f.upvalueNames.toArray(new String[0]),
+        f.numParams,
+        f.isVararg,
+        f.maxStack,
+        repr);
+  }
+
+  private void function(ExpressionFunction func, String name, int register)
+      throws LuaRuntimeException {
+    int line = fs.line;
+    Prototype prototype = prototype(func, name);
+    fs.line = line;
+    fs.prototypes.add(prototype);
+    emitABx(OpCode.CLOSURE, register, fs.prototypes.size() - 1);
+  }
+
+  private Prototype prototype(ExpressionFunction func, String name) throws LuaRuntimeException {
+    openFunction();
+    fs.line = func.getLine();
+
+    ArrayList<String> argNames = new ArrayList<>();
+    ArrayList<ExpressionIdentifier> params = new ArrayList<>();
+    if (func.getSelf() != null) {
+      params.add(func.getSelf());
+      argNames.add(Scope.SELF);
+    }
+    for (ExpressionIdentifier arg : func.getArgs()) {
+      if (arg instanceof ExpressionVararg) {
+        fs.isVararg = true;
+      } else {
+        params.add(arg);
+        argNames.add(arg.getIdentifier());
+      }
+    }
+
+    fs.numParams = params.size();
+    for (ExpressionIdentifier param : params) {
+      int r = reserveRegisters(1);
+      if (addLocal(param, r).isCaptured) {
+        emitABC(OpCode.NEWCELL, r, 0, 0);
+      }
+    }
+
+    statements(func.getStatements().getChildren());
+
+    // same representation as the functions of the AST evaluator
+    return closeFunction(
+        name, () -> String.format("function(%s) %s", argNames, func.getStatements()));
+  }
+
+  // *******************************************************************
+  //  Statements
+  // *******************************************************************
+
+  private void statements(List<Statement> statements) throws LuaRuntimeException {
+    for (Statement statement : statements) {
+      statement(statement);
+    }
+  }
+
+  private void statement(Statement statement) throws LuaRuntimeException {
+    fs.line = statement.getLine();
+
+    if (statement instanceof StatementList) {
+      statements(((StatementList) statement).getChildren());
+    } else if (statement instanceof StatementAssignment) {
+      assignment((StatementAssignment) statement);
+    } else if (statement instanceof StatementExpression) {
+      expressionStatement((StatementExpression) statement);
+    } else if (statement instanceof StatementFunction) {
+      functionStatement((StatementFunction) statement);
+    } else if (statement instanceof StatementMethod) {
+      methodStatement((StatementMethod) statement);
+    } else if (statement instanceof StatementBlock) {
+      enterBlock(false);
+      statement(((StatementBlock) statement).getList());
+      leaveBlock();
+    } else if (statement instanceof StatementIf) {
+      ifStatement((StatementIf) statement);
+    } else if (statement instanceof StatementWhile) {
+      whileStatement((StatementWhile) statement);
+    } else if (statement instanceof StatementRepeatUntil) {
+      repeatStatement((StatementRepeatUntil) statement);
+    } else if (statement instanceof StatementNumericFor) {
+      numericFor((StatementNumericFor) statement);
+    } else if (statement instanceof StatementGenericFor) {
+      genericFor((StatementGenericFor) statement);
+    } else if (statement instanceof StatementReturn) {
+      returnValues(((StatementReturn) statement).getValues());
+    } else if (statement instanceof StatementBreak) {
+      breakStatement();
+    } else if (!(statement instanceof StatementEOP)) {
+      throw new LuaRuntimeException(String.format("Can't compile statement %s", statement));
+    }
+  }
+
+  private void assignment(StatementAssignment assignment) throws LuaRuntimeException {
+    ArrayList<Variable> lhs = assignment.getLhs();
+    ArrayList<Expression> rhs = assignment.getRhs();
+    int base = fs.freeRegister;
+
+    if (assignment.isLocal()) {
+      // values are compiled before the locals are declared so that `local x = x` reads the outer x
+      explist(rhs, lhs.size());
+      boolean isGlobal = false;
+      for (int i = 0; i < lhs.size(); i++) {
+        ExpressionIdentifier identifier = (ExpressionIdentifier) lhs.get(i);
+        if (identifier.getSlot() == Resolver.GLOBAL) {
+          // locals of the main chunk are globals, like in the AST evaluator
+          emitABx(OpCode.SETGLOBAL, base + i, stringConstant(identifier.getIdentifier()));
+          isGlobal = true;
+        } else if (addLocal(identifier, base + i).isCaptured) {
+          emitABC(OpCode.NEWCELL, base + i, 0, 0);
+        }
+      }
+      if (isGlobal) {
+        fs.freeRegister = base;
+      }
+      return;
+    }
+
+    if (lhs.size() == 1 && rhs.size() == 1 && !(rhs.get(0) instanceof ExpressionVararg)) {
+      Expression value = rhs.get(0);
+      LocalVar local = findRegisterLocal(lhs.get(0));
+      if (local != null && canTargetLocal(value)) {
+        expression(value, local.register);
+      } else {
+        store(lhs.get(0), expressionRK(value));
+      }
+      fs.freeRegister = base;
+      return;
+    }
+
+    explist(rhs, lhs.size());
+    for (int i = 0; i < lhs.size(); i++) {
+      store(lhs.get(i), base + i);
+    }
+    fs.freeRegister = base;
+  }
+
+  private void expressionStatement(StatementExpression statement) throws LuaRuntimeException {
+    for (Expression expr : statement.getExprs()) {
+      int base = fs.freeRegister;
+      if (expr instanceof ExpressionFunctionCall) {
+        call((ExpressionFunctionCall) expr, 0);
+      } else if (!(expr instanceof ExpressionVararg)) {
+        expression(expr, reserveRegisters(1));
+      }
+      fs.freeRegister = base;
+    }
+  }
+
+  private void functionStatement(StatementFunction statement) throws LuaRuntimeException {
+    Variable var = statement.getFuncVar();
+    int base = fs.freeRegister;
+
+    if (statement.isLocal()
+        && var instanceof ExpressionIdentifier
+        && ((ExpressionIdentifier) var).getSlot() != Resolver.GLOBAL) {
+      // the local is declared before the body so that the function can call itself
+      int r = reserveRegisters(1);
+      LocalVar local = addLocal((ExpressionIdentifier) var, r);
+      if (local.isCaptured) {
+        emitABC(OpCode.LOADNIL, r, r, 0);
+        emitABC(OpCode.NEWCELL, r, 0, 0);
+        int tmp = reserveRegisters(1);
+        function(statement.getFunc(), var.name(), tmp);
+        emitABC(OpCode.SETCELL, r, tmp, 0);
+        fs.freeRegister = r + 1;
+      } else {
+        function(statement.getFunc(), var.name(), r);
+      }
+      return;
+    }
+
+    int tmp = reserveRegisters(1);
+    function(statement.getFunc(), var.name(), tmp);
+    store(var, tmp);
+    fs.freeRegister = base;
+  }
+
+  private void methodStatement(StatementMethod statement) throws LuaRuntimeException {
+    int base = fs.freeRegister;
+    int table = expressionAnyRegister((Expression) statement.getFuncVar());
+    int method = reserveRegisters(1);
+    function(
+        statement.getFunc(),
+        String.format("%s:%s", statement.getFuncVar().name(), statement.getName()),
+        method);
+    emitABC(OpCode.SETTABLE, table, constantRK(LuaString.intern(statement.getName())), method);
+    fs.freeRegister = base;
+  }
+
+  private void ifStatement(StatementIf statement) throws LuaRuntimeException {
+    ArrayList<Integer> falseJumps = condition(statement.getCondition(), false);
+
+    enterBlock(false);
+    statement(statement.getConsequence());
+    leaveBlock();
+
+    if (statement.getAlternative() != null) {
+      int exit = emitJump();
+      patchHere(falseJumps);
+      enterBlock(false);
+      statement(statement.getAlternative());
+      leaveBlock();
+      patchHere(exit);
+    } else {
+      patchHere(falseJumps);
+    }
+  }
+
+  private void whileStatement(StatementWhile statement) throws LuaRuntimeException {
+    int start = fs.pc;
+    ArrayList<Integer> exits = condition(statement.getCondition(), false);
+
+    enterBlock(true);
+    statement(statement.getConsequence());
+    patch(emitJump(), start);
+    Block block = leaveBlock();
+
+    patchHere(exits);
+    patchHere(block.breaks);
+  }
+
+  private void repeatStatement(StatementRepeatUntil statement) throws LuaRuntimeException {
+    int start = fs.pc;
+
+    // the condition is compiled in the block of the body as it can see its locals
+    enterBlock(true);
+    statement(statement.getAction());
+    for (int jump : condition(statement.getCondition(), false)) {
+      patch(jump, start);
+    }
+    Block block = leaveBlock();
+
+    patchHere(block.breaks);
+  }
+
+  private void numericFor(StatementNumericFor statement) throws LuaRuntimeException {
+    int base = fs.freeRegister;
+    expression(statement.getVar(), reserveRegisters(1));
+    expression(statement.getLimit(), reserveRegisters(1));
+    expression(statement.getStep(), reserveRegisters(1));
+    reserveRegisters(1);
+
+    int prep = emitAsBx(OpCode.FORPREP, base, 0);
+    enterBlock(true);
+    if (addLocal(statement.getVariables().get(0), base + 3).isCaptured) {
+      emitABC(OpCode.NEWCELL, base + 3, 0, 0);
+    }
+    statement(statement.getBlock());
+    Block block = leaveBlock();
+
+    int loop = emitAsBx(OpCode.FORLOOP, base, 0);
+    patch(loop, prep + 1);
+    patchHere(prep);
+    patchHere(block.breaks);
+    fs.freeRegister = base;
+  }
+
+  private void genericFor(StatementGenericFor statement) throws LuaRuntimeException {
+    int base = fs.freeRegister;
+    explist(statement.getIteratorStateVar(), 3);
+    ArrayList<ExpressionIdentifier> variables = statement.getVariables();
+    reserveRegisters(variables.size());
+
+    int prep = emitAsBx(OpCode.TFORPREP, base, 0);
+    int body = fs.pc;
+    enterBlock(true);
+    for (int i = 0; i < variables.size(); i++) {
+      if (addLocal(variables.get(i), base + 3 + i).isCaptured) {
+        emitABC(OpCode.NEWCELL, base + 3 + i, 0, 0);
+      }
+    }
+    statement(statement.getBlock());
+    Block block = leaveBlock();
+
+    patchHere(prep);
+    emitABC(OpCode.TFORLOOP, base, 0, variables.size());
+    patch(emitJump(), body);
+    patchHere(block.breaks);
+    fs.freeRegister = base;
+  }
+
+  private void returnValues(ArrayList<Expression> values) throws LuaRuntimeException {
+    int base = fs.freeRegister;
+    if (values.size() == 1) {
+      LocalVar local = findRegisterLocal(values.get(0));
+      if (local != null) {
+        emitABC(OpCode.RETURN, local.register, 2, 0);
+        return;
+      }
+      if (values.get(0) instanceof ExpressionFunctionCall) {
+        // the callee replaces the function, the RETURN is only reached for the other functions
+        call((ExpressionFunctionCall) values.get(0), -1, OpCode.TAILCALL);
+        emitABC(OpCode.RETURN, base, 0, 0);
+        fs.freeRegister = base;
+        return;
+      }
+    }
+
+    int n = values(values);
+    emitABC(OpCode.RETURN, base, n + 1, 0);
+    fs.freeRegister = base;
+  }
+
+  private void breakStatement() throws LuaRuntimeException {
+    for (int i = fs.blocks.size() - 1; i >= 0; i--) {
+      Block block = fs.blocks.get(i);
+      if (block.isLoop) {
+        block.breaks.add(emitJump());
+        return;
+      }
+    }
+    throw new LuaRuntimeException("break is not inside a loop");
+  }
+
+  private void enterBlock(boolean isLoop) {
+    fs.blocks.add(new Block(fs.actives.size(), fs.freeRegister, isLoop));
+  }
+
+  private Block leaveBlock() {
+    Block block = fs.blocks.remove(fs.blocks.size() - 1);
+    fs.actives.subList(block.nbActives, fs.actives.size()).clear();
+    fs.freeRegister = block.freeRegister;
+    return block;
+  }
+
+  // *******************************************************************
+  //  Variables
+  // *******************************************************************
+
+  private LocalVar addLocal(ExpressionIdentifier identifier, int register) {
+    LocalVar local =
+        new LocalVar(identifier.getIdentifier(), register, identifier.isCaptured());
+    fs.actives.add(local);
+    return local;
+  }
+
+  private static LocalVar findLocal(FunctionState f, String name) {
+    for (int i = f.actives.size() - 1; i >= 0; i--) {
+      if (f.actives.get(i).name.equals(name)) {
+        return f.actives.get(i);
+      }
+    }
+    return null;
+  }
+
+  // Returns the index of the upvalue of f bound to name, -1 if no enclosing function declares it
+  private static int findUpvalue(FunctionState f, String name) {
+    int index = f.upvalueNames.indexOf(name);
+    if (index >= 0 || f.parent == null) {
+      return index;
+    }
+
+    LocalVar local = findLocal(f.parent, name);
+    if (local != null) {
+      if (!local.isCaptured) {
+        return -1;
+      }
+      return addUpvalue(f, name, true, local.register);
+    }
+
+    int parentIndex = findUpvalue(f.parent, name);
+    if (parentIndex < 0) {
+      return -1;
+    }
+    return addUpvalue(f, name, false, parentIndex);
+  }
+
+  private static int addUpvalue(FunctionState f, String name, boolean inStack, int index) {
+    f.upvalueNames.add(name);
+    f.upvalueInStack.add(inStack);
+    f.upvalueIndex.add(index);
+    return f.upvalueNames.size() - 1;
+  }
+
+  // Whether the local is declared outside of the function compiled on its own
+  private boolean isInEnv(ExpressionIdentifier identifier) {
+    return envLevel >= 0 && identifier.getLevel() <= envLevel;
+  }
+
+  private int envDepth(ExpressionIdentifier identifier) throws LuaRuntimeException {
+    int depth = envLevel - identifier.getLevel();
+    if (depth > OpCode.MAXARG_B || identifier.getSlot() > OpCode.MAXARG_B) {
+      throw new LuaRuntimeException("function or expression too complex");
+    }
+    return depth;
+  }
+
+  // Local of the current function which is directly held in a register
+  private LocalVar findRegisterLocal(Object expr) {
+    if (!(expr instanceof ExpressionIdentifier) || expr instanceof ExpressionVararg) {
+      return null;
+    }
+    ExpressionIdentifier identifier = (ExpressionIdentifier) expr;
+    if (identifier.getSlot() == Resolver.GLOBAL) {
+      return null;
+    }
+    LocalVar local = findLocal(fs, identifier.getIdentifier());
+    return local != null && !local.isCaptured ? local : null;
+  }
+
+  // These expressions write their target before they are done reading their operands
+  private static boolean canTargetLocal(Expression value) {
+    return !(value instanceof ExpressionAnd
+        || value instanceof ExpressionOr
+        || value instanceof ExpressionTableConstructor);
+  }
+
+  private void identifier(ExpressionIdentifier identifier, int register)
+      throws LuaRuntimeException {
+    String name = identifier.getIdentifier();
+    if (identifier.getSlot() == Resolver.GLOBAL) {
+      emitABx(OpCode.GETGLOBAL, register, stringConstant(name));
+      return;
+    }
+
+    LocalVar local = findLocal(fs, name);
+    if (local != null) {
+      if (local.isCaptured) {
+        emitABC(OpCode.GETCELL, register, local.register, 0);
+      } else if (local.register != register) {
+        emitABC(OpCode.MOVE, register, local.register, 0);
+      }
+      return;
+    }
+
+    int upvalue = findUpvalue(fs, name);
+    if (upvalue >= 0) {
+      emitABC(OpCode.GETUPVAL, register, upvalue, 0);
+    } else if (isInEnv(identifier)) {
+      emitABC(OpCode.GETENV, register, identifier.getSlot(), envDepth(identifier));
+    } else {
+      // declared in a branch of an if which is not visible from here, it is never set
+      emitABC(OpCode.LOADNIL, register, register, 0);
+    }
+  }
+
+  private void store(Variable var, int valueRK) throws LuaRuntimeException {
+    int base = fs.freeRegister;
+
+    if (var instanceof ExpressionIdentifier) {
+      ExpressionIdentifier identifier = (ExpressionIdentifier) var;
+      String name = identifier.getIdentifier();
+      LocalVar local =
+          identifier.getSlot() == Resolver.GLOBAL ? null : findLocal(fs, name);
+
+      if (local != null && local.isCaptured) {
+        emitABC(OpCode.SETCELL, local.register, valueRK, 0);
+      } else if (local != null) {
+        if (OpCode.isConstant(valueRK)) {
+          emitABx(OpCode.LOADK, local.register, valueRK - OpCode.BITRK);
+        } else if (local.register != valueRK) {
+          emitABC(OpCode.MOVE, local.register, valueRK, 0);
+        }
+      } else if (identifier.getSlot() == Resolver.GLOBAL) {
+        emitABx(OpCode.SETGLOBAL, toRegister(valueRK), stringConstant(name));
+      } else {
+        int upvalue = findUpvalue(fs, name);
+        if (upvalue >= 0) {
+          emitABC(OpCode.SETUPVAL, toRegister(valueRK), upvalue, 0);
+        } else if (isInEnv(identifier)) {
+          emitABC(OpCode.SETENV, toRegister(valueRK), identifier.getSlot(), envDepth(identifier));
+        }
+      }
+    } else if (var instanceof ExpressionAccess) {
+      ExpressionAccess access = (ExpressionAccess) var;
+      int table = expressionAnyRegister(access.getLhs());
+      int key = constantRK(LuaString.intern(access.getRhs().getLiteral()));
+      emitABC(OpCode.SETTABLE, table, key, valueRK);
+    } else if (var instanceof ExpressionIndex) {
+      ExpressionIndex index = (ExpressionIndex) var;
+      int table = expressionAnyRegister(index.getLhs());
+      int key = expressionRK(index.getRhs());
+      emitABC(OpCode.SETTABLE, table, key, valueRK);
+    } else {
+      throw new LuaRuntimeException(String.format("Can't assign a value to %s", var.name()));
+    }
+
+    fs.freeRegister = base;
+  }
+
+  // *******************************************************************
+  //  Expressions
+  // *******************************************************************
+
+  // Places the value of expr in register
+  private void expression(Expression expr, int register) throws LuaRuntimeException {
+    if (expr instanceof ExpressionLiteral) {
+      LuaObject value = expr.evaluate(null);
+      if (value instanceof LuaNil) {
+        emitABC(OpCode.LOADNIL, register, register, 0);
+      } else if (value instanceof LuaBoolean) {
+        emitABC(OpCode.LOADBOOL, register, ((LuaBoolean) value).getValue() ? 1 : 0, 0);
+      } else {
+        emitABx(OpCode.LOADK, register, constant(value));
+      }
+    } else if (expr instanceof ExpressionVararg) {
+      ensureVararg();
+      emitABC(OpCode.VARARG, register, 2, 0);
+    } else if (expr instanceof ExpressionIdentifier) {
+      identifier((ExpressionIdentifier) expr, register);
+    } else if (expr instanceof ExpressionFunction) {
+      function((ExpressionFunction) expr, "anonymous", register);
+    } else if (expr instanceof ExpressionFunctionCall) {
+      int base = fs.freeRegister;
+      if (register == base - 1) {
+        // the target is the last reserved register, the call can happen in place
+        fs.freeRegister = register;
+        call((ExpressionFunctionCall) expr, 1);
+      } else {
+        call((ExpressionFunctionCall) expr, 1);
+        emitABC(OpCode.MOVE, register, base, 0);
+      }
+      fs.freeRegister = base;
+    } else if (expr instanceof ExpressionTableConstructor) {
+      tableConstructor((ExpressionTableConstructor) expr, register);
+    } else if (expr instanceof ExpressionAnd || expr instanceof ExpressionOr) {
+      ExpressionBinary binary = (ExpressionBinary) expr;
+      expression(binary.getLhs(), register);
+      // and keeps a falsy lhs, or keeps a truthy one
+      emitABC(OpCode.TEST, register, 0, expr instanceof ExpressionOr ? 1 : 0);
+      int exit = emitJump();
+      expression(binary.getRhs(), register);
+      patchHere(exit);
+    } else if (expr instanceof ExpressionNot) {
+      int base = fs.freeRegister;
+      int value = expressionAnyRegister(((ExpressionUnary) expr).getValue());
+      emitABC(OpCode.NOT, register, value, 0);
+      fs.freeRegister = base;
+    } else if (isComparison(expr)) {
+      comparison((ExpressionBinary) expr, true);
+      emitAsBx(OpCode.JMP, 0, 1);
+      emitABC(OpCode.LOADBOOL, register, 0, 1);
+      emitABC(OpCode.LOADBOOL, register, 1, 0);
+    } else if (expr instanceof ExpressionAccess) {
+      int base = fs.freeRegister;
+      ExpressionAccess access = (ExpressionAccess) expr;
+      int table = expressionAnyRegister(access.getLhs());
+      int key = constantRK(LuaString.intern(access.getRhs().getLiteral()));
+      emitABC(OpCode.GETTABLE, register, table, key);
+      fs.freeRegister = base;
+    } else if (expr instanceof ExpressionIndex) {
+      int base = fs.freeRegister;
+      ExpressionIndex index = (ExpressionIndex) expr;
+      int table = expressionAnyRegister(index.getLhs());
+      int key = expressionRK(index.getRhs());
+      emitABC(OpCode.GETTABLE, register, table, key);
+      fs.freeRegister = base;
+    } else if (expr instanceof ExpressionConcatenation) {
+      // the operands of the whole chain are placed in consecutive registers
+      int base = fs.freeRegister;
+      Expression[] operands = ((ExpressionConcatenation) expr).getOperands();
+      int first = reserveRegisters(operands.length);
+      for (int i = 0; i < operands.length; i++) {
+        expression(operands[i], first + i);
+      }
+      emitABC(OpCode.CONCAT, register, first, first + operands.length - 1);
+      fs.freeRegister = base;
+    } else if (expr instanceof ExpressionBinary && arithmeticOpCode(expr) >= 0) {
+      int base = fs.freeRegister;
+      ExpressionBinary binary = (ExpressionBinary) expr;
+      int lhs = expressionRK(binary.getLhs());
+      int rhs = expressionRK(binary.getRhs());
+      emitABC(arithmeticOpCode(expr), register, lhs, rhs);
+      fs.freeRegister = base;
+    } else if (expr instanceof ExpressionUnary) {
+      int base = fs.freeRegister;
+      int value = expressionAnyRegister(((ExpressionUnary) expr).getValue());
+      int op;
+      if (expr instanceof ExpressionNegative) {
+        op = OpCode.UNM;
+      } else if (expr instanceof ExpressionHash) {
+        op = OpCode.LEN;
+      } else if (expr instanceof ExpressionBinaryNot) {
+        op = OpCode.BNOT;
+      } else {
+        throw new LuaRuntimeException(String.format("Can't compile expression %s", expr));
+      }
+      emitABC(op, register, value, 0);
+      fs.freeRegister = base;
+    } else {
+      throw new LuaRuntimeException(String.format("Can't compile expression %s", expr));
+    }
+  }
+
+  private static int arithmeticOpCode(Expression expr) {
+    if (expr instanceof ExpressionAddition) return OpCode.ADD;
+    if (expr instanceof ExpressionSubtraction) return OpCode.SUB;
+    if (expr instanceof ExpressionMultiplication) return OpCode.MUL;
+    if (expr instanceof ExpressionDivision) return OpCode.DIV;
+    if (expr instanceof ExpressionModulo) return OpCode.MOD;
+    if (expr instanceof ExpressionPower) return OpCode.POW;
+    if (expr instanceof ExpressionBitwiseAnd) return OpCode.BAND;
+    if (expr instanceof ExpressionBitwiseOr) return OpCode.BOR;
+    if (expr instanceof ExpressionBitwiseXor) return OpCode.BXOR;
+    if (expr instanceof ExpressionLeftShift) return OpCode.SHL;
+    if (expr instanceof ExpressionRightShift) return OpCode.SHR;
+    return -1;
+  }
+
+  // Returns a register holding the value of expr, locals are used in place
+  private int expressionAnyRegister(Expression expr) throws LuaRuntimeException {
+    LocalVar local = findRegisterLocal(expr);
+    if (local != null) {
+      return local.register;
+    }
+    int register = reserveRegisters(1);
+    expression(expr, register);
+    return register;
+  }
+
+  // Same as expressionAnyRegister but number and string literals are returned as constants
+  private int expressionRK(Expression expr) throws LuaRuntimeException {
+    if (expr instanceof ExpressionLiteral) {
+      LuaObject value = expr.evaluate(null);
+      if (!(value instanceof LuaNil) && !(value instanceof LuaBoolean)) {
+        return constantRK(value);
+      }
+    }
+    return expressionAnyRegister(expr);
+  }
+
+  private void tableConstructor(ExpressionTableConstructor constructor, int register)
+      throws LuaRuntimeException {
+    emitABC(OpCode.NEWTABLE, register, 0, 0);
+    for (Tuple<Expression, Expression> tuple : constructor.getTuples()) {
+      int base = fs.freeRegister;
+      int key = expressionRK(tuple.x);
+      int value = expressionRK(tuple.y);
+      emitABC(OpCode.SETTABLE, register, key, value);
+      fs.freeRegister = base;
+    }
+  }
+
+  // Calls func with its arguments placed after it, starting at the first free register. The
+  // results are left from that register: nbResults of them, or all of them if nbResults < 0.
+  private void call(ExpressionFunctionCall call, int nbResults) throws LuaRuntimeException {
+    call(call, nbResults, OpCode.CALL);
+  }
+
+  // Same as call, op is CALL or TAILCALL
+  private void call(ExpressionFunctionCall call, int nbResults, int op)
+      throws LuaRuntimeException {
+    int base = reserveRegisters(1);
+    Expression func = (Expression) call.getFunc();
+    ArrayList<Expression> args = call.getArgs();
+    int nbArgs = 0;
+
+    // obj:method(...) is parsed with obj as the first argument, it is evaluated only once
+    if (func instanceof ExpressionAccess
+        && !args.isEmpty()
+        && args.get(0) == ((ExpressionAccess) func).getLhs()) {
+      ExpressionAccess access = (ExpressionAccess) func;
+      int self = reserveRegisters(1);
+      expression(access.getLhs(), self);
+      int key = constantRK(LuaString.intern(access.getRhs().getLiteral()));
+      emitABC(OpCode.SELF, base, self, key);
+      fs.freeRegister = self + 1;
+      args = new ArrayList<>(args.subList(1, args.size()));
+      nbArgs = 1;
+    } else {
+      expression(func, base);
+    }
+
+    int n = values(args);
+    emitABC(op, base, n < 0 ? 0 : nbArgs + n + 1, nbResults < 0 ? 0 : nbResults + 1);
+    fs.freeRegister = base + Math.max(nbResults, 0);
+    if (fs.freeRegister > fs.maxStack) {
+      fs.maxStack = fs.freeRegister;
+    }
+  }
+
+  // Places the values in consecutive registers from the first free one. Returns their number, or
+  // -1 if it is only known at runtime, in that case the VM sets the top after the last one.
+  private int values(List<Expression> exprs) throws LuaRuntimeException {
+    int base = fs.freeRegister;
+    int last = exprs.size() - 1;
+    boolean isPacked = false;
+    for (int i = 0; i < last; i++) {
+      isPacked |= exprs.get(i) instanceof ExpressionVararg;
+    }
+
+    for (int i = 0; i < exprs.size(); i++) {
+      Expression expr = exprs.get(i);
+      if (expr instanceof ExpressionVararg) {
+        ensureVararg();
+        if (isPacked) {
+          emitABC(OpCode.VARARG, reserveRegisters(1), 0, 1);
+        } else {
+          emitABC(OpCode.VARARG, fs.freeRegister, 0, 0);
+          return -1;
+        }
+      } else {
+        expression(expr, reserveRegisters(1));
+      }
+    }
+
+    if (isPacked) {
+      emitABC(OpCode.UNPACK, base, exprs.size(), 0);
+      return -1;
+    }
+    return exprs.size();
+  }
+
+  // Places exactly nbValues values in consecutive registers from the first free one, and
+  // reserves them
+  private void explist(ArrayList<Expression> exprs, int nbValues) throws LuaRuntimeException {
+    int base = fs.freeRegister;
+
+    if (exprs.size() == 1 && exprs.get(0) instanceof ExpressionFunctionCall) {
+      // a lone call keeps all its values
+      call((ExpressionFunctionCall) exprs.get(0), nbValues);
+      return;
+    }
+
+    int last = exprs.size() - 1;
+    boolean isPacked = false;
+    for (int i = 0; i < last; i++) {
+      isPacked |= exprs.get(i) instanceof ExpressionVararg;
+    }
+
+    if (isPacked) {
+      values(exprs);
+      emitABC(OpCode.UNPACK, base, exprs.size(), nbValues + 1);
+    } else {
+      for (int i = 0; i < exprs.size(); i++) {
+        Expression expr = exprs.get(i);
+        if (expr instanceof ExpressionVararg) {
+          ensureVararg();
+          int remaining = nbValues - i;
+          if (remaining > 0) {
+            emitABC(OpCode.VARARG, reserveRegisters(remaining), remaining + 1, 0);
+          }
+        } else {
+          expression(expr, reserveRegisters(1));
+        }
+      }
+      if (fs.freeRegister < base + nbValues) {
+        int from = fs.freeRegister;
+        reserveRegisters(base + nbValues - from);
+        emitABC(OpCode.LOADNIL, from, base + nbValues - 1, 0);
+      }
+    }
+
+    fs.freeRegister = base;
+    reserveRegisters(nbValues);
+  }
+
+  private void ensureVararg() throws LuaRuntimeException {
+    if (!fs.isVararg) {
+      throw new LuaRuntimeException("cannot use '...' outside a vararg function");
+    }
+  }
+
+  // *******************************************************************
+  //  Conditions
+  // *******************************************************************
+
+  private static boolean isComparison(Expression expr) {
+    return expr instanceof ExpressionEquals
+        || expr instanceof ExpressionNotEqual
+        || expr instanceof ExpressionLessThan
+        || expr instanceof ExpressionLessThanOrEqual
+        || expr instanceof ExpressionGreaterThan
+        || expr instanceof ExpressionGreaterThanOrEqual;
+  }
+
+  // Emits the comparison, the next instruction is executed only if its result is expected
+  private void comparison(ExpressionBinary expr, boolean expected) throws LuaRuntimeException {
+    int base = fs.freeRegister;
+    int lhs = expressionRK(expr.getLhs());
+    int rhs = expressionRK(expr.getRhs());
+    int a = expected ? 1 : 0;
+
+    if (expr instanceof ExpressionEquals) {
+      emitABC(OpCode.EQ, a, lhs, rhs);
+    } else if (expr instanceof ExpressionNotEqual) {
+      emitABC(OpCode.EQ, 1 - a, lhs, rhs);
+    } else if (expr instanceof ExpressionLessThan) {
+      emitABC(OpCode.LT, a, lhs, rhs);
+    } else if (expr instanceof ExpressionLessThanOrEqual) {
+      emitABC(OpCode.LE, a, lhs, rhs);
+    } else if (expr instanceof ExpressionGreaterThan) {
+      emitABC(OpCode.LT, a, rhs, lhs);
+    } else {
+      emitABC(OpCode.LE, a, rhs, lhs);
+    }
+    fs.freeRegister = base;
+  }
+
+  // Emits the jumps taken when the truthiness of cond is jumpWhen, the code falls through
+  // otherwise. The returned jumps have to be patched by the caller.
+  private ArrayList<Integer> condition(Expression cond, boolean jumpWhen)
+      throws LuaRuntimeException {
+    ArrayList<Integer> jumps = new ArrayList<>();
+
+    if (cond instanceof ExpressionAnd || cond instanceof ExpressionOr) {
+      ExpressionBinary binary = (ExpressionBinary) cond;
+      // the lhs of an and decides alone when it is falsy, the one of an or when it is truthy
+      boolean shortCircuit = cond instanceof ExpressionOr;
+      if (shortCircuit == jumpWhen) {
+        jumps.addAll(condition(binary.getLhs(), jumpWhen));
+        jumps.addAll(condition(binary.getRhs(), jumpWhen));
+      } else {
+        ArrayList<Integer> skip = condition(binary.getLhs(), shortCircuit);
+        jumps.addAll(condition(binary.getRhs(), jumpWhen));
+        patchHere(skip);
+      }
+    } else if (cond instanceof ExpressionNot) {
+      jumps.addAll(condition(((ExpressionUnary) cond).getValue(), !jumpWhen));
+    } else if (isComparison(cond)) {
+      comparison((ExpressionBinary) cond, jumpWhen);
+      jumps.add(emitJump());
+    } else if (cond instanceof ExpressionLiteral) {
+      if (Operations.isTruthy(cond.evaluate(null)) == jumpWhen) {
+        jumps.add(emitJump());
+      }
+    } else {
+      int base = fs.freeRegister;
+      int value = expressionAnyRegister(cond);
+      emitABC(OpCode.TEST, value, 0, jumpWhen ? 1 : 0);
+      jumps.add(emitJump());
+      fs.freeRegister = base;
+    }
+
+    return jumps;
+  }
+
+  // *******************************************************************
+  //  Code generation
+  // *******************************************************************
+
+  private int reserveRegisters(int n) throws LuaRuntimeException {
+    int first = fs.freeRegister;
+    fs.freeRegister += n;
+    if (fs.freeRegister > fs.maxStack) {
+      if (fs.freeRegister > MAXREGS) {
+        throw new LuaRuntimeException("function or expression too complex");
+      }
+      fs.maxStack = fs.freeRegister;
+    }
+    return first;
+  }
+
+  private int constant(LuaObject value) throws LuaRuntimeException {
+    var key = new Tuple<Class<?>, LuaObject>(value.getClass(), value);
+    Integer index = fs.constantIndexes.get(key);
+    if (index == null) {
+      index = fs.constants.size();
+      if (index > OpCode.MAXARG_BX) {
+        throw new LuaRuntimeException("too many constants in a function");
+      }
+      fs.constants.add(value);
+      fs.constantIndexes.put(key, index);
+    }
+    return index;
+  }
+
+  private int stringConstant(String value) throws LuaRuntimeException {
+    return constant(LuaString.intern(value));
+  }
+
+  // Returns the constant as an RK operand, it is loaded in a register if its index is too large
+  private int constantRK(LuaObject value) throws LuaRuntimeException {
+    int index = constant(value);
+    if (index <= OpCode.MAXINDEXRK) {
+      return index | OpCode.BITRK;
+    }
+    int register = reserveRegisters(1);
+    emitABx(OpCode.LOADK, register, index);
+    return register;
+  }
+
+  private int toRegister(int rk) throws LuaRuntimeException {
+    if (!OpCode.isConstant(rk)) {
+      return rk;
+    }
+    int register = reserveRegisters(1);
+    emitABx(OpCode.LOADK, register, rk - OpCode.BITRK);
+    return register;
+  }
+
+  private int emit(int instruction) {
+    if (fs.pc == fs.code.length) {
+      fs.code = Arrays.copyOf(fs.code, fs.pc * 2);
+      fs.lines = Arrays.copyOf(fs.lines, fs.pc * 2);
+    }
+    fs.code[fs.pc] = instruction;
+    fs.lines[fs.pc] = fs.line;
+    return fs.pc++;
+  }
+
+  private int emitABC(int op, int a, int b, int c) {
+    return emit(OpCode.create(op, a, b, c));
+  }
+
+  private int emitABx(int op, int a, int bx) {
+    return emit(OpCode.createBx(op, a, bx));
+  }
+
+  private int emitAsBx(int op, int a, int sbx) {
+    return emit(OpCode.createSBx(op, a, sbx));
+  }
+
+  private int emitJump() {
+    return emitAsBx(OpCode.JMP, 0, 0);
+  }
+
+  // Makes the jump at pc go to target
+  private void patch(int pc, int target) throws LuaRuntimeException {
+    int offset = target - (pc + 1);
+    if (Math.abs(offset) > OpCode.MAXARG_SBX) {
+      throw new LuaRuntimeException("control structure too long");
+    }
+    int i = fs.code[pc];
+    fs.code[pc] = OpCode.createSBx(OpCode.op(i), OpCode.a(i), offset);
+  }
+
+  private void patchHere(int pc) throws LuaRuntimeException {
+    patch(pc, fs.pc);
+  }
+
+  private void patchHere(List<Integer> jumps) throws LuaRuntimeException {
+    for (int jump : jumps) {
+      patchHere(jump);
+    }
+  }
+}
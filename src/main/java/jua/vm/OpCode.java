@@ -0,0 +1,144 @@
+package jua.vm;
+
+// Instructions are 32 bits wide and laid out like in Lua 5.1:
+//
+//   | B (9 bits) | C (9 bits) | A (8 bits) | op (6 bits) |
+//   |       Bx (18 bits)      | A (8 bits) | op (6 bits) |
+//
+// R(x) is the register x of the current frame, K(x) the constant x of the prototype and RK(x) is
+// K(x - BITRK) when x >= BITRK, R(x) otherwise. U(x) is the upvalue x of the running closure.
+final class OpCode {
+  static final int MOVE = 0; //       A B     R(A) := R(B)
+  static final int LOADK = 1; //      A Bx    R(A) := K(Bx)
+  static final int LOADBOOL = 2; //   A B C   R(A) := (Bool)B; if (C) pc++
+  static final int LOADNIL = 3; //    A B     R(A), ..., R(B) := nil
+  static final int GETUPVAL = 4; //   A B     R(A) := U(B)
+  static final int GETGLOBAL = 5; //  A Bx    R(A) := Globals[K(Bx)]
+  static final int GETTABLE = 6; //   A B C   R(A) := R(B)[RK(C)]
+  static final int SETGLOBAL = 7; //  A Bx    Globals[K(Bx)] := R(A)
+  static final int SETUPVAL = 8; //   A B     U(B) := R(A)
+  static final int SETTABLE = 9; //   A B C   R(A)[RK(B)] := RK(C)
+  static final int NEWTABLE = 10; //  A       R(A) := {}
+  static final int SELF = 11; //      A B C   R(A + 1) := R(B); R(A) := R(B)[RK(C)]
+  static final int ADD = 12; //       A B C   R(A) := RK(B) + RK(C)
+  static final int SUB = 13; //       A B C   R(A) := RK(B) - RK(C)
+  static final int MUL = 14; //       A B C   R(A) := RK(B) * RK(C)
+  static final int DIV = 15; //       A B C   R(A) := RK(B) / RK(C)
+  static final int MOD = 16; //       A B C   R(A) := RK(B) % RK(C)
+  static final int POW = 17; //       A B C   R(A) := RK(B) ^ RK(C)
+  static final int UNM = 18; //       A B     R(A) := -R(B)
+  static final int NOT = 19; //       A B     R(A) := not R(B)
+  static final int LEN = 20; //       A B     R(A) := #R(B)
+  static final int CONCAT = 21; //    A B C   R(A) := R(B) .. ... .. R(C)
+  static final int BAND = 22; //      A B C   R(A) := RK(B) & RK(C)
+  static final int BOR = 23; //       A B C   R(A) := RK(B) | RK(C)
+  static final int BXOR = 24; //      A B C   R(A) := RK(B) ~ RK(C)
+  static final int SHL = 25; //       A B C   R(A) := RK(B) << RK(C)
+  static final int SHR = 26; //       A B C   R(A) := RK(B) >> RK(C)
+  static final int BNOT = 27; //      A B     R(A) := ~R(B)
+  static final int JMP = 28; //       sBx     pc += sBx
+  static final int EQ = 29; //        A B C   if ((RK(B) == RK(C)) ~= A) then pc++
+  static final int LT = 30; //        A B C   if ((RK(B) < RK(C)) ~= A) then pc++
+  static final int LE = 31; //        A B C   if ((RK(B) <= RK(C)) ~= A) then pc++
+  static final int TEST = 32; //      A C     if not (R(A) <=> C) then pc++
+  static final int CALL = 33; //      A B C   R(A), ..., R(A + C - 2) :=
+  //                                          R(A)(R(A + 1), ..., R(A + B - 1))
+  static final int RETURN = 34; //    A B     return R(A), ..., R(A + B - 2)
+  static final int FORPREP = 35; //   A sBx   R(A + 3) := R(A);
+  //                                          if not loop condition then pc += sBx
+  static final int FORLOOP = 36; //   A sBx   R(A) += R(A + 2);
+  //                                          if loop condition then { R(A + 3) := R(A); pc += sBx }
+  static final int TFORPREP = 37; //  A sBx   check that R(A) is a function; pc += sBx
+  static final int TFORLOOP = 38; //  A C     R(A + 3), ..., R(A + 2 + C) :=
+  //                                          R(A)(R(A + 1), R(A + 2));
+  //                                          if R(A + 3) ~= nil then R(A + 2) := R(A + 3) else pc++
+  static final int CLOSURE = 39; //   A Bx    R(A) := closure(KPROTO[Bx])
+  static final int VARARG = 40; //    A B C   R(A), ..., R(A + B - 2) = vararg, packed in R(A) if C
+  static final int UNPACK = 41; //    A B C   R(A), ..., R(A + C - 2) :=
+  //                                          R(A), ..., R(A + B - 1) flattened
+  static final int NEWCELL = 42; //   A       R(A) := cell(R(A))
+  static final int GETCELL = 43; //   A B     R(A) := R(B).value
+  static final int SETCELL = 44; //   A B     R(A).value := RK(B)
+  // locals of the AST functions enclosing a function compiled on its own, see TieredFunction
+  static final int GETENV = 45; //    A B C   R(A) := scope.getLocal(C, B)
+  static final int SETENV = 46; //    A B C   scope.setLocal(C, B, R(A))
+  static final int TAILCALL = 47; //  A B     return R(A)(R(A + 1), ..., R(A + B - 1)), the
+  //                                          RETURN A 0 following it returns the results of a
+  //                                          function which isn't a closure
+
+  // B = 0 in CALL, TAILCALL, RETURN and UNPACK means "up to the top", C = 0 in CALL, VARARG and
+  // UNPACK means "all the values" and sets the top for the next instruction.
+
+  static final String[] NAMES = {
+    "MOVE", "LOADK", "LOADBOOL", "LOADNIL", "GETUPVAL", "GETGLOBAL", "GETTABLE", "SETGLOBAL",
+    "SETUPVAL", "SETTABLE", "NEWTABLE", "SELF", "ADD", "SUB", "MUL", "DIV", "MOD", "POW", "UNM",
+    "NOT", "LEN", "CONCAT", "BAND", "BOR", "BXOR", "SHL", "SHR", "BNOT", "JMP", "EQ", "LT", "LE",
+    "TEST", "CALL", "RETURN", "FORPREP", "FORLOOP", "TFORPREP", "TFORLOOP", "CLOSURE", "VARARG",
+    "UNPACK", "NEWCELL", "GETCELL", "SETCELL", "GETENV", "SETENV", "TAILCALL",
+  };
+
+  static final int MAXARG_A = (1 << 8) - 1;
+  static final int MAXARG_B = (1 << 9) - 1;
+  static final int MAXARG_BX = (1 << 18) - 1;
+  static final int MAXARG_SBX = MAXARG_BX >> 1;
+
+  static final int BITRK = 1 << 8;
+  static final int MAXINDEXRK = BITRK - 1;
+
+  private OpCode() {}
+
+  static int create(int op, int a, int b, int c) {
+    return op | (a << 6) | (c << 14) | (b << 23);
+  }
+
+  static int createBx(int op, int a, int bx) {
+    return op | (a << 6) | (bx << 14);
+  }
+
+  static int createSBx(int op, int a, int sbx) {
+    return createBx(op, a, sbx + MAXARG_SBX);
+  }
+
+  static int op(int i) {
+    return i & 0x3F;
+  }
+
+  static int a(int i) {
+    return (i >>> 6) & 0xFF;
+  }
+
+  static int b(int i) {
+    return i >>> 23;
+  }
+
+  static int c(int i) {
+    return (i >>> 14) & 0x1FF;
+  }
+
+  static int bx(int i) {
+    return i >>> 14;
+  }
+
+  static int sbx(int i) {
+    return (i >>> 14) - MAXARG_SBX;
+  }
+
+  static boolean isConstant(int rk) {
+    return (rk & BITRK) != 0;
+  }
+
+  static boolean usesBx(int op) {
+    return op == LOADK
+        || op == GETGLOBAL
+        || op == SETGLOBAL
+        || op == CLOSURE
+        || op == JMP
+        || op == FORPREP
+        || op == FORLOOP
+        || op == TFORPREP;
+  }
+
+  static boolean usesSBx(int op) {
+    return op == JMP || op == FORPREP || op == FORLOOP || op == TFORPREP;
+  }
+}
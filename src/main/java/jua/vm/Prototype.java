@@ -0,0 +1,173 @@
+package jua.vm;
+
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import jua.objects.LuaObject;
+import jua.objects.LuaString;
+
+// Compiled form of a function: its bytecode, constants and nested functions. Prototypes are
+// immutable, a VMClosure pairs one with the upvalues it captured. The nested functions of a
+// prototype loaded from a Chunk are only decoded when a closure is first created from them.
+public final class Prototype {
+  final String name;
+  final int[] code;
+  // source line of each instruction
+  final int[] lines;
+  final LuaObject[] constants;
+  // null slots are decoded by the loader
+  private final Prototype[] prototypes;
+  private final IntFunction<Prototype> loader;
+  // an upvalue is either a register of the enclosing function or one of its upvalues
+  final boolean[] upvalueInStack;
+  final int[] upvalueIndex;
+  final String[] upvalueNames;
+  final int numParams;
+  final boolean isVararg;
+  final int maxStack;
+  // printed representation of the closures, same as the one of the AST functions. It prints the
+  // whole body, so it is only built when a closure is first printed.
+  private final Supplier<String> reprSource;
+  private volatile String repr;
+
+  Prototype(
+      String name,
+      int[] code,
+      int[] lines,
+      LuaObject[] constants,
+      Prototype[] prototypes,
+      boolean[] upvalueInStack,
+      int[] upvalueIndex,
+      String[] upvalueNames,
+      int numParams,
+      boolean isVararg,
+      int maxStack,
+      Supplier<String> repr) {
+    this(
+        name,
+        code,
+        lines,
+        constants,
+        prototypes,
+        null,
+        upvalueInStack,
+        upvalueIndex,
+        upvalueNames,
+        numParams,
+        isVararg,
+        maxStack,
+        repr);
+  }
+
+  Prototype(
+      String name,
+      int[] code,
+      int[] lines,
+      LuaObject[] constants,
+      Prototype[] prototypes,
+      IntFunction<Prototype> loader,
+      boolean[] upvalueInStack,
+      int[] upvalueIndex,
+      String[] upvalueNames,
+      int numParams,
+      boolean isVararg,
+      int maxStack,
+      Supplier<String> repr) {
+    this.name = name;
+    this.code = code;
+    this.lines = lines;
+    this.constants = constants;
+    this.prototypes = prototypes;
+    this.loader = loader;
+    this.upvalueInStack = upvalueInStack;
+    this.upvalueIndex = upvalueIndex;
+    this.upvalueNames = upvalueNames;
+    this.numParams = numParams;
+    this.isVararg = isVararg;
+    this.maxStack = maxStack;
+    this.reprSource = repr;
+  }
+
+  // Threads racing to print a closure build the same string
+  String repr() {
+    String r = repr;
+    if (r == null) {
+      r = reprSource.get();
+      repr = r;
+    }
+    return r;
+  }
+
+  // Threads racing to load the same prototype decode it twice and keep either copy, which are the
+  // same
+  Prototype prototype(int index) {
+    Prototype p = prototypes[index];
+    if (p == null) {
+      p = loader.apply(index);
+      prototypes[index] = p;
+    }
+    return p;
+  }
+
+  int prototypeCount() {
+    return prototypes.length;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  // Human readable listing of the bytecode, used by the debug mode of the CLI
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(
+        String.format(
+            "function %s (%d instructions, %d params%s, %d registers, %d upvalues, %d constants)\n",
+            name,
+            code.length,
+            numParams,
+            isVararg ? "+" : "",
+            maxStack,
+            upvalueIndex.length,
+            constants.length));
+
+    for (int pc = 0; pc < code.length; pc++) {
+      int i = code[pc];
+      int op = OpCode.op(i);
+      sb.append(String.format("\t%d\t[%d]\t%-9s\t", pc + 1, lines[pc], OpCode.NAMES[op]));
+      if (OpCode.usesSBx(op)) {
+        int sbx = OpCode.sbx(i);
+        sb.append(String.format("%d %d\t; to %d", OpCode.a(i), sbx, pc + 2 + sbx));
+      } else if (OpCode.usesBx(op)) {
+        sb.append(String.format("%d %d", OpCode.a(i), OpCode.bx(i)));
+        if (op != OpCode.CLOSURE) {
+          sb.append("\t; ").append(constantRepr(OpCode.bx(i)));
+        }
+      } else {
+        sb.append(
+            String.format("%d %s %s", OpCode.a(i), rkRepr(OpCode.b(i)), rkRepr(OpCode.c(i))));
+      }
+      sb.append('\n');
+    }
+
+    for (int i = 0; i < prototypes.length; i++) {
+      sb.append('\n').append(prototype(i));
+    }
+    return sb.toString();
+  }
+
+  private String rkRepr(int rk) {
+    if (OpCode.isConstant(rk)) {
+      return "K(" + constantRepr(rk - OpCode.BITRK) + ")";
+    }
+    return String.valueOf(rk);
+  }
+
+  private String constantRepr(int index) {
+    LuaObject constant = constants[index];
+    if (constant instanceof LuaString) {
+      return '"' + constant.repr() + '"';
+    }
+    return constant.repr();
+  }
+}
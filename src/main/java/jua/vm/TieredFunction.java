@@ -0,0 +1,56 @@
+package jua.vm;
+
+import java.util.ArrayList;
+import jua.ast.ExpressionFunction;
+import jua.ast.StatementList;
+import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Scope;
+import jua.objects.LuaFunction;
+import jua.objects.LuaObject;
+import jua.objects.LuaReturn;
+
+// Function of the AST evaluator which switches to the VM once it is hot. The calls are counted on
+// the ExpressionFunction so that the closures created from the same function share the compiled
+// bytecode. Locals of the enclosing functions stay in the Scope the function was created in.
+public class TieredFunction extends LuaFunction {
+  private static final Cell[] NO_UPVALUES = new Cell[0];
+
+  private final ExpressionFunction source;
+  private VMClosure compiled;
+
+  public TieredFunction(
+      ArrayList<String> argNames,
+      Scope environment,
+      StatementList block,
+      int frameSize,
+      ExpressionFunction source) {
+    super(argNames, environment, block, frameSize);
+    this.source = source;
+  }
+
+  // Returns the compiled closure, null while the function is still interpreted
+  VMClosure tierUp() {
+    if (compiled == null) {
+      Prototype prototype = source.tierUp(getEnvironment().getTierThreshold());
+      if (prototype != null) {
+        compiled = new VMClosure(prototype, NO_UPVALUES, getEnvironment());
+      }
+    }
+    return compiled;
+  }
+
+  // A tail call to the function keeps interpreting it until it is compiled
+  @Override
+  protected boolean isInterpreted() {
+    return tierUp() == null;
+  }
+
+  @Override
+  public LuaReturn evaluate(ArrayList<LuaObject> args) throws LuaRuntimeException {
+    VMClosure closure = tierUp();
+    if (closure == null) {
+      return super.evaluate(args);
+    }
+    return closure.evaluate(args);
+  }
+}
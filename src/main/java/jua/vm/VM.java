@@ -0,0 +1,509 @@
+package jua.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import jua.evaluator.Budget;
+import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Scope;
+import jua.objects.LuaBoolean;
+import jua.objects.LuaCoroutine;
+import jua.objects.LuaFunction;
+import jua.objects.LuaNil;
+import jua.objects.LuaNumber;
+import jua.objects.LuaObject;
+import jua.objects.LuaString;
+import jua.objects.LuaTable;
+import jua.objects.Metamethod;
+import jua.objects.Operations;
+
+// Register based virtual machine running the bytecode produced by the Compiler. Each call gets
+// its own array of registers. Calls between closures run in the same loop, their callers being
+// kept on a heap stack of Frames, and tail calls replace the running closure. Any other function
+// (builtins, AST functions) is called through LuaFunction.evaluate.
+public final class VM {
+  private static final LuaObject[] NO_VALUES = new LuaObject[0];
+  private static final Frame[] NO_FRAMES = new Frame[0];
+
+  private VM() {}
+
+  // Runs a main chunk and returns the values of its return statement, if any
+  public static LuaObject[] execute(Prototype main, Scope scope) throws LuaRuntimeException {
+    return execute(new VMClosure(main, new Cell[0], scope), NO_VALUES, 0, 0);
+  }
+
+  static LuaObject[] execute(VMClosure closure, LuaObject[] args, int argBase, int nargs)
+      throws LuaRuntimeException {
+    final Prototype p = closure.prototype;
+    final Budget budget = closure.scope.getBudget();
+    LuaObject[] regs = registers(p, args, argBase, nargs);
+    LuaObject[] varargs = varargs(p, args, argBase, nargs);
+
+    budget.enter();
+    LuaObject[] results;
+    try {
+      results = run(closure, regs, varargs, budget);
+    } catch (LuaCoroutine.Abandoned e) {
+      // the coroutine gave its calls back when it yielded, the program may be running
+      throw e;
+    } catch (Throwable e) {
+      budget.exit();
+      throw e;
+    }
+    budget.exit();
+    return results;
+  }
+
+  // Registers of a call to p, starting with the nargs arguments from args[base]
+  private static LuaObject[] registers(Prototype p, LuaObject[] args, int base, int nargs) {
+    LuaObject[] regs = new LuaObject[p.maxStack];
+    int numParams = p.numParams;
+    for (int i = 0; i < numParams; i++) {
+      regs[i] = i < nargs ? args[base + i] : LuaNil.getInstance();
+    }
+    return regs;
+  }
+
+  private static LuaObject[] varargs(Prototype p, LuaObject[] args, int base, int nargs) {
+    if (p.isVararg && nargs > p.numParams) {
+      return Arrays.copyOfRange(args, base + p.numParams, base + nargs);
+    }
+    return NO_VALUES;
+  }
+
+  // A closure calling another one, its state while the callee runs. The frames are kept on the
+  // heap rather than on the Java stack: the calls between closures don't recurse on run, a
+  // recursion is only bounded by the depth limit of the Budget.
+  private static final class Frame {
+    final VMClosure closure;
+    final LuaObject[] regs;
+    final LuaObject[] varargs;
+    final int pc;
+    // register and C operand of the CALL, where the results go
+    final int a;
+    final int c;
+
+    Frame(VMClosure closure, LuaObject[] regs, LuaObject[] varargs, int pc, int a, int c) {
+      this.closure = closure;
+      this.regs = regs;
+      this.varargs = varargs;
+      this.pc = pc;
+      this.a = a;
+      this.c = c;
+    }
+  }
+
+  private static LuaObject[] run(
+      VMClosure closure, LuaObject[] regs, LuaObject[] varargs, Budget budget)
+      throws LuaRuntimeException {
+    Prototype p = closure.prototype;
+    int[] code = p.code;
+    LuaObject[] k = p.constants;
+    Cell[] upvalues = closure.upvalues;
+    Scope scope = closure.scope;
+    final LuaObject nil = LuaNil.getInstance();
+    // callers of the running closure, from this call of run
+    Frame[] frames = NO_FRAMES;
+    int nframes = 0;
+
+    int pc = 0;
+    // first free register after an instruction producing a variable number of values
+    int top = 0;
+    try {
+      while (true) {
+        final int i = code[pc++];
+        final int a = (i >>> 6) & 0xFF;
+        switch (i & 0x3F) {
+          case OpCode.MOVE:
+            regs[a] = regs[i >>> 23];
+            break;
+          case OpCode.LOADK:
+            regs[a] = k[i >>> 14];
+            break;
+          case OpCode.LOADBOOL:
+            regs[a] = LuaBoolean.getLuaBool((i >>> 23) != 0);
+            if (((i >>> 14) & 0x1FF) != 0) {
+              pc++;
+            }
+            break;
+          case OpCode.LOADNIL:
+            for (int r = a; r <= i >>> 23; r++) {
+              regs[r] = nil;
+            }
+            break;
+          case OpCode.GETUPVAL:
+            regs[a] = upvalues[i >>> 23].value;
+            break;
+          case OpCode.GETGLOBAL:
+            regs[a] = scope.getVariable(((LuaString) k[i >>> 14]).getValue());
+            break;
+          case OpCode.GETTABLE:
+            regs[a] = Operations.index(regs[i >>> 23], rk(regs, k, (i >>> 14) & 0x1FF), scope);
+            break;
+          case OpCode.SETGLOBAL:
+            scope.assign(((LuaString) k[i >>> 14]).getValue(), regs[a]);
+            break;
+          case OpCode.SETUPVAL:
+            upvalues[i >>> 23].value = regs[a];
+            break;
+          case OpCode.SETTABLE:
+            Operations.setIndex(
+                regs[a], rk(regs, k, i >>> 23), rk(regs, k, (i >>> 14) & 0x1FF));
+            break;
+          case OpCode.NEWTABLE:
+            regs[a] = new LuaTable(budget);
+            break;
+          case OpCode.SELF:
+            {
+              LuaObject self = regs[i >>> 23];
+              regs[a + 1] = self;
+              regs[a] = Operations.index(self, rk(regs, k, (i >>> 14) & 0x1FF), scope);
+              break;
+            }
+          case OpCode.ADD:
+            regs[a] = Operations.add(rk(regs, k, i >>> 23), rk(regs, k, (i >>> 14) & 0x1FF));
+            break;
+          case OpCode.SUB:
+            regs[a] = Operations.sub(rk(regs, k, i >>> 23), rk(regs, k, (i >>> 14) & 0x1FF));
+            break;
+          case OpCode.MUL:
+            regs[a] = Operations.mul(rk(regs, k, i >>> 23), rk(regs, k, (i >>> 14) & 0x1FF));
+            break;
+          case OpCode.DIV:
+            regs[a] = Operations.div(rk(regs, k, i >>> 23), rk(regs, k, (i >>> 14) & 0x1FF));
+            break;
+          case OpCode.MOD:
+            regs[a] = Operations.mod(rk(regs, k, i >>> 23), rk(regs, k, (i >>> 14) & 0x1FF));
+            break;
+          case OpCode.POW:
+            regs[a] = Operations.pow(rk(regs, k, i >>> 23), rk(regs, k, (i >>> 14) & 0x1FF));
+            break;
+          case OpCode.UNM:
+            regs[a] = Operations.unm(regs[i >>> 23]);
+            break;
+          case OpCode.NOT:
+            regs[a] = LuaBoolean.getLuaBool(!Operations.isTruthy(regs[i >>> 23]));
+            break;
+          case OpCode.LEN:
+            regs[a] = Operations.length(regs[i >>> 23]);
+            break;
+          case OpCode.CONCAT:
+            regs[a] = Operations.concat(regs, i >>> 23, ((i >>> 14) & 0x1FF) + 1, budget);
+            break;
+          case OpCode.BAND:
+            regs[a] = Operations.band(rk(regs, k, i >>> 23), rk(regs, k, (i >>> 14) & 0x1FF));
+            break;
+          case OpCode.BOR:
+            regs[a] = Operations.bor(rk(regs, k, i >>> 23), rk(regs, k, (i >>> 14) & 0x1FF));
+            break;
+          case OpCode.BXOR:
+            regs[a] = Operations.bxor(rk(regs, k, i >>> 23), rk(regs, k, (i >>> 14) & 0x1FF));
+            break;
+          case OpCode.SHL:
+            regs[a] = Operations.shl(rk(regs, k, i >>> 23), rk(regs, k, (i >>> 14) & 0x1FF));
+            break;
+          case OpCode.SHR:
+            regs[a] = Operations.shr(rk(regs, k, i >>> 23), rk(regs, k, (i >>> 14) & 0x1FF));
+            break;
+          case OpCode.BNOT:
+            regs[a] = Operations.bnot(regs[i >>> 23]);
+            break;
+          case OpCode.JMP:
+            {
+              int offset = (i >>> 14) - OpCode.MAXARG_SBX;
+              if (offset < 0) {
+                // back edge of a while or repeat loop
+                budget.step();
+              }
+              pc += offset;
+              break;
+            }
+          case OpCode.EQ:
+            if (Operations.equal(rk(regs, k, i >>> 23), rk(regs, k, (i >>> 14) & 0x1FF))
+                != (a != 0)) {
+              pc++;
+            }
+            break;
+          case OpCode.LT:
+            if (Operations.lessThan(rk(regs, k, i >>> 23), rk(regs, k, (i >>> 14) & 0x1FF))
+                != (a != 0)) {
+              pc++;
+            }
+            break;
+          case OpCode.LE:
+            if (Operations.lessEqual(rk(regs, k, i >>> 23), rk(regs, k, (i >>> 14) & 0x1FF))
+                != (a != 0)) {
+              pc++;
+            }
+            break;
+          case OpCode.TEST:
+            if (Operations.isTruthy(regs[a]) != (((i >>> 14) & 0x1FF) != 0)) {
+              pc++;
+            }
+            break;
+          case OpCode.CALL:
+            {
+              int b = i >>> 23;
+              int c = (i >>> 14) & 0x1FF;
+              int n = b != 0 ? b - 1 : top - a - 1;
+              VMClosure callee = compiled(regs[a]);
+              if (callee == null) {
+                LuaObject[] results = invoke(regs[a], regs, a + 1, n);
+                regs = store(regs, a, c, results, 0, results.length);
+                top = a + results.length;
+                break;
+              }
+
+              budget.enter();
+              if (nframes == frames.length) {
+                frames = Arrays.copyOf(frames, Math.max(8, nframes * 2));
+              }
+              frames[nframes++] = new Frame(closure, regs, varargs, pc, a, c);
+              closure = callee;
+              p = callee.prototype;
+              code = p.code;
+              k = p.constants;
+              upvalues = callee.upvalues;
+              scope = callee.scope;
+              varargs = varargs(p, regs, a + 1, n);
+              regs = registers(p, regs, a + 1, n);
+              pc = 0;
+              top = 0;
+              break;
+            }
+          case OpCode.TAILCALL:
+            {
+              int b = i >>> 23;
+              int n = b != 0 ? b - 1 : top - a - 1;
+              VMClosure callee = compiled(regs[a]);
+              if (callee == null) {
+                // the results are returned by the RETURN following the instruction
+                LuaObject[] results = invoke(regs[a], regs, a + 1, n);
+                regs = store(regs, a, 0, results, 0, results.length);
+                top = a + results.length;
+                break;
+              }
+
+              // the callee replaces the running closure, counted like a call
+              budget.step();
+              closure = callee;
+              p = callee.prototype;
+              code = p.code;
+              k = p.constants;
+              upvalues = callee.upvalues;
+              scope = callee.scope;
+              varargs = varargs(p, regs, a + 1, n);
+              regs = registers(p, regs, a + 1, n);
+              pc = 0;
+              top = 0;
+              break;
+            }
+          case OpCode.RETURN:
+            {
+              int b = i >>> 23;
+              int n = b != 0 ? b - 1 : top - a;
+              if (nframes == 0) {
+                return n == 0 ? NO_VALUES : Arrays.copyOfRange(regs, a, a + n);
+              }
+
+              budget.exit();
+              Frame caller = frames[--nframes];
+              frames[nframes] = null;
+              closure = caller.closure;
+              p = closure.prototype;
+              code = p.code;
+              k = p.constants;
+              upvalues = closure.upvalues;
+              scope = closure.scope;
+              varargs = caller.varargs;
+              pc = caller.pc;
+              regs = store(caller.regs, caller.a, caller.c, regs, a, n);
+              top = caller.a + n;
+              break;
+            }
+          case OpCode.FORPREP:
+            {
+              LuaNumber init = LuaNumber.valueOf(regs[a]);
+              LuaNumber limit = LuaNumber.valueOf(regs[a + 1]);
+              LuaNumber step = LuaNumber.valueOf(regs[a + 2]);
+              limit = Operations.forLimit(init, limit, step);
+              regs[a + 1] = limit;
+              regs[a + 2] = step;
+              if (Operations.forContinues(init, limit, step)) {
+                regs[a] = init;
+                regs[a + 3] = init;
+              } else {
+                pc += (i >>> 14) - OpCode.MAXARG_SBX;
+              }
+              break;
+            }
+          case OpCode.FORLOOP:
+            {
+              LuaNumber limit = (LuaNumber) regs[a + 1];
+              LuaNumber step = (LuaNumber) regs[a + 2];
+              LuaNumber value = Operations.forNext((LuaNumber) regs[a], limit, step);
+              budget.step();
+              if (value != null) {
+                regs[a] = value;
+                regs[a + 3] = value;
+                pc += (i >>> 14) - OpCode.MAXARG_SBX;
+              }
+              break;
+            }
+          case OpCode.TFORPREP:
+            LuaFunction.valueOf(regs[a]);
+            pc += (i >>> 14) - OpCode.MAXARG_SBX;
+            break;
+          case OpCode.TFORLOOP:
+            {
+              int c = (i >>> 14) & 0x1FF;
+              budget.step();
+              LuaObject[] results = call(regs[a], new LuaObject[] {regs[a + 1], regs[a + 2]}, 0, 2);
+              for (int r = 0; r < c; r++) {
+                regs[a + 3 + r] = r < results.length ? results[r] : nil;
+              }
+              if (results.length > 0 && results[0] != nil) {
+                regs[a + 2] = results[0];
+              } else {
+                pc++;
+              }
+              break;
+            }
+          case OpCode.CLOSURE:
+            {
+              Prototype child = p.prototype(i >>> 14);
+              Cell[] cells = new Cell[child.upvalueIndex.length];
+              for (int u = 0; u < cells.length; u++) {
+                int index = child.upvalueIndex[u];
+                cells[u] = child.upvalueInStack[u] ? (Cell) regs[index] : upvalues[index];
+              }
+              regs[a] = new VMClosure(child, cells, scope);
+              break;
+            }
+          case OpCode.VARARG:
+            {
+              int b = i >>> 23;
+              if (((i >>> 14) & 0x1FF) != 0) {
+                regs[a] = new Varargs(varargs);
+              } else if (b == 0) {
+                top = a + varargs.length;
+                if (top > regs.length) {
+                  regs = Arrays.copyOf(regs, top);
+                }
+                System.arraycopy(varargs, 0, regs, a, varargs.length);
+              } else {
+                for (int r = 0; r < b - 1; r++) {
+                  regs[a + r] = r < varargs.length ? varargs[r] : nil;
+                }
+              }
+              break;
+            }
+          case OpCode.UNPACK:
+            {
+              int b = i >>> 23;
+              int c = (i >>> 14) & 0x1FF;
+              ArrayList<LuaObject> values = new ArrayList<>();
+              for (int r = a; r < a + b; r++) {
+                if (regs[r] instanceof Varargs) {
+                  values.addAll(Arrays.asList(((Varargs) regs[r]).values));
+                } else {
+                  values.add(regs[r]);
+                }
+              }
+              int n = c != 0 ? c - 1 : values.size();
+              top = a + n;
+              if (top > regs.length) {
+                regs = Arrays.copyOf(regs, top);
+              }
+              for (int r = 0; r < n; r++) {
+                regs[a + r] = r < values.size() ? values.get(r) : nil;
+              }
+              break;
+            }
+          case OpCode.NEWCELL:
+            regs[a] = new Cell(regs[a]);
+            break;
+          case OpCode.GETCELL:
+            regs[a] = ((Cell) regs[i >>> 23]).value;
+            break;
+          case OpCode.SETCELL:
+            ((Cell) regs[a]).value = rk(regs, k, i >>> 23);
+            break;
+          case OpCode.GETENV:
+            regs[a] = scope.getLocal((i >>> 14) & 0x1FF, i >>> 23);
+            break;
+          case OpCode.SETENV:
+            scope.setLocal((i >>> 14) & 0x1FF, i >>> 23, regs[a]);
+            break;
+          default:
+            throw new LuaRuntimeException(
+                String.format("Unknown instruction %d at %d in %s", i & 0x3F, pc - 1, p.name));
+        }
+      }
+    } catch (LuaRuntimeException e) {
+      // the calls of the frames are given back here, the other errors end the program
+      budget.unwind(budget.getDepth() - nframes);
+      e.addTraceback(p.lines[pc - 1], p.name);
+      for (int f = nframes - 1; f >= 0; f--) {
+        Prototype caller = frames[f].closure.prototype;
+        e.addTraceback(caller.lines[frames[f].pc - 1], caller.name);
+      }
+      throw e;
+    }
+  }
+
+  // Places the n values from values[from] at the register a of regs, like the results of a CALL
+  // with the operand c. Returns the registers, grown if they can't hold all the values.
+  private static LuaObject[] store(
+      LuaObject[] regs, int a, int c, LuaObject[] values, int from, int n) {
+    if (c == 0) {
+      if (a + n > regs.length) {
+        regs = Arrays.copyOf(regs, a + n);
+      }
+      System.arraycopy(values, from, regs, a, n);
+    } else {
+      for (int r = 0; r < c - 1; r++) {
+        regs[a + r] = r < n ? values[from + r] : LuaNil.getInstance();
+      }
+    }
+    return regs;
+  }
+
+  // Closure run by a call to fn, null if fn isn't a compiled function
+  private static VMClosure compiled(LuaObject fn) {
+    if (fn instanceof VMClosure) {
+      return (VMClosure) fn;
+    }
+    if (fn instanceof TieredFunction) {
+      return ((TieredFunction) fn).tierUp();
+    }
+    return null;
+  }
+
+  private static LuaObject rk(LuaObject[] regs, LuaObject[] k, int x) {
+    return (x & OpCode.BITRK) != 0 ? k[x & OpCode.MAXINDEXRK] : regs[x];
+  }
+
+  // Calls fn with the nargs values starting at args[base]
+  private static LuaObject[] call(LuaObject fn, LuaObject[] args, int base, int nargs)
+      throws LuaRuntimeException {
+    VMClosure closure = compiled(fn);
+    if (closure != null) {
+      return execute(closure, args, base, nargs);
+    }
+    return invoke(fn, args, base, nargs);
+  }
+
+  // Same as call for fn which isn't a compiled function
+  private static LuaObject[] invoke(LuaObject fn, LuaObject[] args, int base, int nargs)
+      throws LuaRuntimeException {
+    if (!(fn instanceof LuaFunction) && Operations.metamethod(fn, Metamethod.CALL) == null) {
+      throw new LuaRuntimeException(String.format("%s is not callable", fn.repr()));
+    }
+
+    ArrayList<LuaObject> list = new ArrayList<>(nargs + 1);
+    for (int i = base; i < base + nargs; i++) {
+      list.add(args[i]);
+    }
+    return Operations.call(fn, list).getValues().toArray(NO_VALUES);
+  }
+}
@@ -0,0 +1,44 @@
+package jua.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import jua.evaluator.Budget;
+import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Scope;
+import jua.objects.LuaFunction;
+import jua.objects.LuaObject;
+import jua.objects.LuaReturn;
+
+// A function compiled to bytecode. It extends LuaFunction so that the builtins and the AST
+// evaluator can call it like any other function.
+public class VMClosure extends LuaFunction {
+  final Prototype prototype;
+  final Cell[] upvalues;
+  // scope the closure was created in, it holds the globals and, for a function compiled on its
+  // own, the locals of the enclosing AST functions
+  final Scope scope;
+
+  VMClosure(Prototype prototype, Cell[] upvalues, Scope scope) {
+    super(null, null, null, 0);
+    this.prototype = prototype;
+    this.upvalues = upvalues;
+    this.scope = scope;
+  }
+
+  @Override
+  public LuaReturn evaluate(ArrayList<LuaObject> args) throws LuaRuntimeException {
+    LuaObject[] values = args.toArray(new LuaObject[0]);
+    LuaObject[] results = VM.execute(this, values, 0, values.length);
+    return new LuaReturn(new ArrayList<>(Arrays.asList(results)));
+  }
+
+  @Override
+  public Budget getBudget() {
+    return scope.getBudget();
+  }
+
+  @Override
+  public String repr() {
+    return prototype.repr();
+  }
+}
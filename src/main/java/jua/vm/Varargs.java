@@ -0,0 +1,25 @@
+package jua.vm;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+import jua.objects.LuaObject;
+
+// The extra arguments of a call packed in a single register, used when `...` is not the last
+// value of a list. UNPACK flattens them before the list is consumed.
+final class Varargs implements LuaObject {
+  final LuaObject[] values;
+
+  Varargs(LuaObject[] values) {
+    this.values = values;
+  }
+
+  @Override
+  public String repr() {
+    return Arrays.stream(values).map(LuaObject::repr).collect(Collectors.joining(","));
+  }
+
+  @Override
+  public String getTypeName() {
+    return "vararg";
+  }
+}
@@ -1,81 +1,232 @@
 package util;
 
-import java.util.ArrayList;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 
+// Single producer, single consumer channel backed by a ring buffer, it links the threads of the
+// lexer, the parser and the evaluator. No lock is taken: the producer only writes the tail index
+// and the consumer only writes the head index, each side caches the index of the other one and
+// only reads it again once its cached window is exhausted.
+//
+// The consumer can peek up to capacity - 1 elements ahead without consuming them. Once the
+// producer closes the channel and the remaining elements are consumed, reads return null.
+//
+// At most one thread may produce and one may consume at a time.
 public class BufferedChannel<T> {
-  private static final int size = 10000;
-
-  private LinkedBlockingQueue<T> queue = new LinkedBlockingQueue<>(size);
-  private final ArrayList<T> buffer = new ArrayList<>();
-
-  public static BufferedChannel<Character> fromString(String in) {
-    BufferedChannel<Character> bc = new BufferedChannel<>();
-    for (char c : in.toCharArray()) {
-      // process c
-      try {
-        bc.add((char) c);
-      } catch (InterruptedException e) {
-        // TOOD handle
-        e.printStackTrace();
+  public enum WaitStrategy {
+    // busy wait, for threads which have a core to themselves. Past SPINS spins the waiting thread
+    // yields, so that it doesn't starve the other side when they share a core.
+    SPIN,
+    // spin for a while then park until the other side signals
+    PARK
+  }
+
+  private static final int DEFAULT_CAPACITY = 1024;
+  private static final int SPINS = 256;
+  // the indexes are kept on separate cache lines
+  private static final int PAD = 8;
+  private static final int HEAD = PAD;
+  private static final int TAIL = 2 * PAD;
+
+  private final Object[] buffer;
+  private final int mask;
+  private final WaitStrategy waitStrategy;
+  private final AtomicLongArray indexes = new AtomicLongArray(3 * PAD);
+  private volatile boolean closed;
+  // thread parked waiting for the other side, if any
+  private volatile Thread parkedProducer;
+  private volatile Thread parkedConsumer;
+
+  // producer side
+  private long tail;
+  private long headCache;
+
+  // consumer side
+  private long head;
+  private long tailCache;
+
+  public BufferedChannel() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public BufferedChannel(int capacity) {
+    this(capacity, WaitStrategy.PARK);
+  }
+
+  public BufferedChannel(int capacity, WaitStrategy waitStrategy) {
+    if (capacity < 1 || capacity > 1 << 30) {
+      throw new IllegalArgumentException("Invalid channel capacity: " + capacity);
+    }
+    // rounded up to a power of two to wrap the indexes with a mask
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    this.buffer = new Object[size];
+    this.mask = size - 1;
+    this.waitStrategy = waitStrategy;
+  }
+
+  public int capacity() {
+    return buffer.length;
+  }
+
+  // *******************************************************************
+  //  Producer
+  // *******************************************************************
+
+  public final void add(T element) throws InterruptedException {
+    ensureOpen();
+    if (tail - headCache >= buffer.length) {
+      awaitSpace();
+    }
+    buffer[(int) tail & mask] = element;
+    publish(tail + 1);
+  }
+
+  // Adds the elements in batches, the consumer is signalled once per batch instead of once per
+  // element
+  public void addAll(List<? extends T> elements) throws InterruptedException {
+    ensureOpen();
+    int i = 0;
+    while (i < elements.size()) {
+      if (tail - headCache >= buffer.length) {
+        awaitSpace();
+      }
+      long end = Math.min(headCache + buffer.length, tail + elements.size() - i);
+      long t = tail;
+      for (; t < end; t++) {
+        buffer[(int) t & mask] = elements.get(i++);
       }
+      publish(t);
     }
+  }
+
+  // Signals the end of the stream, the consumer drains what was added before
+  public void close() {
+    closed = true;
+    signal(parkedConsumer);
+  }
 
-    // Add EOF
-    try {
-      bc.add((char) 0);
-    } catch (InterruptedException e) {
-      // TODO Handle
-      e.printStackTrace();
+  public boolean isClosed() {
+    return closed;
+  }
+
+  private void ensureOpen() {
+    if (closed) {
+      throw new IllegalStateException("Channel is closed");
     }
+  }
 
-    return bc;
+  private void publish(long newTail) {
+    tail = newTail;
+    indexes.set(TAIL, newTail);
+    signal(parkedConsumer);
   }
 
-  public T peek(int pos) throws InterruptedException {
-    synchronized (buffer) {
-      if (pos < 0) {
-        return null;
+  private void awaitSpace() throws InterruptedException {
+    int spins = 0;
+    while (tail - (headCache = indexes.get(HEAD)) >= buffer.length) {
+      if (spins < SPINS) {
+        spins++;
+        Thread.onSpinWait();
+      } else if (waitStrategy == WaitStrategy.SPIN) {
+        Thread.yield();
+      } else {
+        parkedProducer = Thread.currentThread();
+        if (tail - indexes.get(HEAD) >= buffer.length) {
+          LockSupport.park(this);
+        }
+        parkedProducer = null;
       }
-
-      if (pos < buffer.size()) {
-        return buffer.get(pos);
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
       }
+    }
+  }
 
-      // Else read until pos and buffer it
-      while (buffer.size() <= pos) {
-        buffer.add(queue.take());
-      }
-      return buffer.get(pos);
+  // *******************************************************************
+  //  Consumer
+  // *******************************************************************
+
+  // Returns the element pos places ahead without consuming it, null if the stream ends before
+  public T peek(int pos) throws InterruptedException {
+    if (pos < 0) {
+      return null;
     }
+    if (head + pos >= tailCache && !awaitElements(pos + 1)) {
+      return null;
+    }
+    return element(head + pos);
   }
 
   public T peek() throws InterruptedException {
     return peek(0);
   }
 
+  // Consumes the next element, null once the stream has ended
   public T read() throws InterruptedException {
-
-    synchronized (buffer) {
-      if (!buffer.isEmpty()) {
-        return buffer.remove(0);
-      }
+    if (head >= tailCache && !awaitElements(1)) {
+      return null;
     }
-    return queue.take();
+    T element = element(head);
+    release();
+    return element;
   }
 
   public void skip() throws InterruptedException {
-    synchronized (buffer) {
-      if (!buffer.isEmpty()) {
-        buffer.remove(0);
-        return;
+    if (head < tailCache || awaitElements(1)) {
+      release();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private T element(long index) {
+    return (T) buffer[(int) index & mask];
+  }
+
+  private void release() {
+    buffer[(int) head & mask] = null;
+    head++;
+    indexes.set(HEAD, head);
+    signal(parkedProducer);
+  }
+
+  // Waits until n elements can be read, returns false if the stream ends before
+  private boolean awaitElements(long n) throws InterruptedException {
+    int spins = 0;
+    while (head + n > (tailCache = indexes.get(TAIL))) {
+      if (closed) {
+        // the producer may have published before closing
+        tailCache = indexes.get(TAIL);
+        return head + n <= tailCache;
+      }
+      if (n > buffer.length) {
+        throw new IllegalArgumentException("Cannot look further than the channel capacity");
+      }
+      if (spins < SPINS) {
+        spins++;
+        Thread.onSpinWait();
+      } else if (waitStrategy == WaitStrategy.SPIN) {
+        Thread.yield();
+      } else {
+        parkedConsumer = Thread.currentThread();
+        if (head + n > indexes.get(TAIL) && !closed) {
+          LockSupport.park(this);
+        }
+        parkedConsumer = null;
+      }
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
       }
     }
-    queue.take();
+    return true;
   }
 
-  public final void add(T element) throws InterruptedException {
-    // System.out.printf("Adding: %s of type %s to queue\n", element, element.getClass());
-    queue.put(element);
+  private static void signal(Thread parked) {
+    if (parked != null) {
+      LockSupport.unpark(parked);
+    }
   }
 }
@@ -0,0 +1,215 @@
+package util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Output stream which coalesces many small writes into chunks of chunkSize bytes, for outputs
+// where each write or flush is costly (a syscall, a chunk of an HTTP response). The buffered bytes
+// are sent once there are chunkSize of them, on a flush once the oldest of them has waited
+// maxDelay, and on finish or close. If a scheduler is given, the bytes which would wait longer
+// than maxDelay for the next write or flush are sent too: the scheduler only hands them to the
+// sender, so that it isn't blocked by a slow reader and can be shared by many streams. The
+// scheduled send swaps the buffer and writes it without holding the monitor, the program keeps
+// printing to the other buffer meanwhile.
+//
+// Writes to out block while the reader is slow, and so do the writes to this stream once its
+// buffer is full: a program printing faster than its output is read is slowed down rather than
+// buffered in memory.
+public class CoalescingOutputStream extends OutputStream {
+  private final OutputStream out;
+  private final long maxDelayNanos;
+  private final ScheduledExecutorService scheduler;
+  private final Executor sender;
+  // held while writing to out, taken with the monitor held so that the chunks are sent in order
+  private final ReentrantLock sending = new ReentrantLock();
+
+  // guarded by this
+  private byte[] buffer;
+  // buffer written by the last scheduled send, reused by the next one
+  private byte[] spare;
+  private int count;
+  // System.nanoTime() at which the first buffered byte was written
+  private long oldest;
+  private boolean isScheduled;
+  private boolean isClosed;
+  // failure of a scheduled send, thrown to the next writer
+  private IOException failure;
+
+  public CoalescingOutputStream(OutputStream out, int chunkSize, long maxDelayMillis) {
+    this(out, chunkSize, maxDelayMillis, null, null);
+  }
+
+  // The sends of the scheduler run on sender, which has a thread for each stream sending at once
+  public CoalescingOutputStream(
+      OutputStream out,
+      int chunkSize,
+      long maxDelayMillis,
+      ScheduledExecutorService scheduler,
+      Executor sender) {
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+    }
+    if ((scheduler == null) != (sender == null)) {
+      throw new IllegalArgumentException("A scheduler needs a sender");
+    }
+    this.out = out;
+    this.buffer = new byte[chunkSize];
+    this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+    this.scheduler = scheduler;
+    this.sender = sender;
+  }
+
+  @Override
+  public synchronized void write(int b) throws IOException {
+    ensureOpen();
+    if (count == buffer.length) {
+      send();
+    }
+    buffered();
+    buffer[count++] = (byte) b;
+  }
+
+  @Override
+  public synchronized void write(byte[] b, int off, int len) throws IOException {
+    ensureOpen();
+    if (count + len > buffer.length) {
+      send();
+    }
+    if (len >= buffer.length) {
+      // too large to be coalesced, written as is
+      sending.lock();
+      try {
+        out.write(b, off, len);
+        out.flush();
+      } finally {
+        sending.unlock();
+      }
+      return;
+    }
+    buffered();
+    System.arraycopy(b, off, buffer, count, len);
+    count += len;
+  }
+
+  // Sends the buffered bytes only if they have waited long enough
+  @Override
+  public synchronized void flush() throws IOException {
+    ensureOpen();
+    if (count > 0 && System.nanoTime() - oldest >= maxDelayNanos) {
+      send();
+    }
+  }
+
+  // Sends the buffered bytes, nothing can be written after this but out is left open
+  public synchronized void finish() throws IOException {
+    if (isClosed) {
+      return;
+    }
+    try {
+      ensureOpen();
+      send();
+    } finally {
+      isClosed = true;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      finish();
+    } finally {
+      out.close();
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    if (isClosed) {
+      throw new IOException("Stream closed");
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  // Called before bytes are added to the buffer
+  private void buffered() {
+    if (count > 0) {
+      return;
+    }
+    oldest = System.nanoTime();
+    if (scheduler != null && !isScheduled) {
+      isScheduled = true;
+      schedule(maxDelayNanos);
+    }
+  }
+
+  private void schedule(long delayNanos) {
+    scheduler.schedule(() -> sender.execute(this::expire), delayNanos, TimeUnit.NANOSECONDS);
+  }
+
+  // Runs on the sender
+  private void expire() {
+    byte[] chunk;
+    int n;
+    synchronized (this) {
+      isScheduled = false;
+      if (isClosed || failure != null || count == 0) {
+        return;
+      }
+      long waited = System.nanoTime() - oldest;
+      if (waited < maxDelayNanos) {
+        // the bytes which were waiting have been sent since, these ones are younger
+        isScheduled = true;
+        schedule(maxDelayNanos - waited);
+        return;
+      }
+      if (!sending.tryLock()) {
+        // other bytes are being sent, these ones wait for the next round rather than the reader
+        isScheduled = true;
+        schedule(maxDelayNanos);
+        return;
+      }
+      chunk = buffer;
+      n = count;
+      buffer = spare != null ? spare : new byte[chunk.length];
+      spare = null;
+      count = 0;
+    }
+
+    IOException error = null;
+    try {
+      out.write(chunk, 0, n);
+      out.flush();
+    } catch (IOException e) {
+      error = e;
+    } finally {
+      sending.unlock();
+    }
+    synchronized (this) {
+      spare = chunk;
+      if (error != null && failure == null) {
+        failure = error;
+      }
+    }
+  }
+
+  // Sends the buffered bytes from the thread writing to the stream, which holds the monitor, once
+  // the scheduled send in progress if any is done
+  private void send() throws IOException {
+    sending.lock();
+    try {
+      if (count == 0) {
+        return;
+      }
+      out.write(buffer, 0, count);
+      out.flush();
+      count = 0;
+    } finally {
+      sending.unlock();
+    }
+  }
+}
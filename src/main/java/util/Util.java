@@ -3,14 +3,16 @@ package util;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.stream.Collectors;
 import jua.ast.Expression;
 import jua.ast.ExpressionVararg;
 import jua.evaluator.LuaRuntimeException;
 import jua.evaluator.Scope;
+import jua.objects.LuaFunction;
+import jua.objects.LuaNumber;
 import jua.objects.LuaObject;
 import jua.objects.LuaTable;
-import jua.token.TokenIdentifier;
 
 public class Util {
 
@@ -27,17 +29,21 @@ public class Util {
         .stream().map(s -> "\t" + s).collect(Collectors.joining("\n"));
   }
 
-  public static ArrayList<LuaObject> evaluateExprs(Scope scope, ArrayList<Expression> exprs)
+  public static ArrayList<LuaObject> evaluateExprs(Scope scope, List<Expression> exprs)
       throws LuaRuntimeException {
     ArrayList<LuaObject> evaluateExprs = new ArrayList<>();
     for (Expression expr : exprs) {
       if (expr instanceof ExpressionVararg) {
-        LuaObject obj = scope.getVariable(TokenIdentifier.VariadicToken);
+        LuaObject obj = ((ExpressionVararg) expr).evaluateVararg(scope);
         if (!(obj instanceof LuaTable)) {
           throw new LuaRuntimeException(String.format("vararg argument should be a lua table"));
         }
         LuaTable vararg = (LuaTable) obj;
-        evaluateExprs.addAll(vararg.listValues());
+        LuaObject count = vararg.get(LuaFunction.VARARG_COUNT);
+        evaluateExprs.addAll(
+            count instanceof LuaNumber
+                ? vararg.listValues(1, ((LuaNumber) count).getIntValue())
+                : vararg.listValues());
         continue;
       }
       evaluateExprs.add(expr.evaluate(scope));
@@ -0,0 +1,61 @@
+package jua;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Scope;
+import jua.parser.IllegalParseException;
+import org.junit.jupiter.api.Test;
+
+class ScopePoolTest {
+  private final ScriptCache cache = new ScriptCache(8, 1024);
+
+  private String run(ScopePool pool, String code)
+      throws IllegalParseException, LuaRuntimeException {
+    var out = new ByteArrayOutputStream();
+    Scope scope = pool.lease(out);
+    try {
+      new Interpreter(cache.get(code), scope).run();
+    } finally {
+      pool.release(scope);
+    }
+    return out.toString().strip();
+  }
+
+  @Test
+  void testGlobalsAreReset() throws IllegalParseException, LuaRuntimeException {
+    ScopePool pool = new ScopePool(1);
+    String code = "print(x) x = 1 table.extra = 2 local t = table print(t.extra)";
+
+    assertEquals("nil\n2", run(pool, code));
+    assertEquals("nil\n2", run(pool, code));
+    // the shared library tables are not modified
+    assertEquals("nil", run(pool, "print(table.extra)"));
+  }
+
+  @Test
+  void testLeasedScopePrintsToItsOutput() throws IllegalParseException, LuaRuntimeException {
+    ScopePool pool = new ScopePool(1);
+    var first = new ByteArrayOutputStream();
+    Scope scope = pool.lease(first);
+    new Interpreter(cache.get("x = 1 print('first')"), scope).run();
+    pool.release(scope);
+
+    var second = new ByteArrayOutputStream();
+    assertSame(scope, pool.lease(second));
+    new Interpreter(cache.get("print(x) print('second')"), scope).run();
+    pool.release(scope);
+    assertEquals("first", first.toString().strip());
+    assertEquals("nil\nsecond", second.toString().strip());
+  }
+
+  @Test
+  void testBuiltinsCanBeShadowed() throws IllegalParseException, LuaRuntimeException {
+    ScopePool pool = new ScopePool(2);
+
+    assertEquals("1", run(pool, "local p = print print = nil p(type(print) == 'nil' and 1 or 2)"));
+    assertEquals("string", run(pool, "print(type('a'))"));
+  }
+}
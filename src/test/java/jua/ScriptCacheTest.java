@@ -0,0 +1,106 @@
+package jua;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import jua.ast.StatementList;
+import jua.evaluator.LuaRuntimeException;
+import jua.parser.IllegalParseException;
+import org.junit.jupiter.api.Test;
+
+class ScriptCacheTest {
+
+  private String run(StatementList chunk) throws IllegalParseException, LuaRuntimeException {
+    return run(chunk, Interpreter.Engine.AST);
+  }
+
+  private String run(StatementList chunk, Interpreter.Engine engine)
+      throws IllegalParseException, LuaRuntimeException {
+    var out = new ByteArrayOutputStream();
+    var interpreter = new Interpreter(chunk, out);
+    interpreter.setEngine(engine);
+    interpreter.run();
+    return out.toString().strip();
+  }
+
+  @Test
+  void testConcurrentRuns() throws Exception {
+    ScriptCache cache = new ScriptCache(8, 1024);
+    // the function is compiled and its field accesses cached while the threads run it
+    String code =
+        "local function norm(p) return p.x * p.x + p.y * p.y end\n"
+            + "local sum = 0\n"
+            + "for i = 1, 3000 do\n"
+            + "  local p = i % 2 == 0 and {x = i, y = 1} or {y = 1, x = i}\n"
+            + "  sum = sum + norm(p)\n"
+            + "end\n"
+            + "print(sum)";
+    StatementList chunk = cache.get(code);
+    String expected = run(chunk);
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<String>> results = new ArrayList<>();
+      for (int i = 0; i < 32; i++) {
+        results.add(executor.submit(() -> run(chunk, Interpreter.Engine.TIERED)));
+      }
+      for (Future<String> result : results) {
+        assertEquals(expected, result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void testRunsAgainstFreshGlobals() throws IllegalParseException, LuaRuntimeException {
+    ScriptCache cache = new ScriptCache(8, 1024);
+    String code = "x = (x or 0) + 1 local t = {} t[x] = x print(x, #t)";
+
+    StatementList chunk = cache.get(code);
+    assertSame(chunk, cache.get(code));
+    assertEquals("1\n1", run(chunk));
+    assertEquals("1\n1", run(cache.get(code)));
+
+    assertEquals(2, (long) cache.stats().get("hits"));
+    assertEquals(1, (long) cache.stats().get("misses"));
+  }
+
+  @Test
+  void testEviction() throws IllegalParseException {
+    ScriptCache cache = new ScriptCache(2, 1024);
+    StatementList a = cache.get("print(1)");
+    cache.get("print(2)");
+    // a is now the most recently used
+    assertSame(a, cache.get("print(1)"));
+    cache.get("print(3)");
+
+    assertSame(a, cache.get("print(1)"));
+    assertEquals(1, (long) cache.stats().get("evictions"));
+    assertEquals(2, (long) cache.stats().get("entries"));
+
+    // programs are also evicted once their sources are too long
+    ScriptCache small = new ScriptCache(8, 20);
+    StatementList b = small.get("print(1234567890)");
+    small.get("print(1)");
+    assertNotSame(b, small.get("print(1234567890)"));
+    assertEquals(17, (long) small.stats().get("chars"));
+  }
+
+  @Test
+  void testParseErrorsAreNotCached() {
+    ScriptCache cache = new ScriptCache(8, 1024);
+    assertThrows(IllegalParseException.class, () -> cache.get("x = = 1"));
+    assertThrows(IllegalParseException.class, () -> cache.get("x = = 1"));
+    assertEquals(0, (long) cache.stats().get("entries"));
+    assertEquals(2, (long) cache.stats().get("misses"));
+  }
+}
@@ -0,0 +1,42 @@
+package jua;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import org.junit.jupiter.api.Test;
+
+class SessionTest {
+
+  @Test
+  void testStatementsAcrossInputs() {
+    var out = new ByteArrayOutputStream();
+    var err = new ByteArrayOutputStream();
+    // the tasks run in the calling thread
+    Session session = new Session(Runnable::run, Interpreter.Engine.AST, out, err);
+    session.start();
+
+    session.send("x = 2\n");
+    session.send("function f(n)\n");
+    session.send("  return n * x\n");
+    session.send("end\n");
+    session.send("f(3)\n");
+    session.send("t = {1,\n");
+    session.send("2} #t\n");
+    session.send("end\n");
+    session.send("x\n");
+
+    assertEquals("> > > 6\n> 2\n> > 2\n> ", out.toString());
+    assertEquals(true, err.toString().startsWith("jua.parser.IllegalParseException"), err.toString());
+  }
+
+  @Test
+  void testClose() {
+    var out = new ByteArrayOutputStream();
+    Session session = new Session(Runnable::run, Interpreter.Engine.VM, out, out);
+    session.send("print(1)\n");
+    session.close();
+    session.send("print(2)\n");
+
+    assertEquals("1\nnil\n> ", out.toString());
+  }
+}
@@ -0,0 +1,237 @@
+package jua.evaluator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.time.Duration;
+import jua.Interpreter;
+import jua.lexer.Lexer;
+import jua.parser.IllegalParseException;
+import jua.parser.Parser;
+import org.junit.jupiter.api.Test;
+
+class BudgetTest {
+  private static final Interpreter.Engine[] ENGINES = {
+    Interpreter.Engine.AST, Interpreter.Engine.VM
+  };
+
+  private String run(String code, Budget budget, Interpreter.Engine engine)
+      throws IllegalParseException, LuaRuntimeException {
+    var out = new ByteArrayOutputStream();
+    Scope scope = new Scope(out);
+    scope.setBudget(budget);
+    var interpreter = new Interpreter(new Parser(new Lexer(code).getNTokens(0)).parse(), scope);
+    interpreter.setEngine(engine);
+    interpreter.run();
+    return out.toString().strip();
+  }
+
+  private void assertExceeded(
+      String message, String code, Budget budget, Interpreter.Engine engine) {
+    var e = assertThrows(BudgetExceededException.class, () -> run(code, budget, engine));
+    assertTrue(e.getMessage().startsWith(message), e.getMessage());
+  }
+
+  @Test
+  void testSteps() throws IllegalParseException, LuaRuntimeException {
+    for (Interpreter.Engine engine : ENGINES) {
+      Budget budget = new Budget(5000, 0, 0, Duration.ZERO);
+      String code = "local n = 0 for i = 1, 3000 do n = n + 1 end print(n)";
+      assertEquals("3000", run(code, budget, engine));
+
+      assertExceeded(
+          "Instruction budget", "while true do end", new Budget(5000, 0, 0, Duration.ZERO), engine);
+      assertExceeded(
+          "Instruction budget",
+          "repeat local x = 1 until false",
+          new Budget(5000, 0, 0, Duration.ZERO),
+          engine);
+      assertExceeded(
+          "Instruction budget",
+          "local function up(s, c) return c + 1 end for i in up, nil, 0 do end",
+          new Budget(5000, 0, 0, Duration.ZERO),
+          engine);
+    }
+  }
+
+  @Test
+  void testExactStepLimit() throws IllegalParseException, LuaRuntimeException {
+    String code = "for i = 1, 10 do end";
+    for (Interpreter.Engine engine : ENGINES) {
+      Budget budget = new Budget(100, 0, 0, Duration.ZERO);
+      run(code, budget, engine);
+      long steps = budget.getSteps();
+
+      run(code, new Budget(steps, 0, 0, Duration.ZERO), engine);
+      assertExceeded(
+          "Instruction budget", code, new Budget(steps - 1, 0, 0, Duration.ZERO), engine);
+    }
+  }
+
+  @Test
+  void testDepth() throws IllegalParseException, LuaRuntimeException {
+    String code = "function f(n) if n == 0 then return 0 end return 1 + f(n - 1) end print(f(%d))";
+    for (Interpreter.Engine engine : ENGINES) {
+      Budget budget = new Budget(0, 0, 100, Duration.ZERO);
+      assertEquals("50", run(String.format(code, 50), budget, engine));
+      assertExceeded(
+          "Stack overflow", String.format(code, 150), new Budget(0, 0, 100, Duration.ZERO), engine);
+    }
+  }
+
+  @Test
+  void testDepthIsGivenBack() throws IllegalParseException, LuaRuntimeException {
+    String code = "function f(n) if n > 0 then f(n - 1) end end f(5) print(x.y)";
+    for (Interpreter.Engine engine : ENGINES) {
+      Budget budget = new Budget(0, 0, 10, Duration.ZERO);
+      try {
+        run(code, budget, engine);
+      } catch (LuaRuntimeException e) {
+        // the error unwinds the calls
+      }
+      assertEquals(0, budget.getDepth());
+    }
+  }
+
+  @Test
+  void testMemory() throws IllegalParseException, LuaRuntimeException {
+    for (Interpreter.Engine engine : ENGINES) {
+      Budget budget = new Budget(0, 1 << 20, 0, Duration.ZERO);
+      String code = "local s = '' for i = 1, 1000 do s = s .. 'x' end print(#s)";
+      assertEquals("1000", run(code, budget, engine));
+      assertTrue(budget.getMemory() >= 2000);
+
+      assertExceeded(
+          "Memory budget",
+          "local s = '' while true do s = s .. 'xxxxxxxxxxxxxxxx' end",
+          new Budget(0, 1 << 20, 0, Duration.ZERO),
+          engine);
+      assertExceeded(
+          "Memory budget",
+          "local t = {} local i = 1 while true do t[i] = i i = i + 1 end",
+          new Budget(0, 1 << 20, 0, Duration.ZERO),
+          engine);
+      assertExceeded(
+          "Memory budget",
+          "local l = nil while true do l = {next = l} end",
+          new Budget(0, 1 << 20, 0, Duration.ZERO),
+          engine);
+    }
+  }
+
+  @Test
+  void testStringLibrary() {
+    for (Interpreter.Engine engine : ENGINES) {
+      assertExceeded(
+          "Memory budget",
+          "local s = string.rep('x', 1000000000)",
+          new Budget(0, 1 << 20, 0, Duration.ZERO),
+          engine);
+      assertExceeded(
+          "Memory budget",
+          "local s = string.gsub(string.rep('x', 1000), '', string.rep('y', 1000))",
+          new Budget(0, 1 << 20, 0, Duration.ZERO),
+          engine);
+      // the backtracking of the pattern is exponential
+      assertExceeded(
+          "Instruction budget",
+          "string.find(string.rep('a', 40), 'a*a*a*a*a*a*a*a*b')",
+          new Budget(100000, 0, 0, Duration.ZERO),
+          engine);
+      assertExceeded(
+          "Time limit",
+          "string.match(string.rep('a', 40), 'a*a*a*a*a*a*a*a*b')",
+          new Budget(0, 0, 0, Duration.ofMillis(50)),
+          engine);
+    }
+  }
+
+  @Test
+  void testTableLibrary() {
+    for (Interpreter.Engine engine : ENGINES) {
+      assertExceeded(
+          "Memory budget",
+          "local s = string.rep('x', 1000) local t = {}"
+              + " for i = 1, 300 do t[i] = s end local r = table.concat(t)",
+          new Budget(0, 1 << 19, 0, Duration.ZERO),
+          engine);
+      assertExceeded(
+          "Instruction budget",
+          "table.move({1}, 1, 1000000000, 2)",
+          new Budget(100000, 0, 0, Duration.ZERO),
+          engine);
+      assertExceeded(
+          "Time limit",
+          "table.move({1}, 1, 1000000000, 2)",
+          new Budget(0, 0, 0, Duration.ofMillis(50)),
+          engine);
+    }
+  }
+
+  @Test
+  void testTimeout() {
+    for (Interpreter.Engine engine : ENGINES) {
+      long start = System.nanoTime();
+      assertExceeded(
+          "Time limit", "while true do end", new Budget(0, 0, 0, Duration.ofMillis(50)), engine);
+      assertTrue(System.nanoTime() - start < Duration.ofSeconds(5).toNanos());
+    }
+  }
+
+  @Test
+  void testCoroutines() {
+    // the threads of the coroutines are charged to the memory of the program
+    String code =
+        "local cos = {}\n"
+            + "for i = 1, 500 do\n"
+            + "  cos[i] = coroutine.create(function() coroutine.yield() end)\n"
+            + "  coroutine.resume(cos[i])\n"
+            + "end";
+    for (Interpreter.Engine engine : ENGINES) {
+      assertExceeded("Memory budget", code, new Budget(0, 1 << 20, 0, Duration.ZERO), engine);
+    }
+  }
+
+  @Test
+  void testSuspendedCoroutinesDepth() throws IllegalParseException, LuaRuntimeException {
+    // the calls of the suspended coroutines aren't charged to the program
+    String code =
+        "local gens = {}\n"
+            + "for i = 1, 300 do\n"
+            + "  local co = coroutine.create(function() coroutine.yield() end)\n"
+            + "  coroutine.resume(co)\n"
+            + "  gens[i] = co\n"
+            + "end\n"
+            + "local function depth(n) if n == 0 then return 0 end return 1 + depth(n - 1) end\n"
+            + "print(depth(150))";
+    for (Interpreter.Engine engine : ENGINES) {
+      Budget budget = new Budget(0, 0, 200, Duration.ZERO);
+      assertEquals("150", run(code, budget, engine));
+      assertEquals(0, budget.getDepth());
+    }
+  }
+
+  @Test
+  void testCancel() throws InterruptedException {
+    Budget budget = new Budget();
+    Thread canceller =
+        new Thread(
+            () -> {
+              try {
+                Thread.sleep(50);
+              } catch (InterruptedException e) {
+                return;
+              }
+              budget.cancel();
+            });
+    canceller.start();
+    assertExceeded(
+        "Evaluation cancelled",
+        "function f() return 1 end while true do f() end",
+        budget,
+        Interpreter.Engine.AST);
+    canceller.join();
+  }
+}
@@ -1,8 +1,13 @@
 package jua.evaluator;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -67,6 +72,32 @@ class EvaluatorTest {
     assertThrows(LuaRuntimeException.class, () -> setupEval("'abc' .. (function() end)"));
   }
 
+  @Test
+  void testInternedStrings() throws IllegalParseException, LuaRuntimeException {
+    Evaluable literal = new Parser((new Lexer("'name'")).getNTokens(0)).parse();
+    LuaObject first = literal.evaluate(new Scope());
+    assertSame(first, literal.evaluate(new Scope()));
+    assertSame(LuaString.intern("name"), first);
+    assertSame(first, setupEval("'name'"));
+
+    // interned and built strings are equal
+    LuaObject built = setupEval("'na' .. 'me'");
+    assertNotSame(first, built);
+    assertEquals(first, built);
+    assertEquals(first.hashCode(), built.hashCode());
+    assertEquals(LuaBoolean.getLuaBool(true), setupEval("'na' .. 'me' == 'name'"));
+
+    // the names returned by the builtins are created once
+    Scope scope = new Scope();
+    setupEval("a = type(1) b = type(2) c = math.type(1) d = math.type(2)", scope);
+    assertSame(scope.getVariable("a"), scope.getVariable("b"));
+    assertSame(scope.getVariable("c"), scope.getVariable("d"));
+
+    String longer = "a".repeat(100);
+    assertNotSame(LuaString.intern(longer), LuaString.intern(longer));
+    assertEquals(LuaString.intern(longer), LuaString.intern(longer));
+  }
+
   @Test
   void testArithmeticExpr() throws IllegalParseException, LuaRuntimeException {
 
@@ -105,6 +136,48 @@ class EvaluatorTest {
     assertThrows(LuaRuntimeException.class, () -> setupEval("-nil"));
   }
 
+  @Test
+  void testIntegerSubtype() throws IllegalParseException, LuaRuntimeException {
+    ArrayList<Tuple<String, Boolean>> tests = new ArrayList<>();
+    tests.add(new Tuple<>("1 + 2", true));
+    tests.add(new Tuple<>("0xff * 2 - 7 % 3", true));
+    tests.add(new Tuple<>("-(2000 * 2000)", true));
+    tests.add(new Tuple<>("#'abc'", true));
+    tests.add(new Tuple<>("'12' + 1", true));
+    tests.add(new Tuple<>("1 + 2.0", false));
+    tests.add(new Tuple<>("4 / 2", false));
+    tests.add(new Tuple<>("2 ^ 2", false));
+    tests.add(new Tuple<>("1.5", false));
+    tests.add(new Tuple<>("3.0", false));
+
+    for (Tuple<String, Boolean> t : tests) {
+      var obj = setupEval(t.x);
+      assertEquals(t.y, ((LuaNumber) obj).isInteger(), t.x);
+    }
+
+    assertEquals("4000000", setupEval("2000 * 2000").repr());
+    assertEquals("2", setupEval("4 / 2").repr());
+    assertEquals("9007199254740993", setupEval("9007199254740992 + 1").repr());
+    // integers and floats with the same value are the same table key
+    assertEquals("b", setupEval("local t = {} t[1] = 'a' t[1.0] = 'b' return t[1]").repr());
+    assertEquals(LuaNumber.valueOf(3), new LuaNumber(3.0));
+    assertEquals(LuaNumber.valueOf(3).hashCode(), new LuaNumber(3.0).hashCode());
+    // integers past 2^53 are compared exactly, not through their rounded double
+    assertNotEquals(LuaNumber.valueOf((1L << 53) + 1), new LuaNumber(0x1p53));
+    assertNotEquals(new LuaNumber(0x1p53), LuaNumber.valueOf((1L << 53) + 1));
+    assertNotEquals(LuaNumber.valueOf(Long.MAX_VALUE), new LuaNumber(0x1p63));
+    assertEquals(
+        "a b",
+        setupEval(
+                "local t = {} t[9007199254740992] = 'a' t[9007199254740993] = 'b' "
+                    + "return t[9007199254740992.0] .. ' ' .. t[9007199254740993]")
+            .repr());
+    // unlike the floats, the integers can't be divided by 0
+    var e = assertThrows(LuaRuntimeException.class, () -> setupEval("7 % 0"));
+    assertEquals("attempt to perform 'n%%0'", e.getMessage());
+    assertTrue(Double.isNaN(((LuaNumber) setupEval("7 % 0.0")).getValue()));
+  }
+
   @Test
   void testHexExpr() throws IllegalParseException, LuaRuntimeException {
 
@@ -257,6 +330,94 @@ class EvaluatorTest {
     }
   }
 
+  @Test
+  void testStringMetatableIsPerProgram() throws IllegalParseException, LuaRuntimeException {
+    String patch =
+        "getmetatable('').__index.upper = function() return 'pwned' end print(('a'):upper())";
+    assertEquals("pwned", Interpreter.eval(patch).strip());
+    assertEquals("A", Interpreter.eval("print(('a'):upper())").strip());
+
+    // a pooled scope forgets the changes of the previous program
+    var out = new ByteArrayOutputStream();
+    Scope scope = new Scope(out);
+    setupEval(patch, scope);
+    scope.reset(out);
+    setupEval("print(('b'):upper())", scope);
+    assertEquals("pwned\nB", out.toString().strip());
+  }
+
+  @Test
+  void testTraceback() {
+    String code =
+        "local function g(x)\n"
+            + "  return x + 1\n"
+            + "end\n"
+            + "local function f()\n"
+            + "  local y = g(nil)\n"
+            + "  return y\n"
+            + "end\n"
+            + "f()";
+    var e = assertThrows(LuaRuntimeException.class, () -> Interpreter.eval(code));
+    assertEquals(List.of("line 5: in function 'g'", "line 8: in function 'f'"), e.getTraceback());
+  }
+
+  private static final String DEPTH =
+      "local function depth(n)\n"
+          + "  if n == 0 then\n"
+          + "    return 0\n"
+          + "  end\n"
+          + "  return 1 + depth(n - 1)\n"
+          + "end\n"
+          + "print(depth(%d))";
+
+  // Evaluates code on a thread with the given stack, like the threads running the programs
+  private static String evalOnStack(String code, Interpreter.Engine engine, long stackSize)
+      throws InterruptedException, LuaRuntimeException, IllegalParseException {
+    Object[] result = new Object[1];
+    Thread thread =
+        new Thread(
+            null,
+            () -> {
+              try {
+                result[0] = Interpreter.eval(code, engine);
+              } catch (Exception e) {
+                result[0] = e;
+              }
+            },
+            "test-evaluation",
+            stackSize);
+    thread.start();
+    thread.join();
+    if (result[0] instanceof LuaRuntimeException) {
+      throw (LuaRuntimeException) result[0];
+    } else if (result[0] instanceof IllegalParseException) {
+      throw (IllegalParseException) result[0];
+    }
+    return (String) result[0];
+  }
+
+  @Test
+  void testDeepRecursion()
+      throws InterruptedException, LuaRuntimeException, IllegalParseException {
+    String code = String.format(DEPTH, 20000);
+    for (var engine : Interpreter.Engine.values()) {
+      assertEquals("20000", evalOnStack(code, engine, Interpreter.STACK_SIZE).strip());
+    }
+  }
+
+  @Test
+  void testStackOverflow()
+      throws InterruptedException, LuaRuntimeException, IllegalParseException {
+    // the AST evaluator recurses on the stack of the calling thread, the VM on the heap
+    String code = String.format(DEPTH, 20000);
+    var e =
+        assertThrows(
+            LuaRuntimeException.class,
+            () -> evalOnStack(code, Interpreter.Engine.AST, 256 << 10));
+    assertEquals("stack overflow", e.getMessage());
+    assertEquals("20000", evalOnStack(code, Interpreter.Engine.VM, 256 << 10).strip());
+  }
+
   @Test
   void testLuaScript() throws IOException, IllegalParseException, LuaRuntimeException {
     Stream<Path> walk = Files.walk(testdata);
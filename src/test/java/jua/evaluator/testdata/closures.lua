@@ -0,0 +1,39 @@
+function counter()
+  local n = 0
+  return function() n = n + 1 return n end
+end
+local c1 = counter()
+local c2 = counter()
+print(c1(), c1(), c2())
+fs = {}
+for i = 1, 3 do
+  fs[i] = function() return i end
+end
+print(fs[1](), fs[2](), fs[3]())
+local function fib(n) if n < 2 then return n end return fib(n-1) + fib(n-2) end
+print(fib(15))
+function outer()
+  local a = 1
+  do
+    local b = 2
+    local function inner() return a + b end
+    b = 10
+    return inner()
+  end
+end
+print(outer())
+local k = 0
+repeat local done = k >= 3 k = k + 1 until done
+print(k)
+function va(...)
+  local function g(...) return select('#', ...) end
+  return g(...)
+end
+print(va(1, 2, 3))
+t = {v = 3}
+function t:get(x) return self.v + x end
+print(t:get(4))
+for k, v in next, {5, 6} do print(k, v) end
+x = 1
+function shadow() local x = x + 1 return x end
+print(shadow(), x)
@@ -0,0 +1,25 @@
+-- strings built piece by piece
+local s = ""
+for i = 1, 100 do
+  s = s .. i .. ","
+end
+print(#s)
+print(s)
+
+-- strings are values, extending one doesn't change the others
+local a = s .. "a"
+local b = s .. "b"
+local c = a .. "c"
+print(#s, #a, #b, #c)
+print(a == s .. "a", b == a, c == s .. "ac")
+
+local t = {}
+t[a] = 1
+t[s .. "a"] = t[s .. "a"] + 1
+print(t[a])
+
+-- chains mix strings and numbers
+local x = 5
+print("x = " .. x .. " and " .. x * 2 .. "!")
+print(("ab" .. "cd") .. ("ef" .. "gh"))
+print(s .. s == s .. s, #(s .. s))
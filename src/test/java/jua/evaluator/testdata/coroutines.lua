@@ -0,0 +1,52 @@
+local function gen(n)
+  return coroutine.wrap(function()
+    for i = 1, n do
+      coroutine.yield(i)
+    end
+  end)
+end
+local g = gen(3)
+print(g())
+print(g())
+print(g())
+local co = coroutine.create(function(a, b)
+  print(coroutine.status(coroutine.running()))
+  local c = coroutine.yield(a + b)
+  print(c)
+  local d, e = coroutine.yield(c * 2)
+  return d + e
+end)
+print(coroutine.status(co))
+local ok, v = coroutine.resume(co, 1, 2)
+print(ok, v)
+print(coroutine.status(co))
+ok, v = coroutine.resume(co, 10)
+print(v)
+ok, v = coroutine.resume(co, 3, 4)
+print(ok, v)
+print(coroutine.status(co))
+ok, v = coroutine.resume(co)
+print(ok, v)
+local bad = coroutine.create(function() local x = nil + 1 end)
+ok, v = coroutine.resume(bad)
+print(ok)
+print(coroutine.status(bad))
+print(coroutine.isyieldable())
+local outer = nil
+outer = coroutine.create(function()
+  local inner = coroutine.create(function()
+    print(coroutine.status(outer))
+    coroutine.yield()
+  end)
+  coroutine.resume(inner)
+  print(coroutine.status(inner))
+  ok, v = coroutine.resume(outer)
+  print(ok, v)
+end)
+coroutine.resume(outer)
+print(type(outer))
+for i = 1, 500 do
+  local c = coroutine.wrap(function() coroutine.yield(i) end)
+  c()
+end
+print("done")
@@ -0,0 +1,48 @@
+-- the receiver of a method call is evaluated once
+local calls = 0
+local counter = {n = 0}
+function counter:add(k)
+  self.n = self.n + k
+  return self
+end
+local function get()
+  calls = calls + 1
+  return counter
+end
+get():add(2)
+print(calls, counter.n)
+
+-- the same field read from tables of different layouts
+local points = {{x = 1}, {a = 1, x = 2}, {a = 1, b = 2, x = 3}, {b = 1, c = 1, d = 1, x = 4}}
+points[5] = {e = 1, f = 1, x = 5}
+points[6] = {x = 6, g = 1}
+local sum = 0
+for i = 1, 3 do
+  for j = 1, 6 do
+    sum = sum + points[j].x
+  end
+end
+print(sum)
+
+-- fields removed and set again
+local p = {x = 1, y = 2}
+p.x = nil
+print(p.x)
+p.x = 3
+p.z = 4
+print(p.x, p.y, p.z)
+
+-- methods of a class shared by its instances
+local Account = {}
+function Account.new(balance)
+  local a = {balance = balance}
+  a.deposit = Account.deposit
+  return a
+end
+function Account:deposit(v)
+  self.balance = self.balance + v
+end
+local a, b = Account.new(10), Account.new(100)
+a:deposit(5)
+b:deposit(50)
+print(a.balance, b.balance)
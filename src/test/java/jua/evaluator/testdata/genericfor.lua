@@ -0,0 +1,41 @@
+local function iter(t, i)
+  i = i + 1
+  local v = t[i]
+  if v ~= nil then
+    return i, v
+  end
+end
+
+local function sum(t)
+  local total = 0
+  for i, v in iter, t, 0 do
+    total = total + i * v
+  end
+  return total
+end
+
+print(sum({1, 2, 3}))
+
+local function keys(t)
+  local n = 0
+  for k, v in next, t do
+    n = n + 1
+  end
+  return n
+end
+
+print(keys({"a", "b", "c"}))
+
+local function nested(t)
+  local function inner()
+    local s = ""
+    for i, v in iter, t, 0 do
+      s = s .. v
+    end
+    return s
+  end
+  return inner()
+end
+
+print(nested({"x", "y", "z"}))
+print(type(sum))
@@ -0,0 +1,29 @@
+print(math.floor(3.7), math.floor(-3.2), math.floor(5), math.ceil(3.2), math.ceil(-3.7))
+print(math.type(math.floor(3.7)), math.type(1), math.type(1.5), math.type('1'))
+print(math.abs(-4), math.abs(4), math.abs(-2.5), math.sqrt(16), math.sqrt(2) * math.sqrt(2) > 1.99)
+print(math.max(3, 9, 2), math.min(3, 9, 2), math.max(1.5, 1), math.min(-1, -1.5))
+print(math.fmod(7, 3), math.fmod(-7, 3), math.fmod(7.5, 2))
+print(math.huge > 10 ^ 300, -math.huge < 0, math.pi > 3.14 and math.pi < 3.15)
+print(math.tointeger(3.0), math.tointeger(3.5), math.tointeger(8))
+print(math.maxinteger + 1 == math.mininteger, math.ult(1, -1))
+local i, f = math.modf(3.25)
+print(i, f)
+print(math.floor(math.log(8, 2) + 0.5), math.log(100, 10), math.exp(0), math.floor(math.cos(0)))
+
+-- random numbers in their ranges
+local ok = true
+for n = 1, 1000 do
+  local x = math.random()
+  local d = math.random(6)
+  local r = math.random(-3, 3)
+  if x < 0 or x >= 1 or d < 1 or d > 6 or r < -3 or r > 3 or math.type(d) ~= 'integer' then
+    ok = false
+  end
+end
+print(ok, math.random(5, 5))
+
+-- the same seed gives the same numbers
+math.randomseed(42)
+local a, b = math.random(1000), math.random(1000)
+math.randomseed(42)
+print(a == math.random(1000) and b == math.random(1000))
@@ -0,0 +1,115 @@
+local Vector = {}
+Vector.__index = Vector
+function Vector.new(x, y)
+  return setmetatable({x = x, y = y}, Vector)
+end
+function Vector:len2()
+  return self.x * self.x + self.y * self.y
+end
+Vector.__add = function(a, b)
+  return Vector.new(a.x + b.x, a.y + b.y)
+end
+Vector.__eq = function(a, b)
+  return a.x == b.x and a.y == b.y
+end
+Vector.__lt = function(a, b)
+  return a:len2() < b:len2()
+end
+Vector.__len = function(v)
+  return 2
+end
+Vector.__concat = function(a, b)
+  if type(a) == "table" then
+    a = "(" .. a.x .. "," .. a.y .. ")"
+  end
+  if type(b) == "table" then
+    b = "(" .. b.x .. "," .. b.y .. ")"
+  end
+  return a .. b
+end
+Vector.__unm = function(v)
+  return Vector.new(-v.x, -v.y)
+end
+Vector.__call = function(v, k)
+  return v.x * k
+end
+local a = Vector.new(1, 2)
+local b = Vector.new(3, 4)
+local c = a + b
+print(c.x, c.y)
+print(c:len2())
+print(a == Vector.new(1, 2))
+print(a ~= b)
+print(a < b)
+print(a <= b)
+print(b > a)
+print(#a)
+print("v=" .. a .. "!")
+print((-a).y)
+print(a(10))
+print(rawequal(a, Vector.new(1, 2)))
+print(getmetatable(a) == Vector)
+
+-- inheritance
+local Animal = {}
+Animal.__index = Animal
+function Animal.new(name)
+  local self = setmetatable({}, Animal)
+  self.name = name
+  return self
+end
+function Animal:speak()
+  return self.name .. " makes a sound"
+end
+local Dog = setmetatable({}, {__index = Animal})
+Dog.__index = Dog
+function Dog.new(name)
+  local self = Animal.new(name)
+  return setmetatable(self, Dog)
+end
+function Dog:fetch()
+  return self.name .. " fetches"
+end
+local d = Dog.new("Rex")
+print(d:speak())
+print(d:fetch())
+
+-- __index function and __newindex
+local log = {}
+local proxy = setmetatable({}, {
+  __index = function(t, k) return k .. "?" end,
+  __newindex = function(t, k, v) rawset(t, k, v * 2) end
+})
+print(proxy.foo)
+proxy.bar = 21
+print(proxy.bar)
+print(rawget(proxy, "foo"))
+print(rawlen({1, 2, 3}))
+
+-- defaults
+local defaults = setmetatable({}, {__index = {color = "red"}})
+print(defaults.color)
+defaults.color = "blue"
+print(defaults.color)
+
+-- metatable added after the lookup fails
+local late = {}
+print(late.x)
+local mt = {}
+setmetatable(late, mt)
+print(late.x)
+mt.__index = {x = 5}
+print(late.x)
+
+-- protected metatables
+local p = setmetatable({}, {__metatable = "locked"})
+print(getmetatable(p))
+
+-- strings
+local s = "hello"
+print(s:upper())
+print(("abc"):rep(2))
+print(s:sub(2, 3))
+print(getmetatable("").__index == string)
+function string.twice(s) return s .. s end
+print(s:twice())
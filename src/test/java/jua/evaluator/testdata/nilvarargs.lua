@@ -0,0 +1,12 @@
+local function count(...)
+  return select('#', ...)
+end
+print(count(1, nil, 3))
+print(count(nil, nil))
+print(count())
+local function forward(a, ...)
+  print(a, ...)
+  return count(...)
+end
+print(forward(0, 1, nil, 3))
+print(forward(0, 1, nil))
@@ -0,0 +1,41 @@
+-- loops which end at the largest or the smallest integer don't wrap around
+local n = 0
+for i = math.maxinteger - 1, math.maxinteger do
+  n = n + 1
+end
+print(n)
+n = 0
+for i = math.mininteger + 1, math.mininteger, -1 do
+  n = n + 1
+end
+print(n)
+n = 0
+for i = math.maxinteger - 5, math.maxinteger, 4 do
+  n = n + 1
+end
+print(n)
+-- a float limit of an integer loop is rounded
+n = 0
+for i = 1, 3.5 do
+  n = n + i
+end
+print(n)
+n = 0
+for i = 3, 0.5, -1 do
+  n = n + i
+end
+print(n)
+n = 0
+for i = 1, 2 ^ 1000 do
+  n = n + 1
+  if n == 3 then
+    break
+  end
+end
+print(n)
+for i = 1, 0 do
+  print('never')
+end
+for i = 1, 2, 0.5 do
+  print(i)
+end
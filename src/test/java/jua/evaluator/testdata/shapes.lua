@@ -0,0 +1,35 @@
+-- records built with the same keys, in the same or in another order
+local function point(x, y)
+  return {x = x, y = y, name = 'p'}
+end
+local a, b = point(1, 2), point(3, 4)
+local c = {name = 'c', y = 6, x = 5}
+print(a.x + b.x + c.x, a.y + b.y + c.y, c.name)
+
+-- fields added after the constructor
+b.z = 10
+print(a.z, b.z, b.name)
+a.z = 20
+print(a.z, b.z)
+
+-- a removed field turns the table into a dictionary
+a.x = nil
+print(a.x, a.y, a.z, a.name)
+a.x = 7
+print(a.x, b.x)
+
+-- as does a large number of fields
+local big = {}
+for i = 1, 40 do
+  big['k' .. i] = i
+end
+local sum = 0
+for i = 1, 40 do
+  sum = sum + big['k' .. i]
+end
+print(sum, big.k1, big.k40, big.k41)
+
+-- string and other keys in the same table
+local mixed = {1, 2, 3, key = 'v', [2.5] = 'half'}
+mixed.other = true
+print(#mixed, mixed.key, mixed[2.5], mixed.other, mixed[3])
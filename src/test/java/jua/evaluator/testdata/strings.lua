@@ -0,0 +1,45 @@
+print(string.len('hello'))
+print(string.sub('hello', 2, -2) .. ' ' .. string.sub('hello', -3) .. ' ' .. string.sub('hello', 10))
+print(string.upper('abc') .. string.lower('DEF') .. string.reverse('ghi'))
+print(string.rep('ab', 3, ','), string.rep('x', 0))
+local b1, b2, b3 = string.byte('ABC', 1, -1)
+print(b1 + b2 + b3, string.char(104, 105))
+
+print(string.format('%5d|%-5s|%05.1f|%x|%X|%%', 42, 'ab', 3.14159, 255, 255))
+print(string.format('%g %g %g %.3g %10.2e', 0.1, 100, 0.00001, 2 / 3, 12345.678))
+print(string.format('%s and %s', 1, true), string.format('%q', 'say "hi"'))
+
+local s, e = string.find('hello world', 'o w')
+print(s, e)
+local s, e, c1, c2 = string.find('hello world', '(o)(r)')
+print(s, e, c1, c2)
+print(string.find('a.b', '.', 1, true), string.find('abc', 'd'), string.find('abc', 'b', -1))
+
+local k, v = string.match('key = value', '(%w+)%s*=%s*(%w+)')
+print(k, v)
+print('[' .. string.match('  trim me  ', '^%s*(.-)%s*$') .. ']')
+local y, m, d = string.match('2024-01-15', '(%d+)-(%d+)-(%d+)')
+print(y + m + d)
+local p1, p2 = string.match('hello', '()ll()')
+print(p1, p2)
+print(string.match('f(a(b)c)d', '%b()'), string.match('xyzzy', '(z)%1'), string.match('hi', '^i'))
+
+local words = {}
+for w in string.gmatch('one two  three', '%a+') do
+  words[#words + 1] = w
+end
+print(#words, words[3])
+local sum = 0
+for n in string.gmatch('1,22,333', '%d+') do
+  sum = sum + n
+end
+print(sum)
+
+print(string.gsub('hello world', 'o', '0'))
+local r, n = string.gsub('hello world', '(%w+)', '<%1>')
+print(r, n)
+print(string.gsub('abc', '%w', '%0%0'), string.gsub('abc', '', '-'), string.gsub('hello', 'l+', 'L', 1))
+print(string.gsub('$name is $age', '%$(%w+)', {name = 'bob', age = 42}))
+print(string.gsub('1 2 3', '%d', function(d) return d * 2 end))
+print(string.gsub('THE (quick) fox', '%f[%a]%a+', 'X'))
+print(string.gsub('a-b_c', '[%-_]', '.'), string.gsub('abc', '[^b]', '*'))
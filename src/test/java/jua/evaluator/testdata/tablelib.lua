@@ -0,0 +1,75 @@
+-- positional insert and remove
+local t = {1, 2, 3, 4}
+table.insert(t, 1, 0)
+table.insert(t, 3, 'x')
+table.insert(t, #t + 1, 5)
+print(table.concat(t, ','))
+print(table.remove(t, 3), table.remove(t), table.remove(t, 1))
+print(table.concat(t, ','), #t)
+local empty = {}
+print(table.remove(empty), #empty)
+
+-- concat ranges
+local words = {'a', 'b', 'c', 'd', 1.5, 2}
+print(table.concat(words), table.concat(words, '-', 2, 4), table.concat(words, ',', 5))
+print('[' .. table.concat(words, ',', 3, 2) .. ']')
+
+-- sort, with the default order and with a comparator
+local nums = {5, 3, 8, 1, 9, 2, 7, 4, 6, 10}
+table.sort(nums)
+print(table.concat(nums, ' '))
+table.sort(nums, function(a, b) return a > b end)
+print(table.concat(nums, ' '))
+local names = {'pear', 'apple', 'fig', 'banana'}
+table.sort(names)
+print(table.concat(names, ' '))
+local people = {{name = 'bob', age = 30}, {name = 'al', age = 25}, {name = 'cy', age = 35}}
+table.sort(people, function(a, b) return a.age < b.age end)
+print(people[1].name, people[2].name, people[3].name)
+
+-- a large list sorted in place
+local big = {}
+for i = 1, 2000 do
+  big[i] = (i * 7919) % 2003
+end
+table.sort(big)
+local sorted = true
+for i = 2, #big do
+  if big[i - 1] > big[i] then
+    sorted = false
+  end
+end
+print(sorted, #big)
+
+-- the comparator is called once per comparison, an inconsistent one is no Java error
+local calls = 0
+table.sort(big, function(a, b)
+  calls = calls + 1
+  return a > b
+end)
+print(big[1], big[#big], calls <= 2000 * 11)
+local same = {}
+for i = 1, 100 do
+  same[i] = i % 3
+end
+table.sort(same, function(a, b) return true end)
+table.sort(same, function(a, b) return a <= b end)
+print(#same)
+
+-- move, overlapping or into another table
+local m = {1, 2, 3, 4, 5}
+table.move(m, 1, 3, 3)
+print(table.concat(m, ','))
+m = {1, 2, 3, 4, 5}
+table.move(m, 2, 5, 1)
+print(table.concat(m, ','))
+local dest = table.move({7, 8, 9}, 1, 3, 2, {0})
+print(table.concat(dest, ','))
+
+-- pack and unpack
+local p = table.pack(10, 20, 30)
+print(p.n, p[3])
+local a, b, c = table.unpack({'x', 'y', 'z'})
+print(a .. b .. c)
+local u, v = table.unpack({1, 2, 3, 4}, 2, 3)
+print(u, v)
@@ -0,0 +1,45 @@
+t = {}
+for i = 1, 100 do
+    table.insert(t, i * 2)
+end
+print(#t)
+print(t[1])
+print(t[100])
+print(t[101])
+
+-- float keys with an integer value are the same keys as integers
+t[2.0] = "two"
+print(t[2])
+
+-- the array part grows when the hash part holds enough positional keys
+s = {}
+for i = 200, 1, -1 do
+    s[i] = i
+end
+print(#s)
+
+table.remove(s, 1)
+print(#s)
+print(s[1])
+print(s[199])
+print(s[200])
+
+-- removed keys can be set again
+h = {}
+for i = 1, 50 do
+    h["k" .. i] = i
+end
+for i = 1, 50 do
+    h["k" .. i] = nil
+end
+print(h.k10)
+h.k10 = "back"
+print(h.k10)
+print(#h)
+
+mixed = {10, 20, 30, x = 1, [1.5] = "float", [true] = "bool"}
+print(#mixed)
+print(mixed.x)
+print(mixed[1.5])
+print(mixed[true])
+print(table.concat(mixed, ","))
@@ -0,0 +1,58 @@
+local function loop(n, acc)
+  if n == 0 then
+    return acc
+  end
+  return loop(n - 1, acc + 1)
+end
+print(loop(300000, 0))
+local even = nil
+local function odd(n)
+  if n == 0 then
+    return false
+  end
+  return even(n - 1)
+end
+even = function(n)
+  if n == 0 then
+    return true
+  end
+  return odd(n - 1)
+end
+print(even(100001))
+local t = {n = 0}
+function t:count(k)
+  if k == 0 then
+    return self.n
+  end
+  self.n = self.n + 1
+  return self:count(k - 1)
+end
+print(t:count(100000))
+local function depth(n)
+  if n == 0 then
+    return 0
+  end
+  return 1 + depth(n - 1)
+end
+print(depth(200))
+local function sum(list, i)
+  if i > #list then
+    return 0
+  end
+  return list[i] + sum(list, i + 1)
+end
+local list = {}
+for i = 1, 100 do
+  list[i] = i
+end
+print(sum(list, 1))
+local callable = setmetatable({}, {__call = function(self, n) return n * 2 end})
+local function forward(n)
+  return callable(n)
+end
+print(forward(21))
+local function multi()
+  return string.find("hello", "l")
+end
+local a, b = multi()
+print(a, b)
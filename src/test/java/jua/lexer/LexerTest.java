@@ -1,8 +1,10 @@
 package jua.lexer;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertIterableEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import jua.evaluator.IllegalLexingException;
 import jua.token.*;
@@ -306,4 +308,25 @@ public class LexerTest {
 
     assertIterableEquals(expected, list);
   }
+
+  @Test
+  void testCharSources() {
+    String in = "local x = 'a' -- comment";
+    ArrayList<Token> expected = new Lexer(in).getNTokens(0);
+
+    char[] chars = ("  " + in + "  ").toCharArray();
+    assertIterableEquals(expected, new Lexer(CharSource.of(chars, 2, in.length())).getNTokens(0));
+    assertIterableEquals(expected, new Lexer(CharSource.of(CharBuffer.wrap(in))).getNTokens(0));
+  }
+
+  @Test
+  void testLongProgram() {
+    // longer than the capacity of a channel
+    String in = "x = 1\n".repeat(20000);
+
+    ArrayList<Token> list = new Lexer(in).getNTokens(0);
+
+    assertEquals(80001, list.size());
+    assertEquals(TokenFactory.create(Special.TokenEOF, 20001, 1), list.get(80000));
+  }
 }
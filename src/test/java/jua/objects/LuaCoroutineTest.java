@@ -0,0 +1,88 @@
+package jua.objects;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import jua.Interpreter;
+import jua.evaluator.LuaRuntimeException;
+import jua.parser.IllegalParseException;
+import org.junit.jupiter.api.Test;
+
+class LuaCoroutineTest {
+
+  @Test
+  void testAbandonedCoroutinesEnd()
+      throws IllegalParseException, LuaRuntimeException, InterruptedException {
+    int before = LuaCoroutine.liveThreads();
+    String code =
+        "local function generator(i)\n"
+            + "  return coroutine.wrap(function() coroutine.yield(i) end)\n"
+            + "end\n"
+            + "local n = 0\n"
+            + "for i = 1, 200 do\n"
+            + "  local gen = generator(i)\n"
+            + "  n = n + gen()\n"
+            + "end\n"
+            + "print(n)";
+    assertEquals("20100", Interpreter.eval(code).strip());
+
+    // the suspended coroutines are unwound once they are collected
+    long deadline = System.nanoTime() + 10_000_000_000L;
+    while (LuaCoroutine.liveThreads() > before && System.nanoTime() < deadline) {
+      System.gc();
+      Thread.sleep(20);
+    }
+    assertTrue(
+        LuaCoroutine.liveThreads() <= before,
+        String.format("%d threads left", LuaCoroutine.liveThreads() - before));
+  }
+
+  @Test
+  void testSuspendedCoroutinesEndWithProgram()
+      throws IllegalParseException, LuaRuntimeException, InterruptedException {
+    int before = LuaCoroutine.liveThreads();
+    // the coroutines are still reachable from the globals when the program ends
+    String code =
+        "cos = {}\n"
+            + "for i = 1, 100 do\n"
+            + "  cos[i] = coroutine.create(function() coroutine.yield(i) end)\n"
+            + "  coroutine.resume(cos[i])\n"
+            + "end\n"
+            + "print(coroutine.status(cos[1]))";
+    assertEquals("suspended", Interpreter.eval(code).strip());
+
+    long deadline = System.nanoTime() + 5_000_000_000L;
+    while (LuaCoroutine.liveThreads() > before && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(
+        LuaCoroutine.liveThreads() <= before,
+        String.format("%d threads left", LuaCoroutine.liveThreads() - before));
+  }
+
+  @Test
+  void testCoroutineLimit() throws IllegalParseException, LuaRuntimeException {
+    String code =
+        "local cos = {}\n"
+            + "for i = 1, %d do\n"
+            + "  cos[i] = coroutine.create(function() end)\n"
+            + "end\n"
+            + "print(#cos)";
+    int max = LuaCoroutine.MAX_COROUTINES;
+    assertEquals(String.valueOf(max), Interpreter.eval(String.format(code, max)).strip());
+    var e =
+        assertThrows(
+            LuaRuntimeException.class, () -> Interpreter.eval(String.format(code, max + 1)));
+    assertEquals("too many coroutines (more than 1000)", e.getMessage());
+
+    // the coroutines which ended don't count
+    String ended =
+        "for i = 1, %d do\n"
+            + "  local co = coroutine.wrap(function() end)\n"
+            + "  co()\n"
+            + "end\n"
+            + "print('done')";
+    assertEquals("done", Interpreter.eval(String.format(ended, 2 * max)).strip());
+  }
+}
@@ -0,0 +1,85 @@
+package jua.objects;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.OutputStream;
+import jua.Interpreter;
+import jua.ScriptCache;
+import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Scope;
+import jua.parser.IllegalParseException;
+import org.junit.jupiter.api.Test;
+
+class ShapeTest {
+
+  @Test
+  void testTransitionsAreShared() {
+    Shape x = Shape.EMPTY.with("testTransitionsAreShared");
+    Shape y = x.with(new String("y"));
+    assertSame(y, x.with("y"));
+    assertEquals(1, y.indexOf(new String("y")));
+    assertSame(LuaString.intern("y"), y.keyString(1));
+  }
+
+  @Test
+  void testTransitionsAreCapped() {
+    Shape parent = Shape.EMPTY.with("testTransitionsAreCapped");
+    Shape[] children = new Shape[Shape.MAX_TRANSITIONS];
+    for (int i = 0; i < children.length; i++) {
+      children[i] = parent.with("k" + i);
+      assertNotNull(children[i]);
+    }
+    assertNull(parent.with("other"));
+    // the known keys still transition
+    assertSame(children[0], parent.with("k0"));
+
+    // tables whose shape has too many children become dictionaries
+    LuaTable table = new LuaTable();
+    table.put("testTransitionsAreCapped", LuaNumber.valueOf(1));
+    table.put("other", LuaNumber.valueOf(2));
+    assertEquals(LuaNumber.valueOf(1), table.get("testTransitionsAreCapped"));
+    assertEquals(LuaNumber.valueOf(2), table.get("other"));
+  }
+
+  @Test
+  void testFirstKeysAreNotCapped() throws IllegalParseException, LuaRuntimeException {
+    // a program keeping tables with many distinct first keys
+    String churn =
+        "keep = {}\n"
+            + "for i = 1, 200 do\n"
+            + "  local t = {}\n"
+            + "  t['testFirstKeysAreNotCapped' .. i] = i\n"
+            + "  keep[i] = t\n"
+            + "end";
+    Scope scope = new Scope(OutputStream.nullOutputStream());
+    new Interpreter(new ScriptCache(1, 1024).get(churn), scope).run();
+
+    // doesn't turn the tables of another program into dictionaries
+    Shape other = Shape.EMPTY.with("testFirstKeysAreNotCappedOther");
+    assertNotNull(other);
+    assertNotNull(other.with("y"));
+    // the tables of the first program are still alive
+    assertNotNull(scope.getVariable("keep"));
+  }
+
+  @Test
+  void testCollectedShapesAreRemoved() throws InterruptedException {
+    Shape parent = Shape.EMPTY.with("testCollectedShapesAreRemoved");
+    for (int i = 0; i < Shape.MAX_TRANSITIONS; i++) {
+      parent.with("k" + i);
+    }
+
+    // the children nothing uses are collected and make room for others
+    Shape other = null;
+    long deadline = System.nanoTime() + 10_000_000_000L;
+    while (other == null && System.nanoTime() < deadline) {
+      System.gc();
+      Thread.sleep(20);
+      other = parent.with("other");
+    }
+    assertNotNull(other);
+  }
+}
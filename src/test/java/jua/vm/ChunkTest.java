@@ -0,0 +1,98 @@
+package jua.vm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Scope;
+import jua.lexer.Lexer;
+import jua.parser.IllegalParseException;
+import jua.parser.Parser;
+import org.junit.jupiter.api.Test;
+
+class ChunkTest {
+
+  private static final Path testdata =
+      Paths.get("src", "test", "java", "jua", "evaluator", "testdata");
+
+  private byte[] compile(String in)
+      throws IllegalParseException, LuaRuntimeException, IOException {
+    Prototype main = Compiler.compile(new Parser(new Lexer(in).getNTokens(0)).parse());
+    var out = new ByteArrayOutputStream();
+    Chunk.write(main, out);
+    return out.toByteArray();
+  }
+
+  private String run(Prototype main) throws LuaRuntimeException {
+    var out = new ByteArrayOutputStream();
+    VM.execute(main, new Scope(out));
+    return out.toString().strip();
+  }
+
+  @Test
+  void testRoundTrip() throws IllegalParseException, LuaRuntimeException, IOException {
+    String code =
+        "local big, x, s = 1 << 40, 2.5, 'h\u00e9llo'\n"
+            + "local function add(a)\n"
+            + "  return function(b) return a + b end\n"
+            + "end\n"
+            + "local inc = add(big)\n"
+            + "print(inc(1), x * 2, #s, s == 'h\u00e9llo')";
+    Prototype main = Chunk.load(ByteBuffer.wrap(compile(code)));
+
+    assertEquals("1099511627777\n5\n5\ntrue", run(main));
+    // the listing shows the same instructions, lines and constants
+    Prototype compiled = Compiler.compile(new Parser(new Lexer(code).getNTokens(0)).parse());
+    assertEquals(compiled.toString(), main.toString());
+  }
+
+  @Test
+  void testFile() throws IllegalParseException, LuaRuntimeException, IOException {
+    Path file = Files.createTempFile("chunk", ".juac");
+    try {
+      Files.write(file, compile("print('from a file')"));
+      assertTrue(Chunk.isChunk(file));
+      assertEquals("from a file", run(Chunk.load(file)));
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test
+  void testInvalidChunks() throws IllegalParseException, LuaRuntimeException, IOException {
+    assertThrows(IOException.class, () -> Chunk.load(ByteBuffer.wrap("print(1)".getBytes())));
+
+    byte[] chunk = compile("print(1)");
+    byte[] truncated = Arrays.copyOf(chunk, chunk.length - 3);
+    assertThrows(IOException.class, () -> Chunk.load(ByteBuffer.wrap(truncated)));
+
+    chunk[4] = 42;
+    assertThrows(IOException.class, () -> Chunk.load(ByteBuffer.wrap(chunk)));
+  }
+
+  @Test
+  void testLuaScript() throws IOException, IllegalParseException, LuaRuntimeException {
+    List<Path> files =
+        Files.walk(testdata)
+            .filter(f -> f.toString().endsWith(".lua"))
+            .collect(Collectors.toList());
+
+    for (var f : files) {
+      byte[] chunk = compile(new String(Files.readAllBytes(f)));
+      String value = run(Chunk.load(ByteBuffer.wrap(chunk)));
+      String expected =
+          new String(Files.readAllBytes(Paths.get(f.toString().replace(".lua", ".expected"))));
+      assertEquals(expected.strip(), value, String.format("File: %s", f));
+    }
+  }
+}
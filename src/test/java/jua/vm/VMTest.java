@@ -0,0 +1,234 @@
+package jua.vm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import jua.Interpreter;
+import jua.evaluator.LuaRuntimeException;
+import jua.evaluator.Scope;
+import jua.lexer.Lexer;
+import jua.parser.IllegalParseException;
+import jua.parser.Parser;
+import org.junit.jupiter.api.Test;
+import util.Tuple;
+
+class VMTest {
+
+  // the VM runs the same scripts as the AST evaluator
+  private static final Path testdata =
+      Paths.get("src", "test", "java", "jua", "evaluator", "testdata");
+
+  private String run(String in) throws IllegalParseException, LuaRuntimeException {
+    return Interpreter.eval(in, Interpreter.Engine.VM).strip();
+  }
+
+  // Runs in the AST evaluator, functions are compiled after threshold calls
+  private String runTiered(String in, int threshold)
+      throws IllegalParseException, LuaRuntimeException {
+    var out = new ByteArrayOutputStream();
+    Scope scope = new Scope(out);
+    scope.setTierThreshold(threshold);
+    new Parser(new Lexer(in).getNTokens(0)).parse().evaluate(scope);
+    return out.toString().strip();
+  }
+
+  @Test
+  void testExpressions() throws IllegalParseException, LuaRuntimeException {
+    ArrayList<Tuple<String, String>> tests = new ArrayList<>();
+    tests.add(new Tuple<>("print(1 + 2 * 3)", "7"));
+    tests.add(new Tuple<>("local x = 5 print(x - 9, -x, 2 ^ 3)", "-4\n-5\n8"));
+    tests.add(new Tuple<>("print('a' .. 1 .. 'b')", "a1b"));
+    tests.add(new Tuple<>("print(#'abc', #{1, 2})", "3\n2"));
+    tests.add(new Tuple<>("print(1 < 2, 2 <= 1, 3 > 2)", "true\nfalse\ntrue"));
+    tests.add(new Tuple<>("print(1 >= 1, 1 == 1, 1 ~= 1)", "true\ntrue\nfalse"));
+    tests.add(new Tuple<>("print(nil and 1, false or 2, 1 and nil, not nil)", "nil\n2\nnil\ntrue"));
+    tests.add(new Tuple<>("print(5 & 3, 5 | 3, 5 ~ 3)", "1\n7\n6"));
+    tests.add(new Tuple<>("print(1 << 4, 16 >> 2, ~0)", "16\n4\n-1"));
+    tests.add(new Tuple<>("local t = {x = 1, [2] = 'b'} t.y = t.x + 1 print(t.y, t[2])", "2\nb"));
+
+    for (Tuple<String, String> t : tests) {
+      assertEquals(t.y, run(t.x), t.x);
+    }
+  }
+
+  @Test
+  void testLocals() throws IllegalParseException, LuaRuntimeException {
+    ArrayList<Tuple<String, String>> tests = new ArrayList<>();
+    tests.add(
+        new Tuple<>(
+            "function f() local a, b = 1 local c = a + 1 return a, b, c end"
+                + " local x, y, z = f() print(x, y, z)",
+            "1\nnil\n2"));
+    tests.add(
+        new Tuple<>(
+            "function f() local a, b = 1, 2 a, b = b, a return a, b end"
+                + " local x, y = f() print(x, y)",
+            "2\n1"));
+    tests.add(
+        new Tuple<>(
+            "function f() local x = 1 do local x = 2 end return x end print(f())", "1"));
+    tests.add(
+        new Tuple<>(
+            "function f() local s = 0 for i = 1, 10, 3 do s = s + i end return s end print(f())",
+            "22"));
+    tests.add(
+        new Tuple<>(
+            "function f() local i = 0 while true do i = i + 1 if i > 3 then break end end return i"
+                + " end print(f())",
+            "4"));
+
+    for (Tuple<String, String> t : tests) {
+      assertEquals(t.y, run(t.x), t.x);
+    }
+  }
+
+  @Test
+  void testUpvalues() throws IllegalParseException, LuaRuntimeException {
+    ArrayList<Tuple<String, String>> tests = new ArrayList<>();
+    tests.add(
+        new Tuple<>(
+            "function counter() local n = 0 return function() n = n + 1 return n end end"
+                + " local c = counter() local d = counter() c() print(c(), d())",
+            "2\n1"));
+    tests.add(
+        new Tuple<>(
+            "function f() local fs = {} for i = 1, 3 do fs[i] = function() return i end end"
+                + " return fs[1]() + fs[3]() end print(f())",
+            "4"));
+    tests.add(
+        new Tuple<>(
+            "function f() local x = 1 local function g() return function() return x end end"
+                + " x = 2 local h = g() return h() end print(f())",
+            "2"));
+
+    for (Tuple<String, String> t : tests) {
+      assertEquals(t.y, run(t.x), t.x);
+    }
+  }
+
+  @Test
+  void testTiered() throws IllegalParseException, LuaRuntimeException {
+    ArrayList<Tuple<String, String>> tests = new ArrayList<>();
+    tests.add(
+        new Tuple<>(
+            "function fib(n) if n < 2 then return n end return fib(n - 1) + fib(n - 2) end"
+                + " print(fib(15))",
+            "610"));
+    // the compiled function reads and writes the locals of the interpreted one
+    tests.add(
+        new Tuple<>(
+            "function f() local n = 0 local function inc(k) n = n + k end"
+                + " for i = 1, 10 do inc(i) end return n end print(f())",
+            "55"));
+    tests.add(
+        new Tuple<>(
+            "do local t = {} for i = 1, 5 do local x = i * 2"
+                + " t[i] = function() x = x + 1 return x end end print(t[2](), t[2](), t[5]()) end",
+            "5\n6\n11"));
+    tests.add(
+        new Tuple<>(
+            "function f(...) local a, b = ... return b end print(f(1, 2), f(3, 4))", "2\n4"));
+
+    for (Tuple<String, String> t : tests) {
+      assertEquals(t.y, runTiered(t.x, 3), t.x);
+      assertEquals(runTiered(t.x, 0), runTiered(t.x, 3), t.x);
+    }
+  }
+
+  @Test
+  void testTieredLoopsAndClosures() throws IllegalParseException, LuaRuntimeException {
+    // compiled after its third call, every loop and closure must behave as in the evaluator
+    String code =
+        "local function iter(t, i) i = i + 1 if t[i] ~= nil then return i, t[i] end end\n"
+            + "local function f(t)\n"
+            + "  local fs = {}\n"
+            + "  local s = 0\n"
+            + "  for i, v in iter, t, 0 do fs[i] = function() s = s + v return s end end\n"
+            + "  for i = 1, #fs do fs[i]() end\n"
+            + "  local n = 0\n"
+            + "  while n < 3 do n = n + 1 end\n"
+            + "  repeat n = n - 1 until n == 0\n"
+            + "  for k, v in next, t do n = n + k end\n"
+            + "  return s + n\n"
+            + "end\n"
+            + "for i = 1, 10 do print(f({i, 2, 3})) end";
+    assertEquals(runTiered(code, 0), runTiered(code, 3));
+    assertEquals(run(code), runTiered(code, 3));
+  }
+
+  @Test
+  void testErrors() {
+    assertThrows(LuaRuntimeException.class, () -> run("local x = nil x()"));
+    assertThrows(LuaRuntimeException.class, () -> run("print(1 < 'a')"));
+    assertThrows(LuaRuntimeException.class, () -> run("function f() return ... end"));
+  }
+
+  @Test
+  void testTraceback() {
+    String code =
+        "local function g(x)\n"
+            + "  return x + 1\n"
+            + "end\n"
+            + "local function f()\n"
+            + "  local y = g(nil)\n"
+            + "  return y\n"
+            + "end\n"
+            + "f()";
+    var e = assertThrows(LuaRuntimeException.class, () -> run(code));
+    // the calls between closures run on the frames of the VM
+    assertEquals(
+        List.of("line 2: in function 'g'", "line 5: in function 'f'"),
+        e.getTraceback().subList(0, 2));
+  }
+
+  @Test
+  void testDisassembly() throws IllegalParseException, LuaRuntimeException {
+    Prototype main =
+        Compiler.compile(new Parser(new Lexer("local x = 1 + 2 print(x)").getNTokens(0)).parse());
+    String listing = main.toString();
+    assertEquals(true, listing.startsWith("function main chunk"), listing);
+    assertEquals(true, listing.contains("GETGLOBAL"), listing);
+    assertEquals(true, listing.contains("CALL"), listing);
+  }
+
+  @Test
+  void testLuaScript() throws IOException, IllegalParseException, LuaRuntimeException {
+    Stream<Path> walk = Files.walk(testdata);
+
+    List<Path> files = walk.filter(f -> f.toString().endsWith(".lua")).collect(Collectors.toList());
+
+    int count = 0;
+    for (var f : files) {
+      String value = run(new String(Files.readAllBytes(f)));
+      count++;
+      String expected =
+          new String(Files.readAllBytes(Paths.get(f.toString().replace(".lua", ".expected"))));
+      assertEquals(expected.strip(), value, String.format("File: %s", f));
+    }
+    System.out.printf("%d tests ran on lua scripts with the VM\n", count);
+  }
+
+  @Test
+  void testTieredLuaScript() throws IOException, IllegalParseException, LuaRuntimeException {
+    Stream<Path> walk = Files.walk(testdata);
+
+    List<Path> files = walk.filter(f -> f.toString().endsWith(".lua")).collect(Collectors.toList());
+
+    for (var f : files) {
+      // every function is compiled from its second call
+      String value = runTiered(new String(Files.readAllBytes(f)), 2);
+      String expected =
+          new String(Files.readAllBytes(Paths.get(f.toString().replace(".lua", ".expected"))));
+      assertEquals(expected.strip(), value, String.format("File: %s", f));
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class BufferedChannelTest {
+
+  @Test
+  void testPeekAndRead() throws InterruptedException {
+    BufferedChannel<String> channel = new BufferedChannel<>(3);
+    assertEquals(4, channel.capacity());
+
+    channel.addAll(List.of("a", "b", "c"));
+    assertEquals("a", channel.peek());
+    assertEquals("c", channel.peek(2));
+    assertNull(channel.peek(-1));
+    assertEquals("a", channel.read());
+    channel.skip();
+    channel.add("d");
+    channel.close();
+
+    assertEquals("d", channel.peek(1));
+    assertNull(channel.peek(2));
+    assertEquals("c", channel.read());
+    assertEquals("d", channel.read());
+    assertNull(channel.read());
+    assertNull(channel.peek());
+    assertThrows(IllegalStateException.class, () -> channel.add("e"));
+  }
+
+  @Test
+  void testLookaheadLimit() throws InterruptedException {
+    BufferedChannel<String> channel = new BufferedChannel<>(2);
+    channel.add("a");
+    assertThrows(IllegalArgumentException.class, () -> channel.peek(2));
+  }
+
+  private void transfer(BufferedChannel.WaitStrategy waitStrategy, int n)
+      throws InterruptedException {
+    // smaller than the number of elements so that both sides have to wait
+    BufferedChannel<Integer> channel = new BufferedChannel<>(16, waitStrategy);
+    Thread producer =
+        new Thread(
+            () -> {
+              try {
+                List<Integer> batch = new ArrayList<>();
+                for (int i = 0; i < n; i++) {
+                  if (i % 2 == 0) {
+                    channel.add(i);
+                  } else {
+                    batch.add(i);
+                  }
+                  if (batch.size() == 37) {
+                    channel.addAll(batch);
+                    batch.clear();
+                  }
+                }
+                channel.addAll(batch);
+              } catch (InterruptedException e) {
+                e.printStackTrace();
+              }
+              channel.close();
+            });
+    producer.start();
+
+    long sum = 0;
+    int count = 0;
+    Integer i;
+    while ((i = channel.read()) != null) {
+      sum += i;
+      count++;
+    }
+    producer.join();
+
+    assertEquals(n, count);
+    assertEquals((long) n * (n - 1) / 2, sum);
+  }
+
+  @Test
+  void testTransfer() throws InterruptedException {
+    transfer(BufferedChannel.WaitStrategy.PARK, 100000);
+    // fewer elements, the spinning side may have to wait for the other to be scheduled
+    transfer(BufferedChannel.WaitStrategy.SPIN, 10000);
+  }
+}
@@ -0,0 +1,149 @@
+package util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import org.junit.jupiter.api.Test;
+
+class CoalescingOutputStreamTest {
+
+  // Records the chunks it receives, one per flush
+  private static class ChunkRecorder extends ByteArrayOutputStream {
+    final List<String> chunks = new ArrayList<>();
+
+    @Override
+    public synchronized void flush() {
+      chunks.add(toString());
+      reset();
+    }
+  }
+
+  @Test
+  void testCoalescesIntoChunks() throws IOException {
+    ChunkRecorder out = new ChunkRecorder();
+    CoalescingOutputStream stream = new CoalescingOutputStream(out, 8, 60000);
+    for (int i = 0; i < 10; i++) {
+      stream.write(("" + i).getBytes());
+      stream.write('\n');
+      stream.flush();
+    }
+    stream.finish();
+
+    assertEquals(List.of("0\n1\n2\n3\n", "4\n5\n6\n7\n", "8\n9\n"), out.chunks);
+    assertThrows(IOException.class, () -> stream.write('x'));
+  }
+
+  @Test
+  void testLargeWritesAreNotCopied() throws IOException {
+    ChunkRecorder out = new ChunkRecorder();
+    CoalescingOutputStream stream = new CoalescingOutputStream(out, 4, 60000);
+    stream.write("ab".getBytes());
+    stream.write("0123456789".getBytes());
+    stream.write("cd".getBytes());
+    stream.finish();
+
+    assertEquals(List.of("ab", "0123456789", "cd"), out.chunks);
+  }
+
+  @Test
+  void testFlushAfterDelay() throws IOException, InterruptedException {
+    ChunkRecorder out = new ChunkRecorder();
+    CoalescingOutputStream stream = new CoalescingOutputStream(out, 1024, 20);
+    stream.write("a".getBytes());
+    stream.flush();
+    assertEquals(List.of(), out.chunks);
+
+    Thread.sleep(40);
+    stream.write("b".getBytes());
+    stream.flush();
+    assertEquals(List.of("ab"), out.chunks);
+  }
+
+  // Waits for out to have received n chunks
+  private static void awaitChunks(ChunkRecorder out, int n) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (System.currentTimeMillis() < deadline) {
+      synchronized (out) {
+        if (out.chunks.size() >= n) {
+          return;
+        }
+      }
+      Thread.sleep(5);
+    }
+  }
+
+  @Test
+  void testScheduledFlush() throws IOException, InterruptedException {
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    ExecutorService sender = Executors.newCachedThreadPool();
+    try {
+      ChunkRecorder out = new ChunkRecorder();
+      CoalescingOutputStream stream = new CoalescingOutputStream(out, 1024, 20, scheduler, sender);
+      stream.write("a".getBytes());
+      stream.flush();
+
+      awaitChunks(out, 1);
+      synchronized (out) {
+        assertEquals(List.of("a"), out.chunks);
+      }
+      stream.finish();
+      assertEquals(1, out.chunks.size());
+    } finally {
+      scheduler.shutdown();
+      sender.shutdown();
+    }
+  }
+
+  @Test
+  void testSlowReader() throws IOException, InterruptedException {
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    ExecutorService sender = Executors.newCachedThreadPool();
+    CountDownLatch read = new CountDownLatch(1);
+    try {
+      // a reader which doesn't read until it is told to
+      ChunkRecorder slowOut =
+          new ChunkRecorder() {
+            @Override
+            public void flush() {
+              try {
+                read.await();
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              super.flush();
+            }
+          };
+      ChunkRecorder out = new ChunkRecorder();
+      CoalescingOutputStream slow =
+          new CoalescingOutputStream(slowOut, 1024, 20, scheduler, sender);
+      CoalescingOutputStream stream = new CoalescingOutputStream(out, 1024, 20, scheduler, sender);
+      slow.write("a".getBytes());
+      Thread.sleep(50);
+
+      // the other streams are still sent, and the slow one can still be written to
+      stream.write("b".getBytes());
+      awaitChunks(out, 1);
+      synchronized (out) {
+        assertEquals(List.of("b"), out.chunks);
+      }
+      slow.write("c".getBytes());
+
+      read.countDown();
+      slow.finish();
+      stream.finish();
+      assertEquals(List.of("a", "c"), slowOut.chunks);
+    } finally {
+      read.countDown();
+      scheduler.shutdown();
+      sender.shutdown();
+    }
+  }
+}